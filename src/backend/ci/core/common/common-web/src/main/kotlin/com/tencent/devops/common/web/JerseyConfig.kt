@@ -47,6 +47,7 @@ import com.tencent.devops.common.web.handler.RemoteServiceExceptionMapper
 import com.tencent.devops.common.web.handler.RuntimeExceptionMapper
 import com.tencent.devops.common.web.handler.UnauthorizedExceptionMapper
 import org.glassfish.jersey.media.multipart.MultiPartFeature
+import org.glassfish.jersey.message.GZipEncoder
 import org.glassfish.jersey.server.ResourceConfig
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.InitializingBean
@@ -81,6 +82,8 @@ open class JerseyConfig : ResourceConfig(), ApplicationContextAware, Initializin
         register(RuntimeExceptionMapper::class.java)
         register(AllExceptionMapper::class.java)
         register(MultiPartFeature::class.java)
+        // 解压Content-Encoding为gzip的请求体，如构建机上报的日志
+        register(GZipEncoder::class.java)
         register(PipelineAlreadyExistExceptionMapper::class.java)
         register(CustomExceptionMapper::class.java)
         register(PermissionForbiddenExceptionMapper::class.java)
@@ -235,6 +235,9 @@ interface UserLogResource {
         executeCount: Int?,
         @ApiParam("文件名", required = false)
         @QueryParam("fileName")
-        fileName: String?
+        fileName: String?,
+        @ApiParam("是否gzip压缩下载", required = false)
+        @QueryParam("gzip")
+        gzip: Boolean?
     ): Response
 }
\ No newline at end of file
@@ -0,0 +1,115 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.log.jmx.v2
+
+import org.springframework.jmx.export.annotation.ManagedAttribute
+import org.springframework.jmx.export.annotation.ManagedResource
+import org.springframework.stereotype.Component
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 日志异步批量写入ES的指标
+ */
+@Component
+@ManagedResource(objectName = "com.tencent.devops.log.v2:type=logs,operation=bulk", description = "log bulk index performance")
+class LogBulkBeanV2 {
+
+    private val bulkCount = AtomicLong(0)
+    private val bulkElapse = AtomicLong(0)
+    private val calculateCount = AtomicLong(0)
+    private val bulkFailureCount = AtomicLong(0)
+    private val bulkLineCount = AtomicLong(0)
+    private val failureLineCount = AtomicLong(0)
+    private val retryLineCount = AtomicLong(0)
+    private val requeueLineCount = AtomicLong(0)
+    private val rejectCount = AtomicLong(0)
+    private val queueBytes = AtomicLong(0)
+
+    @Synchronized
+    fun bulk(elapse: Long, lines: Int, failureLines: Int) {
+        bulkCount.incrementAndGet()
+        calculateCount.incrementAndGet()
+        bulkElapse.addAndGet(elapse)
+        bulkLineCount.addAndGet(lines.toLong())
+        if (failureLines > 0) {
+            bulkFailureCount.incrementAndGet()
+            failureLineCount.addAndGet(failureLines.toLong())
+        }
+    }
+
+    fun retry(lines: Int) {
+        retryLineCount.addAndGet(lines.toLong())
+    }
+
+    fun requeue(lines: Int) {
+        requeueLineCount.addAndGet(lines.toLong())
+    }
+
+    fun reject() {
+        rejectCount.incrementAndGet()
+    }
+
+    fun setQueueBytes(bytes: Long) {
+        queueBytes.set(bytes)
+    }
+
+    @Synchronized
+    @ManagedAttribute
+    fun getBulkPerformance(): Double {
+        val elapse = bulkElapse.getAndSet(0)
+        val count = calculateCount.getAndSet(0)
+        return if (count == 0L) {
+            0.0
+        } else {
+            elapse.toDouble() / count
+        }
+    }
+
+    @ManagedAttribute
+    fun getBulkCount() = bulkCount.get()
+
+    @ManagedAttribute
+    fun getBulkFailureCount() = bulkFailureCount.get()
+
+    @ManagedAttribute
+    fun getBulkLineCount() = bulkLineCount.get()
+
+    @ManagedAttribute
+    fun getFailureLineCount() = failureLineCount.get()
+
+    @ManagedAttribute
+    fun getRetryLineCount() = retryLineCount.get()
+
+    @ManagedAttribute
+    fun getRequeueLineCount() = requeueLineCount.get()
+
+    @ManagedAttribute
+    fun getRejectCount() = rejectCount.get()
+
+    @ManagedAttribute
+    fun getQueueBytes() = queueBytes.get()
+}
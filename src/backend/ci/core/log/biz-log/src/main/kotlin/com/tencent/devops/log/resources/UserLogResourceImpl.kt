@@ -169,7 +169,8 @@ class UserLogResourceImpl @Autowired constructor(
         subTag: String?,
         jobId: String?,
         executeCount: Int?,
-        fileName: String?
+        fileName: String?,
+        gzip: Boolean?
     ): Response {
         validateAuth(userId, projectId, pipelineId, buildId)
         return logDispatcher.downloadLogs(
@@ -180,7 +181,8 @@ class UserLogResourceImpl @Autowired constructor(
             subTag = subTag ?: "",
             jobId = jobId,
             executeCount = executeCount,
-            fileName = fileName
+            fileName = fileName,
+            gzip = gzip
         )
     }
 
@@ -0,0 +1,403 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.log.service
+
+import com.google.common.collect.MapMaker
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import com.tencent.devops.common.api.exception.OperationException
+import com.tencent.devops.common.es.ESClient
+import com.tencent.devops.common.log.pojo.LogBatchEvent
+import com.tencent.devops.common.log.pojo.message.LogMessageWithLineNo
+import com.tencent.devops.common.log.utils.LogMQEventDispatcher
+import com.tencent.devops.log.client.LogClient
+import com.tencent.devops.log.jmx.v2.LogBulkBeanV2
+import org.elasticsearch.action.bulk.BackoffPolicy
+import org.elasticsearch.action.bulk.BulkProcessor
+import org.elasticsearch.action.bulk.BulkRequest
+import org.elasticsearch.action.bulk.BulkResponse
+import org.elasticsearch.action.index.IndexRequest
+import org.elasticsearch.common.unit.ByteSizeUnit
+import org.elasticsearch.common.unit.ByteSizeValue
+import org.elasticsearch.common.unit.TimeValue
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Component
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import javax.annotation.PreDestroy
+import kotlin.concurrent.read
+import kotlin.concurrent.withLock
+import kotlin.concurrent.write
+
+/**
+ * 日志异步批量写入ES
+ * 每个ES集群一个BulkProcessor，各构建的日志在节点内合并，按条数、大小或时间阈值触发一次bulk写入；
+ * 日志索引按天划分，同一时刻的日志基本都写入同一个索引。
+ * 待写入的日志大小超过上限时提交线程阻塞等待，超时后拒绝，由MQ消费者延迟重新投递；
+ * 写入失败的日志重试一次，仍然失败的按原事件交还MQ重新投递
+ */
+@Component
+class LogBulkIndexer @Autowired constructor(
+    private val client: LogClient,
+    private val logBulkBeanV2: LogBulkBeanV2,
+    private val logMQEventDispatcher: LogMQEventDispatcher,
+    @Value("\${log.bulk.actions:2000}")
+    private val bulkActions: Int,
+    @Value("\${log.bulk.sizeMb:5}")
+    private val bulkSizeMb: Long,
+    @Value("\${log.bulk.flushIntervalMills:1000}")
+    private val flushIntervalMills: Long,
+    @Value("\${log.bulk.concurrentRequests:4}")
+    private val concurrentRequests: Int,
+    @Value("\${log.bulk.maxQueueMb:256}")
+    private val maxQueueMb: Long,
+    @Value("\${log.bulk.queueTimeoutMills:5000}")
+    private val queueTimeoutMills: Long
+) {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(LogBulkIndexer::class.java)
+        private const val TYPE_MISSING = "TypeMissingException"
+        private const val REQUEUE_DELAY_MILLS = 3 * 1000
+    }
+
+    private val processors = ConcurrentHashMap<String/*ES集群*/, BulkProcessor>()
+
+    private val bulkStartTimes = ConcurrentHashMap<String, Long>()
+
+    private val maxQueueBytes = maxQueueMb * 1024 * 1024
+
+    private val queueLock = ReentrantLock()
+
+    private val queueNotFull = queueLock.newCondition()
+
+    @Volatile
+    private var queueBytes = 0L
+
+    /**
+     * 加入BulkProcessor的过程与关闭互斥，保证一批日志要么全部加入，要么一条都不加入
+     */
+    private val closeLock = ReentrantReadWriteLock()
+
+    @Volatile
+    private var closed = false
+
+    /**
+     * 还没有写入成功的日志及其所属的事件，写入请求被回收后自动移除
+     */
+    private val pendingLines: ConcurrentMap<IndexRequest, BulkLine> = MapMaker().weakKeys().makeMap()
+
+    private val retryExecutor = Executors.newSingleThreadExecutor(
+        ThreadFactoryBuilder().setNameFormat("log-bulk-retry-%d").setDaemon(true).build()
+    )
+
+    @Volatile
+    private var typeMissingHandler: ((buildId: String) -> Unit)? = null
+
+    /**
+     * 设置索引类型不存在时重建索引的处理，重建后失败的日志重试一次
+     */
+    fun setTypeMissingHandler(handler: (buildId: String) -> Unit) {
+        typeMissingHandler = handler
+    }
+
+    /**
+     * 提交一个日志事件的写入请求，[lines]为事件中的日志及其对应的写入请求
+     * 待写入的日志超过上限时阻塞等待，超时后抛出异常，由调用方稍后重试；
+     * 抛出异常时没有任何日志被加入，调用方重新投递整个事件不会产生重复日志
+     */
+    fun add(event: LogBatchEvent, lines: List<Pair<LogMessageWithLineNo, IndexRequest>>) {
+        if (lines.isEmpty()) {
+            return
+        }
+        // 先整体构造批量请求估算大小，请求不合法时在加入任何日志之前失败
+        val bytes = estimateBytes(lines.map { it.second })
+        if (!acquire(bytes)) {
+            logBulkBeanV2.reject()
+            throw OperationException("The log bulk queue is full, reject ${lines.size} lines of build ${event.buildId}")
+        }
+
+        var added = 0
+        try {
+            closeLock.read {
+                if (closed) {
+                    throw OperationException("The log bulk indexer is closed, reject ${lines.size} lines of build ${event.buildId}")
+                }
+                val processor = getProcessor(client.hashClient(event.buildId))
+                // BulkProcessor只在关闭后拒绝加入，关闭需要等待这里释放读锁，所以后面的加入不会失败
+                lines.forEach { (line, request) ->
+                    pendingLines[request] = BulkLine(event, line)
+                    processor.add(request)
+                    added++
+                }
+            }
+        } catch (e: Exception) {
+            // 未加入的日志不会被写入，归还占用的队列大小
+            val remaining = lines.subList(added, lines.size)
+            remaining.forEach { pendingLines.remove(it.second) }
+            release(estimateBytes(remaining.map { it.second }))
+            if (added == 0) {
+                throw e
+            }
+            // 部分日志已经加入，不能再让整个事件重新投递，只把剩余的日志交还MQ
+            logger.warn("[${event.buildId}] Fail to add ${remaining.size}/${lines.size} lines to bulk, requeue them", e)
+            requeue(remaining.map { BulkLine(event, it.first) })
+        }
+    }
+
+    @PreDestroy
+    fun destroy() {
+        closeLock.write {
+            closed = true
+        }
+        processors.forEach { (name, processor) ->
+            try {
+                if (!processor.awaitClose(30, TimeUnit.SECONDS)) {
+                    logger.warn("[$name] Timeout to close the log bulk processor")
+                }
+            } catch (ignored: InterruptedException) {
+                logger.warn("[$name] Interrupted while closing the log bulk processor")
+            }
+        }
+        retryExecutor.shutdown()
+    }
+
+    protected fun createProcessor(name: String, esClient: ESClient, listener: BulkProcessor.Listener): BulkProcessor {
+        logger.info("[$name] Create the log bulk processor: $bulkActions|${bulkSizeMb}MB|${flushIntervalMills}ms|$concurrentRequests")
+        return BulkProcessor.builder(esClient.client, listener)
+            .setName("log-bulk-$name")
+            .setBulkActions(bulkActions)
+            .setBulkSize(ByteSizeValue(bulkSizeMb, ByteSizeUnit.MB))
+            .setFlushInterval(TimeValue.timeValueMillis(flushIntervalMills))
+            .setConcurrentRequests(concurrentRequests)
+            .setBackoffPolicy(BackoffPolicy.exponentialBackoff(TimeValue.timeValueMillis(100), 3))
+            .build()
+    }
+
+    private fun getProcessor(esClient: ESClient): BulkProcessor {
+        return processors.computeIfAbsent(esClient.name) { name ->
+            createProcessor(name, esClient, BulkListener(name))
+        }
+    }
+
+    private fun acquire(bytes: Long): Boolean {
+        var waitNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMills)
+        queueLock.withLock {
+            // 队列为空时总是放行，避免单批日志超过上限时永远无法写入
+            while (queueBytes > 0 && queueBytes + bytes > maxQueueBytes) {
+                if (waitNanos <= 0) {
+                    return false
+                }
+                waitNanos = queueNotFull.awaitNanos(waitNanos)
+            }
+            queueBytes += bytes
+        }
+        logBulkBeanV2.setQueueBytes(queueBytes)
+        return true
+    }
+
+    /**
+     * 重试的日志不等待队列空间，避免阻塞重试线程
+     */
+    private fun reserve(bytes: Long) {
+        queueLock.withLock {
+            queueBytes += bytes
+        }
+        logBulkBeanV2.setQueueBytes(queueBytes)
+    }
+
+    private fun release(bytes: Long) {
+        queueLock.withLock {
+            queueBytes -= bytes
+            queueNotFull.signalAll()
+        }
+        logBulkBeanV2.setQueueBytes(queueBytes)
+    }
+
+    private fun estimateBytes(requests: List<IndexRequest>): Long {
+        if (requests.isEmpty()) {
+            return 0
+        }
+        val bulkRequest = BulkRequest()
+        requests.forEach { bulkRequest.add(it) }
+        return bulkRequest.estimatedSizeInBytes()
+    }
+
+    /**
+     * 失败的日志重试一次，索引类型不存在时先重建索引；重试过仍然失败的日志交还MQ
+     * 在单独的线程中重新提交，BulkProcessor的回调线程中提交可能因为并发数已满而死锁
+     */
+    private fun retry(clientName: String, failedRequests: List<IndexRequest>, typeMissing: Boolean) {
+        val retryRequests = mutableListOf<IndexRequest>()
+        val requeueLines = mutableListOf<BulkLine>()
+        failedRequests.forEach { request ->
+            val line = pendingLines[request] ?: return@forEach
+            if (line.retried) {
+                pendingLines.remove(request)
+                requeueLines.add(line)
+            } else {
+                line.retried = true
+                retryRequests.add(request)
+            }
+        }
+        if (requeueLines.isNotEmpty()) {
+            logger.error("[$clientName] ${requeueLines.size} lines still failed after retry, requeue them")
+            requeue(requeueLines)
+        }
+        if (retryRequests.isEmpty()) {
+            return
+        }
+        try {
+            retryExecutor.execute { doRetry(clientName, retryRequests, typeMissing) }
+        } catch (ignored: Throwable) {
+            logger.error("[$clientName] Fail to schedule the retry of ${retryRequests.size} lines", ignored)
+            requeue(retryRequests.mapNotNull { pendingLines.remove(it) })
+        }
+    }
+
+    private fun doRetry(clientName: String, retryRequests: List<IndexRequest>, typeMissing: Boolean) {
+        var added = 0
+        try {
+            if (typeMissing) {
+                retryRequests.groupBy { it.index() }.forEach { (index, requests) ->
+                    val buildId = requests.first().sourceAsMap()["buildId"]?.toString() ?: return@forEach
+                    logger.warn("[$buildId|$index] Add bulk lines failed because of TypeMissingException, attempting to add index")
+                    typeMissingHandler?.invoke(buildId)
+                }
+            }
+            reserve(estimateBytes(retryRequests))
+            try {
+                closeLock.read {
+                    if (closed) {
+                        throw OperationException("The log bulk indexer is closed")
+                    }
+                    val processor = processors[clientName]
+                        ?: throw OperationException("The log bulk processor $clientName is not exist")
+                    retryRequests.forEach {
+                        processor.add(it)
+                        added++
+                    }
+                }
+            } catch (e: Exception) {
+                release(estimateBytes(retryRequests.subList(added, retryRequests.size)))
+                throw e
+            }
+            logBulkBeanV2.retry(retryRequests.size)
+        } catch (ignored: Throwable) {
+            logger.error("[$clientName] Fail to retry ${retryRequests.size - added} lines, requeue them", ignored)
+            requeue(retryRequests.subList(added, retryRequests.size).mapNotNull { pendingLines.remove(it) })
+        }
+    }
+
+    /**
+     * 按原事件把日志交还MQ，与LogListener的重新投递一样递减重试次数
+     */
+    private fun requeue(lines: List<BulkLine>) {
+        val eventLines = IdentityHashMap<LogBatchEvent, MutableList<LogMessageWithLineNo>>()
+        lines.forEach { eventLines.getOrPut(it.event) { mutableListOf() }.add(it.line) }
+        eventLines.forEach { (event, logs) ->
+            if (event.retryTime >= 0) {
+                logMQEventDispatcher.dispatch(LogBatchEvent(event.buildId, logs, event.retryTime - 1, REQUEUE_DELAY_MILLS))
+                logBulkBeanV2.requeue(logs.size)
+            } else {
+                logger.error("[${event.buildId}] Drop ${logs.size} lines which retry too many times")
+            }
+        }
+    }
+
+    /**
+     * 待写入的一行日志
+     */
+    private class BulkLine(val event: LogBatchEvent, val line: LogMessageWithLineNo) {
+        @Volatile
+        var retried = false
+    }
+
+    private inner class BulkListener(private val clientName: String) : BulkProcessor.Listener {
+
+        override fun beforeBulk(executionId: Long, request: BulkRequest) {
+            bulkStartTimes["$clientName:$executionId"] = System.currentTimeMillis()
+        }
+
+        override fun afterBulk(executionId: Long, request: BulkRequest, response: BulkResponse) {
+            if (!response.hasFailures()) {
+                afterBulk(executionId, request, emptyList(), false)
+                return
+            }
+            val failedItems = response.items.filter { it.isFailed }
+            logger.warn("[$clientName] Bulk $executionId has ${failedItems.size}/${request.numberOfActions()} " +
+                "failed lines: ${failedItems.first().failureMessage}")
+            afterBulk(
+                executionId = executionId,
+                request = request,
+                failedRequests = failedItems.map { request.requests()[it.itemId] as IndexRequest },
+                typeMissing = failedItems.any { it.failureMessage?.contains(TYPE_MISSING) == true }
+            )
+        }
+
+        override fun afterBulk(executionId: Long, request: BulkRequest, failure: Throwable) {
+            logger.warn("[$clientName] Bulk $executionId of ${request.numberOfActions()} lines failed", failure)
+            afterBulk(
+                executionId = executionId,
+                request = request,
+                failedRequests = request.requests().map { it as IndexRequest },
+                typeMissing = failure.toString().contains(TYPE_MISSING)
+            )
+        }
+
+        private fun afterBulk(
+            executionId: Long,
+            request: BulkRequest,
+            failedRequests: List<IndexRequest>,
+            typeMissing: Boolean
+        ) {
+            val startTime = bulkStartTimes.remove("$clientName:$executionId")
+            val elapse = if (startTime == null) 0L else System.currentTimeMillis() - startTime
+            logBulkBeanV2.bulk(elapse, request.numberOfActions(), failedRequests.size)
+            release(request.estimatedSizeInBytes())
+
+            // 写入成功的日志不再需要交还MQ
+            val failedSet = Collections.newSetFromMap(IdentityHashMap<IndexRequest, Boolean>())
+            failedSet.addAll(failedRequests)
+            request.requests().filterIsInstance<IndexRequest>().forEach {
+                if (!failedSet.contains(it)) {
+                    pendingLines.remove(it)
+                }
+            }
+            if (failedRequests.isNotEmpty()) {
+                retry(clientName, failedRequests, typeMissing)
+            }
+        }
+    }
+}
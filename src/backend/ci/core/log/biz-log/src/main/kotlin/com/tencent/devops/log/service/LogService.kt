@@ -27,6 +27,7 @@
 package com.tencent.devops.log.service
 
 import com.google.common.cache.CacheBuilder
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import com.tencent.devops.common.api.pojo.Page
 import com.tencent.devops.common.event.pojo.pipeline.PipelineBuildFinishBroadCastEvent
 import com.tencent.devops.common.redis.RedisLock
@@ -46,6 +47,7 @@ import com.tencent.devops.common.log.pojo.QueryLogs
 import com.tencent.devops.common.log.pojo.QueryLineNo
 import com.tencent.devops.common.log.pojo.enums.LogStatus
 import com.tencent.devops.common.log.pojo.enums.LogType
+import com.tencent.devops.log.util.AnsiUtils
 import com.tencent.devops.log.util.Constants
 import com.tencent.devops.log.util.ESIndexUtils.getIndexSettings
 import com.tencent.devops.log.util.ESIndexUtils.getTypeMappings
@@ -59,19 +61,32 @@ import org.elasticsearch.index.query.Operator
 import org.elasticsearch.index.query.QueryBuilders
 import org.elasticsearch.indices.IndexClosedException
 import org.elasticsearch.search.SearchHits
+import org.elasticsearch.search.aggregations.AggregationBuilders
+import org.elasticsearch.search.aggregations.metrics.max.Max
+import org.elasticsearch.search.aggregations.metrics.min.Min
 import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder
 import org.elasticsearch.search.sort.SortOrder
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.stereotype.Service
+import java.io.BufferedWriter
 import java.io.IOException
-import java.sql.Date
-import java.text.SimpleDateFormat
+import java.io.OutputStreamWriter
+import java.time.Instant
+import java.time.ZoneId
+import java.time.format.DateTimeFormatter
 import java.util.Arrays
+import java.util.LinkedList
 import java.util.TreeSet
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.FutureTask
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 import java.util.stream.Collectors
 import java.util.stream.LongStream
+import java.util.zip.GZIPOutputStream
 import javax.ws.rs.core.MediaType
 import javax.ws.rs.core.Response
 import javax.ws.rs.core.StreamingOutput
@@ -88,18 +103,45 @@ class LogService @Autowired constructor(
     private val createIndexBeanV2: CreateIndexBeanV2,
     private val logBeanV2: LogBeanV2,
     private val redisOperation: RedisOperation,
-    private val logMQEventDispatcher: LogMQEventDispatcher
+    private val logMQEventDispatcher: LogMQEventDispatcher,
+    private val logBulkIndexer: LogBulkIndexer,
+    @Value("\${log.download.threads:16}")
+    private val downloadThreads: Int,
+    @Value("\${log.download.parallelism:4}")
+    private val downloadParallelism: Int,
+    @Value("\${log.download.sliceLines:10000}")
+    private val downloadSliceLines: Long
 ) {
 
     companion object {
         private val logger = LoggerFactory.getLogger(LogService::class.java)
+        private const val DOWNLOAD_PAGE_SIZE = 5000
+        private const val DOWNLOAD_TIMEOUT_SECONDS = 120L
+        private const val DOWNLOAD_QUEUE_CHECK_MILLS = 1000L
+        private const val DOWNLOAD_BUFFER_SIZE = 64 * 1024
+        private val DOWNLOAD_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss:SSS")
+            .withZone(ZoneId.systemDefault())
     }
 
+    /**
+     * 日志下载的查询线程池，所有下载共用，每次下载同时查询的区间数由downloadParallelism限制，
+     * 区间的查询超时从开始执行时计算，在线程池中排队的时间不算超时
+     */
+    private val downloadExecutor = Executors.newFixedThreadPool(
+        max(downloadThreads, 1),
+        ThreadFactoryBuilder().setNameFormat("log-download-%d").setDaemon(true).build()
+    )
+
     private val indexCache = CacheBuilder.newBuilder()
         .maximumSize(100000)
         .expireAfterAccess(30, TimeUnit.MINUTES)
         .build<String/*BuildId*/, Boolean/*Has create the index*/>()
 
+    init {
+        // 批量写入时索引类型不存在，重建索引后重试
+        logBulkIndexer.setTypeMissingHandler { buildId -> startLog(buildId, true) }
+    }
+
     fun pipelineFinish(event: PipelineBuildFinishBroadCastEvent) {
         with(event) {
             logger.info("[$projectId|$pipelineId|$buildId] build finish")
@@ -117,16 +159,17 @@ class LogService @Autowired constructor(
         val currentEpoch = System.currentTimeMillis()
         var success = false
         try {
-            val logMessages = event.logs
-            val buf = mutableListOf<LogMessageWithLineNo>()
-            logMessages.forEach {
-                buf.add(it)
-                if (buf.size == 200) {
-                    doAddMultiLines(buf, event.buildId)
-                    buf.clear()
-                }
+            val indexAndType = indexService.getIndexAndType(event.buildId)
+            val lines = event.logs.mapNotNull { logMessage ->
+                indexRequestBuilder(
+                    buildId = event.buildId,
+                    logMessage = logMessage,
+                    index = indexAndType.index,
+                    type = indexAndType.type
+                )?.request()?.let { logMessage to it }
             }
-            if (buf.isNotEmpty()) doAddMultiLines(buf, event.buildId)
+            // 与其他构建的日志合并后异步写入，队列满时阻塞等待，超时拒绝后由LogListener延迟重新投递
+            logBulkIndexer.add(event, lines)
             success = true
         } finally {
             val elapse = System.currentTimeMillis() - currentEpoch
@@ -436,7 +479,8 @@ class LogService @Autowired constructor(
         subTag: String?,
         jobId: String?,
         executeCount: Int?,
-        fileName: String?
+        fileName: String?,
+        gzip: Boolean? = false
     ): Response {
         val indexAndType = indexService.getIndexAndType(buildId)
 
@@ -449,52 +493,124 @@ class LogService @Autowired constructor(
         )
             .must(QueryBuilders.matchQuery("logType", LogType.LOG.name).operator(Operator.AND))
 
-        var scrollResp = client.prepareSearch(buildId, indexAndType.index)
-            .setTypes(indexAndType.type)
-            .setQuery(query)
-            .addDocValueField("lineNo")
-            .addDocValueField("timestamp")
-            .addSort("lineNo", SortOrder.ASC)
-            .setScroll(TimeValue(1000 * 64))
-            .setSize(4000)
-            .get()
+        val lineNoRange = getLineNoRange(buildId, indexAndType.index, indexAndType.type, query)
+        // 按行号划分区间，多个区间并行查询、格式化，按区间顺序流式写出
+        val slices = LinkedList<DownloadSlice>()
+        var nextLineNo = lineNoRange?.first ?: 0L
+        val submitNext: () -> Unit = {
+            if (lineNoRange != null && nextLineNo <= lineNoRange.second) {
+                val from = nextLineNo
+                val to = min(from + downloadSliceLines, lineNoRange.second + 1)
+                val slice = DownloadSlice(Callable {
+                    getDownloadSlice(buildId, indexAndType.index, indexAndType.type, query, from, to)
+                })
+                downloadExecutor.execute(slice)
+                slices.add(slice)
+                nextLineNo = to
+            }
+        }
+        repeat(max(downloadParallelism, 1)) { submitNext() }
+        // 第一个区间在返回响应前查完，查询失败时直接返回错误，而不是返回200后写出不完整的文件
+        val firstSlice = try {
+            slices.poll()?.await()
+        } catch (e: Exception) {
+            slices.forEach { it.cancel(true) }
+            logger.warn("[$buildId] Fail to download the first log slice", e)
+            throw (e.cause ?: e)
+        }
 
-        val sdf = SimpleDateFormat("yyyy-MM-dd HH:mm:ss:SSS")
-        // 一边读一边流式下载
         val fileStream = StreamingOutput { output ->
-            do {
-                val sb = StringBuilder()
-                scrollResp.hits.hits.forEach { searchHit ->
-                    val sourceMap = searchHit.source
-
-                    val logLine = LogLine(
-                        sourceMap["lineNo"].toString().toLong(),
-                        sourceMap["timestamp"].toString().toLong(),
-                        sourceMap["message"].toString().removePrefix("\u001b[31m").removePrefix("\u001b[1m").replace(
-                            "\u001B[m",
-                            ""
-                        ).removeSuffix("\u001b[m"),
-                        Constants.DEFAULT_PRIORITY_NOT_DELETED
-                    )
-                    val dateTime = sdf.format(Date(logLine.timestamp))
-                    val str = "$dateTime : ${logLine.message}" + System.lineSeparator()
-                    sb.append(str)
+            val gzipOutput = if (gzip == true) GZIPOutputStream(output, DOWNLOAD_BUFFER_SIZE) else null
+            val writer = BufferedWriter(OutputStreamWriter(gzipOutput ?: output, Charsets.UTF_8), DOWNLOAD_BUFFER_SIZE)
+            try {
+                var slice = firstSlice
+                while (slice != null) {
+                    submitNext()
+                    writer.write(slice)
+                    writer.flush()
+                    slice = slices.poll()?.await()
                 }
-                output.write(sb.toString().toByteArray())
-                output.flush()
-                scrollResp = client.prepareSearchScroll(buildId, scrollResp.scrollId)
-                    .setScroll(TimeValue(1000 * 64)).execute().actionGet()
-            } while (scrollResp.hits.hits.isNotEmpty())
+            } finally {
+                // 客户端断开或查询失败时取消未完成的区间
+                slices.forEach { it.cancel(true) }
+            }
+            writer.flush()
+            gzipOutput?.finish()
+            output.flush()
         }
 
         val resultName = fileName ?: "$pipelineId-$buildId-log"
+        val suffix = if (gzip == true) "log.gz" else "log"
         return Response
             .ok(fileStream, MediaType.APPLICATION_OCTET_STREAM_TYPE)
-            .header("content-disposition", "attachment; filename = $resultName.log")
+            .header("content-disposition", "attachment; filename = $resultName.$suffix")
             .header("Cache-Control", "no-cache")
             .build()
     }
 
+    /**
+     * 查询符合条件的日志行号范围，没有日志时返回null
+     */
+    private fun getLineNoRange(
+        buildId: String,
+        index: String,
+        type: String,
+        query: BoolQueryBuilder
+    ): Pair<Long, Long>? {
+        val response = client.prepareSearch(buildId, index)
+            .setTypes(type)
+            .setQuery(query)
+            .setSize(0)
+            .addAggregation(AggregationBuilders.min("minLineNo").field("lineNo"))
+            .addAggregation(AggregationBuilders.max("maxLineNo").field("lineNo"))
+            .get(TimeValue.timeValueSeconds(DOWNLOAD_TIMEOUT_SECONDS))
+        if (response.hits.totalHits == 0L) {
+            return null
+        }
+        val minLineNo = response.aggregations.get<Min>("minLineNo").value.toLong()
+        val maxLineNo = response.aggregations.get<Max>("maxLineNo").value.toLong()
+        return Pair(minLineNo, maxLineNo)
+    }
+
+    /**
+     * 查询行号在[from, to)之间的日志并格式化，按行号search_after分页，不使用scroll
+     */
+    private fun getDownloadSlice(
+        buildId: String,
+        index: String,
+        type: String,
+        query: BoolQueryBuilder,
+        from: Long,
+        to: Long
+    ): String {
+        val sliceQuery = QueryBuilders.boolQuery()
+            .filter(query)
+            .filter(QueryBuilders.rangeQuery("lineNo").gte(from).lt(to))
+        val sb = StringBuilder()
+        var searchAfter: Array<Any>? = null
+        do {
+            val request = client.prepareSearch(buildId, index)
+                .setTypes(type)
+                .setQuery(sliceQuery)
+                .setFetchSource(arrayOf("timestamp", "message"), null)
+                .addSort("lineNo", SortOrder.ASC)
+                .setSize(DOWNLOAD_PAGE_SIZE)
+            if (searchAfter != null) {
+                request.searchAfter(searchAfter)
+            }
+            val hits = request.get(TimeValue.timeValueSeconds(DOWNLOAD_TIMEOUT_SECONDS)).hits.hits
+            hits.forEach { searchHit ->
+                val sourceMap = searchHit.source
+                val timestamp = sourceMap["timestamp"].toString().toLong()
+                sb.append(DOWNLOAD_TIME_FORMATTER.format(Instant.ofEpochMilli(timestamp))).append(" : ")
+                AnsiUtils.appendWithoutAnsi(sb, sourceMap["message"]?.toString() ?: "")
+                sb.append(System.lineSeparator())
+            }
+            searchAfter = hits.lastOrNull()?.sortValues
+        } while (hits.size == DOWNLOAD_PAGE_SIZE)
+        return sb.toString()
+    }
+
     fun getEndLogs(
         pipelineId: String,
         buildId: String,
@@ -1904,58 +2020,6 @@ class LogService @Autowired constructor(
         return Pair(beginIndex!!, endIndex!!)
     }
 
-    private fun doAddMultiLines(logMessages: List<LogMessageWithLineNo>, buildId: String): Int {
-
-        val indexAndType = indexService.getIndexAndType(buildId)
-
-        var lines = 0
-        val bulkRequestBuilder = client.prepareBulk(buildId)
-        for (i in logMessages.indices) {
-            val logMessage = logMessages[i]
-
-            val indexRequestBuilder = indexRequestBuilder(
-                buildId = buildId,
-                logMessage = logMessage,
-                index = indexAndType.index,
-                type = indexAndType.type
-            )
-            if (indexRequestBuilder != null) {
-                bulkRequestBuilder.add(indexRequestBuilder)
-                lines++
-            }
-        }
-        try {
-            // 注意，在 bulk 下，TypeMissingException 不会抛出，需要判断 bulkResponse.hasFailures() 抛出
-            val bulkResponse = bulkRequestBuilder.get()
-            return if (bulkResponse.hasFailures()) {
-                throw Exception(bulkResponse.buildFailureMessage())
-            } else {
-                lines
-            }
-        } catch (ex: Exception) {
-            val exString = ex.toString()
-            if (exString.contains("TypeMissingException")) {
-                logger.error(
-                    "[$buildId] Add bulk lines failed because of TypeMissingException, attempting to add index. [$logMessages]",
-                    ex
-                )
-
-                startLog(buildId, true)
-
-                val bulkResponse = bulkRequestBuilder.get(TimeValue.timeValueSeconds(60))
-                return if (bulkResponse.hasFailures()) {
-                    logger.error(bulkResponse.buildFailureMessage())
-                    0
-                } else {
-                    lines
-                }
-            } else {
-                logger.error("[$buildId] Add bulk lines failed because of unknown Exception. [$logMessages]", ex)
-                throw ex
-            }
-        }
-    }
-
     private fun indexRequestBuilder(
         buildId: String,
         logMessage: LogMessageWithLineNo,
@@ -1982,14 +2046,15 @@ class LogService @Autowired constructor(
         }
 
         var startLineNum: Long = lineNum
-        return logMessages.map {
+        val subTags = mutableMapOf<String, MutableSet<String>>()
+        val logMessagesWithLineNo = logMessages.map {
             val timestamp = if (it.timestamp == 0L) {
                 System.currentTimeMillis()
             } else {
                 it.timestamp
             }
             if (!it.subTag.isNullOrBlank()) {
-                logTagService.saveSubTag(buildId, it.tag, it.subTag!!)
+                subTags.getOrPut(it.tag) { mutableSetOf() }.add(it.subTag!!)
             }
             LogMessageWithLineNo(
                 tag = it.tag,
@@ -2002,6 +2067,11 @@ class LogService @Autowired constructor(
                 executeCount = it.executeCount
             )
         }
+        // 一批日志的子标签合并后保存一次
+        if (subTags.isNotEmpty()) {
+            logTagService.saveSubTags(buildId, subTags)
+        }
+        return logMessagesWithLineNo
     }
 
     private fun startLog(buildId: String, force: Boolean = false): Boolean {
@@ -2067,4 +2137,37 @@ class LogService @Autowired constructor(
             .get(TimeValue.timeValueSeconds(30))
         return response.isExists
     }
+
+    /**
+     * 日志下载的一个查询区间，等待结果的超时从区间开始执行时计算
+     */
+    private class DownloadSlice(callable: Callable<String>) : FutureTask<String>(callable) {
+
+        @Volatile
+        private var startTime = 0L
+
+        override fun run() {
+            startTime = System.currentTimeMillis()
+            super.run()
+        }
+
+        fun await(): String {
+            while (true) {
+                val started = startTime
+                val waitMills = if (started > 0) {
+                    started + TimeUnit.SECONDS.toMillis(DOWNLOAD_TIMEOUT_SECONDS) - System.currentTimeMillis()
+                } else {
+                    // 还在线程池中排队，等一会儿再看是否开始执行
+                    DOWNLOAD_QUEUE_CHECK_MILLS
+                }
+                try {
+                    return get(max(waitMills, 1), TimeUnit.MILLISECONDS)
+                } catch (e: TimeoutException) {
+                    if (started > 0) {
+                        throw e
+                    }
+                }
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -175,7 +175,8 @@ class LogServiceDispatcher @Autowired constructor(
         jobId: String?,
         executeCount: Int?,
         fileName: String?,
-        subTag: String? = null
+        subTag: String? = null,
+        gzip: Boolean? = false
     ): Response {
         return logService.downloadLogs(
             pipelineId = pipelineId,
@@ -184,7 +185,8 @@ class LogServiceDispatcher @Autowired constructor(
             subTag = subTag,
             jobId = jobId,
             executeCount = executeCount,
-            fileName = fileName
+            fileName = fileName,
+            gzip = gzip
         )
     }
 
@@ -26,6 +26,7 @@
 
 package com.tencent.devops.log.service
 
+import com.google.common.cache.CacheBuilder
 import com.tencent.devops.common.api.util.JsonUtil
 import com.tencent.devops.common.redis.RedisLock
 import com.tencent.devops.common.redis.RedisOperation
@@ -34,6 +35,8 @@ import org.jooq.DSLContext
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.stereotype.Service
+import java.util.Date
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 
 @Service
@@ -47,23 +50,61 @@ class LogTagService @Autowired constructor(
         private val logger = LoggerFactory.getLogger(LogTagService::class.java)
         private const val LOG_SUBTAG = "log:build:tag:subTags:"
         private const val LOG_SUBTAG_LOCK = "log:build:tag:subTags:distribute:lock:"
+        private const val LOG_SUBTAG_SET = "log:build:tag:subTagSet:"
         fun getSubTagsRedisKey(buildId: String, tagName: String) = LOG_SUBTAG + genBuildIdAndTagKey(buildId, tagName)
         private fun getBuildId(buildIdAndTag: String) = buildIdAndTag.split(':').first()
         private fun getTagName(buildIdAndTag: String) = buildIdAndTag.split(':').last()
         private fun genBuildIdAndTagKey(buildId: String, tag: String) = "$buildId:$tag"
     }
 
+    /**
+     * 本节点已确认保存过的子标签，key为buildId:tag
+     */
+    private val localSubTags = CacheBuilder.newBuilder()
+        .maximumSize(10000)
+        .expireAfterAccess(30, TimeUnit.MINUTES)
+        .build<String, MutableSet<String>>()
+
     fun saveSubTag(buildId: String, tagName: String, subTag: String) {
-        val originSubTags = getSubTags(buildId, tagName)
-        if (originSubTags?.contains(subTag) == true) return
+        saveSubTags(buildId, mapOf(tagName to setOf(subTag)))
+    }
 
-        val subTags = mutableListOf(subTag)
-        if (originSubTags != null) subTags.addAll(originSubTags)
+    /**
+     * 保存一批日志中出现的子标签
+     * 先查本地缓存，本地没有的再用redis集合去重，只有SADD成功的子标签才写DB，每个标签一次；
+     * 只有确认已经保存的子标签才进入本地缓存
+     * @param subTags: 标签 -> 子标签集合
+     */
+    fun saveSubTags(buildId: String, subTags: Map<String, Set<String>>) {
+        subTags.forEach { (tagName, tagSubTags) ->
+            val buildIdAndTag = genBuildIdAndTagKey(buildId, tagName)
+            val knownSubTags = localSubTags.get(buildIdAndTag) { ConcurrentHashMap.newKeySet() }
+            val unknownSubTags = tagSubTags.filterNot { knownSubTags.contains(it) }
+            if (unknownSubTags.isEmpty()) {
+                return@forEach
+            }
 
-        logTagDao.save(dslContext, buildId, tagName, JsonUtil.toJson(subTags))
-        saveSubTagsToRedis(buildId, tagName, JsonUtil.toJson(subTags))
+            val setKey = LOG_SUBTAG_SET + buildIdAndTag
+            val newSubTags = unknownSubTags.filter { (redisOperation.sadd(setKey, it) ?: 0L) > 0 }
+            if (newSubTags.isNotEmpty()) {
+                redisOperation.expireAt(setKey, Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)))
+                try {
+                    persistSubTags(buildId, tagName, newSubTags)
+                } catch (e: Exception) {
+                    // 写DB失败时撤销SADD，由后续日志重试
+                    newSubTags.forEach { redisOperation.sremove(setKey, it) }
+                    throw e
+                }
+                knownSubTags.addAll(newSubTags)
+            }
 
-        logger.info("[$buildId|$tagName] Create new subTag in db and redis: $subTag")
+            // SADD失败的子标签由其他节点负责写DB，对方可能还没写完或写入失败，确认已经保存后才缓存
+            val otherSubTags = unknownSubTags.filterNot { newSubTags.contains(it) }
+            if (otherSubTags.isNotEmpty()) {
+                val savedSubTags = getSubTags(buildId, tagName) ?: emptyList()
+                knownSubTags.addAll(otherSubTags.filter { savedSubTags.contains(it) })
+            }
+        }
     }
 
     fun getSubTags(buildId: String, tagName: String): List<String>? {
@@ -81,6 +122,31 @@ class LogTagService @Autowired constructor(
         }
     }
 
+    private fun persistSubTags(buildId: String, tagName: String, newSubTags: List<String>) {
+        val redisLock = RedisLock(redisOperation, LOG_SUBTAG_LOCK + genBuildIdAndTagKey(buildId, tagName), 10)
+        try {
+            redisLock.lock()
+            val originSubTagsStr = redisOperation.get(getSubTagsRedisKey(buildId, tagName))
+                ?: logTagDao.getSubTags(dslContext, buildId, tagName)
+            val originSubTags: List<String> = if (originSubTagsStr == null) {
+                emptyList()
+            } else {
+                JsonUtil.getObjectMapper().readValue(originSubTagsStr, List::class.java) as List<String>
+            }
+            val addSubTags = newSubTags.filterNot { originSubTags.contains(it) }
+            if (addSubTags.isEmpty()) return
+
+            // 与逐条保存时的顺序一致，后出现的子标签在前
+            val subTags = JsonUtil.toJson(addSubTags.asReversed() + originSubTags)
+            logTagDao.save(dslContext, buildId, tagName, subTags)
+            redisOperation.set(getSubTagsRedisKey(buildId, tagName), subTags, TimeUnit.DAYS.toSeconds(1))
+
+            logger.info("[$buildId|$tagName] Create new subTag in db and redis: $addSubTags")
+        } finally {
+            redisLock.unlock()
+        }
+    }
+
     private fun saveSubTagsToRedis(buildId: String, tagName: String, subTags: String) {
         val redisLock = RedisLock(redisOperation, LOG_SUBTAG_LOCK + genBuildIdAndTagKey(buildId, tagName), 10)
         try {
@@ -0,0 +1,72 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.log.util
+
+object AnsiUtils {
+
+    private const val ESC = '\u001b'
+
+    /**
+     * 去掉日志中的ANSI控制序列(ESC[参数...结束符，如颜色\u001b[31m、\u001b[1m、\u001b[m)后追加到sb，
+     * 只遍历一次，没有控制序列时直接追加
+     */
+    fun appendWithoutAnsi(sb: StringBuilder, message: String) {
+        val start = message.indexOf(ESC)
+        if (start < 0) {
+            sb.append(message)
+            return
+        }
+        sb.append(message, 0, start)
+        val length = message.length
+        var i = start
+        while (i < length) {
+            val c = message[i]
+            if (c == ESC && i + 1 < length && message[i + 1] == '[') {
+                // 参数和中间字节在0x20-0x3F之间，以0x40-0x7E结束
+                var end = i + 2
+                while (end < length && message[end] in ' '..'?') {
+                    end++
+                }
+                if (end < length && message[end] in '@'..'~') {
+                    i = end + 1
+                    continue
+                }
+            }
+            sb.append(c)
+            i++
+        }
+    }
+
+    fun removeAnsi(message: String): String {
+        if (message.indexOf(ESC) < 0) {
+            return message
+        }
+        val sb = StringBuilder(message.length)
+        appendWithoutAnsi(sb, message)
+        return sb.toString()
+    }
+}
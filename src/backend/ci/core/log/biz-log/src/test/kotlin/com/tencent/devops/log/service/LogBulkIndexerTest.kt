@@ -0,0 +1,212 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.log.service
+
+import com.nhaarman.mockito_kotlin.any
+import com.nhaarman.mockito_kotlin.doAnswer
+import com.nhaarman.mockito_kotlin.mock
+import com.nhaarman.mockito_kotlin.whenever
+import com.tencent.devops.common.api.exception.OperationException
+import com.tencent.devops.common.es.ESClient
+import com.tencent.devops.common.log.pojo.LogBatchEvent
+import com.tencent.devops.common.log.pojo.message.LogMessageWithLineNo
+import com.tencent.devops.common.log.utils.LogMQEventDispatcher
+import com.tencent.devops.log.client.LogClient
+import com.tencent.devops.log.jmx.v2.LogBulkBeanV2
+import org.elasticsearch.action.bulk.BulkProcessor
+import org.elasticsearch.action.bulk.BulkRequest
+import org.elasticsearch.action.bulk.BulkResponse
+import org.elasticsearch.action.index.IndexRequest
+import org.junit.After
+import org.junit.Assert
+import org.junit.Test
+import org.springframework.amqp.core.MessagePostProcessor
+import org.springframework.amqp.rabbit.core.RabbitTemplate
+import java.util.Collections
+
+class LogBulkIndexerTest {
+
+    private val buildId = "b-12345678901234567890123456789012"
+
+    private val logBulkBeanV2 = LogBulkBeanV2()
+
+    /**
+     * 加入BulkProcessor的日志，测试中手动触发bulk回调
+     */
+    private val addedRequests = Collections.synchronizedList(mutableListOf<IndexRequest>())
+
+    private val dispatchedEvents = Collections.synchronizedList(mutableListOf<LogBatchEvent>())
+
+    private var listener: BulkProcessor.Listener? = null
+
+    private lateinit var indexer: LogBulkIndexer
+
+    private fun createIndexer(maxQueueMb: Long, queueTimeoutMills: Long): LogBulkIndexer {
+        val processor: BulkProcessor = mock()
+        whenever(processor.add(any<IndexRequest>())).thenAnswer {
+            addedRequests.add(it.getArgument(0))
+            processor
+        }
+        val logClient: LogClient = mock()
+        whenever(logClient.hashClient(any())).thenReturn(ESClient("test", mock()))
+        val rabbitTemplate: RabbitTemplate = mock()
+        doAnswer {
+            dispatchedEvents.add(it.getArgument(2))
+            null
+        }.whenever(rabbitTemplate).convertAndSend(any<String>(), any<String>(), any<Any>(), any<MessagePostProcessor>())
+
+        indexer = object : LogBulkIndexer(
+            client = logClient,
+            logBulkBeanV2 = logBulkBeanV2,
+            logMQEventDispatcher = LogMQEventDispatcher(rabbitTemplate),
+            bulkActions = 2000,
+            bulkSizeMb = 5,
+            flushIntervalMills = 1000,
+            concurrentRequests = 1,
+            maxQueueMb = maxQueueMb,
+            queueTimeoutMills = queueTimeoutMills
+        ) {
+            override fun createProcessor(name: String, esClient: ESClient, listener: BulkProcessor.Listener): BulkProcessor {
+                this@LogBulkIndexerTest.listener = listener
+                return processor
+            }
+        }
+        return indexer
+    }
+
+    @After
+    fun tearDown() {
+        indexer.destroy()
+    }
+
+    @Test
+    fun acquireBlocksUntilBulkReleased() {
+        createIndexer(maxQueueMb = 1, queueTimeoutMills = 200)
+        // 每批约600KB，第二批超过1MB上限
+        val first = event(1, 600 * 1024)
+        indexer.add(first, lines(first))
+        val firstBytes = logBulkBeanV2.getQueueBytes()
+        Assert.assertTrue(firstBytes > 600 * 1024)
+
+        val second = event(1, 600 * 1024)
+        try {
+            indexer.add(second, lines(second))
+            Assert.fail("the second batch should be rejected")
+        } catch (ignored: OperationException) {
+        }
+        Assert.assertEquals(1, logBulkBeanV2.getRejectCount())
+        Assert.assertEquals(1, addedRequests.size)
+        Assert.assertEquals(firstBytes, logBulkBeanV2.getQueueBytes())
+
+        // 第一批写入完成后归还占用的大小，第二批可以加入
+        bulkSucceed(1, addedRequests.toList())
+        Assert.assertEquals(0, logBulkBeanV2.getQueueBytes())
+        indexer.add(second, lines(second))
+        Assert.assertEquals(2, addedRequests.size)
+        Assert.assertTrue(dispatchedEvents.isEmpty())
+    }
+
+    @Test
+    fun retryOnceThenRequeue() {
+        createIndexer(maxQueueMb = 256, queueTimeoutMills = 200)
+        val event = event(3, 100)
+        indexer.add(event, lines(event))
+        val bytes = logBulkBeanV2.getQueueBytes()
+        val firstRequests = addedRequests.toList()
+        Assert.assertEquals(3, firstRequests.size)
+
+        // 第一次失败后在重试线程中重新加入，重新占用队列大小
+        bulkFail(1, firstRequests)
+        waitUntil { addedRequests.size == 6 }
+        Assert.assertEquals(bytes, logBulkBeanV2.getQueueBytes())
+        Assert.assertEquals(3, logBulkBeanV2.getRetryLineCount())
+        Assert.assertTrue(dispatchedEvents.isEmpty())
+
+        // 重试后仍然失败，按原事件交还MQ，重试次数递减
+        bulkFail(2, addedRequests.subList(3, 6).toList())
+        Assert.assertEquals(0, logBulkBeanV2.getQueueBytes())
+        Assert.assertEquals(6, addedRequests.size)
+        Assert.assertEquals(1, dispatchedEvents.size)
+        val requeued = dispatchedEvents[0]
+        Assert.assertEquals(buildId, requeued.buildId)
+        Assert.assertEquals(event.retryTime - 1, requeued.retryTime)
+        Assert.assertEquals(event.logs, requeued.logs)
+    }
+
+    @Test
+    fun addFailsWithoutAddingAnyLine() {
+        createIndexer(maxQueueMb = 256, queueTimeoutMills = 200)
+        indexer.destroy()
+        val event = event(3, 100)
+        try {
+            indexer.add(event, lines(event))
+            Assert.fail("the closed indexer should reject the batch")
+        } catch (ignored: OperationException) {
+        }
+        Assert.assertTrue(addedRequests.isEmpty())
+        Assert.assertEquals(0, logBulkBeanV2.getQueueBytes())
+    }
+
+    private fun event(lineCount: Int, messageSize: Int): LogBatchEvent {
+        val logs = (1..lineCount).map {
+            LogMessageWithLineNo(tag = "e-1", message = "x".repeat(messageSize), timestamp = it.toLong(), lineNo = it.toLong())
+        }
+        return LogBatchEvent(buildId, logs)
+    }
+
+    private fun lines(event: LogBatchEvent): List<Pair<LogMessageWithLineNo, IndexRequest>> {
+        return event.logs.map {
+            it to IndexRequest("log-index", "logs").source(mapOf("buildId" to buildId, "lineNo" to it.lineNo, "message" to it.message))
+        }
+    }
+
+    private fun bulkRequest(requests: List<IndexRequest>): BulkRequest {
+        val bulkRequest = BulkRequest()
+        requests.forEach { bulkRequest.add(it) }
+        return bulkRequest
+    }
+
+    private fun bulkSucceed(executionId: Long, requests: List<IndexRequest>) {
+        val request = bulkRequest(requests)
+        listener!!.beforeBulk(executionId, request)
+        listener!!.afterBulk(executionId, request, BulkResponse(arrayOf(), 1))
+    }
+
+    private fun bulkFail(executionId: Long, requests: List<IndexRequest>) {
+        val request = bulkRequest(requests)
+        listener!!.beforeBulk(executionId, request)
+        listener!!.afterBulk(executionId, request, IllegalStateException("es is unavailable"))
+    }
+
+    private fun waitUntil(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 5000
+        while (!condition()) {
+            Assert.assertTrue("wait timeout", System.currentTimeMillis() < deadline)
+            Thread.sleep(10)
+        }
+    }
+}
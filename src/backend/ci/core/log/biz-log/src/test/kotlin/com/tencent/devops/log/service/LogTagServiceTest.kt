@@ -0,0 +1,185 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.log.service
+
+import com.nhaarman.mockito_kotlin.any
+import com.nhaarman.mockito_kotlin.anyOrNull
+import com.nhaarman.mockito_kotlin.doAnswer
+import com.nhaarman.mockito_kotlin.mock
+import com.nhaarman.mockito_kotlin.whenever
+import com.tencent.devops.common.api.util.JsonUtil
+import com.tencent.devops.common.redis.RedisOperation
+import com.tencent.devops.log.dao.LogTagDao
+import org.jooq.DSLContext
+import org.junit.Assert
+import org.junit.Test
+import org.mockito.Mockito
+import org.springframework.data.redis.connection.RedisConnection
+import org.springframework.data.redis.core.RedisCallback
+import org.springframework.data.redis.core.RedisTemplate
+import org.springframework.data.redis.core.SetOperations
+import org.springframework.data.redis.core.ValueOperations
+import redis.clients.jedis.Jedis
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class LogTagServiceTest {
+
+    private val buildId = "b-12345678901234567890123456789012"
+
+    private val dslContext: DSLContext = mock()
+
+    /**
+     * 本地redis替身，只实现用到的字符串和集合命令，并统计调用次数
+     */
+    private val values = ConcurrentHashMap<String, String>()
+    private val sets = ConcurrentHashMap<String, MutableSet<String>>()
+    private val redisCalls = AtomicInteger()
+
+    private val db = ConcurrentHashMap<String, String>()
+    private val dbSaves = AtomicInteger()
+
+    private fun createLogTagService(): LogTagService {
+        val valueOperations: ValueOperations<String, String> = mock()
+        whenever(valueOperations.get(any())).thenAnswer {
+            redisCalls.incrementAndGet()
+            values[it.arguments[0] as String]
+        }
+        doAnswer {
+            redisCalls.incrementAndGet()
+            values[it.arguments[0] as String] = it.arguments[1] as String
+            null
+        }.whenever(valueOperations).set(any(), any(), any(), any<TimeUnit>())
+
+        val setOperations: SetOperations<String, String> = mock()
+        whenever(setOperations.add(any(), Mockito.anyVararg<String>())).thenAnswer {
+            redisCalls.incrementAndGet()
+            val set = sets.computeIfAbsent(it.arguments[0] as String) { ConcurrentHashMap.newKeySet() }
+            if (set.add(it.arguments[1] as String)) 1L else 0L
+        }
+        whenever(setOperations.remove(any(), Mockito.anyVararg<Any>())).thenAnswer {
+            redisCalls.incrementAndGet()
+            if (sets[it.arguments[0] as String]?.remove(it.arguments[1]) == true) 1L else 0L
+        }
+
+        // 分布式锁直接加锁成功
+        val jedis: Jedis = mock()
+        whenever(jedis.set(any<String>(), any<String>(), any<String>(), any<String>(), any<Long>())).thenReturn("OK")
+        whenever(jedis.eval(any<String>(), any<List<String>>(), any<List<String>>())).thenReturn(1L)
+        val connection: RedisConnection = mock()
+        whenever(connection.nativeConnection).thenReturn(jedis)
+
+        val redisTemplate: RedisTemplate<String, String> = mock()
+        whenever(redisTemplate.opsForValue()).thenReturn(valueOperations)
+        whenever(redisTemplate.opsForSet()).thenReturn(setOperations)
+        whenever(redisTemplate.expireAt(any(), any())).thenReturn(true)
+        whenever(redisTemplate.execute(any<RedisCallback<Any>>())).thenAnswer {
+            redisCalls.incrementAndGet()
+            (it.arguments[0] as RedisCallback<*>).doInRedis(connection)
+        }
+
+        val logTagDao: LogTagDao = mock()
+        whenever(logTagDao.getSubTags(any(), any(), any())).thenAnswer { db[it.arguments[2] as String] }
+        doAnswer {
+            dbSaves.incrementAndGet()
+            db[it.arguments[2] as String] = it.arguments[3] as String
+            null
+        }.whenever(logTagDao).save(anyOrNull(), any(), any(), any())
+
+        return LogTagService(dslContext, logTagDao, RedisOperation(redisTemplate))
+    }
+
+    @Test
+    fun saveSubTagsOncePerNewTag() {
+        val logTagService = createLogTagService()
+        logTagService.saveSubTags(buildId, mapOf("e1" to setOf("a", "b")))
+        logTagService.saveSubTags(buildId, mapOf("e1" to setOf("b", "c"), "e2" to setOf("a")))
+        logTagService.saveSubTag(buildId, "e1", "a")
+
+        Assert.assertEquals(3, dbSaves.get())
+        Assert.assertEquals(listOf("c", "b", "a"), logTagService.getSubTags(buildId, "e1"))
+        Assert.assertEquals(listOf("a"), logTagService.getSubTags(buildId, "e2"))
+    }
+
+    @Test
+    fun subTagsSharedBetweenNodes() {
+        val node1 = createLogTagService()
+        val node2 = createLogTagService()
+        node1.saveSubTags(buildId, mapOf("e1" to setOf("a")))
+        node2.saveSubTags(buildId, mapOf("e1" to setOf("a", "b")))
+
+        Assert.assertEquals(2, dbSaves.get())
+        Assert.assertEquals(listOf("b", "a"), JsonUtil.to(db["e1"]!!, List::class.java))
+    }
+
+    @Test
+    fun subTagNotCachedUntilPersisted() {
+        val logTagService = createLogTagService()
+        // 其他节点已经SADD但还没有写DB
+        sets.computeIfAbsent("log:build:tag:subTagSet:$buildId:e1") { ConcurrentHashMap.newKeySet() }.add("a")
+        logTagService.saveSubTags(buildId, mapOf("e1" to setOf("a")))
+        Assert.assertEquals(0, dbSaves.get())
+
+        // 其他节点写DB失败撤销SADD，本节点下一批日志重新SADD并写DB
+        sets["log:build:tag:subTagSet:$buildId:e1"]!!.remove("a")
+        logTagService.saveSubTags(buildId, mapOf("e1" to setOf("a")))
+        Assert.assertEquals(1, dbSaves.get())
+        Assert.assertEquals(listOf("a"), logTagService.getSubTags(buildId, "e1"))
+    }
+
+    @Test
+    fun ingestionThroughput() {
+        val logTagService = createLogTagService()
+        val tags = (1..5).map { "e$it" }
+        val subTagsPerTag = 20
+        val batchCount = 2000
+        val linesPerBatch = 200
+
+        val startTime = System.currentTimeMillis()
+        repeat(batchCount) { batch ->
+            // 与LogService.addLineNo一致，先把一批日志的子标签合并成集合
+            val subTags = mutableMapOf<String, MutableSet<String>>()
+            repeat(linesPerBatch) { line ->
+                val tag = tags[line % tags.size]
+                subTags.getOrPut(tag) { mutableSetOf() }.add("s${(batch + line) % subTagsPerTag}")
+            }
+            logTagService.saveSubTags(buildId, subTags)
+        }
+        val cost = System.currentTimeMillis() - startTime
+        val lines = batchCount.toLong() * linesPerBatch
+        println("ingest $lines lines in ${cost}ms, ${lines * 1000 / maxOf(cost, 1)} lines/s, " +
+            "redis calls: ${redisCalls.get()}, db saves: ${dbSaves.get()}")
+
+        tags.forEach { tag ->
+            Assert.assertEquals(subTagsPerTag, logTagService.getSubTags(buildId, tag)!!.size)
+        }
+        // 每个子标签只SADD一次，写DB的次数不超过子标签数，与日志行数无关
+        Assert.assertTrue(dbSaves.get() <= tags.size * subTagsPerTag)
+        Assert.assertTrue(redisCalls.get() < batchCount)
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.log.util
+
+import org.junit.Assert
+import org.junit.Test
+
+class AnsiUtilsTest {
+
+    @Test
+    fun removeAnsi() {
+        Assert.assertEquals("hello", AnsiUtils.removeAnsi("hello"))
+        Assert.assertEquals("error", AnsiUtils.removeAnsi("\u001b[31merror\u001b[m"))
+        Assert.assertEquals("bold red", AnsiUtils.removeAnsi("\u001b[1m\u001b[31mbold\u001B[m red\u001b[0m"))
+        Assert.assertEquals("a b", AnsiUtils.removeAnsi("a\u001b[1;33;40m b"))
+        Assert.assertEquals("", AnsiUtils.removeAnsi("\u001b[2K"))
+    }
+
+    @Test
+    fun keepIncompleteSequence() {
+        Assert.assertEquals("a\u001b", AnsiUtils.removeAnsi("a\u001b"))
+        Assert.assertEquals("a\u001b[31", AnsiUtils.removeAnsi("a\u001b[31"))
+        Assert.assertEquals("\u001bx", AnsiUtils.removeAnsi("\u001bx"))
+    }
+
+    @Test
+    fun appendWithoutAnsi() {
+        val sb = StringBuilder("2020-06-24 : ")
+        AnsiUtils.appendWithoutAnsi(sb, "\u001b[32mdone\u001b[m")
+        Assert.assertEquals("2020-06-24 : done", sb.toString())
+    }
+}
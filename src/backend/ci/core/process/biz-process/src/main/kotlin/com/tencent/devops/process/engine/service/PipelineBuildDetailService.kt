@@ -26,6 +26,7 @@
 
 package com.tencent.devops.process.engine.service
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import com.tencent.devops.common.api.pojo.ErrorInfo
 import com.tencent.devops.common.api.util.EnvUtils
 import com.tencent.devops.common.api.util.JsonUtil
@@ -53,14 +54,18 @@ import com.tencent.devops.process.utils.PipelineVarUtil
 import com.tencent.devops.common.pipeline.pojo.element.quality.QualityGateInElement
 import com.tencent.devops.common.pipeline.pojo.element.quality.QualityGateOutElement
 import com.tencent.devops.process.engine.pojo.PipelineBuildStageControlOption
+import com.tencent.devops.process.engine.service.detail.BuildDetailUpdateQueue
 import com.tencent.devops.process.service.BuildVariableService
 import org.jooq.DSLContext
 import org.jooq.impl.DSL
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.stereotype.Service
 import org.springframework.util.StopWatch
 import java.time.LocalDateTime
+import java.util.concurrent.Executors
+import javax.annotation.PreDestroy
 
 @Service
 class PipelineBuildDetailService @Autowired constructor(
@@ -73,7 +78,11 @@ class PipelineBuildDetailService @Autowired constructor(
     private val redisOperation: RedisOperation,
     private val webSocketDispatcher: WebSocketDispatcher,
     private val pipelineWebsocketService: PipelineWebsocketService,
-    private val pipelineBuildDao: PipelineBuildDao
+    private val pipelineBuildDao: PipelineBuildDao,
+    @Value("\${build.detail.flushDelayMills:200}")
+    private val flushDelayMills: Long,
+    @Value("\${build.detail.flushThreads:8}")
+    private val flushThreads: Int
 ) {
 
     companion object {
@@ -81,6 +90,24 @@ class PipelineBuildDetailService @Autowired constructor(
         private const val ExpiredTimeInSeconds: Long = 10
     }
 
+    private val flushExecutor = Executors.newScheduledThreadPool(
+        flushThreads,
+        ThreadFactoryBuilder().setNameFormat("build-detail-flush-%d").setDaemon(true).build()
+    )
+
+    /**
+     * 任务/容器状态变化频繁且只修改模型，按构建合并后批量写入：一次加锁、读取、解析、写入和推送处理窗口内的所有变化
+     */
+    private val updateQueue = BuildDetailUpdateQueue<DetailUpdate>(flushDelayMills, flushExecutor) { buildId, updates ->
+        flushUpdates(buildId, updates)
+    }
+
+    @PreDestroy
+    fun destroy() {
+        updateQueue.flushAll()
+        flushExecutor.shutdown()
+    }
+
     /**
      * 查询ModelDetail
      * @param buildId: 构建Id
@@ -88,6 +115,7 @@ class PipelineBuildDetailService @Autowired constructor(
      */
     fun get(buildId: String, refreshStatus: Boolean = true): ModelDetail? {
 
+        updateQueue.flush(buildId)
         val record = buildDetailDao.get(dslContext, buildId) ?: run {
             logger.warn("[$buildId]| detail record is null")
             return null
@@ -166,6 +194,7 @@ class PipelineBuildDetailService @Autowired constructor(
     }
 
     fun getBuildModel(buildId: String): Model? {
+        updateQueue.flush(buildId)
         val record = buildDetailDao.get(dslContext, buildId) ?: return null
         return JsonUtil.to(record.model, Model::class.java)
     }
@@ -199,6 +228,7 @@ class PipelineBuildDetailService @Autowired constructor(
     fun updateModel(buildId: String, model: Model) {
         val now = System.currentTimeMillis()
         logger.info("update the build model for the build $buildId and now $now")
+        updateQueue.flush(buildId)
         buildDetailDao.update(
             dslContext = dslContext,
             buildId = buildId,
@@ -210,11 +240,16 @@ class PipelineBuildDetailService @Autowired constructor(
 
     fun containerPreparing(buildId: String, containerId: Int) {
         logger.info("Update the container $containerId of build $buildId to prepare status")
+        val eventTime = System.currentTimeMillis()
         update(buildId, object : ModelInterface {
             var update = false
             override fun onFindContainer(id: Int, container: Container, stage: Stage): Traverse {
                 if (id == containerId) {
-                    container.startEpoch = System.currentTimeMillis()
+                    if (isFinished(container.status)) {
+                        logger.info("[$buildId]|The container $containerId is already finished, skip prepare")
+                        return Traverse.BREAK
+                    }
+                    container.startEpoch = eventTime
                     container.status = BuildStatus.PREPARE_ENV.name
                     container.startVMStatus = BuildStatus.RUNNING.name
                     update = true
@@ -229,20 +264,25 @@ class PipelineBuildDetailService @Autowired constructor(
                 }
                 return update
             }
-        }, BuildStatus.RUNNING)
+        }, BuildStatus.RUNNING, writeBehind = true)
     }
 
     fun containerStart(buildId: String, containerId: Int) {
         logger.info("Update the container $containerId of build $buildId to start status")
+        val eventTime = System.currentTimeMillis()
         update(buildId, object : ModelInterface {
             var update = false
 
             override fun onFindContainer(id: Int, container: Container, stage: Stage): Traverse {
                 if (id == containerId) {
+                    if (isFinished(container.status)) {
+                        logger.info("[$buildId]|The container $containerId is already finished, skip start")
+                        return Traverse.BREAK
+                    }
                     if (container.startEpoch == null) {
                         logger.warn("The start epoch of container $id is null of build $buildId")
                     } else {
-                        container.systemElapsed = System.currentTimeMillis() - container.startEpoch!!
+                        container.systemElapsed = eventTime - container.startEpoch!!
                     }
                     container.status = BuildStatus.RUNNING.name
                     update = true
@@ -257,7 +297,7 @@ class PipelineBuildDetailService @Autowired constructor(
                 }
                 return update
             }
-        }, BuildStatus.RUNNING)
+        }, BuildStatus.RUNNING, writeBehind = true)
     }
 
     fun taskEnd(
@@ -270,6 +310,7 @@ class PipelineBuildDetailService @Autowired constructor(
         errorMsg: String? = null
     ) {
         logger.info("The build task $taskId end of build $buildId with status $buildStatus")
+        val eventTime = System.currentTimeMillis()
         update(buildId, object : ModelInterface {
 
             var update = false
@@ -285,7 +326,7 @@ class PipelineBuildDetailService @Autowired constructor(
                         logger.warn("The task($taskId) of build $buildId start epoch is null")
                         e.elapsed = 0
                     } else {
-                        e.elapsed = System.currentTimeMillis() - e.startEpoch!!
+                        e.elapsed = eventTime - e.startEpoch!!
                     }
                     c.canRetry = canRetry ?: false
                     if (errorType != null) {
@@ -321,7 +362,7 @@ class PipelineBuildDetailService @Autowired constructor(
                 }
                 return update
             }
-        }, BuildStatus.RUNNING)
+        }, BuildStatus.RUNNING, writeBehind = !BuildStatus.isFinish(buildStatus))
     }
 
     fun pipelineTaskEnd(
@@ -457,6 +498,9 @@ class PipelineBuildDetailService @Autowired constructor(
     ) {
         logger.info("Build end $buildId")
 
+        // 先写入未刷新的任务/容器状态变化，再结束构建
+        updateQueue.flush(buildId)
+
         dslContext.transaction { configuration ->
             val context = DSL.using(configuration)
             val record = buildDetailDao.get(context, buildId)
@@ -586,6 +630,10 @@ class PipelineBuildDetailService @Autowired constructor(
 
             override fun onFindContainer(id: Int, container: Container, stage: Stage): Traverse {
                 if (container.id == containerId) {
+                    if (!BuildStatus.isFinish(buildStatus) && isFinished(container.status)) {
+                        logger.info("[$buildId]|The container $containerId is already finished, skip status $buildStatus")
+                        return Traverse.BREAK
+                    }
                     update = true
                     container.status = buildStatus.name
                     return Traverse.BREAK
@@ -596,7 +644,7 @@ class PipelineBuildDetailService @Autowired constructor(
             override fun needUpdate(): Boolean {
                 return update
             }
-        }, BuildStatus.RUNNING)
+        }, BuildStatus.RUNNING, writeBehind = !BuildStatus.isFinish(buildStatus))
     }
 
     fun updateStageStatus(buildId: String, stageId: String, buildStatus: BuildStatus) {
@@ -753,10 +801,16 @@ class PipelineBuildDetailService @Autowired constructor(
     fun taskStart(buildId: String, taskId: String) {
         logger.info("The task($taskId) start of build $buildId")
         val variables = buildVariableService.getAllVariable(buildId)
+        val eventTime = System.currentTimeMillis()
         update(buildId, object : ModelInterface {
             var update = false
             override fun onFindElement(e: Element, c: Container): Traverse {
                 if (e.id == taskId) {
+                    // 重试时会先把插件状态重置为空，已结束说明这是被结束状态赶超的延迟写入
+                    if (isFinished(e.status)) {
+                        logger.info("[$buildId]|The task $taskId is already finished, skip start")
+                        return Traverse.BREAK
+                    }
                     if (e is ManualReviewUserTaskElement) {
                         e.status = BuildStatus.REVIEWING.name
 //                        c.status = BuildStatus.REVIEWING.name
@@ -774,7 +828,7 @@ class PipelineBuildDetailService @Autowired constructor(
                         c.status = BuildStatus.RUNNING.name
                         e.status = BuildStatus.RUNNING.name
                     }
-                    e.startEpoch = System.currentTimeMillis()
+                    e.startEpoch = eventTime
                     if (c.startEpoch == null) {
                         c.startEpoch = e.startEpoch
                     }
@@ -790,7 +844,7 @@ class PipelineBuildDetailService @Autowired constructor(
                 }
                 return update
             }
-        }, BuildStatus.RUNNING)
+        }, BuildStatus.RUNNING, writeBehind = true)
     }
 
     fun updateStartVMStatus(
@@ -820,7 +874,7 @@ class PipelineBuildDetailService @Autowired constructor(
             override fun needUpdate(): Boolean {
                 return update
             }
-        }, BuildStatus.RUNNING)
+        }, BuildStatus.RUNNING, writeBehind = !BuildStatus.isFailure(buildStatus))
     }
 
     private fun updateHistoryStage(buildId: String, model: Model) {
@@ -848,9 +902,33 @@ class PipelineBuildDetailService @Autowired constructor(
         )
     }
 
-    private fun update(buildId: String, modelInterface: ModelInterface, buildStatus: BuildStatus) {
+    /**
+     * 更新构建详情
+     * @param writeBehind: 为true时合并到写队列中延迟写入，只用于只修改模型的非终态任务/容器状态变化；
+     * 否则连同之前排队的更新一起立即写入，用于终态、有其他副作用或需要立即可见的变化。
+     * 延迟写入的更新在返回时还没有落库：进程在窗口内崩溃会丢失这些中间状态，由终态写入和buildEnd的兜底修正；
+     * 写队列只在本节点内保序，其他节点的终态写入可能先于本节点排队的更新落库，所以延迟写入的更新不能把已结束的插件/容器改回运行状态
+     */
+    private fun update(
+        buildId: String,
+        modelInterface: ModelInterface,
+        buildStatus: BuildStatus,
+        writeBehind: Boolean = false
+    ) {
+        updateQueue.offer(buildId, DetailUpdate(modelInterface, buildStatus))
+        if (!writeBehind || flushDelayMills <= 0) {
+            updateQueue.flush(buildId)
+        }
+    }
+
+    private fun isFinished(status: String?): Boolean {
+        return !status.isNullOrBlank() && BuildStatus.isFinish(BuildStatus.valueOf(status!!))
+    }
+
+    private fun flushUpdates(buildId: String, updates: List<DetailUpdate>) {
         val stopWatch = StopWatch()
         var message = "nothing"
+        var buildStatus: BuildStatus? = null
         val lock = RedisLock(redisOperation, "process.build.detail.lock.$buildId", ExpiredTimeInSeconds)
 
         try {
@@ -872,16 +950,27 @@ class PipelineBuildDetailService @Autowired constructor(
                 return
             }
 
+            // 按提交顺序依次修改模型，单个更新失败不影响同批的其他更新
             stopWatch.start("updateModel")
-            update(model, modelInterface)
+            updates.forEach { detailUpdate ->
+                try {
+                    update(model, detailUpdate.modelInterface)
+                    if (detailUpdate.modelInterface.needUpdate()) {
+                        buildStatus = detailUpdate.buildStatus
+                    }
+                } catch (ignored: Throwable) {
+                    logger.warn("[$buildId]| Fail to update the build detail model: ${ignored.message}", ignored)
+                }
+            }
             stopWatch.stop()
 
-            if (!modelInterface.needUpdate()) {
+            val lastStatus = buildStatus
+            if (lastStatus == null) {
                 message = "Will not update"
                 return
             }
 
-            val finalStatus = takeBuildStatus(record, buildStatus)
+            val finalStatus = takeBuildStatus(record, lastStatus)
 
             stopWatch.start("toJson")
             val modelStr = JsonUtil.toJson(model)
@@ -903,7 +992,7 @@ class PipelineBuildDetailService @Autowired constructor(
             logger.warn("[$buildId]| Fail to update the build detail: ${ignored.message}", ignored)
         } finally {
             lock.unlock()
-            logger.info("[$buildId|$buildStatus]|update_detail_model| $message| watch=$stopWatch")
+            logger.info("[$buildId|$buildStatus]|update_detail_model|updates=${updates.size}| $message| watch=$stopWatch")
         }
     }
 
@@ -943,6 +1032,11 @@ class PipelineBuildDetailService @Autowired constructor(
         fun needUpdate(): Boolean
     }
 
+    private class DetailUpdate(
+        val modelInterface: ModelInterface,
+        val buildStatus: BuildStatus
+    )
+
     enum class Traverse {
         BREAK,
         CONTINUE
@@ -0,0 +1,118 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.process.engine.service.detail
+
+import org.slf4j.LoggerFactory
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * 构建详情的写合并队列
+ * 每个构建一个队列，同一构建的更新按提交顺序排队，在[flushDelayMills]毫秒的窗口内合并成一批交给[flusher]，
+ * 同一构建同一时刻只有一个线程在刷新，不同构建之间互不阻塞。队列刷空后即移除，不常驻内存
+ */
+class BuildDetailUpdateQueue<T>(
+    private val flushDelayMills: Long,
+    private val scheduler: ScheduledExecutorService,
+    private val flusher: (buildId: String, updates: List<T>) -> Unit
+) {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(BuildDetailUpdateQueue::class.java)
+    }
+
+    private val buildQueues = ConcurrentHashMap<String, BuildQueue<T>>()
+
+    /**
+     * 提交一个更新，在合并窗口结束后刷新
+     */
+    fun offer(buildId: String, update: T) {
+        while (true) {
+            val queue = buildQueues.computeIfAbsent(buildId) { BuildQueue() }
+            synchronized(queue) {
+                // 队列已被移除，重新获取
+                if (queue.closed) {
+                    return@synchronized
+                }
+                queue.updates.add(update)
+                if (!queue.scheduled) {
+                    queue.scheduled = true
+                    scheduler.schedule({ flush(buildId, queue) }, flushDelayMills, TimeUnit.MILLISECONDS)
+                }
+                return
+            }
+        }
+    }
+
+    /**
+     * 立即刷新构建已提交的更新，返回时这些更新都已处理完
+     */
+    fun flush(buildId: String) {
+        val queue = buildQueues[buildId] ?: return
+        flush(buildId, queue)
+    }
+
+    fun flushAll() {
+        buildQueues.forEach { (buildId, queue) ->
+            flush(buildId, queue)
+        }
+    }
+
+    fun size() = buildQueues.size
+
+    private fun flush(buildId: String, queue: BuildQueue<T>) {
+        synchronized(queue.flushLock) {
+            val updates = synchronized(queue) {
+                val list = ArrayList(queue.updates)
+                queue.updates.clear()
+                queue.scheduled = false
+                list
+            }
+            if (updates.isNotEmpty()) {
+                try {
+                    flusher(buildId, updates)
+                } catch (ignored: Throwable) {
+                    logger.warn("[$buildId]| Fail to flush ${updates.size} build detail updates", ignored)
+                }
+            }
+            synchronized(queue) {
+                if (queue.updates.isEmpty() && !queue.scheduled) {
+                    queue.closed = true
+                    buildQueues.remove(buildId, queue)
+                }
+            }
+        }
+    }
+
+    private class BuildQueue<T> {
+        val updates = mutableListOf<T>()
+        val flushLock = Any()
+        var scheduled = false
+        var closed = false
+    }
+}
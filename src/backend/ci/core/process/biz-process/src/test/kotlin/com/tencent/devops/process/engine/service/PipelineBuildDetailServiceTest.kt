@@ -0,0 +1,199 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.process.engine.service
+
+import com.nhaarman.mockito_kotlin.any
+import com.nhaarman.mockito_kotlin.anyOrNull
+import com.nhaarman.mockito_kotlin.mock
+import com.nhaarman.mockito_kotlin.whenever
+import com.tencent.devops.common.api.util.JsonUtil
+import com.tencent.devops.common.pipeline.Model
+import com.tencent.devops.common.pipeline.container.Stage
+import com.tencent.devops.common.pipeline.container.TriggerContainer
+import com.tencent.devops.common.pipeline.container.VMBuildContainer
+import com.tencent.devops.common.pipeline.enums.BuildScriptType
+import com.tencent.devops.common.pipeline.enums.BuildStatus
+import com.tencent.devops.common.pipeline.enums.VMBaseOS
+import com.tencent.devops.common.pipeline.pojo.element.agent.LinuxScriptElement
+import com.tencent.devops.common.pipeline.pojo.element.trigger.ManualTriggerElement
+import com.tencent.devops.common.redis.RedisOperation
+import com.tencent.devops.model.process.tables.records.TPipelineBuildDetailRecord
+import com.tencent.devops.process.dao.BuildDetailDao
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito
+import org.springframework.data.redis.connection.RedisConnection
+import org.springframework.data.redis.core.RedisCallback
+import org.springframework.data.redis.core.RedisTemplate
+import redis.clients.jedis.Jedis
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+class PipelineBuildDetailServiceTest {
+
+    private val buildId = "b-12345678901234567890123456789012"
+
+    private val taskCount = 500
+
+    /**
+     * 模拟T_PIPELINE_BUILD_DETAIL中的一行
+     */
+    private val detailModel = AtomicReference<String>()
+    private val detailStatus = AtomicReference<String>(BuildStatus.RUNNING.name)
+    private val writeCount = AtomicInteger()
+
+    /**
+     * 模拟redis中的锁，保证flush时读-改-写不会交叉
+     */
+    private val redisLocks = ConcurrentHashMap<String, String>()
+
+    private lateinit var buildDetailService: PipelineBuildDetailService
+
+    @Before
+    fun setUp() {
+        val elements = (0 until taskCount).map {
+            LinuxScriptElement(id = "e-$it", scriptType = BuildScriptType.SHELL, script = "echo $it", continueNoneZero = false)
+        }
+        val model = Model(
+            name = "test",
+            desc = "",
+            stages = listOf(
+                Stage(containers = listOf(TriggerContainer(id = "0", name = "trigger", elements = listOf(ManualTriggerElement()))), id = "stage-1"),
+                Stage(containers = listOf(VMBuildContainer(id = "1", baseOS = VMBaseOS.LINUX, elements = elements)), id = "stage-2")
+            )
+        )
+        detailModel.set(JsonUtil.toJson(model))
+
+        val buildDetailDao: BuildDetailDao = mock()
+        whenever(buildDetailDao.get(any(), any())).thenAnswer {
+            TPipelineBuildDetailRecord().also { record ->
+                record.buildId = buildId
+                record.model = detailModel.get()
+                record.status = detailStatus.get()
+            }
+        }
+        whenever(buildDetailDao.update(any(), any(), any(), any(), anyOrNull())).thenAnswer {
+            detailModel.set(it.getArgument(2))
+            detailStatus.set(it.getArgument<BuildStatus>(3).name)
+            writeCount.incrementAndGet()
+            1
+        }
+
+        val jedis: Jedis = mock()
+        whenever(jedis.set(any<String>(), any<String>(), any<String>(), any<String>(), Mockito.anyLong())).thenAnswer {
+            if (redisLocks.putIfAbsent(it.getArgument(0), it.getArgument(1)) == null) "OK" else null
+        }
+        whenever(jedis.eval(any<String>(), any<List<String>>(), any<List<String>>())).thenAnswer {
+            if (redisLocks.remove(it.getArgument<List<String>>(1)[0], it.getArgument<List<String>>(2)[0])) 1L else 0L
+        }
+        val connection: RedisConnection = mock()
+        whenever(connection.nativeConnection).thenReturn(jedis)
+        val redisTemplate: RedisTemplate<String, String> = mock()
+        whenever(redisTemplate.execute(any<RedisCallback<Any>>())).thenAnswer {
+            it.getArgument<RedisCallback<Any>>(0).doInRedis(connection)
+        }
+
+        buildDetailService = PipelineBuildDetailService(
+            dslContext = mock(),
+            buildDetailDao = buildDetailDao,
+            pipelineRepositoryService = mock(),
+            pipelineStageService = mock(),
+            pipelineRuntimeService = mock(),
+            buildVariableService = mock(),
+            redisOperation = RedisOperation(redisTemplate),
+            webSocketDispatcher = mock(),
+            pipelineWebsocketService = mock(),
+            pipelineBuildDao = mock(),
+            flushDelayMills = 10_000,
+            flushThreads = 4
+        )
+    }
+
+    @After
+    fun tearDown() {
+        buildDetailService.destroy()
+    }
+
+    @Test
+    fun concurrentTaskEndPersistedBeforeReturn() {
+        concurrently { index -> buildDetailService.taskStart(buildId, "e-$index") }
+        concurrently { index -> buildDetailService.taskEnd(buildId, "e-$index", BuildStatus.SUCCEED) }
+
+        // 终态同步写入：taskEnd返回时已经落库，不依赖延迟窗口或再次flush
+        val model = JsonUtil.to(detailModel.get(), Model::class.java)
+        val elements = model.stages[1].containers[0].elements
+        Assert.assertEquals(taskCount, elements.size)
+        elements.forEach { e ->
+            Assert.assertEquals(e.id, BuildStatus.SUCCEED.name, e.status)
+            Assert.assertNotNull(e.id, e.startEpoch)
+        }
+        // 排队的taskStart随第一次同步写入一起落库，写入次数不超过taskEnd次数
+        Assert.assertTrue("write count ${writeCount.get()}", writeCount.get() <= taskCount)
+    }
+
+    @Test
+    fun delayedTaskStartNotOverrideTaskEnd() {
+        // 模拟其他节点的taskEnd先落库，本节点排队的taskStart之后才写入
+        concurrently { index -> buildDetailService.taskEnd(buildId, "e-$index", BuildStatus.FAILED) }
+        concurrently { index -> buildDetailService.taskStart(buildId, "e-$index") }
+        buildDetailService.get(buildId, refreshStatus = false)
+
+        val model = JsonUtil.to(detailModel.get(), Model::class.java)
+        model.stages[1].containers[0].elements.forEach { e ->
+            Assert.assertEquals(e.id, BuildStatus.FAILED.name, e.status)
+        }
+    }
+
+    private fun concurrently(action: (Int) -> Unit) {
+        val start = CountDownLatch(1)
+        val done = CountDownLatch(taskCount)
+        val errors = AtomicInteger()
+        val executor = Executors.newFixedThreadPool(50)
+        repeat(taskCount) { index ->
+            executor.execute {
+                try {
+                    start.await()
+                    action(index)
+                } catch (ignored: Throwable) {
+                    errors.incrementAndGet()
+                } finally {
+                    done.countDown()
+                }
+            }
+        }
+        start.countDown()
+        Assert.assertTrue(done.await(60, TimeUnit.SECONDS))
+        executor.shutdown()
+        Assert.assertEquals(0, errors.get())
+    }
+}
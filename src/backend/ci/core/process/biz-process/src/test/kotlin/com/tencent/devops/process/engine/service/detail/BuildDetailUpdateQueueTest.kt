@@ -0,0 +1,115 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.process.engine.service.detail
+
+import org.junit.After
+import org.junit.Assert
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class BuildDetailUpdateQueueTest {
+
+    private val buildId = "b-12345678901234567890123456789012"
+
+    private val scheduler = Executors.newScheduledThreadPool(4)
+
+    @After
+    fun tearDown() {
+        scheduler.shutdownNow()
+    }
+
+    @Test
+    fun concurrentOfferCoalesce() {
+        val threadCount = 10
+        val perThread = 50
+        val batchCount = AtomicInteger()
+        val applied = Collections.synchronizedList(mutableListOf<Pair<Int, Int>>())
+        val queue = BuildDetailUpdateQueue<Pair<Int, Int>>(50, scheduler) { id, updates ->
+            Assert.assertEquals(buildId, id)
+            batchCount.incrementAndGet()
+            applied.addAll(updates)
+        }
+
+        val start = CountDownLatch(1)
+        val done = CountDownLatch(threadCount)
+        val producers = Executors.newFixedThreadPool(threadCount)
+        repeat(threadCount) { thread ->
+            producers.execute {
+                start.await()
+                repeat(perThread) { seq -> queue.offer(buildId, thread to seq) }
+                done.countDown()
+            }
+        }
+        start.countDown()
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS))
+        producers.shutdown()
+        queue.flush(buildId)
+
+        // 每个更新只处理一次，同一线程提交的更新保持顺序
+        Assert.assertEquals(threadCount * perThread, applied.size)
+        Assert.assertEquals(threadCount * perThread, applied.toSet().size)
+        repeat(threadCount) { thread ->
+            val seqList = applied.filter { it.first == thread }.map { it.second }
+            Assert.assertEquals((0 until perThread).toList(), seqList)
+        }
+        Assert.assertTrue("batch count ${batchCount.get()}", batchCount.get() < threadCount * perThread / 10)
+        Assert.assertEquals(0, queue.size())
+    }
+
+    @Test
+    fun flushAfterDelay() {
+        val flushed = CountDownLatch(1)
+        val queue = BuildDetailUpdateQueue<String>(10, scheduler) { _, updates ->
+            Assert.assertEquals(listOf("a", "b"), updates)
+            flushed.countDown()
+        }
+        queue.offer(buildId, "a")
+        queue.offer(buildId, "b")
+        Assert.assertTrue(flushed.await(5, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun flushErrorNotBlockLaterUpdates() {
+        val applied = mutableListOf<String>()
+        val queue = BuildDetailUpdateQueue<String>(10_000, scheduler) { _, updates ->
+            if (updates.contains("bad")) {
+                throw IllegalStateException("bad update")
+            }
+            applied.addAll(updates)
+        }
+        queue.offer(buildId, "bad")
+        queue.flush(buildId)
+        queue.offer(buildId, "good")
+        queue.flush(buildId)
+        Assert.assertEquals(listOf("good"), applied)
+        Assert.assertEquals(0, queue.size())
+    }
+}
@@ -26,7 +26,9 @@
 
 package com.tencent.devops.worker.common.api.log
 
+import com.fasterxml.jackson.databind.SerializationFeature
 import com.fasterxml.jackson.module.kotlin.readValue
+import com.tencent.devops.common.api.exception.RemoteServiceException
 import com.tencent.devops.common.api.pojo.Result
 import com.tencent.devops.common.log.pojo.message.LogMessage
 import com.tencent.devops.worker.common.api.AbstractBuildResourceApi
@@ -34,10 +36,29 @@ import com.tencent.devops.worker.common.env.AgentEnv
 import com.tencent.devops.worker.common.env.LogMode
 import okhttp3.MediaType
 import okhttp3.RequestBody
+import java.io.ByteArrayOutputStream
 import java.lang.StringBuilder
+import java.util.zip.GZIPOutputStream
 
 class LogResourceApi : AbstractBuildResourceApi(), LogSDKApi {
 
+    companion object {
+        private const val GZIP_MIN_BYTES = 1024
+
+        /**
+         * 服务端不认识Content-Encoding时返回的状态码，其他错误(如5xx)与是否压缩无关
+         */
+        private val GZIP_UNSUPPORTED_STATUS = setOf(400, 415)
+    }
+
+    private val logWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT)
+
+    /**
+     * 服务端不支持压缩的请求体时关闭压缩
+     */
+    @Volatile
+    private var gzipEnabled = true
+
     override fun addLogMultiLine(logMessages: List<LogMessage>): Result<Boolean> {
         return if (LogMode.LOCAL == AgentEnv.getLogMode()) {
             logMessages.forEach {
@@ -45,14 +66,40 @@ class LogResourceApi : AbstractBuildResourceApi(), LogSDKApi {
             }
             Result(true)
         } else {
-            val path = "/log/api/build/logs/multi"
-            val requestBody = RequestBody.create(MediaType.parse("application/json; charset=utf-8"), objectMapper.writeValueAsString(logMessages))
-            val request = buildPost(path, requestBody)
-            val responseContent = request(request, "上报日志失败")
-            objectMapper.readValue(responseContent)
+            val content = logWriter.writeValueAsBytes(logMessages)
+            if (gzipEnabled && content.size >= GZIP_MIN_BYTES) {
+                try {
+                    return addLogMultiLine(gzip(content), mapOf("Content-Encoding" to "gzip"))
+                } catch (e: RemoteServiceException) {
+                    // 400/415且不压缩重试成功才说明服务端不支持压缩的请求体，之后不再压缩
+                    val result = addLogMultiLine(content, emptyMap())
+                    if (e.httpStatus in GZIP_UNSUPPORTED_STATUS) {
+                        logger.warn("Fail to add the gzip logs(${e.httpStatus}), disable gzip")
+                        gzipEnabled = false
+                    } else {
+                        logger.warn("Fail to add the gzip logs(${e.httpStatus}), retry without gzip")
+                    }
+                    return result
+                }
+            }
+            addLogMultiLine(content, emptyMap())
         }
     }
 
+    private fun addLogMultiLine(content: ByteArray, headers: Map<String, String>): Result<Boolean> {
+        val path = "/log/api/build/logs/multi"
+        val requestBody = RequestBody.create(MediaType.parse("application/json; charset=utf-8"), content)
+        val request = buildPost(path, requestBody, headers)
+        val responseContent = request(request, "上报日志失败")
+        return objectMapper.readValue(responseContent)
+    }
+
+    private fun gzip(content: ByteArray): ByteArray {
+        val output = ByteArrayOutputStream(content.size / 4)
+        GZIPOutputStream(output).use { it.write(content) }
+        return output.toByteArray()
+    }
+
     override fun finishLog(tag: String?, jobId: String?, executeCount: Int?, subTag: String?): Result<Boolean> {
         val path = StringBuilder("/log/api/build/logs/status?finished=true")
         if (!tag.isNullOrBlank()) path.append("&tag=$tag")
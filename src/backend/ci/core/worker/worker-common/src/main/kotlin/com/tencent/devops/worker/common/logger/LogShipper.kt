@@ -0,0 +1,331 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.worker.common.logger
+
+import com.fasterxml.jackson.core.type.TypeReference
+import com.fasterxml.jackson.databind.SerializationFeature
+import com.tencent.devops.common.api.util.JsonUtil
+import com.tencent.devops.common.log.pojo.message.LogMessage
+import org.slf4j.LoggerFactory
+import java.io.BufferedReader
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStreamReader
+import java.io.OutputStreamWriter
+import java.util.ArrayDeque
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * 构建日志上报
+ * 写入线程从内存队列中批量取出日志交给上报线程，只做内存和本地文件操作，不会因为服务端变慢而阻塞构建步骤写日志；
+ * 待上报的批次超过内存上限后追加写入本地的溢出文件，上报线程先上报内存中的批次再按写入顺序回放溢出文件，
+ * 上报顺序与写入顺序一致，溢出文件回放完后删除
+ */
+class LogShipper(
+    private val sender: (List<LogMessage>) -> Unit,
+    private val spoolDir: File,
+    private val batchSize: Int = 1000,
+    private val maxMemoryBatches: Int = 8,
+    private val maxRetryTimes: Int = 5,
+    private val retryIntervalMills: Long = 1000
+) {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(LogShipper::class.java)
+        private const val QUEUE_CAPACITY = 100000
+        private const val BATCH_INTERVAL_MILLS = 500L
+        private const val STATISTICS_INTERVAL_MILLS = 30 * 1000L
+        private val batchType = object : TypeReference<List<LogMessage>>() {}
+        private val spoolWriter = JsonUtil.getObjectMapper().writer().without(SerializationFeature.INDENT_OUTPUT)
+    }
+
+    private val queue = LinkedBlockingQueue<LogMessage>(QUEUE_CAPACITY)
+
+    private var writerExecutor: ExecutorService? = null
+    private var senderExecutor: ExecutorService? = null
+
+    @Volatile
+    private var running = false
+    @Volatile
+    private var writerFinished = false
+    @Volatile
+    private var flushRequested = false
+
+    /**
+     * 待上报的批次，内存中的批次都早于溢出文件中的批次
+     */
+    private val lock = ReentrantLock()
+    private val batchAvailable = lock.newCondition()
+    private val shipped = lock.newCondition()
+    private val memoryBatches = ArrayDeque<List<LogMessage>>()
+    private var spoolFile: File? = null
+    private var spoolOutput: BufferedWriter? = null
+    private var spoolInput: BufferedReader? = null
+    private var spooledBatches = 0L
+    private var replayedBatches = 0L
+
+    private val offeredLines = AtomicLong()
+    @Volatile
+    private var shippedLines = 0L
+
+    @Volatile
+    private var linesPerSecond = 0L
+    private var lastStatisticsTime = System.currentTimeMillis()
+    private var lastStatisticsLines = 0L
+
+    fun start() {
+        running = true
+        writerFinished = false
+        writerExecutor = Executors.newSingleThreadExecutor { Thread(it, "log-shipper-writer").apply { isDaemon = true } }
+        senderExecutor = Executors.newSingleThreadExecutor { Thread(it, "log-shipper-sender").apply { isDaemon = true } }
+        writerExecutor!!.execute { writeLoop() }
+        senderExecutor!!.execute { sendLoop() }
+    }
+
+    /**
+     * 写入一行日志，只在内存队列满时(本地磁盘跟不上)等待
+     */
+    fun offer(message: LogMessage) {
+        if (!queue.offer(message)) {
+            queue.put(message)
+        }
+        offeredLines.incrementAndGet()
+    }
+
+    /**
+     * 等待调用前写入的日志上报完
+     * @return 超时返回false，未上报的日志仍会继续上报
+     */
+    fun flush(timeoutMills: Long): Boolean {
+        val target = offeredLines.get()
+        flushRequested = true
+        var waitNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMills)
+        lock.withLock {
+            while (shippedLines < target) {
+                if (waitNanos <= 0) {
+                    logger.warn("Timeout to flush the logs, ${target - shippedLines} lines left")
+                    return false
+                }
+                waitNanos = shipped.awaitNanos(waitNanos)
+            }
+        }
+        return true
+    }
+
+    /**
+     * 停止写入并等待剩余日志上报完
+     */
+    fun stop(timeoutMills: Long) {
+        running = false
+        writerExecutor?.shutdown()
+        senderExecutor?.shutdown()
+        if (senderExecutor?.awaitTermination(timeoutMills, TimeUnit.MILLISECONDS) == false) {
+            logger.warn("Timeout to stop the log shipper, ${offeredLines.get() - shippedLines} lines left " +
+                "and spool file ${spoolFile?.absolutePath}")
+        }
+        logStatistics()
+    }
+
+    fun getShippedLines() = shippedLines
+
+    fun getPendingLines() = offeredLines.get() - shippedLines
+
+    /**
+     * 最近一个统计周期内每秒上报的行数
+     */
+    fun getLinesPerSecond() = linesPerSecond
+
+    fun getSpoolBytes() = lock.withLock { spoolFile?.length() ?: 0L }
+
+    private fun writeLoop() {
+        try {
+            val batch = ArrayList<LogMessage>(batchSize)
+            var lastBatchTime = System.currentTimeMillis()
+            while (running || queue.isNotEmpty()) {
+                val message = try {
+                    queue.poll(100, TimeUnit.MILLISECONDS)
+                } catch (e: InterruptedException) {
+                    logger.warn("Log shipper writer interrupted", e)
+                    null
+                }
+                if (message != null) {
+                    batch.add(message)
+                    queue.drainTo(batch, batchSize - batch.size)
+                }
+                if (batch.isEmpty()) {
+                    continue
+                }
+                val now = System.currentTimeMillis()
+                // 攒满一批，或者队列已空且超过攒批时间/需要立即上报
+                if (batch.size >= batchSize ||
+                    (queue.isEmpty() && (flushRequested || !running || now - lastBatchTime >= BATCH_INTERVAL_MILLS))) {
+                    flushRequested = false
+                    addBatch(ArrayList(batch))
+                    batch.clear()
+                    lastBatchTime = now
+                }
+            }
+        } catch (t: Throwable) {
+            logger.warn("Fail to write the logs", t)
+        } finally {
+            lock.withLock {
+                writerFinished = true
+                batchAvailable.signalAll()
+            }
+        }
+    }
+
+    private fun addBatch(batch: List<LogMessage>) {
+        lock.withLock {
+            if (spooledBatches == replayedBatches && memoryBatches.size < maxMemoryBatches) {
+                memoryBatches.addLast(batch)
+            } else {
+                try {
+                    spool(batch)
+                } catch (e: IOException) {
+                    // 写溢出文件失败时只能留在内存中，顺序可能早于溢出文件中未上报的日志
+                    logger.warn("Fail to spool ${batch.size} lines", e)
+                    memoryBatches.addLast(batch)
+                }
+            }
+            batchAvailable.signalAll()
+        }
+    }
+
+    private fun spool(batch: List<LogMessage>) {
+        if (spoolOutput == null) {
+            val file = File.createTempFile("devops_log_spool_", ".log", spoolDir)
+            file.deleteOnExit()
+            spoolOutput = BufferedWriter(OutputStreamWriter(FileOutputStream(file, true), Charsets.UTF_8))
+            spoolInput = BufferedReader(InputStreamReader(FileInputStream(file), Charsets.UTF_8))
+            spoolFile = file
+            logger.warn("The log server is slow, spool the logs to ${file.absolutePath}")
+        }
+        // 每批一行，写完一整行才计入待回放的批次
+        spoolOutput!!.write(spoolWriter.writeValueAsString(batch))
+        spoolOutput!!.write("\n")
+        spoolOutput!!.flush()
+        spooledBatches++
+    }
+
+    private fun sendLoop() {
+        try {
+            while (true) {
+                val batch = takeBatch() ?: break
+                send(batch)
+                if (System.currentTimeMillis() - lastStatisticsTime >= STATISTICS_INTERVAL_MILLS) {
+                    logStatistics()
+                }
+            }
+        } catch (t: Throwable) {
+            logger.warn("Fail to send the logs", t)
+        }
+    }
+
+    /**
+     * 按顺序取下一批日志，先取内存中的批次再回放溢出文件；写入线程结束且没有待上报的日志时返回null
+     */
+    private fun takeBatch(): List<LogMessage>? {
+        val line = lock.withLock {
+            while (memoryBatches.isEmpty() && spooledBatches == replayedBatches) {
+                if (writerFinished) {
+                    return null
+                }
+                batchAvailable.await(1, TimeUnit.SECONDS)
+            }
+            val memoryBatch = memoryBatches.pollFirst()
+            if (memoryBatch != null) {
+                return memoryBatch
+            }
+            val spoolLine = spoolInput!!.readLine()
+            replayedBatches++
+            if (replayedBatches == spooledBatches) {
+                closeSpool()
+            }
+            spoolLine
+        }
+        return JsonUtil.getObjectMapper().readValue(line, batchType)
+    }
+
+    private fun closeSpool() {
+        try {
+            spoolOutput?.close()
+            spoolInput?.close()
+        } catch (e: IOException) {
+            logger.warn("Fail to close the spool file", e)
+        }
+        spoolFile?.delete()
+        logger.info("Finish replaying the spool file ${spoolFile?.absolutePath} of $spooledBatches batches")
+        spoolOutput = null
+        spoolInput = null
+        spoolFile = null
+        spooledBatches = 0
+        replayedBatches = 0
+    }
+
+    private fun send(batch: List<LogMessage>) {
+        var retryTimes = 0
+        while (true) {
+            try {
+                sender(batch)
+                break
+            } catch (e: Exception) {
+                if (++retryTimes > maxRetryTimes) {
+                    logger.error("Fail to send ${batch.size} lines after $maxRetryTimes retries, drop them", e)
+                    break
+                }
+                logger.warn("Fail to send ${batch.size} lines, retry($retryTimes)", e)
+                Thread.sleep(retryIntervalMills * retryTimes)
+            }
+        }
+        lock.withLock {
+            shippedLines += batch.size
+            shipped.signalAll()
+        }
+    }
+
+    private fun logStatistics() {
+        val now = System.currentTimeMillis()
+        val lines = shippedLines
+        if (now > lastStatisticsTime) {
+            linesPerSecond = (lines - lastStatisticsLines) * 1000 / (now - lastStatisticsTime)
+        }
+        lastStatisticsTime = now
+        lastStatisticsLines = lines
+        logger.info("Log shipper: $linesPerSecond lines/s, shipped $lines lines, pending ${getPendingLines()} lines, " +
+            "spool ${getSpoolBytes()} bytes")
+    }
+}
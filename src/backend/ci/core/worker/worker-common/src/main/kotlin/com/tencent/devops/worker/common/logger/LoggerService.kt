@@ -34,115 +34,43 @@ import com.tencent.devops.worker.common.LOG_SUBTAG_FLAG
 import com.tencent.devops.worker.common.api.ApiFactory
 import com.tencent.devops.worker.common.api.log.LogSDKApi
 import org.slf4j.LoggerFactory
-import java.util.concurrent.Callable
-import java.util.concurrent.Executors
-import java.util.concurrent.Future
-import java.util.concurrent.LinkedBlockingQueue
+import java.io.File
 import java.util.concurrent.TimeUnit
-import java.util.concurrent.atomic.AtomicBoolean
-import java.util.concurrent.locks.ReentrantLock
 
 object LoggerService {
 
     private val logResourceApi = ApiFactory.create(LogSDKApi::class)
 
-    private val executorService = Executors.newSingleThreadExecutor()
-    private val flushExecutor = Executors.newSingleThreadExecutor()
-    private val queue = LinkedBlockingQueue<LogMessage>(2000)
     private val logger = LoggerFactory.getLogger(LoggerService::class.java)
-    private val running = AtomicBoolean(true)
-    private var future: Future<Boolean>? = null
+
+    private val logShipper = LogShipper(
+        sender = { logMessages -> sendMultiLog(logMessages) },
+        spoolDir = File(System.getProperty("java.io.tmpdir"))
+    )
+
     // 当前执行的插件id
     var elementId = ""
     var jobId = ""
     var executeCount = 1
 
-    private val lock = ReentrantLock()
-
-    private val logMessages = ArrayList<LogMessage>()
-
-    private val loggerThread = Callable {
-        try {
-            var lastSaveTime: Long = 0
-            while (running.get()) {
-                val logMessage = try {
-                    queue.poll(3, TimeUnit.SECONDS)
-                } catch (e: InterruptedException) {
-                    logger.warn("Logger service poll thread interrupted", e)
-                    null
-                }
-                lock.lock()
-                try {
-                    if (logMessage != null) {
-                        logMessages.add(logMessage)
-                    }
-                } finally {
-                    lock.unlock()
-                }
-
-                val size = logMessages.size
-                val now = System.currentTimeMillis()
-                // 缓冲大于200条或上次保存时间超过3秒
-                if (size >= 200 || (size > 0 && (now - lastSaveTime > 3 * 1000))) {
-                    flush()
-                    lastSaveTime = now
-                }
-            }
-            if (logMessages.isNotEmpty()) {
-                flush()
-            }
-        } catch (t: Throwable) {
-            logger.warn("Fail to send the logger", t)
-        }
-        logger.info("Finish the sending thread - (${queue.size})")
-        true
-    }
-
-    private class FlushThread : Callable<Int> {
-        override fun call(): Int {
-            logger.info("Start to flush the logger")
-            lock.lock()
-            val size = logMessages.size
-            try {
-                if (size > 0) {
-                    sendMultiLog(logMessages)
-                    logMessages.clear()
-                }
-            } finally {
-                logger.info("Finish flush the log - $size")
-                lock.unlock()
-            }
-            return size
-        }
-    }
-
     fun start() {
         logger.info("Start the log service")
-        future = executorService.submit(loggerThread)
+        logShipper.start()
     }
 
     fun flush(): Int {
         logger.info("Start to flush the log service")
-        val future = flushExecutor.submit(FlushThread())
-        return future.get()
+        val pendingLines = logShipper.getPendingLines()
+        logShipper.flush(TimeUnit.SECONDS.toMillis(60))
+        logger.info("Finish flush the log - $pendingLines")
+        return pendingLines.toInt()
     }
 
     fun stop() {
         try {
             logger.info("Start to stop the log service")
-            if (this.running.get()) {
-                this.running.set(false)
-                if (future != null) {
-                    future!!.get()
-                }
-                // 把没完成的日志打完
-                while (queue.size != 0) {
-                    queue.drainTo(logMessages)
-                    if (logMessages.isNotEmpty()) {
-                        flush()
-                    }
-                }
-            }
+            // 把没完成的日志打完
+            logShipper.stop(TimeUnit.MINUTES.toMillis(2))
             logger.info("Finish stopping the log service")
         } catch (e: Exception) {
             logger.error("Fail to stop log service for build", e)
@@ -173,9 +101,8 @@ object LoggerService {
             logType = LogType.LOG,
             executeCount = executeCount
         )
-        logger.info(logMessage.toString())
         try {
-            this.queue.put(logMessage)
+            logShipper.offer(logMessage)
         } catch (e: InterruptedException) {
             logger.error("写入普通日志行失败：", e)
         }
@@ -235,17 +162,15 @@ object LoggerService {
         addLog(logMessage)
     }
 
-    private fun addLog(message: LogMessage) = queue.put(message)
+    private fun addLog(message: LogMessage) = logShipper.offer(message)
 
+    /**
+     * 请求异常时抛出，由LogShipper重试
+     */
     private fun sendMultiLog(logMessages: List<LogMessage>) {
-        try {
-            logger.info("Start to send the log - ${logMessages.size}")
-            val result = logResourceApi.addLogMultiLine(logMessages)
-            if (result.isNotOk()) {
-                logger.error("发送构建日志失败：${result.message}")
-            }
-        } catch (e: Exception) {
-            logger.warn("Fail to send the logs(${logMessages.size})", e)
+        val result = logResourceApi.addLogMultiLine(logMessages)
+        if (result.isNotOk()) {
+            logger.error("发送构建日志失败：${result.message}")
         }
     }
 
@@ -0,0 +1,130 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.worker.common.logger
+
+import com.tencent.devops.common.log.pojo.enums.LogType
+import com.tencent.devops.common.log.pojo.message.LogMessage
+import org.junit.After
+import org.junit.Assert
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+
+class LogShipperTest {
+
+    private val spoolDir: File = Files.createTempDirectory("log_shipper_test").toFile()
+
+    @After
+    fun tearDown() {
+        spoolDir.deleteRecursively()
+    }
+
+    private fun logMessage(lineNo: Int) = LogMessage(
+        message = "line $lineNo",
+        timestamp = System.currentTimeMillis(),
+        tag = "e-1",
+        jobId = "1",
+        logType = LogType.LOG,
+        executeCount = 1
+    )
+
+    /**
+     * 模拟每秒输出10万行日志的构建步骤，服务端处理速度只有一半
+     */
+    @Test
+    fun slowServerNotBlockStep() {
+        val received = mutableListOf<String>()
+        var maxSpoolBytes = 0L
+        lateinit var shipper: LogShipper
+        shipper = LogShipper(
+            sender = { logMessages ->
+                Thread.sleep(20)
+                logMessages.forEach { received.add(it.message) }
+                maxSpoolBytes = maxOf(maxSpoolBytes, shipper.getSpoolBytes())
+            },
+            spoolDir = spoolDir
+        )
+        shipper.start()
+
+        val linesPerSecond = 100000
+        val seconds = 2
+        var maxOfferNanos = 0L
+        val startTime = System.currentTimeMillis()
+        for (lineNo in 0 until linesPerSecond * seconds) {
+            val offerStart = System.nanoTime()
+            shipper.offer(logMessage(lineNo))
+            maxOfferNanos = maxOf(maxOfferNanos, System.nanoTime() - offerStart)
+            // 每1000行按每秒10万行的速度对齐
+            if (lineNo % 1000 == 999) {
+                val expectTime = startTime + (lineNo + 1) * 1000L / linesPerSecond
+                val sleepMills = expectTime - System.currentTimeMillis()
+                if (sleepMills > 0) {
+                    Thread.sleep(sleepMills)
+                }
+            }
+        }
+        val emitCost = System.currentTimeMillis() - startTime
+
+        Assert.assertTrue(shipper.flush(60000))
+        val totalCost = System.currentTimeMillis() - startTime
+        shipper.stop(1000)
+        println("emit ${linesPerSecond * seconds} lines in ${emitCost}ms, shipped in ${totalCost}ms, " +
+            "max offer ${maxOfferNanos / 1000}us, max spool $maxSpoolBytes bytes")
+
+        Assert.assertTrue("max offer ${maxOfferNanos / 1000}us", maxOfferNanos < 100_000_000L)
+        Assert.assertTrue(maxSpoolBytes > 0)
+        Assert.assertEquals(0L, shipper.getSpoolBytes())
+        Assert.assertEquals(linesPerSecond * seconds, received.size)
+        received.forEachIndexed { index, message -> Assert.assertEquals("line $index", message) }
+        Assert.assertEquals(0, spoolDir.listFiles()!!.size)
+    }
+
+    @Test
+    fun retryKeepOrder() {
+        val received = mutableListOf<String>()
+        var failTimes = 2
+        val shipper = LogShipper(
+            sender = { logMessages ->
+                if (failTimes-- > 0) {
+                    throw IllegalStateException("server unavailable")
+                }
+                logMessages.forEach { received.add(it.message) }
+            },
+            spoolDir = spoolDir,
+            batchSize = 10,
+            maxMemoryBatches = 1,
+            retryIntervalMills = 10
+        )
+        shipper.start()
+        repeat(1000) { shipper.offer(logMessage(it)) }
+        shipper.stop(10000)
+
+        Assert.assertEquals(1000, received.size)
+        received.forEachIndexed { index, message -> Assert.assertEquals("line $index", message) }
+        Assert.assertEquals(0L, shipper.getPendingLines())
+    }
+}
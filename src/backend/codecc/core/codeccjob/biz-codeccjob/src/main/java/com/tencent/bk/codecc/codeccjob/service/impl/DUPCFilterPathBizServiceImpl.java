@@ -18,7 +18,7 @@ import com.tencent.bk.codecc.codeccjob.service.AbstractFilterPathBizService;
 import com.tencent.bk.codecc.task.vo.FilterPathInputVO;
 import com.tencent.devops.common.api.pojo.CodeCCResult;
 import com.tencent.devops.common.constant.CommonMessageCode;
-import com.tencent.devops.common.util.PathUtils;
+import com.tencent.devops.common.util.PathFilterSet;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
@@ -49,6 +49,7 @@ public class DUPCFilterPathBizServiceImpl extends AbstractFilterPathBizService
         if (CollectionUtils.isNotEmpty(dupcFileInfoList))
         {
             long currTime = System.currentTimeMillis();
+            PathFilterSet filterPathSet = PathFilterSet.compile(filterPathInputVO.getFilterPaths());
             List<DUPCDefectEntity> needUpdateDefectList = dupcFileInfoList.stream()
                     .filter(defectEntity ->
                     {
@@ -61,7 +62,7 @@ public class DUPCFilterPathBizServiceImpl extends AbstractFilterPathBizService
                         {
                             return false;
                         }
-                        return PathUtils.checkIfMaskByPath(defectEntity.getRelPath(), filterPathInputVO.getFilterPaths());
+                        return filterPathSet.match(defectEntity.getRelPath());
                     })
                     .collect(Collectors.toList());
             needUpdateDefectList.forEach(defectEntity ->
@@ -31,7 +31,6 @@ public class KlocworkFilterPathBizServiceImpl extends CommonFilterPathBizService
     @Override
     protected Boolean checkIfMaskByPath(String filePathname, Set<String> filterPaths)
     {
-        Set<String> filterPathSet = PathUtils.convertPathsToLowerCase(filterPaths);
-        return PathUtils.checkIfMaskByPath(filePathname.toLowerCase(), filterPathSet);
+        return PathUtils.checkIfMaskByPathIgnoreCase(filePathname, filterPaths);
     }
 }
@@ -16,6 +16,7 @@ import com.tencent.bk.codecc.defect.model.LintDefectEntity;
 import com.tencent.bk.codecc.defect.model.LintFileEntity;
 import com.tencent.bk.codecc.defect.vo.common.AuthorTransferVO;
 import com.tencent.bk.codecc.codeccjob.dao.mongorepository.LintFileQueryRepository;
+import com.tencent.bk.codecc.codeccjob.dao.mongotemplate.LintStatisticAggregateDao;
 import com.tencent.bk.codecc.codeccjob.service.AbstractAuthorTransBizService;
 import com.tencent.devops.common.api.pojo.CodeCCResult;
 import com.tencent.devops.common.constant.ComConstants;
@@ -44,6 +45,9 @@ public class LintAuthorTransBizServiceImpl extends AbstractAuthorTransBizService
     @Autowired
     private LintFileQueryRepository lintFileQueryRepository;
 
+    @Autowired
+    private LintStatisticAggregateDao lintStatisticAggregateDao;
+
     @Override
     public CodeCCResult processBiz(AuthorTransferVO authorTransferVO)
     {
@@ -65,6 +69,8 @@ public class LintAuthorTransBizServiceImpl extends AbstractAuthorTransBizService
                     }
             );
             lintFileQueryRepository.save(lintFileEntityList);
+            // 作者转换后告警统计累计值中的作者统计不再准确，标记为脏让下次提交全量重算
+            lintStatisticAggregateDao.markDirty(authorTransferVO.getTaskId(), authorTransferVO.getToolName());
         }
         return new CodeCCResult(CommonMessageCode.SUCCESS);
     }
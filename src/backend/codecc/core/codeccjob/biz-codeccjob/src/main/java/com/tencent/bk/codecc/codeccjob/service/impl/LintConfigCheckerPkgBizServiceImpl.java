@@ -18,6 +18,7 @@ import com.tencent.bk.codecc.defect.model.LintFileEntity;
 import com.tencent.bk.codecc.defect.model.LintStatisticEntity;
 import com.tencent.bk.codecc.defect.vo.ConfigCheckersPkgReqVO;
 import com.tencent.bk.codecc.codeccjob.dao.mongorepository.LintFileQueryRepository;
+import com.tencent.bk.codecc.codeccjob.dao.mongotemplate.LintStatisticAggregateDao;
 import com.tencent.bk.codecc.codeccjob.dao.mongorepository.LintStatisticRepository;
 import com.tencent.devops.common.api.pojo.CodeCCResult;
 import com.tencent.devops.common.constant.ComConstants;
@@ -47,6 +48,9 @@ public class LintConfigCheckerPkgBizServiceImpl implements IBizService<ConfigChe
     @Autowired
     private LintFileQueryRepository lintFileQueryRepository;
 
+    @Autowired
+    private LintStatisticAggregateDao lintStatisticAggregateDao;
+
     @Autowired
     private LintStatisticRepository lintStatisticRepository;
 
@@ -113,6 +117,9 @@ public class LintConfigCheckerPkgBizServiceImpl implements IBizService<ConfigChe
             // 负值为告警下降，正值为告警上升
             int oldFileChange = newFileCount - oldFileCount;
 
+            // 规则开关后告警统计累计值不再准确，标记为脏让下次提交全量重算
+            lintStatisticAggregateDao.markDirty(configCheckersPkgReqVO.getTaskId(), configCheckersPkgReqVO.getToolName());
+
             log.info(String.format("update data: oldFileCount: %s, fileChange: %s, oldDefectCount: %s", newLintFileList.size(), oldFileChange, oldFileDefectCount));
             setLintStatisticInfo(configCheckersPkgReqVO, newLintFileList, oldFileChange, oldFileDefectCount);
         }
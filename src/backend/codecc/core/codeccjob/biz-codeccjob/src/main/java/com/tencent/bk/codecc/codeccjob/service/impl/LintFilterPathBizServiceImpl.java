@@ -16,13 +16,14 @@ import com.tencent.bk.codecc.defect.model.LintDefectEntity;
 import com.tencent.bk.codecc.defect.model.LintFileEntity;
 import com.tencent.bk.codecc.defect.model.LintStatisticEntity;
 import com.tencent.bk.codecc.codeccjob.dao.mongorepository.LintFileQueryRepository;
+import com.tencent.bk.codecc.codeccjob.dao.mongotemplate.LintStatisticAggregateDao;
 import com.tencent.bk.codecc.codeccjob.dao.mongorepository.LintStatisticRepository;
 import com.tencent.bk.codecc.codeccjob.service.AbstractFilterPathBizService;
 import com.tencent.bk.codecc.task.vo.FilterPathInputVO;
 import com.tencent.devops.common.api.pojo.CodeCCResult;
 import com.tencent.devops.common.constant.ComConstants;
 import com.tencent.devops.common.constant.CommonMessageCode;
-import com.tencent.devops.common.util.PathUtils;
+import com.tencent.devops.common.util.PathFilterSet;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
@@ -46,6 +47,9 @@ public class LintFilterPathBizServiceImpl extends AbstractFilterPathBizService
     @Autowired
     private LintFileQueryRepository lintFileQueryRepository;
 
+    @Autowired
+    private LintStatisticAggregateDao lintStatisticAggregateDao;
+
     @Autowired
     private LintStatisticRepository lintStatisticRepository;
 
@@ -57,6 +61,7 @@ public class LintFilterPathBizServiceImpl extends AbstractFilterPathBizService
         if (!CollectionUtils.isEmpty(lintFiles))
         {
             long currTime = System.currentTimeMillis();
+            PathFilterSet filterPathSet = PathFilterSet.compile(filterPathInputVO.getFilterPaths());
             List<LintFileEntity> needUpdateDefectList = lintFiles.stream()
                     .filter(defectEntity ->
                     {
@@ -69,7 +74,7 @@ public class LintFilterPathBizServiceImpl extends AbstractFilterPathBizService
                         {
                             return false;
                         }
-                        return PathUtils.checkIfMaskByPath(defectEntity.getRelPath(), filterPathInputVO.getFilterPaths());
+                        return filterPathSet.match(defectEntity.getRelPath());
                     })
                     .collect(Collectors.toList());
             needUpdateDefectList.forEach(defectEntity ->
@@ -86,6 +91,8 @@ public class LintFilterPathBizServiceImpl extends AbstractFilterPathBizService
                 }
             });
             lintFileQueryRepository.save(needUpdateDefectList);
+            // 屏蔽路径后告警统计累计值不再准确，标记为脏让下次提交全量重算
+            lintStatisticAggregateDao.markDirty(filterPathInputVO.getTaskId(), filterPathInputVO.getToolName());
 
             setLintStatisticInfo(filterPathInputVO, lintFiles);
         }
@@ -102,29 +102,32 @@ public class AsyncTaskConfiguration
         return executor;
     }
 
+    /**
+     * lint告警提单流水线（填充文件信息、分发告警跟踪）的线程池，
+     * 流水线任务会阻塞等待上游队列，所以不能用CallerRunsPolicy，否则会阻塞读取告警文件的线程
+     *
+     * @return
+     */
     @Bean
-    public Executor asyncLintDefectTracingExecutor()
+    public ThreadPoolTaskExecutor asyncLintDefectPipelineExecutor()
     {
-        logger.info("initialize async lint defect tracing pool");
+        logger.info("initialize async lint defect pipeline pool");
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        //配置核心线程数(defect服务不需要)
-        executor.setCorePoolSize(100);
+        //配置核心线程数
+        executor.setCorePoolSize(50);
         //设置队列大小
-        executor.setQueueCapacity(100);
+        executor.setQueueCapacity(500);
         //配置最大线程数
-        executor.setMaxPoolSize(300);
+        executor.setMaxPoolSize(50);
         //设置线程空闲时间
         executor.setKeepAliveSeconds(30);
         //线程名前缀
-        executor.setThreadNamePrefix("lint-defect-tracing-");
-        //线程池拒绝策略
-        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("lint-defect-pipeline-");
         //执行初始化
         executor.initialize();
         return executor;
     }
 
-
     @Bean
     public Executor asyncCcnDefectTracingExecutor()
     {
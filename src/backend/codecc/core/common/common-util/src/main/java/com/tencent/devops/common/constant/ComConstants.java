@@ -1382,4 +1382,52 @@ public interface ComConstants
         //简化规则集
         SIMPLIFIED
     }
+
+    /**
+     * 项目规模，按告警文件大小划分，决定提单使用的消息队列和告警跟踪线程池
+     */
+    enum ProjectScale {
+        NORMAL("normal"),
+        LARGE("large"),
+        SUPER_LARGE("superLarge");
+
+        private static final long LARGE_FILE_SIZE = 1024L * 1024 * 200;
+
+        private static final long SUPER_LARGE_FILE_SIZE = 1024L * 1024 * 1024;
+
+        private final String metricName;
+
+        ProjectScale(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public static ProjectScale of(long defectFileSize) {
+            if (defectFileSize > SUPER_LARGE_FILE_SIZE) {
+                return SUPER_LARGE;
+            } else if (defectFileSize > LARGE_FILE_SIZE) {
+                return LARGE;
+            }
+            return NORMAL;
+        }
+
+        /**
+         * 优先使用提单路由确定的项目规模，老版本的提单消息没有该字段时按告警文件大小划分
+         *
+         * @param name
+         * @param defectFileSize
+         * @return
+         */
+        public static ProjectScale of(String name, long defectFileSize) {
+            for (ProjectScale scale : values()) {
+                if (scale.name().equals(name)) {
+                    return scale;
+                }
+            }
+            return of(defectFileSize);
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+    }
 }
@@ -141,6 +141,12 @@ public interface RedisKeyConstants
      */
     String PREFIX_TMP_STATISTIC = "TMP_STATISTIC:";
 
+    /**
+     * 告警文件树版本号，每次告警提交完成后自增，用于失效各实例缓存的告警文件树，格式：
+     * DEFECT_TREE_VERSION:taskId
+     */
+    String PREFIX_DEFECT_TREE_VERSION = "DEFECT_TREE_VERSION:";
+
     /**
      * 分析机器集群
      */
@@ -192,4 +198,9 @@ public interface RedisKeyConstants
      * 分析机器集群
      */
     String KEY_FILE_INFO = "FILE_INFO";
+
+    /**
+     * 提单耗时的指数加权移动平均值，key前缀，后接taskId:toolName
+     */
+    String KEY_COMMIT_COST_EWMA = "COMMIT_COST_EWMA";
 }
@@ -12,19 +12,28 @@
 
 package com.tencent.devops.common.util;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.RandomAccess;
+import java.util.function.Function;
 
 /**
  * List通用排序工具类
@@ -40,8 +49,13 @@ public class ListSortUtil
 
     private static final String SORT_DESC = "desc";
 
-    // 在使用正则表达式时，利用好其预编译功能，可以有效加快正则匹配速度。 说明：不要在方法体内定义：Pattern pattern = Pattern.compile(规则)
-    private static Pattern NUMBER_PATTERN = Pattern.compile("^[+-]?[0-9]+$");
+    /**
+     * 按类型、字段缓存的升序比较器，字段的查找和类型判断只在生成比较器时做一次
+     * 排序字段来自请求参数，只缓存能找到的字段，并限制缓存数量
+     */
+    private static final Cache<Map.Entry<Class<?>, String>, Comparator<Object>> COMPARATOR_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .build();
 
     /**
      * 对List数组排序
@@ -107,61 +121,211 @@ public class ListSortUtil
      */
     public static <T> List<T> sort(List<T> list, final String field, final String sort)
     {
-        Collections.sort(list, (o1, o2) ->
+        if (list.size() > 1)
         {
-            int ret = 0;
-            try
-            {
-                Method method1 = o1.getClass().getDeclaredMethod(getMethodName(field), null);
-                Method method2 = o2.getClass().getDeclaredMethod(getMethodName(field), null);
-                Field field1 = o1.getClass().getDeclaredField(field);
-                field1.setAccessible(true);
-                Class<?> type = field1.getType();
-                if (type == int.class)
-                {
-                    ret = ((Integer) field1.getInt(o1)).compareTo(field1.getInt(o2));
-                }
-                else if (type == double.class)
-                {
-                    ret = ((Double) field1.getDouble(o1)).compareTo(field1.getDouble(o2));
-                }
-                else if (type == long.class)
-                {
-                    ret = ((Long) field1.getLong(o1)).compareTo(field1.getLong(o2));
-                }
-                else if (type == float.class)
-                {
-                    ret = ((Float) field1.getFloat(o1)).compareTo(field1.getFloat(o2));
-                }
-                else if (type == Date.class)
-                {
-                    ret = ((Date) field1.get(o1)).compareTo((Date) field1.get(o2));
-                }
-                else if (isDouble(String.valueOf(field1.get(o1))) && isDouble(String.valueOf(field1.get(o2))))
-                {
-                    ret = (new Double(method1.invoke(o1).toString())).compareTo(new Double(method2.invoke(o2).toString()));
-                }
-                else
-                {
-                    ret = String.valueOf(field1.get(o1)).compareToIgnoreCase(String.valueOf(field1.get(o2)));
-                }
+            list.sort(getComparator(list.get(0).getClass(), field, sort));
+        }
+        return list;
+    }
 
+    /**
+     * 排序并取出一页数据
+     * 只用有界堆保留前(pageNum+1)*pageSize个元素，结果与整体排序后再用subList截取一致(相等的元素保持原有先后顺序)，
+     * 起始位置超过总数时与原有分页逻辑一样从头截取到末尾
+     *
+     * @param list     源数据 排序集合
+     * @param field    排序的数据字段名称
+     * @param sort     升序 还是 降序，默认升序
+     * @param pageNum  页码，从0开始
+     * @param pageSize 每页数量
+     * @param <T>      泛型T
+     * @return 当前页数据
+     */
+    public static <T> List<T> sortAndPage(List<T> list, final String field, final String sort, int pageNum, int pageSize)
+    {
+        // 不足两个元素时不需要比较
+        Comparator<T> comparator = list.size() < 2 ? (o1, o2) -> 0 : getComparator(list.get(0).getClass(), field, sort);
+        return sortAndPage(list, comparator, pageNum, pageSize);
+    }
+
+    /**
+     * 排序并取出一页数据
+     *
+     * @param list       源数据 排序集合
+     * @param comparator 比较器
+     * @param pageNum    页码，从0开始
+     * @param pageSize   每页数量
+     * @param <T>        泛型T
+     * @return 当前页数据
+     */
+    public static <T> List<T> sortAndPage(List<T> list, Comparator<? super T> comparator, int pageNum, int pageSize)
+    {
+        int total = list.size();
+        long beginIdx = (long) pageNum * pageSize;
+        int end = (int) Math.min(beginIdx + pageSize, total);
+        int begin = beginIdx > total ? 0 : (int) beginIdx;
+        if (end <= begin)
+        {
+            return new ArrayList<>();
+        }
+
+        // 需要保留的元素超过一半时堆没有优势，直接整体排序
+        if (end > total / 2)
+        {
+            list.sort(comparator);
+            return list.subList(begin, end);
+        }
+
+        List<T> source = list instanceof RandomAccess ? list : new ArrayList<>(list);
+        Comparator<Integer> order = (idx1, idx2) ->
+        {
+            int ret = comparator.compare(source.get(idx1), source.get(idx2));
+            return ret != 0 ? ret : Integer.compare(idx1, idx2);
+        };
+
+        // 堆顶是已保留元素中排序最靠后的
+        PriorityQueue<Integer> heap = new PriorityQueue<>(end, order.reversed());
+        for (int i = 0; i < total; i++)
+        {
+            if (heap.size() < end)
+            {
+                heap.add(i);
             }
-            catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException | NoSuchFieldException e)
+            else if (order.compare(i, heap.peek()) < 0)
             {
-                logger.error("sort [{}] list by [{}] [{}] exception:", o1.getClass(), field, sort, e);
+                heap.poll();
+                heap.add(i);
             }
+        }
+        List<Integer> topIdxList = new ArrayList<>(heap);
+        topIdxList.sort(order);
 
-            if (StringUtils.isNotEmpty(sort) && SORT_DESC.equalsIgnoreCase(sort))
+        List<T> page = new ArrayList<>(end - begin);
+        for (int i = begin; i < end; i++)
+        {
+            page.add(source.get(topIdxList.get(i)));
+        }
+        return page;
+    }
+
+    /**
+     * 获取按字段排序的比较器
+     * 比较规则：整数、浮点数(包括包装类型)、Date字段按值比较；其他字段两边都是数字时按数值比较，否则按字符串忽略大小写比较
+     *
+     * @param clazz 元素类型，字段和对应的get方法需要在该类型中声明
+     * @param field 排序的数据字段名称
+     * @param sort  升序 还是 降序，默认升序
+     * @param <T>   泛型T
+     * @return 比较器
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Comparator<T> getComparator(Class<?> clazz, final String field, final String sort)
+    {
+        Map.Entry<Class<?>, String> cacheKey = new AbstractMap.SimpleImmutableEntry<>(clazz, field);
+        Comparator<Object> comparator = COMPARATOR_CACHE.getIfPresent(cacheKey);
+        if (comparator == null)
+        {
+            comparator = compileComparator(clazz, field);
+            if (comparator == null)
             {
-                return -ret;
+                // 字段不存在时不排序，也不缓存
+                return (o1, o2) -> 0;
             }
-            else
+            COMPARATOR_CACHE.put(cacheKey, comparator);
+        }
+        if (StringUtils.isNotEmpty(sort) && SORT_DESC.equalsIgnoreCase(sort))
+        {
+            comparator = comparator.reversed();
+        }
+        return (Comparator<T>) comparator;
+    }
+
+    /**
+     * 生成升序比较器，字段或对应的get方法不存在时返回null
+     * 取值方法和比较方式按字段类型在这里确定一次，比较时不再做反射和类型判断
+     */
+    private static Comparator<Object> compileComparator(Class<?> clazz, String field)
+    {
+        if (StringUtils.isEmpty(field))
+        {
+            logger.error("sort [{}] list by empty field", clazz);
+            return null;
+        }
+
+        Class<?> type;
+        Function<Object, Object> getter;
+        try
+        {
+            Method getMethod = clazz.getDeclaredMethod(getMethodName(field));
+            type = clazz.getDeclaredField(field).getType();
+            getter = createGetter(getMethod);
+        }
+        catch (NoSuchMethodException | NoSuchFieldException | IllegalAccessException e)
+        {
+            logger.error("sort [{}] list by [{}] exception:", clazz, field, e);
+            return null;
+        }
+
+        // 包装类型为null时与原来按字符串"null"比较的结果一致，排在数值后面
+        if (type == int.class || type == long.class || type == short.class || type == byte.class
+                || type == Integer.class || type == Long.class || type == Short.class || type == Byte.class)
+        {
+            return Comparator.comparing(getter, Comparator.nullsLast(Comparator.comparingLong(value -> ((Number) value).longValue())));
+        }
+        if (type == double.class || type == float.class || type == Double.class || type == Float.class)
+        {
+            return Comparator.comparing(getter, Comparator.nullsLast(Comparator.comparingDouble(value -> ((Number) value).doubleValue())));
+        }
+        if (type == Date.class)
+        {
+            return Comparator.comparing(getter, Comparator.nullsLast(Comparator.comparing(value -> (Date) value)));
+        }
+        // 其他类型按字符串比较，两边都是数字时按数值比较
+        return Comparator.comparing(getter, (value1, value2) -> compareString(String.valueOf(value1), String.valueOf(value2)));
+    }
+
+    /**
+     * 把get方法转成函数对象，失败时退回到MethodHandle调用
+     */
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> createGetter(Method getMethod) throws IllegalAccessException
+    {
+        getMethod.setAccessible(true);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle methodHandle = lookup.unreflect(getMethod);
+        try
+        {
+            CallSite callSite = LambdaMetafactory.metafactory(lookup, "apply", MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class), methodHandle, methodHandle.type().wrap());
+            return (Function<Object, Object>) callSite.getTarget().invokeExact();
+        }
+        catch (Throwable e)
+        {
+            logger.warn("create getter of [{}] by lambda fail, use method handle", getMethod, e);
+        }
+
+        MethodHandle genericHandle = methodHandle.asType(MethodType.methodType(Object.class, Object.class));
+        return obj ->
+        {
+            try
             {
-                return ret;
+                return (Object) genericHandle.invokeExact(obj);
             }
-        });
-        return list;
+            catch (Throwable e)
+            {
+                logger.error("invoke [{}] of [{}] exception:", getMethod.getName(), obj.getClass(), e);
+                return null;
+            }
+        };
+    }
+
+    private static int compareString(String value1, String value2)
+    {
+        if (isDouble(value1) && isDouble(value2))
+        {
+            return Double.compare(Double.parseDouble(value1), Double.parseDouble(value2));
+        }
+        return value1.compareToIgnoreCase(value2);
     }
 
     private static boolean isDouble(String str)
@@ -174,16 +338,35 @@ public class ListSortUtil
         return flag;
     }
 
+    /**
+     * 等价于正则 ^[+-]?[0-9]+$
+     */
     private static boolean isInteger(String str)
     {
-        Matcher matcher = NUMBER_PATTERN.matcher(str);
-        return matcher.find();
+        int start = str.startsWith("+") || str.startsWith("-") ? 1 : 0;
+        return start < str.length() && isDigits(str, start, str.length());
     }
 
-
+    /**
+     * 等价于正则 [\d]+\.[\d]+
+     */
     private static boolean isFloat(String str)
     {
-        return str.matches("[\\d]+\\.[\\d]+");
+        int dotIdx = str.indexOf('.');
+        return dotIdx > 0 && dotIdx < str.length() - 1 && isDigits(str, 0, dotIdx) && isDigits(str, dotIdx + 1, str.length());
+    }
+
+    private static boolean isDigits(String str, int begin, int end)
+    {
+        for (int i = begin; i < end; i++)
+        {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
 
@@ -0,0 +1,276 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 预编译的过滤路径集合
+ * 匹配规则与逐条执行 path.contains(filter) || path.matches(filter) 一致：
+ * 所有过滤路径构建成一个Aho-Corasick自动机，一次扫描完成子串匹配；含正则元字符的过滤路径预先编译，做整串匹配。
+ * 编译后不可变，可以在多个线程间共享
+ *
+ * @version V1.0
+ * @date 2020/6/23
+ */
+public class PathFilterSet
+{
+    private static Logger logger = LoggerFactory.getLogger(PathFilterSet.class);
+
+    private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}";
+
+    /**
+     * 自动机各状态的转移表，下标0为根状态
+     */
+    private final Map<Character, Integer>[] transitions;
+
+    /**
+     * 各状态的失配转移
+     */
+    private final int[] fails;
+
+    /**
+     * 到达该状态时是否已经匹配到某个过滤路径(含失配链上的后缀)
+     */
+    private final boolean[] outputs;
+
+    /**
+     * 存在空的过滤路径时任意路径都会命中
+     */
+    private final boolean matchAll;
+
+    private final Pattern[] patterns;
+
+    private final boolean ignoreCase;
+
+    /**
+     * 编译时过滤路径集合的大小和哈希值，用于判断集合是否已经变化
+     */
+    private final int sourceSize;
+
+    private final int sourceHash;
+
+    private PathFilterSet(Map<Character, Integer>[] transitions, int[] fails, boolean[] outputs, boolean matchAll,
+                          Pattern[] patterns, boolean ignoreCase, int sourceSize, int sourceHash)
+    {
+        this.transitions = transitions;
+        this.fails = fails;
+        this.outputs = outputs;
+        this.matchAll = matchAll;
+        this.patterns = patterns;
+        this.ignoreCase = ignoreCase;
+        this.sourceSize = sourceSize;
+        this.sourceHash = sourceHash;
+    }
+
+    /**
+     * 编译过滤路径
+     *
+     * @param filterPaths
+     * @return
+     */
+    public static PathFilterSet compile(Collection<String> filterPaths)
+    {
+        return compile(filterPaths, false);
+    }
+
+    /**
+     * 编译过滤路径
+     *
+     * @param filterPaths 为null时按空集合处理
+     * @param ignoreCase 为true时过滤路径和待检测路径都先转成小写再匹配
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static PathFilterSet compile(Collection<String> filterPaths, boolean ignoreCase)
+    {
+        if (filterPaths == null)
+        {
+            filterPaths = Collections.emptyList();
+        }
+        List<Map<Character, Integer>> transitionList = new ArrayList<>();
+        List<Boolean> outputList = new ArrayList<>();
+        transitionList.add(new HashMap<>());
+        outputList.add(false);
+        List<Pattern> patternList = new ArrayList<>();
+        boolean matchAll = false;
+
+        for (String filterPath : filterPaths)
+        {
+            if (filterPath == null)
+            {
+                continue;
+            }
+            String filter = ignoreCase ? filterPath.toLowerCase() : filterPath;
+            if (filter.isEmpty())
+            {
+                matchAll = true;
+                continue;
+            }
+
+            // 子串匹配
+            int state = 0;
+            for (int i = 0; i < filter.length(); i++)
+            {
+                Map<Character, Integer> transition = transitionList.get(state);
+                Integer next = transition.get(filter.charAt(i));
+                if (next == null)
+                {
+                    next = transitionList.size();
+                    transition.put(filter.charAt(i), next);
+                    transitionList.add(new HashMap<>());
+                    outputList.add(false);
+                }
+                state = next;
+            }
+            outputList.set(state, true);
+
+            // 不含元字符的过滤路径整串匹配时必然也是子串匹配，不需要再编译正则
+            if (isRegex(filter))
+            {
+                try
+                {
+                    patternList.add(Pattern.compile(filter));
+                }
+                catch (PatternSyntaxException e)
+                {
+                    logger.info("invalid regex expression: {}", filter);
+                }
+            }
+        }
+
+        // 按层次遍历计算失配转移
+        int stateCount = transitionList.size();
+        int[] fails = new int[stateCount];
+        boolean[] outputs = new boolean[stateCount];
+        for (int i = 0; i < stateCount; i++)
+        {
+            outputs[i] = outputList.get(i);
+        }
+        Queue<Integer> queue = new LinkedList<>(transitionList.get(0).values());
+        while (!queue.isEmpty())
+        {
+            int state = queue.poll();
+            for (Map.Entry<Character, Integer> entry : transitionList.get(state).entrySet())
+            {
+                int next = entry.getValue();
+                int fail = fails[state];
+                while (fail != 0 && !transitionList.get(fail).containsKey(entry.getKey()))
+                {
+                    fail = fails[fail];
+                }
+                Integer failNext = transitionList.get(fail).get(entry.getKey());
+                fails[next] = failNext == null || failNext == next ? 0 : failNext;
+                outputs[next] = outputs[next] || outputs[fails[next]];
+                queue.add(next);
+            }
+        }
+
+        return new PathFilterSet(transitionList.toArray(new Map[stateCount]), fails, outputs, matchAll,
+                patternList.toArray(new Pattern[0]), ignoreCase, filterPaths.size(), filterPaths.hashCode());
+    }
+
+    /**
+     * 检测路径是否匹配某个过滤路径
+     *
+     * @param path
+     * @return
+     */
+    public boolean match(String path)
+    {
+        if (path == null)
+        {
+            return false;
+        }
+        if (matchAll)
+        {
+            return true;
+        }
+        String target = ignoreCase ? path.toLowerCase() : path;
+
+        int state = 0;
+        for (int i = 0; i < target.length(); i++)
+        {
+            char c = target.charAt(i);
+            Integer next = transitions[state].get(c);
+            while (next == null && state != 0)
+            {
+                state = fails[state];
+                next = transitions[state].get(c);
+            }
+            state = next == null ? 0 : next;
+            if (outputs[state])
+            {
+                return true;
+            }
+        }
+
+        for (Pattern pattern : patterns)
+        {
+            if (pattern.matcher(target).matches())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 判断是否由指定的过滤路径集合编译而来，集合内容变化后需要重新编译
+     *
+     * @param filterPaths
+     * @return
+     */
+    public boolean isCompiledFrom(Collection<String> filterPaths)
+    {
+        return sourceSize == filterPaths.size() && sourceHash == filterPaths.hashCode();
+    }
+
+    private static boolean isRegex(String filter)
+    {
+        for (int i = 0; i < filter.length(); i++)
+        {
+            if (REGEX_META_CHARS.indexOf(filter.charAt(i)) >= 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -27,6 +27,8 @@
 package com.tencent.devops.common.util;
 
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.lang.StringUtils;
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -44,6 +46,19 @@ public class PathUtils
     private static Logger logger = LoggerFactory.getLogger(PathUtils.class);
 
     private static final int MIN_LENGTH = 6;
+
+    /**
+     * 过滤路径集合 -> 编译后的匹配器，weakKeys按对象引用比较，集合不再被引用后自动回收
+     */
+    private static final Cache<Set<String>, PathFilterSet> FILTER_SET_CACHE = CacheBuilder.newBuilder()
+            .weakKeys()
+            .maximumSize(1000)
+            .build();
+
+    private static final Cache<Set<String>, PathFilterSet> IGNORE_CASE_FILTER_SET_CACHE = CacheBuilder.newBuilder()
+            .weakKeys()
+            .maximumSize(1000)
+            .build();
     public static final int DIR = 1;
     public static final int FILE = 2;
 
@@ -265,21 +280,47 @@ public class PathUtils
      */
     public static boolean checkIfMaskByPath(String path, Set<String> filterPaths)
     {
-        try
+        if (filterPaths == null || filterPaths.isEmpty())
         {
-            for (String regrex : filterPaths)
-            {
-                if (path.contains(regrex) || path.matches(regrex))
-                {
-                    return true;
-                }
-            }
+            return false;
+        }
+        return getPathFilterSet(filterPaths, false).match(path);
+    }
+
+    /**
+     * 忽略大小写检测路径是否匹配某个过滤路径
+     *
+     * @param path
+     * @param filterPaths
+     * @return
+     */
+    public static boolean checkIfMaskByPathIgnoreCase(String path, Set<String> filterPaths)
+    {
+        if (filterPaths == null || filterPaths.isEmpty())
+        {
+            return false;
         }
-        catch (Exception e)
+        return getPathFilterSet(filterPaths, true).match(path);
+    }
+
+    /**
+     * 获取过滤路径集合编译后的匹配器
+     * 以集合对象本身为缓存键，同一份过滤路径配置循环检测大量文件时只编译一次；集合内容变化后重新编译
+     *
+     * @param filterPaths
+     * @param ignoreCase
+     * @return
+     */
+    public static PathFilterSet getPathFilterSet(Set<String> filterPaths, boolean ignoreCase)
+    {
+        Cache<Set<String>, PathFilterSet> cache = ignoreCase ? IGNORE_CASE_FILTER_SET_CACHE : FILTER_SET_CACHE;
+        PathFilterSet pathFilterSet = cache.getIfPresent(filterPaths);
+        if (pathFilterSet == null || !pathFilterSet.isCompiledFrom(filterPaths))
         {
-            logger.info("invalid regex expression: {}, {}", path, filterPaths);
+            pathFilterSet = PathFilterSet.compile(filterPaths, ignoreCase);
+            cache.put(filterPaths, pathFilterSet);
         }
-        return false;
+        return pathFilterSet;
     }
 
     /**
@@ -57,4 +57,10 @@ public class CommitDefectVO
 
     @ApiModelProperty(value = "备注信息")
     private String message;
+
+    @ApiModelProperty(value = "项目规模，提单路由时根据告警文件大小和历史提单耗时确定")
+    private String projectScale;
+
+    @ApiModelProperty(value = "每批处理的告警数")
+    private Integer maxPerBatch;
 }
@@ -0,0 +1,61 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.bk.codecc.defect.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 提单阶段耗时的VO
+ *
+ * @version V1.0
+ * @date 2020/6/24
+ */
+@Data
+@ApiModel("提单阶段耗时的VO")
+public class CommitStageVO
+{
+    @ApiModelProperty(value = "阶段名称，嵌套阶段用/分隔，如uploadDefects/parse")
+    private String stage;
+
+    @ApiModelProperty(value = "开始时间")
+    private long startTime;
+
+    @ApiModelProperty(value = "阶段耗时")
+    private long elapseTime;
+
+    @ApiModelProperty(value = "处理的记录数")
+    private long rowCount;
+
+    @ApiModelProperty(value = "读取的字节数")
+    private long byteCount;
+
+    @ApiModelProperty(value = "数据库操作次数")
+    private long dbOpCount;
+}
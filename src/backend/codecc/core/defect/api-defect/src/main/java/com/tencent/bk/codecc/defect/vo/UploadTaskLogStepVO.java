@@ -32,6 +32,7 @@ import io.swagger.annotations.ApiModelProperty;
 import lombok.Data;
 
 import javax.validation.constraints.NotNull;
+import java.util.List;
 
 
 /**
@@ -88,4 +89,7 @@ public class UploadTaskLogStepVO
 
     @ApiModelProperty(value = "流水线运行失败")
     private Boolean pipelineFail;
+
+    @ApiModelProperty(value = "提单各阶段耗时")
+    private List<CommitStageVO> stageTimeline;
 }
@@ -31,130 +31,158 @@ import org.apache.commons.collections.CollectionUtils;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
 import java.util.Set;
 
 
 /**
+ * 告警文件路径树
+ * 按路径分段构建前缀树，子节点通过哈希表查找；构建过程只使用局部变量，可以被多个请求并发调用。
+ * 树节点ID为节点在排序后先序遍历中的序号，相同的路径集合总是生成相同的树
+ *
  * @date 2016/9/20
  */
 @Component
 public class Tree
 {
-    private Boolean expand;
-    private Boolean eliminate = true;
+    public TreeNodeVO buildTree(Set<String> paths, String streamName)
+    {
+        return buildTree(paths, streamName, false, true);
+    }
 
-    private void addChild(int index, String[] path, TreeNodeVO parent)
+    public TreeNodeVO buildTree(Set<String> paths, String streamName, boolean expand, boolean eliminate)
     {
-        boolean isNewNode = true;
-        if (parent.getChildren() != null)
+        TrieNode root = new TrieNode(streamName);
+        if (paths != null)
         {
-            for (TreeNodeVO child : parent.getChildren())
+            for (String path : paths)
             {
-                if (child.getName().equals(path[index]))
-                {
-                    isNewNode = false;
-                    addChild(++index, path, child);
-                    break;
-                }
+                addPath(root, path);
             }
         }
-        if (isNewNode)
+
+        if (root.children != null)
         {
-            TreeNodeVO child;
-            // 避免ArrayIndexOutOfBoundsException
-            if (path.length > index) {
-                child = new TreeNodeVO(getRandom(), path[index], expand);
-            } else {
-                child = new TreeNodeVO(getRandom(), "", expand);
-            }
-            if (parent.getChildren() == null)
+            for (int i = 0; i < root.children.size(); i++)
             {
-                parent.setChildren(new ArrayList<>());
+                TrieNode node = root.children.get(i);
+                if ("usr".equals(node.name) || node.name.contains("Program Files"))
+                {
+                    continue;
+                }
+                if (eliminate)
+                {
+                    // 把单节点的树去掉
+                    root.children.set(i, eliminateDepth(node));
+                }
             }
+        }
 
-            parent.getChildren().add(child);
-            if (++index < path.length)
+        // 对树节点按字母排序
+        root.sort();
+        return root.toTreeNode(new int[]{0}, expand);
+    }
+
+    public void sortTree(TreeNodeVO root)
+    {
+        List<TreeNodeVO> childs = root.getChildren();
+        if (CollectionUtils.isNotEmpty(childs))
+        {
+            for (TreeNodeVO node : childs)
             {
-                addChild(index, path, child);
+                sortTree(node);
             }
+            childs.sort((o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName()));
         }
     }
 
-    public TreeNodeVO buildTree(Set<String> paths, String streamName)
+    private void addPath(TrieNode root, String path)
     {
-        TreeNodeVO root = new TreeNodeVO(getRandom(), streamName, expand);
-        if (paths == null || paths.size() == 0)
+        String[] dirs = path.split("/");
+        // 绝对路径去掉开头的空段
+        int index = dirs.length > 0 && dirs[0].length() == 0 ? 1 : 0;
+        if (index >= dirs.length)
         {
-            return root;
+            root.getOrAddChild("");
+            return;
         }
 
-        int index = 0;
-        for (String path : paths)
+        TrieNode node = root;
+        for (; index < dirs.length; index++)
         {
-            String[] dirs = path.split("/");
-            if (dirs[0].length() == 0)
-            {
-                index = 1;
-            }
-
-            addChild(index, dirs, root);
+            node = node.getOrAddChild(dirs[index]);
         }
+    }
 
-        for (int i = 0; i < root.getChildren().size(); i++)
+    private TrieNode eliminateDepth(TrieNode root)
+    {
+        while (root.children != null && root.children.size() == 1)
         {
-            TreeNodeVO treeNode = root.getChildren().get(i);
-            if ("usr".equals(treeNode.getName()) || treeNode.getName().contains("Program Files"))
-            {
-                continue;
-            }
-            if (eliminate)
-            {
-                // 把单节点的树去掉
-                treeNode = eliminateDepth(treeNode);
-            }
-            root.getChildren().set(i, treeNode);
+            root = root.children.get(0);
         }
-
-        // 对树节点按字母排序
-        sortTree(root);
         return root;
     }
 
-    public TreeNodeVO buildTree(Set<String> paths, String streamName, boolean expand, boolean eliminate)
+    /**
+     * 构建过程中使用的前缀树节点
+     */
+    private static class TrieNode
     {
-        this.expand = expand;
-        this.eliminate = eliminate;
-        return buildTree(paths, streamName);
-    }
+        private final String name;
 
-    private TreeNodeVO eliminateDepth(TreeNodeVO root)
-    {
-        while (root.getChildren() != null && root.getChildren().size() == 1)
+        private List<TrieNode> children;
+
+        private Map<String, TrieNode> childMap;
+
+        private TrieNode(String name)
         {
-            root = root.getChildren().get(0);
+            this.name = name == null ? "" : name;
         }
-        return root;
-    }
 
-    public void sortTree(TreeNodeVO root)
-    {
-        List<TreeNodeVO> childs = root.getChildren();
-        if (CollectionUtils.isNotEmpty(childs))
+        private TrieNode getOrAddChild(String childName)
         {
-            for (TreeNodeVO node : childs)
+            if (childMap == null)
             {
-                sortTree(node);
+                childMap = new HashMap<>();
+                children = new ArrayList<>();
             }
-            childs.sort((o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName()));
+            TrieNode child = childMap.get(childName);
+            if (child == null)
+            {
+                child = new TrieNode(childName);
+                childMap.put(childName, child);
+                children.add(child);
+            }
+            return child;
         }
-    }
-
-    private String getRandom(){
-        return String.format("%s%s", System.currentTimeMillis(), new Random().nextInt());
-    }
-
 
+        private void sort()
+        {
+            if (children != null)
+            {
+                for (TrieNode child : children)
+                {
+                    child.sort();
+                }
+                children.sort((o1, o2) -> o1.name.compareToIgnoreCase(o2.name));
+            }
+        }
 
+        private TreeNodeVO toTreeNode(int[] sequence, boolean expand)
+        {
+            TreeNodeVO treeNode = new TreeNodeVO(String.valueOf(sequence[0]++), name, expand);
+            if (children != null)
+            {
+                List<TreeNodeVO> childNodes = new ArrayList<>(children.size());
+                for (TrieNode child : children)
+                {
+                    childNodes.add(child.toTreeNode(sequence, expand));
+                }
+                treeNode.setChildren(childNodes);
+            }
+            return treeNode;
+        }
+    }
 }
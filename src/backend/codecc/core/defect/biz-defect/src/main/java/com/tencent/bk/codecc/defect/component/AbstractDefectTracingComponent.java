@@ -12,32 +12,38 @@
 
 package com.tencent.bk.codecc.defect.component;
 
-import com.google.common.io.Files;
 import com.tencent.bk.codecc.defect.model.BuildEntity;
 import com.tencent.bk.codecc.defect.model.TransferAuthorEntity;
 import com.tencent.bk.codecc.defect.pojo.AggregateDefectInputModel;
+import com.tencent.bk.codecc.defect.pojo.AggregateDefectOutputModel;
 import com.tencent.bk.codecc.defect.pojo.AggregateDispatchFileName;
 import com.tencent.bk.codecc.defect.pojo.FileMD5SingleModel;
 import com.tencent.bk.codecc.defect.pojo.FileMD5TotalModel;
 import com.tencent.bk.codecc.defect.service.IMessageQueueBizService;
+import com.tencent.bk.codecc.defect.utils.AggregateDefectFileCodec;
 import com.tencent.bk.codecc.defect.vo.CommitDefectVO;
 import com.tencent.bk.codecc.task.vo.TaskDetailVO;
 import com.tencent.devops.common.api.exception.CodeCCException;
-import com.tencent.devops.common.api.util.JsonUtil;
 import com.tencent.devops.common.constant.ComConstants;
 import com.tencent.devops.common.constant.CommonMessageCode;
 import com.tencent.devops.common.service.BizServiceFactory;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.util.Pair;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
@@ -57,6 +63,28 @@ public abstract class AbstractDefectTracingComponent<T>
     @Autowired
     protected BizServiceFactory<IMessageQueueBizService> MessageBizServiceFactory;
 
+    @Autowired
+    private LocalDefectClusterComponent localDefectClusterComponent;
+
+    /**
+     * 是否开启本地内存聚类，本地聚类只按规则、文件、pinpointHash精确分组，与pp-cluster的结果不完全一致，默认关闭
+     */
+    @Value("${codecc.cluster.local.enabled:false}")
+    private boolean localClusterEnabled;
+
+    /**
+     * 单批告警数不超过该阈值时走本地聚类，超过则走MQ分发到聚类服务器
+     * 需要小于提单每批的告警数(codecc.commit.route.*.maxPerBatch)，否则所有批次都会走本地聚类
+     */
+    @Value("${codecc.cluster.local.maxDefectCount:10000}")
+    private int localClusterMaxDefectCount;
+
+    /**
+     * 指定走本地聚类的任务，多个任务用逗号分隔，不受告警数阈值限制
+     */
+    @Value("${codecc.cluster.local.taskIds:}")
+    private String localClusterTaskIds;
+
     /**
      * 抽象告警跟踪方法
      * @return
@@ -70,6 +98,102 @@ public abstract class AbstractDefectTracingComponent<T>
             List<T> currentFileList,
             List<TransferAuthorEntity.TransferAuthorPair> transferAuthorList);
 
+    /**
+     * 执行聚类，按任务或告警数选择本地聚类，否则通过MQ分发到聚类服务器并读取输出文件
+     *
+     * @param taskVO
+     * @param toolName
+     * @param buildId
+     * @param chunkNo
+     * @param inputList
+     * @return
+     */
+    protected List<AggregateDefectOutputModel> clusterDefects(
+            TaskDetailVO taskVO,
+            String toolName,
+            String buildId,
+            int chunkNo,
+            List<AggregateDefectInputModel> inputList)
+    {
+        if (isLocalCluster(taskVO.getTaskId(), inputList.size()))
+        {
+            log.info("local cluster: taskId:{}, toolName:{}, buildId:{}, chunkNo:{}", taskVO.getTaskId(), toolName, buildId, chunkNo);
+            return localDefectClusterComponent.cluster(inputList);
+        }
+
+        Pair<String, AsyncRabbitTemplate.RabbitConverterFuture<Boolean>> asyncResult = executeCluster(taskVO, toolName, buildId, chunkNo, inputList);
+        return readClusterOutput(asyncResult);
+    }
+
+    /**
+     * 判断是否走本地聚类
+     *
+     * @param taskId
+     * @param defectCount
+     * @return
+     */
+    private boolean isLocalCluster(long taskId, int defectCount)
+    {
+        if (!localClusterEnabled)
+        {
+            return false;
+        }
+        if (StringUtils.isNotBlank(localClusterTaskIds)
+                && Arrays.asList(StringUtils.deleteWhitespace(localClusterTaskIds).split(",")).contains(String.valueOf(taskId)))
+        {
+            return true;
+        }
+        return defectCount <= localClusterMaxDefectCount;
+    }
+
+    /**
+     * 等待远程聚类完成，并读取聚类输出文件
+     *
+     * @param asyncResult
+     * @return
+     */
+    private List<AggregateDefectOutputModel> readClusterOutput(Pair<String, AsyncRabbitTemplate.RabbitConverterFuture<Boolean>> asyncResult)
+    {
+        List<AggregateDefectOutputModel> outputDefectList = new ArrayList<>();
+        if (asyncResult == null)
+        {
+            return outputDefectList;
+        }
+
+        String outputFile = asyncResult.getFirst();
+        log.info("begin read cluster output: {}", outputFile);
+        try
+        {
+            if (asyncResult.getSecond().get())
+            {
+                log.info("return true: {}", outputFile);
+
+                // 检查聚类output文件是否存在
+                checkOutputFileExists(outputFile);
+
+                outputDefectList = AggregateDefectFileCodec.readOutput(new File(outputFile));
+                if (CollectionUtils.isEmpty(outputDefectList))
+                {
+                    log.info("empty output defects! output file : {}", outputFile);
+                }
+            }
+            else
+            {
+                log.warn("return false: {}", outputFile);
+            }
+        }
+        catch (InterruptedException | ExecutionException e)
+        {
+            log.warn("wait cluster exception: {}", outputFile, e);
+        }
+        catch (IOException e)
+        {
+            log.error("read cluster output fail: {}", outputFile, e);
+            throw new CodeCCException(CommonMessageCode.SYSTEM_ERROR);
+        }
+        return outputDefectList;
+    }
+
     /**
      * 分批执行聚类跟踪
      *
@@ -108,7 +232,7 @@ public abstract class AbstractDefectTracingComponent<T>
                 outputFile.delete();
             }
 
-            Files.write(JsonUtil.INSTANCE.toJson(inputList).getBytes(), inputFile);
+            AggregateDefectFileCodec.writeInput(inputList, inputFile);
 
             AggregateDispatchFileName aggregateFileName = new AggregateDispatchFileName(inputFilePath, outputFilePath);
 
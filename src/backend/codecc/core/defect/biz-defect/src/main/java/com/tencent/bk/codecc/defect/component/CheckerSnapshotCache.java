@@ -0,0 +1,90 @@
+/*
+ * Tencent is pleased to support the open source community by making BlueKing available.
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the MIT License (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://opensource.org/licenses/MIT
+ * Unless required by applicable law or agreed to in writing, software distributed under
+ * the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.bk.codecc.defect.component;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.tencent.bk.codecc.defect.dao.mongorepository.CheckerRepository;
+import com.tencent.bk.codecc.defect.utils.CheckerSnapshot;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 工具规则元数据快照缓存
+ * 告警提交和查询共用同一份快照；写入一段时间后的首次读取会重新加载(加载期间其他线程继续使用旧快照)，
+ * 规则导入或工具元数据刷新消息到达时立即失效
+ *
+ * @version V1.0
+ * @date 2020/6/25
+ */
+@Component
+@Slf4j
+public class CheckerSnapshotCache
+{
+    @Autowired
+    private CheckerRepository checkerRepository;
+
+    private final AtomicLong versionGenerator = new AtomicLong();
+
+    private final LoadingCache<String, CheckerSnapshot> cache = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .refreshAfterWrite(10, TimeUnit.MINUTES)
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .build(new CacheLoader<String, CheckerSnapshot>()
+            {
+                @Override
+                public CheckerSnapshot load(String toolName)
+                {
+                    return CheckerSnapshot.of(versionGenerator.incrementAndGet(), checkerRepository.findByToolName(toolName));
+                }
+            });
+
+    /**
+     * 获取工具的规则快照
+     *
+     * @param toolName
+     * @return
+     */
+    public CheckerSnapshot get(String toolName)
+    {
+        return cache.getUnchecked(toolName);
+    }
+
+    /**
+     * 失效工具的规则快照，工具名为空时失效全部
+     *
+     * @param toolName
+     */
+    public void invalidate(String toolName)
+    {
+        if (StringUtils.isBlank(toolName))
+        {
+            invalidateAll();
+            return;
+        }
+        log.info("invalidate checker snapshot: {}", toolName);
+        cache.invalidate(toolName);
+    }
+
+    public void invalidateAll()
+    {
+        log.info("invalidate all checker snapshot");
+        cache.invalidateAll();
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Tencent is pleased to support the open source community by making BlueKing available.
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the MIT License (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://opensource.org/licenses/MIT
+ * Unless required by applicable law or agreed to in writing, software distributed under
+ * the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.bk.codecc.defect.component;
+
+import com.tencent.bk.codecc.defect.dao.mongorepository.TaskLogRepository;
+import com.tencent.bk.codecc.defect.model.TaskLogEntity;
+import com.tencent.devops.common.constant.ComConstants;
+import com.tencent.devops.common.constant.ComConstants.ProjectScale;
+import com.tencent.devops.common.constant.RedisKeyConstants;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 提单路由
+ * 根据告警文件大小和该任务工具历史提单耗时的指数加权移动平均值(EWMA)选择提单消息队列和每批处理的告警数：
+ * 告警文件小但历史提单耗时长的任务也走大项目队列，避免阻塞普通项目的提单
+ *
+ * @version V1.0
+ * @date 2020/6/24
+ */
+@Slf4j
+@Component
+public class DefectCommitRouteComponent
+{
+    private static final String METRIC_PREFIX = "codecc.commit.route.";
+
+    @Autowired
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Autowired
+    private TaskLogRepository taskLogRepository;
+
+    @Autowired
+    private GaugeService gaugeService;
+
+    @Autowired
+    private CounterService counterService;
+
+    /**
+     * EWMA的平滑系数，越大越偏向最近一次的提单耗时
+     */
+    @Value("${codecc.commit.route.ewmaAlpha:0.3}")
+    private double ewmaAlpha;
+
+    /**
+     * 预计提单耗时超过该值(毫秒)的普通项目改走大项目队列，0表示只按告警文件大小路由
+     */
+    @Value("${codecc.commit.route.largeCostThreshold:900000}")
+    private long largeCostThreshold;
+
+    /**
+     * 每个任务工具的EWMA单独一个key，超过该天数没有提单则自动过期，过期后再用分析记录初始化
+     */
+    @Value("${codecc.commit.route.ewmaExpireDays:30}")
+    private long ewmaExpireDays;
+
+    @Value("${codecc.commit.route.normal.maxPerBatch:30000}")
+    private int normalMaxPerBatch;
+
+    @Value("${codecc.commit.route.large.maxPerBatch:50000}")
+    private int largeMaxPerBatch;
+
+    @Value("${codecc.commit.route.superLarge.maxPerBatch:50000}")
+    private int superLargeMaxPerBatch;
+
+    /**
+     * 选择提单的项目规模和每批处理的告警数
+     *
+     * @param taskId
+     * @param toolName
+     * @param defectFileSize
+     * @return
+     */
+    public CommitRoute route(long taskId, String toolName, long defectFileSize)
+    {
+        ProjectScale projectScale = ProjectScale.of(defectFileSize);
+        long predictedCost = getPredictedCost(taskId, toolName);
+        if (projectScale == ProjectScale.NORMAL && largeCostThreshold > 0 && predictedCost > largeCostThreshold)
+        {
+            projectScale = ProjectScale.LARGE;
+        }
+
+        int maxPerBatch;
+        switch (projectScale)
+        {
+            case LARGE:
+                maxPerBatch = largeMaxPerBatch;
+                break;
+            case SUPER_LARGE:
+                maxPerBatch = superLargeMaxPerBatch;
+                break;
+            default:
+                maxPerBatch = normalMaxPerBatch;
+                break;
+        }
+
+        log.info("commit route: {}, {}, fileSize: {}, predictedCost: {}, scale: {}, maxPerBatch: {}",
+                taskId, toolName, defectFileSize, predictedCost, projectScale, maxPerBatch);
+        counterService.increment(METRIC_PREFIX + projectScale.getMetricName());
+        gaugeService.submit(METRIC_PREFIX + projectScale.getMetricName() + ".predictedCost", predictedCost);
+        return new CommitRoute(projectScale, maxPerBatch, predictedCost);
+    }
+
+    /**
+     * 记录一次成功提单的耗时
+     *
+     * @param taskId
+     * @param toolName
+     * @param cost
+     */
+    public void record(long taskId, String toolName, long cost)
+    {
+        String key = getKey(taskId, toolName);
+        try
+        {
+            String value = redisTemplate.opsForValue().get(key);
+            long ewma = StringUtils.isNumeric(value) ? (long) (ewmaAlpha * cost + (1 - ewmaAlpha) * Long.parseLong(value)) : cost;
+            redisTemplate.opsForValue().set(key, String.valueOf(ewma), ewmaExpireDays, TimeUnit.DAYS);
+        }
+        catch (Exception e)
+        {
+            log.warn("record commit cost fail: {}, {}", taskId, toolName, e);
+        }
+    }
+
+    /**
+     * 获取预计的提单耗时，redis中没有记录时用最近几次分析记录中的提单耗时初始化
+     *
+     * @param taskId
+     * @param toolName
+     * @return
+     */
+    private long getPredictedCost(long taskId, String toolName)
+    {
+        String key = getKey(taskId, toolName);
+        try
+        {
+            String value = redisTemplate.opsForValue().get(key);
+            if (StringUtils.isNumeric(value))
+            {
+                return Long.parseLong(value);
+            }
+
+            List<TaskLogEntity> taskLogList = taskLogRepository.findFirst5ByTaskIdAndToolNameOrderByStartTimeDesc(taskId, toolName);
+            long ewma = -1;
+            if (CollectionUtils.isNotEmpty(taskLogList))
+            {
+                // 从最早的一次开始累积
+                for (int i = taskLogList.size() - 1; i >= 0; i--)
+                {
+                    long cost = getCommitCost(taskLogList.get(i));
+                    if (cost > 0)
+                    {
+                        ewma = ewma < 0 ? cost : (long) (ewmaAlpha * cost + (1 - ewmaAlpha) * ewma);
+                    }
+                }
+            }
+            if (ewma > 0)
+            {
+                redisTemplate.opsForValue().set(key, String.valueOf(ewma), ewmaExpireDays, TimeUnit.DAYS);
+                return ewma;
+            }
+        }
+        catch (Exception e)
+        {
+            log.warn("get predicted commit cost fail: {}, {}", taskId, toolName, e);
+        }
+        return 0;
+    }
+
+    private long getCommitCost(TaskLogEntity taskLogEntity)
+    {
+        if (CollectionUtils.isEmpty(taskLogEntity.getStepArray()))
+        {
+            return 0;
+        }
+        for (TaskLogEntity.TaskUnit taskUnit : taskLogEntity.getStepArray())
+        {
+            if (taskUnit.getStepNum() == ComConstants.Step4MutliTool.COMMIT.value()
+                    && taskUnit.getFlag() == ComConstants.StepFlag.SUCC.value())
+            {
+                if (taskUnit.getElapseTime() > 0)
+                {
+                    return taskUnit.getElapseTime();
+                }
+                return taskUnit.getStartTime() > 0 ? Math.max(taskUnit.getEndTime() - taskUnit.getStartTime(), 0) : 0;
+            }
+        }
+        return 0;
+    }
+
+    private String getKey(long taskId, String toolName)
+    {
+        return String.format("%s:%d:%s", RedisKeyConstants.KEY_COMMIT_COST_EWMA, taskId, toolName);
+    }
+
+    /**
+     * 提单路由结果
+     */
+    @Getter
+    public static class CommitRoute
+    {
+        private final ProjectScale projectScale;
+
+        private final int maxPerBatch;
+
+        /**
+         * 预计提单耗时(毫秒)，没有历史记录时为0
+         */
+        private final long predictedCost;
+
+        private CommitRoute(ProjectScale projectScale, int maxPerBatch, long predictedCost)
+        {
+            this.projectScale = projectScale;
+            this.maxPerBatch = maxPerBatch;
+            this.predictedCost = predictedCost;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Tencent is pleased to support the open source community by making BlueKing available.
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the MIT License (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://opensource.org/licenses/MIT
+ * Unless required by applicable law or agreed to in writing, software distributed under
+ * the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.bk.codecc.defect.component;
+
+import com.tencent.bk.codecc.defect.utils.CommitStageProfiler;
+import com.tencent.devops.common.constant.ComConstants.ProjectScale;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 告警跟踪线程池
+ * 按项目规模(与提单消息队列的普通/大项目/超大项目划分一致)使用各自独立的有界线程池，超大项目不会占满普通项目的线程；
+ * 每次提单在途的批次数由提单消费者限制，线程池队列先进先出，多个任务的批次在同一线程池中交替执行。
+ * 线程池满时由提交线程自己执行，形成背压。队列长度、活跃线程数通过/metrics暴露，每批次的排队和执行耗时上报到GaugeService
+ *
+ * @version V1.0
+ * @date 2020/6/24
+ */
+@Slf4j
+@Component
+public class DefectTracingExecutorComponent implements PublicMetrics
+{
+    private static final String METRIC_PREFIX = "codecc.tracing.lint.";
+
+    @Autowired
+    private GaugeService gaugeService;
+
+    @Value("${codecc.tracing.lint.normal.poolSize:64}")
+    private int normalPoolSize;
+
+    @Value("${codecc.tracing.lint.normal.queueCapacity:128}")
+    private int normalQueueCapacity;
+
+    @Value("${codecc.tracing.lint.large.poolSize:16}")
+    private int largePoolSize;
+
+    @Value("${codecc.tracing.lint.large.queueCapacity:32}")
+    private int largeQueueCapacity;
+
+    @Value("${codecc.tracing.lint.superLarge.poolSize:4}")
+    private int superLargePoolSize;
+
+    @Value("${codecc.tracing.lint.superLarge.queueCapacity:8}")
+    private int superLargeQueueCapacity;
+
+    private final Map<ProjectScale, ThreadPoolTaskExecutor> executorMap = new EnumMap<>(ProjectScale.class);
+
+    @PostConstruct
+    public void init()
+    {
+        executorMap.put(ProjectScale.NORMAL, createExecutor(ProjectScale.NORMAL, normalPoolSize, normalQueueCapacity));
+        executorMap.put(ProjectScale.LARGE, createExecutor(ProjectScale.LARGE, largePoolSize, largeQueueCapacity));
+        executorMap.put(ProjectScale.SUPER_LARGE, createExecutor(ProjectScale.SUPER_LARGE, superLargePoolSize, superLargeQueueCapacity));
+    }
+
+    @PreDestroy
+    public void destroy()
+    {
+        executorMap.values().forEach(ThreadPoolTaskExecutor::shutdown);
+    }
+
+    /**
+     * 提交一个批次的告警跟踪
+     *
+     * @param scale 项目规模
+     * @param task  告警跟踪
+     * @return
+     */
+    public Future<Boolean> submit(ProjectScale scale, Callable<Boolean> task)
+    {
+        long submitTime = System.currentTimeMillis();
+        // 告警跟踪中的数据库操作计入提交线程所在的提单阶段
+        Callable<Boolean> profiledTask = CommitStageProfiler.wrap(task);
+        return executorMap.get(scale).submit(() ->
+        {
+            long beginTime = System.currentTimeMillis();
+            gaugeService.submit(METRIC_PREFIX + scale.metricName + ".chunk.wait", beginTime - submitTime);
+            try
+            {
+                return profiledTask.call();
+            }
+            finally
+            {
+                gaugeService.submit(METRIC_PREFIX + scale.metricName + ".chunk.cost", System.currentTimeMillis() - beginTime);
+            }
+        });
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics()
+    {
+        List<Metric<?>> metrics = new ArrayList<>();
+        executorMap.forEach((scale, executor) ->
+        {
+            ThreadPoolExecutor threadPoolExecutor = executor.getThreadPoolExecutor();
+            String prefix = METRIC_PREFIX + scale.metricName;
+            metrics.add(new Metric<>(prefix + ".queue.depth", threadPoolExecutor.getQueue().size()));
+            metrics.add(new Metric<>(prefix + ".queue.remaining", threadPoolExecutor.getQueue().remainingCapacity()));
+            metrics.add(new Metric<>(prefix + ".threads.active", threadPoolExecutor.getActiveCount()));
+            metrics.add(new Metric<>(prefix + ".threads.pool", threadPoolExecutor.getPoolSize()));
+            metrics.add(new Metric<>(prefix + ".chunk.completed", threadPoolExecutor.getCompletedTaskCount()));
+        });
+        return metrics;
+    }
+
+    private ThreadPoolTaskExecutor createExecutor(ProjectScale scale, int poolSize, int queueCapacity)
+    {
+        log.info("initialize lint defect tracing pool: {}, {}, {}", scale, poolSize, queueCapacity);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setKeepAliveSeconds(30);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("lint-defect-tracing-" + scale.metricName + "-");
+        // 线程池满时由提交线程执行，提单消费者不再继续分发批次
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.bk.codecc.defect.component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.tencent.bk.codecc.defect.vo.TreeNodeVO;
+import com.tencent.devops.common.constant.RedisKeyConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 告警文件树缓存
+ * 按任务+工具缓存构建好的文件树，并记录构建时任务的树版本号；告警提交完成后自增redis中的版本号，
+ * 各实例在下次查询时发现版本号变化即重新构建。告警的忽略等操作不会更新版本号，由缓存过期时间兜底
+ *
+ * @version V1.0
+ * @date 2020/6/24
+ */
+@Component
+@Slf4j
+public class DefectTreeCache
+{
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    private final Cache<String, CachedTree> cache = CacheBuilder.newBuilder()
+            .maximumSize(2000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 获取缓存的告警文件树，缓存不存在或已失效时重新构建
+     * 返回的树会被多个请求共享，调用方不能修改
+     *
+     * @param taskId
+     * @param toolNames
+     * @param loader    构建文件树
+     * @return
+     */
+    public TreeNodeVO get(long taskId, Collection<String> toolNames, Supplier<TreeNodeVO> loader)
+    {
+        String version;
+        try
+        {
+            version = redisTemplate.opsForValue().get(getVersionKey(taskId));
+        }
+        catch (Exception e)
+        {
+            log.warn("get defect tree version fail, build tree without cache: {}", taskId, e);
+            return loader.get();
+        }
+
+        String key = String.format("%d:%s", taskId, String.join(",", new TreeSet<>(toolNames)));
+        CachedTree cachedTree = cache.getIfPresent(key);
+        if (cachedTree != null && Objects.equals(cachedTree.version, version))
+        {
+            return cachedTree.tree;
+        }
+
+        // 先取版本号再构建，构建期间有新的提交时下次查询会因版本号不一致而重建
+        TreeNodeVO tree = loader.get();
+        cache.put(key, new CachedTree(version, tree));
+        return tree;
+    }
+
+    /**
+     * 告警数据变化后失效任务的告警文件树
+     *
+     * @param taskId
+     */
+    public void invalidate(long taskId)
+    {
+        try
+        {
+            String versionKey = getVersionKey(taskId);
+            redisTemplate.opsForValue().increment(versionKey, 1L);
+            redisTemplate.expire(versionKey, 1, TimeUnit.DAYS);
+        }
+        catch (Exception e)
+        {
+            log.warn("invalidate defect tree fail: {}", taskId, e);
+        }
+    }
+
+    private String getVersionKey(long taskId)
+    {
+        return RedisKeyConstants.PREFIX_DEFECT_TREE_VERSION + taskId;
+    }
+
+    private static class CachedTree
+    {
+        private final String version;
+
+        private final TreeNodeVO tree;
+
+        private CachedTree(String version, TreeNodeVO tree)
+        {
+            this.version = version;
+            this.tree = tree;
+        }
+    }
+}
@@ -26,20 +26,13 @@
 
 package com.tencent.bk.codecc.defect.component;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.tencent.bk.codecc.defect.service.CheckerService;
-import com.tencent.bk.codecc.defect.vo.CheckerDetailVO;
-import org.apache.commons.collections.MapUtils;
+import com.tencent.bk.codecc.defect.utils.CheckerSnapshot;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.Map;
-import java.util.stream.Collectors;
-
 /**
  * lint类工具规则严重级别缓存
+ * 严重级别取自共享的规则快照
  *
  * @version V1.0
  * @date 2019/7/2
@@ -48,32 +41,7 @@ import java.util.stream.Collectors;
 public class LintDefectCache
 {
     @Autowired
-    private CheckerService multitoolCheckerService;
-
-    private LoadingCache<String, Map<String, Integer>> cache = CacheBuilder.newBuilder()
-            .maximumSize(20000)
-            .build(new CacheLoader<String, Map<String, Integer>>()
-            {
-                @Override
-                public Map<String, Integer> load(String key)
-                {
-                    return getSeverityMapByTool(key);
-                }
-            });
-
-
-    /**
-     * 获取严重等级映射
-     *
-     * @param toolName
-     * @return
-     */
-    private Map<String, Integer> getSeverityMapByTool(String toolName)
-    {
-        Map<String, CheckerDetailVO> checkerDetailVOMap = multitoolCheckerService.queryAllChecker(toolName);
-        return checkerDetailVOMap.entrySet().stream().
-                collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().getSeverity(), (k, v) -> v));
-    }
+    private CheckerSnapshotCache checkerSnapshotCache;
 
     /**
      * 在缓存中获取严重等级
@@ -84,16 +52,9 @@ public class LintDefectCache
      */
     public int getDefectLevel(String toolName, String checkerName)
     {
-        int level = 0;
-        Map<String, Integer> checkerMap = cache.getUnchecked(toolName);
-        if (MapUtils.isNotEmpty(checkerMap))
-        {
-            if (checkerMap.containsKey(checkerName))
-            {
-                level = checkerMap.get(checkerName);
-            }
-        }
-        return level;
+        CheckerSnapshot checkerSnapshot = checkerSnapshotCache.get(toolName);
+        Integer level = checkerSnapshot.getSeverity(checkerName);
+        return level == null ? 0 : level;
     }
 
 }
@@ -0,0 +1,79 @@
+/*
+ * Tencent is pleased to support the open source community by making BlueKing available.
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the MIT License (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://opensource.org/licenses/MIT
+ * Unless required by applicable law or agreed to in writing, software distributed under
+ * the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.bk.codecc.defect.component;
+
+import com.tencent.bk.codecc.defect.utils.LintStatisticCounter;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * lint告警统计差值登记
+ * 提交告警时按构建登记一个差值计数器，告警跟踪线程把每个文件跟踪前后的计数差累加进来，
+ * 提交结束后再合并到统计累计值中
+ *
+ * @version V1.0
+ * @date 2020/6/18
+ */
+@Component
+public class LintStatisticDeltaComponent
+{
+    private final Map<String, LintStatisticCounter> deltaMap = new ConcurrentHashMap<>();
+
+    /**
+     * 开始登记一次构建的统计差值
+     *
+     * @param taskId
+     * @param toolName
+     * @param buildId
+     * @param newDefectJudgeTime
+     * @return
+     */
+    public LintStatisticCounter begin(long taskId, String toolName, String buildId, long newDefectJudgeTime)
+    {
+        LintStatisticCounter delta = new LintStatisticCounter(newDefectJudgeTime);
+        deltaMap.put(getKey(taskId, toolName, buildId), delta);
+        return delta;
+    }
+
+    /**
+     * 获取构建登记的统计差值，没有登记(需要全量重算)时返回null
+     *
+     * @param taskId
+     * @param toolName
+     * @param buildId
+     * @return
+     */
+    public LintStatisticCounter get(long taskId, String toolName, String buildId)
+    {
+        return deltaMap.get(getKey(taskId, toolName, buildId));
+    }
+
+    /**
+     * 结束登记
+     *
+     * @param taskId
+     * @param toolName
+     * @param buildId
+     */
+    public void finish(long taskId, String toolName, String buildId)
+    {
+        deltaMap.remove(getKey(taskId, toolName, buildId));
+    }
+
+    private String getKey(long taskId, String toolName, String buildId)
+    {
+        return String.format("%d_%s_%s", taskId, toolName, buildId);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Tencent is pleased to support the open source community by making BlueKing available.
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the MIT License (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://opensource.org/licenses/MIT
+ * Unless required by applicable law or agreed to in writing, software distributed under
+ * the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.bk.codecc.defect.component;
+
+import com.tencent.bk.codecc.defect.pojo.AggregateDefectInputModel;
+import com.tencent.bk.codecc.defect.pojo.AggregateDefectOutputModel;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 本地内存聚类组件
+ * 只把 规则 + 文件 + pinpointHash 完全相同的告警分为一组，输出AggregateDefectOutputModel列表，无需落地文件和经过MQ往返。
+ * 注意与pp-cluster的聚类结果并不等价：pp-cluster会把规则或pinpointHash有变化的告警(代码移动、修改后)也归为一组，
+ * 告警跟踪据此把新告警的规则、pinpointHash更新到老告警上；本地聚类时这类告警会变成一个已修复的老告警加一个新告警，
+ * 老告警的忽略、标记、作者等状态不会带到新告警上。因此默认关闭，只建议对能接受该差异的任务开启
+ *
+ * @version V1.0
+ * @date 2020/6/12
+ */
+@Slf4j
+@Component
+public class LocalDefectClusterComponent
+{
+    /**
+     * 执行本地聚类
+     *
+     * @param inputList
+     * @return
+     */
+    public List<AggregateDefectOutputModel> cluster(List<AggregateDefectInputModel> inputList)
+    {
+        if (CollectionUtils.isEmpty(inputList))
+        {
+            return Collections.emptyList();
+        }
+
+        long beginTime = System.currentTimeMillis();
+        // 保持告警首次出现的顺序，与远程聚类的输出顺序保持一致
+        Map<String, List<AggregateDefectInputModel>> bucketMap = new LinkedHashMap<>(inputList.size());
+        List<AggregateDefectOutputModel> outputList = new ArrayList<>();
+        for (AggregateDefectInputModel input : inputList)
+        {
+            // 没有pinpointHash的告警无法与其他告警关联，单独成组
+            if (StringUtils.isEmpty(input.getPinpointHash()))
+            {
+                outputList.add(new AggregateDefectOutputModel(Collections.singletonList(input)));
+                continue;
+            }
+            String path = StringUtils.isEmpty(input.getRelPath()) ? input.getFilePath() : input.getRelPath();
+            String bucketKey = String.format("%s|%s|%s", input.getCheckerName(), path, input.getPinpointHash());
+            bucketMap.computeIfAbsent(bucketKey, k -> new ArrayList<>()).add(input);
+        }
+        bucketMap.values().forEach(defects -> outputList.add(new AggregateDefectOutputModel(defects)));
+
+        log.info("local cluster finish, input size: {}, group size: {}, cost: {}", inputList.size(), outputList.size(),
+                System.currentTimeMillis() - beginTime);
+        return outputList;
+    }
+}
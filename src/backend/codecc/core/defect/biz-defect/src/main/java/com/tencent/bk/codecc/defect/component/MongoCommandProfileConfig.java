@@ -0,0 +1,60 @@
+/*
+ * Tencent is pleased to support the open source community by making BlueKing available.
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the MIT License (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://opensource.org/licenses/MIT
+ * Unless required by applicable law or agreed to in writing, software distributed under
+ * the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.bk.codecc.defect.component;
+
+import com.mongodb.MongoClientOptions;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.tencent.bk.codecc.defect.utils.CommitStageProfiler;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * mongo命令监听配置
+ * 同步驱动在发起命令的线程上回调监听器，提单线程及其传递了绑定的线程发出的命令计入当前提单阶段的数据库操作次数
+ *
+ * @version V1.0
+ * @date 2020/6/24
+ */
+@Configuration
+public class MongoCommandProfileConfig
+{
+    @Bean
+    public MongoClientOptions mongoClientOptions()
+    {
+        return MongoClientOptions.builder()
+                .addCommandListener(new CommitStageCommandListener())
+                .build();
+    }
+
+    private static class CommitStageCommandListener implements CommandListener
+    {
+        @Override
+        public void commandStarted(CommandStartedEvent event)
+        {
+            CommitStageProfiler.onDbOperation();
+        }
+
+        @Override
+        public void commandSucceeded(CommandSucceededEvent event)
+        {
+        }
+
+        @Override
+        public void commandFailed(CommandFailedEvent event)
+        {
+        }
+    }
+}
@@ -12,33 +12,28 @@
 
 package com.tencent.bk.codecc.defect.component;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.Lists;
 import com.tencent.bk.codecc.defect.dao.mongotemplate.BuildDefectDao;
 import com.tencent.bk.codecc.defect.dao.mongotemplate.LintDefectDao;
 import com.tencent.bk.codecc.defect.model.*;
 import com.tencent.bk.codecc.defect.pojo.AggregateDefectInputModel;
 import com.tencent.bk.codecc.defect.pojo.AggregateDefectOutputModel;
+import com.tencent.bk.codecc.defect.utils.LintFileSnapshot;
+import com.tencent.bk.codecc.defect.utils.LintStatisticCounter;
 import com.tencent.bk.codecc.defect.vo.CommitDefectVO;
 import com.tencent.bk.codecc.task.vo.TaskDetailVO;
-import com.tencent.devops.common.api.util.JsonUtil;
 import com.tencent.devops.common.constant.ComConstants;
 import com.tencent.devops.common.util.PathUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
-import org.bson.BsonSerializationException;
 import org.bson.types.ObjectId;
-import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.util.Pair;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
@@ -60,13 +55,15 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
     @Autowired
     private BuildDefectDao buildDefectDao;
 
+    @Autowired
+    private LintStatisticDeltaComponent lintStatisticDeltaComponent;
+
     /**
-     * 告警跟踪
+     * 告警跟踪，由提单消费者按项目规模提交到DefectTracingExecutorComponent的线程池中执行
      *
      * @return
      */
     @Override
-    @Async("asyncLintDefectTracingExecutor")
     public Future<Boolean> defectTracing(
             CommitDefectVO commitDefectVO,
             TaskDetailVO taskVO, Set<String> filterPath,
@@ -80,6 +77,23 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
         String toolName = commitDefectVO.getToolName();
         String streamName = commitDefectVO.getStreamName();
 
+        // 告警跟踪会直接修改原有的文件和告警，先记录快照，入库时只写回有变化的部分
+        Map<String, LintFileSnapshot> snapshotMap = originalFileList.stream()
+                .collect(Collectors.toMap(file -> StringUtils.isEmpty(file.getRelPath()) ? file.getFilePath() : file.getRelPath(),
+                        LintFileSnapshot::of, (k, v) -> v));
+
+        // 需要增量统计时，先扣减原有文件的告警计数，入库时再累加跟踪后的计数
+        LintStatisticCounter statisticDelta = lintStatisticDeltaComponent.get(taskId, toolName, commitDefectVO.getBuildId());
+        LintStatisticCounter fileDelta = null;
+        if (statisticDelta != null)
+        {
+            fileDelta = new LintStatisticCounter(statisticDelta.getNewDefectJudgeTime());
+            for (LintFileEntity originalFile : originalFileList)
+            {
+                fileDelta.addFile(originalFile, -1);
+            }
+        }
+
         //1. 告警去重，去重没去完才需要聚类
         List<LintDefectEntity> defectList = distinctLintDefect(streamName, toolName, buildEntity.getBuildId(), originalFileList, currentFileList);
         log.info("distinct defect list: {}", defectList.size());
@@ -89,7 +103,8 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
         {
             log.info("no file change since last check!");
             List<LintDefectEntity> upsertDefectList = updateOriginalDefectStatus(originalFileList, currentFileList, buildEntity);
-            saveDefectFile(taskId, toolName, filterPath, buildEntity, originalFileList, currentFileList, upsertDefectList);
+            saveDefectFile(taskId, toolName, filterPath, buildEntity, originalFileList, currentFileList, upsertDefectList, snapshotMap, fileDelta);
+            mergeStatisticDelta(statisticDelta, fileDelta);
             return new AsyncResult<>(true);
         }
 
@@ -103,19 +118,28 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
                         lintDefectEntity.getRelPath())
         ).collect(Collectors.toList());
 
-        //3. 做聚类，通过MQ分发到各台服务器上去做聚类，避免聚类都集中到一台服务器上导致服务器资源不足
-        Pair<String, AsyncRabbitTemplate.RabbitConverterFuture<Boolean>> asyncResult = executeCluster(taskVO, toolName, buildEntity.getBuildId(), chunkNo, defectHashList);
+        //3. 做聚类，小批量在本地内存中聚类，大批量通过MQ分发到各台服务器上去做聚类，避免聚类都集中到一台服务器上导致服务器资源不足
+        List<AggregateDefectOutputModel> outputDefectList = clusterDefects(taskVO, toolName, buildEntity.getBuildId(), chunkNo, defectHashList);
 
-        //4. 读取聚类输出文件，并转换告警状态
-        List<LintDefectEntity> upsertDefectList = handleWithOutputModel(originalFileList, currentFileList, asyncResult, buildEntity, transferAuthorList);
+        //4. 根据聚类结果转换告警状态
+        List<LintDefectEntity> upsertDefectList = handleWithOutputModel(originalFileList, currentFileList, outputDefectList, buildEntity, transferAuthorList);
         log.info("upsert defect list: {}", upsertDefectList.size());
 
         // 5.分批保存告警
-        saveDefectFile(taskId, toolName, filterPath, buildEntity, originalFileList, currentFileList, upsertDefectList);
+        saveDefectFile(taskId, toolName, filterPath, buildEntity, originalFileList, currentFileList, upsertDefectList, snapshotMap, fileDelta);
+        mergeStatisticDelta(statisticDelta, fileDelta);
 
         return new AsyncResult<>(true);
     }
 
+    private void mergeStatisticDelta(LintStatisticCounter statisticDelta, LintStatisticCounter fileDelta)
+    {
+        if (statisticDelta != null && fileDelta != null)
+        {
+            statisticDelta.merge(fileDelta);
+        }
+    }
+
     /**
      * 代码没有变化，本次上报的告警全部被去重完，则不需要做聚类，直接根据去重规则判断告警的状态
      *
@@ -193,6 +217,8 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
      * @param originalFileList
      * @param currentFileList
      * @param upsertDefectList
+     * @param snapshotMap
+     * @param fileDelta 告警统计差值，不需要增量统计时为null
      */
     protected void saveDefectFile(long taskId,
                                   String toolName,
@@ -200,7 +226,9 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
                                   BuildEntity buildEntity,
                                   List<LintFileEntity> originalFileList,
                                   List<LintFileEntity> currentFileList,
-                                  List<LintDefectEntity> upsertDefectList)
+                                  List<LintDefectEntity> upsertDefectList,
+                                  Map<String, LintFileSnapshot> snapshotMap,
+                                  LintStatisticCounter fileDelta)
     {
         long beginTime = System.currentTimeMillis();
         log.info("begin saveDefectFile: taskId:{}, toolName:{}, buildId:{}", taskId, toolName, buildEntity.getBuildId());
@@ -280,17 +308,14 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
             }
 
             defectCount.addAndGet(currentFile.getDefectCount());
+            if (fileDelta != null)
+            {
+                fileDelta.addFile(currentFile, 1);
+            }
         });
 
         log.info("save defect trace result: taskId:{}, toolName:{}, buildId:{}, fileCount:{}, defectCount:{}", taskId, toolName, buildEntity.getBuildId(), finalFileEntityList.size(), defectCount.get());
-        try
-        {
-            lintDefectDao.upsertDefectListByPath(taskId, toolName, finalFileEntityList);
-        }
-        catch (BsonSerializationException e)
-        {
-            log.info("lint defect size larger than 16M! task id: {}", taskId);
-        }
+        lintDefectDao.upsertDefectListByPath(taskId, toolName, finalFileEntityList, snapshotMap);
         buildDefectDao.upsertByFilePath(buildDefectEntityList);
         log.info("end saveDefectFile, cost:{}, taskId:{}, toolName:{}, buildId:{}", System.currentTimeMillis() - beginTime, taskId, toolName, buildEntity.getBuildId());
     }
@@ -328,11 +353,11 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
     }
 
     /**
-     * 读取聚类输出文件，并转换告警状态
+     * 根据聚类结果转换告警状态
      *
      * @param originalFileList
      * @param currentFileList
-     * @param asyncResult
+     * @param outputDefectList
      * @param buildEntity
      * @param transferAuthorList
      * @return
@@ -340,202 +365,167 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
     protected List<LintDefectEntity> handleWithOutputModel(
             List<LintFileEntity> originalFileList,
             List<LintFileEntity> currentFileList,
-            Pair<String, AsyncRabbitTemplate.RabbitConverterFuture<Boolean>> asyncResult,
+            List<AggregateDefectOutputModel> outputDefectList,
             BuildEntity buildEntity, List<TransferAuthorEntity.TransferAuthorPair> transferAuthorList)
     {
         long beginTime = System.currentTimeMillis();
         List<LintDefectEntity> upsertDefectList = new ArrayList<>();
-        if (asyncResult != null)
+        log.info("clustered defect list: {}", outputDefectList.size());
+        if (CollectionUtils.isNotEmpty(outputDefectList))
         {
-            String outputFile = asyncResult.getFirst();
-            log.info("begin handleWithOutputModel: {}", outputFile);
-            AsyncRabbitTemplate.RabbitConverterFuture<Boolean> asyncMsgFuture = asyncResult.getSecond();
-            try
+            Map<String, LintDefectEntity> defectMap = new HashMap<>();
+            Map<String, LintDefectEntity> originalDefectMap = originalFileList.stream().map(LintFileEntity::getDefectList)
+                    .flatMap(Collection::parallelStream).collect(Collectors.toMap(LintDefectEntity::getDefectId, Function.identity(), (k, v) -> v));
+            defectMap.putAll(originalDefectMap);
+
+            Map<String, LintDefectEntity> currentDefectMap = currentFileList.stream().map(LintFileEntity::getDefectList)
+                    .flatMap(Collection::parallelStream).collect(Collectors.toMap(LintDefectEntity::getDefectId, Function.identity(), (k, v) -> v));
+            defectMap.putAll(currentDefectMap);
+
+            Map<String, LintFileEntity> originalFileMap = originalFileList.stream()
+                    .collect(Collectors.toMap(file -> StringUtils.isEmpty(file.getRelPath()) ? file.getFilePath() : file.getRelPath(), Function.identity()));
+
+            //将聚类输出格式改为defectEntity
+            List<List<LintDefectEntity>> clusteredDefectList = outputDefectList.stream().map(AggregateDefectOutputModel::getDefects).map(aggregateDefectInputModels ->
+                    aggregateDefectInputModels.stream().map(aggregateDefectInputModel -> defectMap.get(aggregateDefectInputModel.getId())).collect(Collectors.toList())
+            ).collect(Collectors.toList());
+
+            Map<String, LintDefectEntity> currentFileMd5Map = currentDefectMap.values().stream()
+                    .filter(lintDefectEntity -> StringUtils.isNotEmpty(lintDefectEntity.getFileMd5()) && StringUtils.isNotBlank(lintDefectEntity.getChecker()))
+                    .collect(Collectors.toMap(lintDefectEntity -> String.format("%s_%s_%s",
+                            lintDefectEntity.getFileMd5(), lintDefectEntity.getLineNum(), lintDefectEntity.getChecker()),
+                            Function.identity(), (k, v) -> v));
+            log.info("current file md5 map size: {}", currentFileMd5Map.size());
+
+            clusteredDefectList.forEach(lintDefectList ->
             {
-                if (asyncMsgFuture.get())
+                //将聚类输出分为新告警和历史告警
+                Map<Boolean, List<LintDefectEntity>> partitionedDefects = lintDefectList.stream().collect(Collectors.groupingBy(LintDefectEntity::getNewDefect));
+                List<LintDefectEntity> newDefectList = partitionedDefects.get(true);
+                List<LintDefectEntity> oldDefectList = partitionedDefects.get(false);
+
+                /* 聚类分组中只有老告警，从去重的新告警中查找：
+                 * 1.有找到新告警：
+                 *   1.1 老告警是已修复，则变为重新打开
+                 *   1.2 老告警是待修复，则要将新告警的属性赋值，并上报
+                 *   1.2 老告警是其他状态，则不变更直接上报（既然是被去重的，那么新告警和老告警的信息应该是一样的，所以不需要更新）
+                 * 2.没找到新告警
+                 *   2.1 将状态是NEW的老告警变成已修复
+                 *   2.2 老告警是其他状态，则不变更直接上报
+                 */
+                if (CollectionUtils.isEmpty(newDefectList))
                 {
-                    log.info("return true: {}", outputFile);
-
-                    // 检查聚类output文件是否存在
-                    checkOutputFileExists(outputFile);
-
-                    String outputDefects = ScmJsonComponent.readFileContent(outputFile);
-                    if (StringUtils.isEmpty(outputDefects))
-                    {
-                        log.info("empty output defects! output file : {}", outputFile);
-                        return upsertDefectList;
-                    }
-                    List<AggregateDefectOutputModel> outputDefectList = JsonUtil.INSTANCE.to(outputDefects, new TypeReference<List<AggregateDefectOutputModel>>()
-                    {
-                    });
-                    log.info("clustered defect list: {}", outputDefectList.size());
-
-                    if (CollectionUtils.isNotEmpty(outputDefectList))
+                    oldDefectList.forEach(oldDefect ->
                     {
-                        Map<String, LintDefectEntity> defectMap = new HashMap<>();
-                        Map<String, LintDefectEntity> originalDefectMap = originalFileList.stream().map(LintFileEntity::getDefectList)
-                                .flatMap(Collection::parallelStream).collect(Collectors.toMap(LintDefectEntity::getDefectId, Function.identity(), (k, v) -> v));
-                        defectMap.putAll(originalDefectMap);
-
-                        Map<String, LintDefectEntity> currentDefectMap = currentFileList.stream().map(LintFileEntity::getDefectList)
-                                .flatMap(Collection::parallelStream).collect(Collectors.toMap(LintDefectEntity::getDefectId, Function.identity(), (k, v) -> v));
-                        defectMap.putAll(currentDefectMap);
-
-                        Map<String, LintFileEntity> originalFileMap = originalFileList.stream()
-                                .collect(Collectors.toMap(file -> StringUtils.isEmpty(file.getRelPath()) ? file.getFilePath() : file.getRelPath(), Function.identity()));
-
-                        //将聚类输出格式改为defectEntity
-                        List<List<LintDefectEntity>> clusteredDefectList = outputDefectList.stream().map(AggregateDefectOutputModel::getDefects).map(aggregateDefectInputModels ->
-                                aggregateDefectInputModels.stream().map(aggregateDefectInputModel -> defectMap.get(aggregateDefectInputModel.getId())).collect(Collectors.toList())
-                        ).collect(Collectors.toList());
-
-                        Map<String, LintDefectEntity> currentFileMd5Map = currentDefectMap.values().stream()
-                                .filter(lintDefectEntity -> StringUtils.isNotEmpty(lintDefectEntity.getFileMd5()) && StringUtils.isNotBlank(lintDefectEntity.getChecker()))
-                                .collect(Collectors.toMap(lintDefectEntity -> String.format("%s_%s_%s",
-                                        lintDefectEntity.getFileMd5(), lintDefectEntity.getLineNum(), lintDefectEntity.getChecker()),
-                                        Function.identity(), (k, v) -> v));
-                        log.info("current file md5 map size: {}", currentFileMd5Map.size());
-
-                        clusteredDefectList.forEach(lintDefectList ->
+                        String fileMD5 = String.format("%s_%s_%s", oldDefect.getFileMd5(), oldDefect.getLineNum(), oldDefect.getChecker());
+                        if (currentFileMd5Map.keySet().contains(fileMD5))
                         {
-                            //将聚类输出分为新告警和历史告警
-                            Map<Boolean, List<LintDefectEntity>> partitionedDefects = lintDefectList.stream().collect(Collectors.groupingBy(LintDefectEntity::getNewDefect));
-                            List<LintDefectEntity> newDefectList = partitionedDefects.get(true);
-                            List<LintDefectEntity> oldDefectList = partitionedDefects.get(false);
-
-                            /* 聚类分组中只有老告警，从去重的新告警中查找：
-                             * 1.有找到新告警：
-                             *   1.1 老告警是已修复，则变为重新打开
-                             *   1.2 老告警是待修复，则要将新告警的属性赋值，并上报
-                             *   1.2 老告警是其他状态，则不变更直接上报（既然是被去重的，那么新告警和老告警的信息应该是一样的，所以不需要更新）
-                             * 2.没找到新告警
-                             *   2.1 将状态是NEW的老告警变成已修复
-                             *   2.2 老告警是其他状态，则不变更直接上报
-                             */
-                            if (CollectionUtils.isEmpty(newDefectList))
+                            if((oldDefect.getStatus() & ComConstants.DefectStatus.FIXED.value()) > 0)
                             {
-                                oldDefectList.forEach(oldDefect ->
-                                {
-                                    String fileMD5 = String.format("%s_%s_%s", oldDefect.getFileMd5(), oldDefect.getLineNum(), oldDefect.getChecker());
-                                    if (currentFileMd5Map.keySet().contains(fileMD5))
-                                    {
-                                        if((oldDefect.getStatus() & ComConstants.DefectStatus.FIXED.value()) > 0)
-                                        {
-                                            reopenDefect(oldDefect);
-                                        }
-                                        else if(oldDefect.getStatus() == ComConstants.DefectStatus.NEW.value())
-                                        {
-                                            LintDefectEntity newDefect = currentFileMd5Map.get(fileMD5);
-                                            if(null != newDefect)
-                                            {
-                                                oldDefect.setChecker(newDefect.getChecker());
-                                                oldDefect.setLineNum(newDefect.getLineNum());
-                                                oldDefect.setMessage(newDefect.getMessage());
-                                                oldDefect.setPinpointHash(newDefect.getPinpointHash());
-                                            }
-                                        }
-                                    }
-                                    else if (!currentFileMd5Map.keySet().contains(fileMD5) && oldDefect.getStatus() == ComConstants.DefectStatus.NEW.value())
-                                    {
-                                        String path = StringUtils.isEmpty(oldDefect.getRelPath()) ? oldDefect.getFilePath() : oldDefect.getRelPath();
-                                        fixDefect(buildEntity, oldDefect, originalFileMap.get(path));
-                                    }
-                                });
-                                upsertDefectList.addAll(oldDefectList);
+                                reopenDefect(oldDefect);
                             }
-                            else
+                            else if(oldDefect.getStatus() == ComConstants.DefectStatus.NEW.value())
                             {
-                                /* 先按行号对新旧告警列表排序，然后依序一一对应当做同一个告警，遍历新告警列表：
-                                 * 1.有对应老告警：
-                                 *   1.1 老告警是已修复，则变为重新打开
-                                 *   1.2 老告警是其他状态，则不变更状态直接上报
-                                 * 2.无对应老告警
-                                 *   2.1 告警是首次创建的告警
-                                 * 3.老告警列表比新告警多，部分老告警没有对应的新告警
-                                 *   3.1 将状态是NEW的老告警变成已修复
-                                 *   3.2 老告警是其他状态，则不变更直接上报
-                                 */
-                                newDefectList.sort(Comparator.comparingInt(LintDefectEntity::getLineNum));
-                                if (CollectionUtils.isNotEmpty(oldDefectList))
+                                LintDefectEntity newDefect = currentFileMd5Map.get(fileMD5);
+                                if(null != newDefect)
                                 {
-                                    oldDefectList.sort(Comparator.comparingInt(LintDefectEntity::getLineNum));
+                                    oldDefect.setChecker(newDefect.getChecker());
+                                    oldDefect.setLineNum(newDefect.getLineNum());
+                                    oldDefect.setMessage(newDefect.getMessage());
+                                    oldDefect.setPinpointHash(newDefect.getPinpointHash());
                                 }
-                                for (int i = 0; i < newDefectList.size(); i++)
+                            }
+                        }
+                        else if (!currentFileMd5Map.keySet().contains(fileMD5) && oldDefect.getStatus() == ComConstants.DefectStatus.NEW.value())
+                        {
+                            String path = StringUtils.isEmpty(oldDefect.getRelPath()) ? oldDefect.getFilePath() : oldDefect.getRelPath();
+                            fixDefect(buildEntity, oldDefect, originalFileMap.get(path));
+                        }
+                    });
+                    upsertDefectList.addAll(oldDefectList);
+                }
+                else
+                {
+                    /* 先按行号对新旧告警列表排序，然后依序一一对应当做同一个告警，遍历新告警列表：
+                     * 1.有对应老告警：
+                     *   1.1 老告警是已修复，则变为重新打开
+                     *   1.2 老告警是其他状态，则不变更状态直接上报
+                     * 2.无对应老告警
+                     *   2.1 告警是首次创建的告警
+                     * 3.老告警列表比新告警多，部分老告警没有对应的新告警
+                     *   3.1 将状态是NEW的老告警变成已修复
+                     *   3.2 老告警是其他状态，则不变更直接上报
+                     */
+                    newDefectList.sort(Comparator.comparingInt(LintDefectEntity::getLineNum));
+                    if (CollectionUtils.isNotEmpty(oldDefectList))
+                    {
+                        oldDefectList.sort(Comparator.comparingInt(LintDefectEntity::getLineNum));
+                    }
+                    for (int i = 0; i < newDefectList.size(); i++)
+                    {
+                        LintDefectEntity newDefect = newDefectList.get(i);
+                        LintDefectEntity selectedOldDefect = null;
+                        if (CollectionUtils.isNotEmpty(oldDefectList) && oldDefectList.size() > i)
+                        {
+                            selectedOldDefect = oldDefectList.get(i);
+                        }
+                        if (selectedOldDefect != null)
+                        {
+                            selectedOldDefect.setChecker(newDefect.getChecker());
+                            selectedOldDefect.setLineNum(newDefect.getLineNum());
+                            selectedOldDefect.setMessage(newDefect.getMessage());
+                            selectedOldDefect.setPinpointHash(newDefect.getPinpointHash());
+                            if ((selectedOldDefect.getStatus() & ComConstants.DefectStatus.FIXED.value()) > 0)
+                            {
+                                reopenDefect(selectedOldDefect);
+                            }
+                            if (StringUtils.isEmpty(selectedOldDefect.getAuthor()))
+                            {
+                                selectedOldDefect.setAuthor(newDefect.getAuthor());
+                            }
+                        }
+                        else
+                        {
+                            selectedOldDefect = newDefect;
+                            if (null != buildEntity)
+                            {
+                                selectedOldDefect.setCreateBuildNumber(buildEntity.getBuildNo());
+                            }
+                            selectedOldDefect.setCreateTime(System.currentTimeMillis());
+                            selectedOldDefect.setStatus(ComConstants.DefectStatus.NEW.value());
+
+                            // 作者转换
+                            if (CollectionUtils.isNotEmpty(transferAuthorList))
+                            {
+                                for (TransferAuthorEntity.TransferAuthorPair trasferAuthorPair : transferAuthorList)
                                 {
-                                    LintDefectEntity newDefect = newDefectList.get(i);
-                                    LintDefectEntity selectedOldDefect = null;
-                                    if (CollectionUtils.isNotEmpty(oldDefectList) && oldDefectList.size() > i)
+                                    String author = selectedOldDefect.getAuthor();
+                                    if (StringUtils.isNotEmpty(author) && author.equalsIgnoreCase(trasferAuthorPair.getSourceAuthor()))
                                     {
-                                        selectedOldDefect = oldDefectList.get(i);
+                                        selectedOldDefect.setAuthor(trasferAuthorPair.getTargetAuthor());
                                     }
-                                    if (selectedOldDefect != null)
-                                    {
-                                        selectedOldDefect.setChecker(newDefect.getChecker());
-                                        selectedOldDefect.setLineNum(newDefect.getLineNum());
-                                        selectedOldDefect.setMessage(newDefect.getMessage());
-                                        selectedOldDefect.setPinpointHash(newDefect.getPinpointHash());
-                                        if ((selectedOldDefect.getStatus() & ComConstants.DefectStatus.FIXED.value()) > 0)
-                                        {
-                                            reopenDefect(selectedOldDefect);
-                                        }
-                                        if (StringUtils.isEmpty(selectedOldDefect.getAuthor()))
-                                        {
-                                            selectedOldDefect.setAuthor(newDefect.getAuthor());
-                                        }
-                                    }
-                                    else
-                                    {
-                                        selectedOldDefect = newDefect;
-                                        if (null != buildEntity)
-                                        {
-                                            selectedOldDefect.setCreateBuildNumber(buildEntity.getBuildNo());
-                                        }
-                                        selectedOldDefect.setCreateTime(System.currentTimeMillis());
-                                        selectedOldDefect.setStatus(ComConstants.DefectStatus.NEW.value());
-
-                                        // 作者转换
-                                        if (CollectionUtils.isNotEmpty(transferAuthorList))
-                                        {
-                                            for (TransferAuthorEntity.TransferAuthorPair trasferAuthorPair : transferAuthorList)
-                                            {
-                                                String author = selectedOldDefect.getAuthor();
-                                                if (StringUtils.isNotEmpty(author) && author.equalsIgnoreCase(trasferAuthorPair.getSourceAuthor()))
-                                                {
-                                                    selectedOldDefect.setAuthor(trasferAuthorPair.getTargetAuthor());
-                                                }
-                                            }
-                                        }
-                                    }
-                                    upsertDefectList.add(selectedOldDefect);
                                 }
+                            }
+                        }
+                        upsertDefectList.add(selectedOldDefect);
+                    }
 
-                                // 老告警比新告警多出来的那部分告警变成已修复
-                                if (CollectionUtils.isNotEmpty(oldDefectList) && oldDefectList.size() > newDefectList.size())
-                                {
-                                    List<LintDefectEntity> closeOldDefectList = oldDefectList.subList(newDefectList.size() - 1, oldDefectList.size());
-                                    upsertDefectList.addAll(closeOldDefectList);
-                                    closeOldDefectList.forEach(defect ->
-                                    {
-                                        if (defect.getStatus() == ComConstants.DefectStatus.NEW.value())
-                                        {
-                                            String path = StringUtils.isEmpty(defect.getRelPath()) ? defect.getFilePath() : defect.getRelPath();
-                                            fixDefect(buildEntity, defect, originalFileMap.get(path));
-                                        }
-                                    });
-                                }
+                    // 老告警比新告警多出来的那部分告警变成已修复
+                    if (CollectionUtils.isNotEmpty(oldDefectList) && oldDefectList.size() > newDefectList.size())
+                    {
+                        List<LintDefectEntity> closeOldDefectList = oldDefectList.subList(newDefectList.size() - 1, oldDefectList.size());
+                        upsertDefectList.addAll(closeOldDefectList);
+                        closeOldDefectList.forEach(defect ->
+                        {
+                            if (defect.getStatus() == ComConstants.DefectStatus.NEW.value())
+                            {
+                                String path = StringUtils.isEmpty(defect.getRelPath()) ? defect.getFilePath() : defect.getRelPath();
+                                fixDefect(buildEntity, defect, originalFileMap.get(path));
                             }
                         });
                     }
                 }
-                else
-                {
-                    log.warn("return false: {}", outputFile);
-                }
-            }
-            catch (InterruptedException | ExecutionException e)
-            {
-                log.warn("wait cluster exception: {}", outputFile, e);
-            }
+            });
         }
         log.info("end handleWithOutputModel, cost: {}", System.currentTimeMillis() - beginTime);
         return upsertDefectList;
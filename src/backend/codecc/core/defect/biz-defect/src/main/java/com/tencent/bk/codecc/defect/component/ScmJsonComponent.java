@@ -1,6 +1,9 @@
 package com.tencent.bk.codecc.defect.component;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Charsets;
 import com.tencent.bk.codecc.defect.pojo.FileMD5TotalModel;
 import com.tencent.bk.codecc.defect.vo.customtool.ScmBlameVO;
@@ -125,25 +128,48 @@ public class ScmJsonComponent
             fileIndex = getFileIndex(scmJsonFileName, SCM_JSON);
         }
         log.info(fileIndex);
-        String fileContent = readFileContent(fileIndex);
-        JSONArray scmBlameArr = null;
-        if (StringUtils.isNotEmpty(fileContent))
+
+        Map<String, ScmBlameVO> scmBlameMap = new HashMap<>();
+        if (StringUtils.isEmpty(fileIndex) || !new File(fileIndex).exists())
         {
-            scmBlameArr = new JSONArray(fileContent);
+            log.warn("文件[{}]不存在", fileIndex);
+            return new ArrayList<>();
         }
 
-        log.info("load scm json successful");
-
-        Map<String, ScmBlameVO> scmBlameMap = new HashMap<>();
+        // 流式解析，逐个元素绑定，不在内存中保留整个文件内容
+        ObjectMapper objectMapper = JsonUtil.INSTANCE.getObjectMapper();
+        try (JsonParser parser = objectMapper.getFactory().createParser(new File(fileIndex)))
+        {
+            JsonToken token = parser.nextToken();
+            // 空文件没有作者信息
+            if (token == null)
+            {
+                return new ArrayList<>();
+            }
+            if (token != JsonToken.START_ARRAY)
+            {
+                throw new IOException("scm json is not an array");
+            }
 
-        // 填充scm blame文件读取的信息
-        if (scmBlameArr != null && scmBlameArr.length() > 0)
+            // 单次只在内存中保留一个文件的blame信息
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT)
+            {
+                ScmBlameVO scmBlame = objectMapper.readValue(parser, ScmBlameVO.class);
+                scmBlameMap.put(scmBlame.getFilePath(), scmBlame);
+            }
+            if (token != JsonToken.END_ARRAY)
+            {
+                throw new IOException("unexpected token in scm json: " + token);
+            }
+        }
+        catch (IOException e)
         {
-            JsonUtil.INSTANCE.to(scmBlameArr.toString(), new TypeReference<List<ScmBlameVO>>() {}).forEach((it) -> {
-                scmBlameMap.put(it.getFilePath(), it);
-            });
+            // 文件损坏或不完整时不能返回部分作者信息，否则告警会关联到错误或空的作者
+            log.error("parse scm json fail: {}", fileIndex, e);
+            throw new CodeCCException(CommonMessageCode.SYSTEM_ERROR, null, String.format("解析scm blame文件失败: %s", fileIndex), e);
         }
 
+        log.info("load scm json successful, file count: {}", scmBlameMap.size());
         return new ArrayList<>(scmBlameMap.values());
     }
 
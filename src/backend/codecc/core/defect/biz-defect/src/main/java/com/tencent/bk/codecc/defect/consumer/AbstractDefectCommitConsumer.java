@@ -14,6 +14,8 @@ package com.tencent.bk.codecc.defect.consumer;
 
 import com.google.common.collect.Maps;
 import com.tencent.bk.codecc.defect.api.ServiceReportTaskLogRestResource;
+import com.tencent.bk.codecc.defect.component.DefectCommitRouteComponent;
+import com.tencent.bk.codecc.defect.component.DefectTreeCache;
 import com.tencent.bk.codecc.defect.component.ScmJsonComponent;
 import com.tencent.bk.codecc.defect.dao.mongorepository.ToolBuildStackRepository;
 import com.tencent.bk.codecc.defect.dao.mongorepository.TransferAuthorRepository;
@@ -21,8 +23,11 @@ import com.tencent.bk.codecc.defect.dao.mongotemplate.BuildDao;
 import com.tencent.bk.codecc.defect.dao.mongotemplate.ToolBuildInfoDao;
 import com.tencent.bk.codecc.defect.service.RedLineReportService;
 import com.tencent.bk.codecc.defect.service.file.ScmFileInfoService;
+import com.tencent.bk.codecc.defect.utils.CommitStageProfiler;
+import com.tencent.bk.codecc.defect.utils.LineAuthorIndex;
 import com.tencent.bk.codecc.defect.utils.ThirdPartySystemCaller;
 import com.tencent.bk.codecc.defect.vo.CommitDefectVO;
+import com.tencent.bk.codecc.defect.vo.CommitStageVO;
 import com.tencent.bk.codecc.defect.vo.UploadTaskLogStepVO;
 import com.tencent.bk.codecc.defect.vo.customtool.RepoSubModuleVO;
 import com.tencent.bk.codecc.defect.vo.customtool.ScmBlameChangeRecordVO;
@@ -39,6 +44,7 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.GaugeService;
 
 import java.util.*;
 
@@ -52,10 +58,12 @@ import java.util.*;
 public abstract class AbstractDefectCommitConsumer
 {
     /**
-     * 流式分批告警处理每批最大处理数
+     * 流式分批告警处理每批最大处理数，提单消息没有指定时的默认值
      */
     protected static final int MAX_PER_BATCH = 30000;
 
+    private static final String STAGE_METRIC_PREFIX = "codecc.commit.stage.";
+
     @Autowired
     private ServiceReportTaskLogRestResource serviceReportTaskLogRestResource;
     @Autowired
@@ -78,6 +86,12 @@ public abstract class AbstractDefectCommitConsumer
     public TransferAuthorRepository transferAuthorRepository;
     @Autowired
     protected ScmFileInfoService scmFileInfoService;
+    @Autowired
+    protected DefectTreeCache defectTreeCache;
+    @Autowired
+    protected DefectCommitRouteComponent defectCommitRouteComponent;
+    @Autowired
+    protected GaugeService gaugeService;
 
     /**
      * 告警提交
@@ -87,6 +101,7 @@ public abstract class AbstractDefectCommitConsumer
     public void commitDefect(CommitDefectVO commitDefectVO)
     {
         long beginTime = System.currentTimeMillis();
+        CommitStageProfiler profiler = CommitStageProfiler.begin(commitDefectVO.getTaskId(), commitDefectVO.getToolName(), commitDefectVO.getBuildId());
         try
         {
             log.info("commit defect! {}", commitDefectVO);
@@ -97,33 +112,88 @@ public abstract class AbstractDefectCommitConsumer
             try
             {
                 // 获取文件作者信息
-                Map<String, ScmBlameVO> fileChangeRecordsMap = getAuthorInfo(commitDefectVO);
+                Map<String, ScmBlameVO> fileChangeRecordsMap;
+                try (CommitStageProfiler.Stage stage = profiler.stage("authorInfo"))
+                {
+                    fileChangeRecordsMap = getAuthorInfo(commitDefectVO);
+                    stage.addRows(fileChangeRecordsMap.size());
+                }
 
                 // 获取仓库信息
-                Map<String, RepoSubModuleVO> codeRepoIdMap = getRepoInfo(commitDefectVO);
+                Map<String, RepoSubModuleVO> codeRepoIdMap;
+                try (CommitStageProfiler.Stage stage = profiler.stage("repoInfo"))
+                {
+                    codeRepoIdMap = getRepoInfo(commitDefectVO);
+                    stage.addRows(codeRepoIdMap.size());
+                }
 
                 // 解析工具上报的告警文件并入库
-                uploadDefects(commitDefectVO, fileChangeRecordsMap, codeRepoIdMap);
+                try (CommitStageProfiler.Stage ignored = profiler.stage("uploadDefects"))
+                {
+                    uploadDefects(commitDefectVO, fileChangeRecordsMap, codeRepoIdMap);
+                }
             }
             catch (Throwable e)
             {
                 e.printStackTrace();
                 log.error("commit defect fail!", e);
                 // 发送提单失败的分析记录
-                uploadTaskLog(commitDefectVO, ComConstants.StepFlag.FAIL.value(), 0, System.currentTimeMillis(), e.getLocalizedMessage());
+                uploadTaskLog(commitDefectVO, ComConstants.StepFlag.FAIL.value(), 0, System.currentTimeMillis(), e.getLocalizedMessage(),
+                        finishProfile(profiler));
                 return;
             }
+            finally
+            {
+                // 告警数据已变化，失效告警文件树缓存
+                defectTreeCache.invalidate(commitDefectVO.getTaskId());
+            }
 
             // 发送提单成功的分析记录
-            uploadTaskLog(commitDefectVO, ComConstants.StepFlag.SUCC.value(), 0, System.currentTimeMillis(), commitDefectVO.getMessage());
+            uploadTaskLog(commitDefectVO, ComConstants.StepFlag.SUCC.value(), 0, System.currentTimeMillis(), commitDefectVO.getMessage(),
+                    finishProfile(profiler));
+
+            // 记录提单耗时，用于后续提单的路由
+            defectCommitRouteComponent.record(commitDefectVO.getTaskId(), commitDefectVO.getToolName(), System.currentTimeMillis() - beginTime);
         }
         catch (Throwable e)
         {
             log.error("commit defect fail!", e);
         }
+        finally
+        {
+            // 异常提前退出时也要解除线程绑定
+            profiler.finish();
+        }
         log.info("end commitDefect cost: {}", System.currentTimeMillis() - beginTime);
     }
 
+    /**
+     * 结束提单阶段记录，输出阶段耗时日志并上报监控
+     *
+     * @param profiler
+     * @return
+     */
+    private List<CommitStageVO> finishProfile(CommitStageProfiler profiler)
+    {
+        List<CommitStageVO> timeline = profiler.finish();
+        StringBuilder timelineLog = new StringBuilder();
+        for (CommitStageVO stageVO : timeline)
+        {
+            timelineLog.append(String.format("%n  %s: %dms, rows: %d, bytes: %d, dbOps: %d",
+                    stageVO.getStage(), stageVO.getElapseTime(), stageVO.getRowCount(), stageVO.getByteCount(), stageVO.getDbOpCount()));
+
+            String metricName = STAGE_METRIC_PREFIX + stageVO.getStage().replace('/', '.');
+            gaugeService.submit(metricName + ".cost", stageVO.getElapseTime());
+            gaugeService.submit(metricName + ".rows", stageVO.getRowCount());
+            gaugeService.submit(metricName + ".dbOps", stageVO.getDbOpCount());
+        }
+        gaugeService.submit(STAGE_METRIC_PREFIX + "total.cost", profiler.getElapseTime());
+        gaugeService.submit(STAGE_METRIC_PREFIX + "total.dbOps", profiler.getDbOpCount());
+        log.info("commit stage timeline: {}, {}, {}, cost: {}, dbOps: {}{}", profiler.getTaskId(), profiler.getToolName(),
+                profiler.getBuildId(), profiler.getElapseTime(), profiler.getDbOpCount(), timelineLog);
+        return timeline;
+    }
+
     /**
      * 解析工具上报的告警文件并入库
      * @param commitDefectVO
@@ -133,6 +203,18 @@ public abstract class AbstractDefectCommitConsumer
 
     protected abstract void uploadDefects(CommitDefectVO commitDefectVO, Map<String, ScmBlameVO> fileChangeRecordsMap, Map<String, RepoSubModuleVO> codeRepoIdMap);
 
+    /**
+     * 每批处理的告警数，老版本的提单消息没有该字段时使用默认值
+     *
+     * @param commitDefectVO
+     * @return
+     */
+    protected int getMaxPerBatch(CommitDefectVO commitDefectVO)
+    {
+        Integer maxPerBatch = commitDefectVO.getMaxPerBatch();
+        return maxPerBatch == null || maxPerBatch <= 0 ? MAX_PER_BATCH : maxPerBatch;
+    }
+
     protected Map<String, ScmBlameVO> getAuthorInfo(CommitDefectVO commitDefectVO)
     {
         return scmFileInfoService.loadAuthorInfoMap(
@@ -178,33 +260,16 @@ public abstract class AbstractDefectCommitConsumer
         return codeRepoIdMap;
     }
 
+    /**
+     * 获取文件代码行与变更记录的区间索引
+     *
+     * @param changeRecords
+     * @return
+     */
     @NotNull
-    public Map<Integer, ScmBlameChangeRecordVO> getLineAuthorMap(List<ScmBlameChangeRecordVO> changeRecords)
+    public LineAuthorIndex getLineAuthorIndex(List<ScmBlameChangeRecordVO> changeRecords)
     {
-        Map<Integer, ScmBlameChangeRecordVO> lineAuthorMap = new HashMap<>();
-        for (ScmBlameChangeRecordVO changeRecord : changeRecords)
-        {
-            List<Object> lines = changeRecord.getLines();
-            if (CollectionUtils.isNotEmpty(lines))
-            {
-                for (Object line : lines)
-                {
-                    if (line instanceof Integer)
-                    {
-                        lineAuthorMap.put((int) line, changeRecord);
-                    }
-                    else if (line instanceof List)
-                    {
-                        List<Integer> lineScope = (List<Integer>) line;
-                        for (int i = lineScope.get(0); i <= lineScope.get(1); i++)
-                        {
-                            lineAuthorMap.put(i, changeRecord);
-                        }
-                    }
-                }
-            }
-        }
-        return lineAuthorMap;
+        return LineAuthorIndex.build(changeRecords);
     }
 
     @NotNull
@@ -230,6 +295,20 @@ public abstract class AbstractDefectCommitConsumer
      * @param msg
      */
     protected void uploadTaskLog(CommitDefectVO commitDefectVO, int stepFlag, long startTime, long endTime, String msg)
+    {
+        uploadTaskLog(commitDefectVO, stepFlag, startTime, endTime, msg, null);
+    }
+
+    /**
+     * 发送分析记录，带上提单各阶段耗时
+     *
+     * @param commitDefectVO
+     * @param stepFlag
+     * @param msg
+     * @param stageTimeline
+     */
+    protected void uploadTaskLog(CommitDefectVO commitDefectVO, int stepFlag, long startTime, long endTime, String msg,
+                                 List<CommitStageVO> stageTimeline)
     {
         UploadTaskLogStepVO uploadTaskLogStepVO = new UploadTaskLogStepVO();
         uploadTaskLogStepVO.setTaskId(commitDefectVO.getTaskId());
@@ -242,6 +321,7 @@ public abstract class AbstractDefectCommitConsumer
         uploadTaskLogStepVO.setStepNum(ComConstants.Step4MutliTool.COMMIT.value());
         uploadTaskLogStepVO.setPipelineBuildId(commitDefectVO.getBuildId());
         uploadTaskLogStepVO.setTriggerFrom(commitDefectVO.getTriggerFrom());
+        uploadTaskLogStepVO.setStageTimeline(stageTimeline);
         serviceReportTaskLogRestResource.uploadTaskLog(uploadTaskLogStepVO);
     }
 
@@ -18,12 +18,15 @@ import com.tencent.bk.codecc.defect.component.NewCCNDefectTracingComponent;
 import com.tencent.bk.codecc.defect.dao.mongorepository.CCNDefectRepository;
 import com.tencent.bk.codecc.defect.dao.mongorepository.CCNStatisticRepository;
 import com.tencent.bk.codecc.defect.dao.mongorepository.FileCCNRepository;
+import com.tencent.bk.codecc.defect.dao.mongotemplate.CCNDefectDao;
 import com.tencent.bk.codecc.defect.dao.mongotemplate.FileCCNDao;
 import com.tencent.bk.codecc.defect.model.*;
 import com.tencent.bk.codecc.defect.model.incremental.ToolBuildStackEntity;
 import com.tencent.bk.codecc.defect.service.BuildDefectService;
 import com.tencent.bk.codecc.defect.service.CheckerService;
 import com.tencent.bk.codecc.defect.service.IDataReportBizService;
+import com.tencent.bk.codecc.defect.utils.CommitStageProfiler;
+import com.tencent.bk.codecc.defect.utils.LineAuthorIndex;
 import com.tencent.bk.codecc.defect.vo.CCNDataReportRspVO;
 import com.tencent.bk.codecc.defect.vo.ChartAverageVO;
 import com.tencent.bk.codecc.defect.vo.CommitDefectVO;
@@ -46,6 +49,7 @@ import org.apache.commons.lang.StringUtils;
 import org.json.JSONObject;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.math.BigDecimal;
@@ -82,6 +86,14 @@ public class CCNDefectCommitConsumer extends AbstractDefectCommitConsumer
     private BuildDefectService buildDefectService;
     @Autowired
     private CheckerService checkerService;
+    @Autowired
+    private CCNDefectDao ccnDefectDao;
+
+    /**
+     * 更新告警状态时每批读取的告警数
+     */
+    @Value("${codecc.commit.ccn.status.batchSize:5000}")
+    private int statusBatchSize;
 
     @Override
     protected void uploadDefects(CommitDefectVO commitDefectVO, Map<String, ScmBlameVO> fileChangeRecordsMap, Map<String, RepoSubModuleVO> codeRepoIdMap)
@@ -95,15 +107,24 @@ public class CCNDefectCommitConsumer extends AbstractDefectCommitConsumer
         BuildEntity buildEntity = buildDao.getAndSaveBuildInfo(commitDefectVO.getBuildId());
 
         // 读取原生（未经压缩）告警文件
-        String defectListJson = scmJsonComponent.loadRawDefects(streamName, toolName, buildId);
-        CCNDefectJsonFileEntity<CCNDefectEntity> defectJsonFileEntity = JsonUtil.INSTANCE.to(defectListJson, new TypeReference<CCNDefectJsonFileEntity<CCNDefectEntity>>()
+        CommitStageProfiler profiler = CommitStageProfiler.current();
+        CCNDefectJsonFileEntity<CCNDefectEntity> defectJsonFileEntity;
+        try (CommitStageProfiler.Stage stage = profiler.stage("read"))
         {
-        });
+            String defectListJson = scmJsonComponent.loadRawDefects(streamName, toolName, buildId);
+            defectJsonFileEntity = JsonUtil.INSTANCE.to(defectListJson, new TypeReference<CCNDefectJsonFileEntity<CCNDefectEntity>>()
+            {
+            });
+            stage.addBytes(defectListJson.length());
+        }
 
         // 1.解析工具上报的告警文件，并做告警跟踪
-        long beginTime = System.currentTimeMillis();
-        Set<String> currentFileSet = parseDefectJsonFile(commitDefectVO, defectJsonFileEntity, taskVO, buildEntity, fileChangeRecordsMap, codeRepoIdMap);
-        log.info("parseDefectJsonFile cost: {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId);
+        Set<String> currentFileSet;
+        try (CommitStageProfiler.Stage stage = profiler.stage("parse"))
+        {
+            currentFileSet = parseDefectJsonFile(commitDefectVO, defectJsonFileEntity, taskVO, buildEntity, fileChangeRecordsMap, codeRepoIdMap);
+            stage.addRows(currentFileSet.size());
+        }
 
         ToolBuildStackEntity toolBuildStackEntity = toolBuildStackRepository.findByTaskIdAndToolNameAndBuildId(taskId, toolName, buildId);
 
@@ -121,31 +142,43 @@ public class CCNDefectCommitConsumer extends AbstractDefectCommitConsumer
             deleteFiles = Lists.newArrayList();
         }
 
-        // 查询所有状态为NEW的告警
-        beginTime = System.currentTimeMillis();
-        List<CCNDefectEntity> allNewDefectList = ccnDefectRepository.findByTaskIdAndStatus(taskId, ComConstants.DefectStatus.NEW.value());
-        log.info("find lint file list cost: {}, {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId, allNewDefectList.size());
-
-        // 2.更新告警状态
-        updateDefectEntityStatus(allNewDefectList, currentFileSet, deleteFiles, isFullScan, buildEntity);
+        // 2.按批遍历所有状态为NEW的告警，更新告警状态，并在更新后统计遗留告警
+        CommitStageProfiler.Stage statusStage = profiler.stage("status");
+        CCNDefectCounter defectCounter = new CCNDefectCounter(getRiskFactorConfig(), getCcnThreshold(taskVO, toolName));
+        ccnDefectDao.forEachByTaskIdAndStatus(taskId, ComConstants.DefectStatus.NEW.value(), statusBatchSize, defectList ->
+        {
+            updateDefectEntityStatus(defectList, currentFileSet, deleteFiles, isFullScan, buildEntity);
+            defectList.forEach(defectCounter::add);
+        });
+        statusStage.addRows(defectCounter.existCount).close();
 
         String baseBuildId = toolBuildStackEntity != null && StringUtils.isNotEmpty(toolBuildStackEntity.getBaseBuildId()) ? toolBuildStackEntity.getBaseBuildId() : "";
 
         // 3.计算总平均圈复杂度
-        float averageCCN = calculateAverageCCN(taskId, defectJsonFileEntity, isFullScan, deleteFiles);
+        float averageCCN;
+        try (CommitStageProfiler.Stage ignored = profiler.stage("averageCCN"))
+        {
+            averageCCN = calculateAverageCCN(taskId, defectJsonFileEntity, isFullScan, deleteFiles);
+        }
 
         // 4.统计本次扫描的告警
-        beginTime = System.currentTimeMillis();
-        statistic(taskVO, toolName, averageCCN, buildId, baseBuildId, allNewDefectList);
-        log.info("statistic cost: {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId);
+        try (CommitStageProfiler.Stage ignored = profiler.stage("statistic"))
+        {
+            statistic(taskVO, toolName, averageCCN, buildId, baseBuildId, defectCounter);
+        }
 
         // 5.更新构建告警快照
-        beginTime = System.currentTimeMillis();
-        buildDefectService.updateBaseBuildDefects(taskId, toolName, baseBuildId, buildId, isFullScan, deleteFiles, currentFileSet);
-        log.info("buildDefectService.updateBaseBuildDefectsAndClearTemp cost: {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId);
+        try (CommitStageProfiler.Stage stage = profiler.stage("buildSnapshot"))
+        {
+            buildDefectService.updateBaseBuildDefects(taskId, toolName, baseBuildId, buildId, isFullScan, deleteFiles, currentFileSet);
+            stage.addRows(currentFileSet.size());
+        }
 
         // 6.保存质量红线数据
-        redLineReportService.saveRedLineData(taskVO, ComConstants.Tool.CCN.name(), buildId);
+        try (CommitStageProfiler.Stage ignored = profiler.stage("redLine"))
+        {
+            redLineReportService.saveRedLineData(taskVO, ComConstants.Tool.CCN.name(), buildId);
+        }
     }
 
     /**
@@ -155,71 +188,17 @@ public class CCNDefectCommitConsumer extends AbstractDefectCommitConsumer
      * @param averageCCN
      * @param buildId
      * @param baseBuildId
-     * @param allNewDefectList
+     * @param defectCounter 更新状态后的遗留告警计数
      */
-    private void statistic(TaskDetailVO taskVO, String toolName, float averageCCN, String buildId, String baseBuildId, List<CCNDefectEntity> allNewDefectList)
+    private void statistic(TaskDetailVO taskVO, String toolName, float averageCCN, String buildId, String baseBuildId, CCNDefectCounter defectCounter)
     {
         long taskId = taskVO.getTaskId();
-        // 获取各严重级别定义
-        Map<String, String> riskConfigMap = thirdPartySystemCaller.getRiskFactorConfig(ComConstants.Tool.CCN.name());
-        if (riskConfigMap == null)
-        {
-            log.error("Has not init risk factor config!");
-            throw new CodeCCException(CommonMessageCode.PARAMETER_IS_NULL, new String[]{"风险系数"}, null);
-        }
-        int sh = Integer.valueOf(riskConfigMap.get(ComConstants.RiskFactor.SH.name()));
-        int h = Integer.valueOf(riskConfigMap.get(ComConstants.RiskFactor.H.name()));
-        int m = Integer.valueOf(riskConfigMap.get(ComConstants.RiskFactor.M.name()));
-
-        // 获取超标圈复杂度阈值，优先从规则里面取，取不到从个性化参数里面取，再取不到就是用默认值
-        int ccnThreshold = getCcnThreshold(taskVO, toolName);
-
-        int ccnBeyondThresholdSum = 0;
-        int existCount = 0;
-        int superHighCount = 0;
-        int highCount = 0;
-        int mediumCount = 0;
-        int lowCount = 0;
-        if (CollectionUtils.isNotEmpty(allNewDefectList))
-        {
-            // 更新告警状态，并统计告警数量
-            Iterator<CCNDefectEntity> it = allNewDefectList.iterator();
-            while (it.hasNext())
-            {
-                CCNDefectEntity defectEntity = it.next();
-
-                // 统计遗留告警数
-                if (defectEntity.getStatus() == ComConstants.DefectStatus.NEW.value())
-                {
-                    existCount++;
-
-                    int ccn = defectEntity.getCcn();
-                    if (ccn >= m && ccn < h)
-                    {
-                        mediumCount++;
-                    }
-                    else if (ccn >= h && ccn < sh)
-                    {
-                        highCount++;
-                    }
-                    else if (ccn >= sh)
-                    {
-                        superHighCount++;
-                    }
-                    else if (ccn < m)
-                    {
-                        lowCount++;
-                    }
-
-                    // 计算超标复杂度
-                    int diff = ccn - ccnThreshold;
-                    if (diff > 0)
-                    {
-                        ccnBeyondThresholdSum += diff;
-                    }
-                }
-            }
-        }
+        int existCount = defectCounter.existCount;
+        int superHighCount = defectCounter.superHighCount;
+        int highCount = defectCounter.highCount;
+        int mediumCount = defectCounter.mediumCount;
+        int lowCount = defectCounter.lowCount;
+        int ccnBeyondThresholdSum = defectCounter.ccnBeyondThresholdSum;
         log.info("existCount-->{}", existCount);
 
         CCNStatisticEntity baseBuildCcnStatistic = ccnStatisticRepository.findByTaskIdAndBuildId(taskVO.getTaskId(), baseBuildId);
@@ -282,6 +261,22 @@ public class CCNDefectCommitConsumer extends AbstractDefectCommitConsumer
 
     }
 
+    /**
+     * 获取各严重级别定义
+     *
+     * @return
+     */
+    private Map<String, String> getRiskFactorConfig()
+    {
+        Map<String, String> riskConfigMap = thirdPartySystemCaller.getRiskFactorConfig(ComConstants.Tool.CCN.name());
+        if (riskConfigMap == null)
+        {
+            log.error("Has not init risk factor config!");
+            throw new CodeCCException(CommonMessageCode.PARAMETER_IS_NULL, new String[]{"风险系数"}, null);
+        }
+        return riskConfigMap;
+    }
+
     private int getCcnThreshold(TaskDetailVO taskVO, String toolName)
     {
         long taskId = taskVO.getTaskId();
@@ -317,24 +312,24 @@ public class CCNDefectCommitConsumer extends AbstractDefectCommitConsumer
     }
 
     /**
-     * 更新告警状态
-     * @param allNewDefectList
+     * 更新一批告警的状态
+     * @param defectList
      * @param currentFileSet
      * @param deleteFiles
      * @param isFullScan
      * @param buildEntity
      */
-    private void updateDefectEntityStatus(List<CCNDefectEntity> allNewDefectList,
+    private void updateDefectEntityStatus(List<CCNDefectEntity> defectList,
                                           Set<String> currentFileSet,
                                           List<String> deleteFiles,
                                           boolean isFullScan,
                                           BuildEntity buildEntity)
     {
         List<CCNDefectEntity> needUpdateDefectList = Lists.newArrayList();
-        if (CollectionUtils.isNotEmpty(allNewDefectList))
+        if (CollectionUtils.isNotEmpty(defectList))
         {
             long curTime = System.currentTimeMillis();
-            allNewDefectList.forEach(defectEntity ->
+            defectList.forEach(defectEntity ->
             {
                 String filePath = defectEntity.getFilePath();
                 String relPath = defectEntity.getRelPath();
@@ -360,7 +355,7 @@ public class CCNDefectCommitConsumer extends AbstractDefectCommitConsumer
 
             if (CollectionUtils.isNotEmpty(needUpdateDefectList))
             {
-                ccnDefectRepository.save(needUpdateDefectList);
+                ccnDefectDao.batchFixDefect(needUpdateDefectList);
             }
         }
     }
@@ -402,6 +397,7 @@ public class CCNDefectCommitConsumer extends AbstractDefectCommitConsumer
         Map<String, List<CCNDefectEntity>> currentDefectGroup = currentDefectList.stream()
                 .collect(Collectors.groupingBy(defect -> StringUtils.isEmpty(defect.getRelPath()) ? defect.getFilePath() : defect.getRelPath()));
 
+        int maxPerBatch = getMaxPerBatch(commitDefectVO);
         int chunkNo = 0;
         List<Future> asyncResultList = new ArrayList<>();
         List<CCNDefectEntity> partDefectList = new ArrayList<>();
@@ -412,7 +408,7 @@ public class CCNDefectCommitConsumer extends AbstractDefectCommitConsumer
             List<CCNDefectEntity> defectList = entry.getValue();
             partDefectList.addAll(defectList);
             filePathSet.add(path);
-            if (partDefectList.size() > MAX_PER_BATCH)
+            if (partDefectList.size() > maxPerBatch)
             {
                 processDefects(commitDefectVO, taskVO, partDefectList, filePathSet, transferAuthorList, filterPaths, buildEntity, chunkNo, asyncResultList);
                 chunkNo++;
@@ -596,23 +592,81 @@ public class CCNDefectCommitConsumer extends AbstractDefectCommitConsumer
         List<ScmBlameChangeRecordVO> changeRecords = fileLineAuthorInfo.getChangeRecords();
         if (CollectionUtils.isNotEmpty(changeRecords))
         {
-            Map<Integer, ScmBlameChangeRecordVO> lineAuthorMap = getLineAuthorMap(changeRecords);
+            LineAuthorIndex lineAuthorIndex = getLineAuthorIndex(changeRecords);
 
             // 获取函数涉及的所有行中的最新修改作者作为告警作者
             long functionLastUpdateTime = 0;
             for (int i = ccnDefectEntity.getStartLines(); i <= ccnDefectEntity.getEndLines(); i++)
             {
-                if (lineAuthorMap != null)
+                ScmBlameChangeRecordVO recordVO = lineAuthorIndex.get(i);
+                if (recordVO != null && recordVO.getLineUpdateTime() > functionLastUpdateTime)
                 {
-                    ScmBlameChangeRecordVO recordVO = lineAuthorMap.get(i);
-                    if (recordVO != null && recordVO.getLineUpdateTime() > functionLastUpdateTime)
-                    {
-                        functionLastUpdateTime = recordVO.getLineUpdateTime();
-                        ccnDefectEntity.setAuthor(recordVO.getAuthor());
-                        ccnDefectEntity.setLatestDateTime(recordVO.getLineUpdateTime());
-                    }
+                    functionLastUpdateTime = recordVO.getLineUpdateTime();
+                    ccnDefectEntity.setAuthor(recordVO.getAuthor());
+                    ccnDefectEntity.setLatestDateTime(recordVO.getLineUpdateTime());
                 }
             }
         }
     }
+
+    /**
+     * 遗留告警计数
+     */
+    private static class CCNDefectCounter
+    {
+        private final int sh;
+        private final int h;
+        private final int m;
+        private final int ccnThreshold;
+
+        private int existCount;
+        private int superHighCount;
+        private int highCount;
+        private int mediumCount;
+        private int lowCount;
+        private int ccnBeyondThresholdSum;
+
+        private CCNDefectCounter(Map<String, String> riskConfigMap, int ccnThreshold)
+        {
+            this.sh = Integer.valueOf(riskConfigMap.get(ComConstants.RiskFactor.SH.name()));
+            this.h = Integer.valueOf(riskConfigMap.get(ComConstants.RiskFactor.H.name()));
+            this.m = Integer.valueOf(riskConfigMap.get(ComConstants.RiskFactor.M.name()));
+            this.ccnThreshold = ccnThreshold;
+        }
+
+        private void add(CCNDefectEntity defectEntity)
+        {
+            // 统计遗留告警数
+            if (defectEntity.getStatus() != ComConstants.DefectStatus.NEW.value())
+            {
+                return;
+            }
+            existCount++;
+
+            int ccn = defectEntity.getCcn();
+            if (ccn >= m && ccn < h)
+            {
+                mediumCount++;
+            }
+            else if (ccn >= h && ccn < sh)
+            {
+                highCount++;
+            }
+            else if (ccn >= sh)
+            {
+                superHighCount++;
+            }
+            else if (ccn < m)
+            {
+                lowCount++;
+            }
+
+            // 计算超标复杂度
+            int diff = ccn - ccnThreshold;
+            if (diff > 0)
+            {
+                ccnBeyondThresholdSum += diff;
+            }
+        }
+    }
 }
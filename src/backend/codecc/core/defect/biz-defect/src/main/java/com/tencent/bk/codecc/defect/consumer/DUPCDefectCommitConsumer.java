@@ -22,6 +22,7 @@ import com.tencent.bk.codecc.defect.dao.mongotemplate.DUPCDefectDao;
 import com.tencent.bk.codecc.defect.model.*;
 import com.tencent.bk.codecc.defect.model.incremental.ToolBuildInfoEntity;
 import com.tencent.bk.codecc.defect.service.IDataReportBizService;
+import com.tencent.bk.codecc.defect.utils.LineAuthorIndex;
 import com.tencent.bk.codecc.defect.vo.CommitDefectVO;
 import com.tencent.bk.codecc.defect.vo.DupcChartTrendVO;
 import com.tencent.bk.codecc.defect.vo.DupcDataReportRspVO;
@@ -401,15 +402,15 @@ public class DUPCDefectCommitConsumer extends AbstractDefectCommitConsumer
         if (CollectionUtils.isNotEmpty(blockList) && CollectionUtils.isNotEmpty(changeRecords))
         {
             // 获取各文件代码行对应的作者信息映射
-            Map<Integer, ScmBlameChangeRecordVO> lineAuthorMap = getLineAuthorMap(changeRecords);
-            if (null != lineAuthorMap)
+            LineAuthorIndex lineAuthorIndex = getLineAuthorIndex(changeRecords);
+            if (!lineAuthorIndex.isEmpty())
             {
                 blockList.forEach(codeBlockEntity ->
                 {
                     Long functionLastUpdateTime = 0L;
                     for (long i = codeBlockEntity.getStartLines(); i <= codeBlockEntity.getEndLines(); i++)
                     {
-                        ScmBlameChangeRecordVO recordVO = lineAuthorMap.get(Integer.valueOf(String.valueOf(i)));
+                        ScmBlameChangeRecordVO recordVO = lineAuthorIndex.get((int) i);
                         if (recordVO != null && recordVO.getLineUpdateTime() > functionLastUpdateTime)
                         {
                             functionLastUpdateTime = recordVO.getLineUpdateTime();
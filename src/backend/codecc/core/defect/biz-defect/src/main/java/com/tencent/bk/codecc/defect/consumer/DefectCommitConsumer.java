@@ -16,6 +16,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.tencent.bk.codecc.defect.api.ServiceReportTaskLogRestResource;
+import com.tencent.bk.codecc.defect.component.DefectTreeCache;
 import com.tencent.bk.codecc.defect.component.LintDefectTracingComponent;
 import com.tencent.bk.codecc.defect.constant.DefectConstants;
 import com.tencent.bk.codecc.defect.dao.mongorepository.*;
@@ -112,6 +113,9 @@ public class DefectCommitConsumer
     @Autowired
     private ServiceReportTaskLogRestResource serviceReportTaskLogRestResource;
 
+    @Autowired
+    private DefectTreeCache defectTreeCache;
+
     @Autowired
     private BuildDefectDao buildDefectDao;
 
@@ -141,6 +145,11 @@ public class DefectCommitConsumer
                 uploadTaskLog(commitDefectVO, ComConstants.StepFlag.FAIL.value(), 0, System.currentTimeMillis(), e.getLocalizedMessage());
                 return;
             }
+            finally
+            {
+                // 告警数据已变化，失效告警文件树缓存
+                defectTreeCache.invalidate(commitDefectVO.getTaskId());
+            }
 
             // 发送提单成功的分析记录
             uploadTaskLog(commitDefectVO, ComConstants.StepFlag.SUCC.value(), 0, System.currentTimeMillis(), null);
@@ -14,16 +14,24 @@ package com.tencent.bk.codecc.defect.consumer;
 
 import com.alibaba.fastjson.JSONReader;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.tencent.bk.codecc.defect.component.CheckerSnapshotCache;
+import com.tencent.bk.codecc.defect.component.DefectTracingExecutorComponent;
+import com.tencent.bk.codecc.defect.component.LintStatisticDeltaComponent;
 import com.tencent.bk.codecc.defect.component.NewLintDefectTracingComponent;
 import com.tencent.bk.codecc.defect.constant.DefectMessageCode;
 import com.tencent.bk.codecc.defect.dao.mongorepository.*;
 import com.tencent.bk.codecc.defect.dao.mongotemplate.FileDefectGatherDao;
+import com.tencent.bk.codecc.defect.dao.mongotemplate.LintDefectDao;
+import com.tencent.bk.codecc.defect.dao.mongotemplate.LintStatisticAggregateDao;
 import com.tencent.bk.codecc.defect.model.*;
 import com.tencent.bk.codecc.defect.model.incremental.ToolBuildInfoEntity;
 import com.tencent.bk.codecc.defect.model.incremental.ToolBuildStackEntity;
 import com.tencent.bk.codecc.defect.service.BuildDefectService;
 import com.tencent.bk.codecc.defect.service.newdefectjudge.NewDefectJudgeService;
+import com.tencent.bk.codecc.defect.utils.CommitStageProfiler;
+import com.tencent.bk.codecc.defect.utils.LineAuthorIndex;
+import com.tencent.bk.codecc.defect.utils.LintFileSnapshot;
+import com.tencent.bk.codecc.defect.utils.LintStatisticCounter;
 import com.tencent.bk.codecc.defect.vo.CommitDefectVO;
 import com.tencent.bk.codecc.defect.vo.FileDefectGatherVO;
 import com.tencent.bk.codecc.defect.vo.customtool.RepoSubModuleVO;
@@ -32,6 +40,8 @@ import com.tencent.bk.codecc.defect.vo.customtool.ScmBlameVO;
 import com.tencent.bk.codecc.task.vo.TaskDetailVO;
 import com.tencent.devops.common.api.exception.CodeCCException;
 import com.tencent.devops.common.constant.ComConstants;
+import com.tencent.devops.common.constant.ComConstants.ProjectScale;
+import com.tencent.devops.common.constant.CommonMessageCode;
 import com.tencent.devops.common.util.DateTimeUtils;
 import com.tencent.devops.common.util.GsonUtils;
 import com.tencent.devops.common.util.JsonUtil;
@@ -42,6 +52,11 @@ import org.apache.commons.collections.MapUtils;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
@@ -51,8 +66,14 @@ import java.io.InputStreamReader;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -69,21 +90,86 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
     @Autowired
     private LintDefectRepository lintDefectRepository;
     @Autowired
+    private LintDefectDao lintDefectDao;
+    @Autowired
     private NewDefectJudgeService newDefectJudgeService;
     @Autowired
     private LintStatisticRepository lintStatisticRepository;
     @Autowired
+    private LintStatisticAggregateRepository lintStatisticAggregateRepository;
+    @Autowired
+    private LintStatisticAggregateDao lintStatisticAggregateDao;
+    @Autowired
+    private LintStatisticDeltaComponent lintStatisticDeltaComponent;
+    @Autowired
     private BuildDefectService buildDefectService;
     @Autowired
     private NewLintDefectTracingComponent newLintDefectTracingComponent;
     @Autowired
-    private CheckerRepository checkerRepository;
+    private DefectTracingExecutorComponent defectTracingExecutorComponent;
+    @Autowired
+    private CheckerSnapshotCache checkerSnapshotCache;
     @Autowired
     private ToolBuildInfoRepository toolBuildInfoRepository;
     @Autowired
     private FileDefectGatherRepository fileDefectGatherRepository;
     @Autowired
     private FileDefectGatherDao fileDefectGatherDao;
+    @Autowired
+    @Qualifier("asyncLintDefectPipelineExecutor")
+    private ThreadPoolTaskExecutor lintDefectPipelineExecutor;
+
+    /**
+     * 填充文件信息阶段的并发数
+     */
+    @Value("${codecc.commit.lint.pipeline.parallelism:4}")
+    private int pipelineParallelism;
+
+    /**
+     * 读取阶段与填充阶段之间的队列长度(文件数)
+     */
+    @Value("${codecc.commit.lint.pipeline.queueCapacity:2000}")
+    private int pipelineQueueCapacity;
+
+    /**
+     * 同时在做告警跟踪的最大批次数
+     */
+    @Value("${codecc.commit.lint.pipeline.maxInFlightChunks:4}")
+    private int pipelineMaxInFlightChunks;
+
+    /**
+     * 更新文件状态时每批读取的文件数
+     */
+    @Value("${codecc.commit.lint.status.batchSize:1000}")
+    private int statusBatchSize;
+
+    /**
+     * 是否开启增量统计，关闭时每次提交都加载全部告警文件重算
+     */
+    @Value("${codecc.commit.lint.statistic.incremental:true}")
+    private boolean statisticIncremental;
+
+    /**
+     * 增量统计累加多少次后做一次全量重算，兜底修正没有标记为脏的统计偏差，0表示不做定期重算
+     */
+    @Value("${codecc.commit.lint.statistic.repairInterval:100}")
+    private int statisticRepairInterval;
+
+    /**
+     * 需要全量重算统计的任务，多个任务用逗号分隔
+     */
+    @Value("${codecc.commit.lint.statistic.repairTaskIds:}")
+    private String statisticRepairTaskIds;
+
+    /**
+     * 读取阶段结束的标记
+     */
+    private static final LintFileEntity END_OF_FILES = new LintFileEntity();
+
+    /**
+     * 统计累计值保存冲突时的最大尝试次数
+     */
+    private static final int STATISTIC_SAVE_MAX_ATTEMPTS = 3;
 
     @Override
     protected void uploadDefects(CommitDefectVO commitDefectVO, Map<String, ScmBlameVO> fileChangeRecordsMap, Map<String, RepoSubModuleVO> codeRepoIdMap)
@@ -96,66 +182,122 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
         TaskDetailVO taskVO = thirdPartySystemCaller.getTaskInfo(streamName);
         BuildEntity buildEntity = buildDao.getAndSaveBuildInfo(buildId);
 
-        // 1.解析工具上报的告警文件，并做告警跟踪
-        long beginTime = System.currentTimeMillis();
-        List<LintFileEntity> gatherFileList = new ArrayList<>();
-        Set<String> currentFileSet = parseDefectJsonFile(commitDefectVO, taskVO, buildEntity, fileChangeRecordsMap, codeRepoIdMap, gatherFileList);
-        log.info("parseDefectJsonFile cost: {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId);
+        // 判断本次提交是增量统计还是全量重算，增量统计时由告警跟踪累加每个文件的计数差值
+        long newDefectJudgeTime = newDefectJudgeService.getNewDefectJudgeTime(taskId, toolName, taskVO);
+        LintStatisticAggregateEntity statisticAggregate = lintStatisticAggregateRepository.findFirstByTaskIdAndToolName(taskId, toolName);
+        LintStatisticCounter statisticDelta = isFullStatistic(taskId, statisticAggregate, newDefectJudgeTime)
+                ? null : lintStatisticDeltaComponent.begin(taskId, toolName, buildId, newDefectJudgeTime);
+
+        try
+        {
+            // 1.解析工具上报的告警文件，并做告警跟踪
+            CommitStageProfiler profiler = CommitStageProfiler.current();
+            List<LintFileEntity> gatherFileList = new ArrayList<>();
+            Set<String> currentFileSet;
+            try (CommitStageProfiler.Stage stage = profiler.stage("parse"))
+            {
+                currentFileSet = parseDefectJsonFile(commitDefectVO, taskVO, buildEntity, fileChangeRecordsMap, codeRepoIdMap, gatherFileList);
+                stage.addRows(currentFileSet.size());
+            }
+            finally
+            {
+                lintStatisticDeltaComponent.finish(taskId, toolName, buildId);
+            }
 
-        ToolBuildStackEntity toolBuildStackEntity = toolBuildStackRepository.findByTaskIdAndToolNameAndBuildId(taskId, toolName, buildId);
+            ToolBuildStackEntity toolBuildStackEntity = toolBuildStackRepository.findByTaskIdAndToolNameAndBuildId(taskId, toolName, buildId);
 
-        // 判断本次是增量还是全量扫描
-        boolean isFullScan = toolBuildStackEntity != null ? toolBuildStackEntity.isFullScan() : true;
+            // 判断本次是增量还是全量扫描
+            boolean isFullScan = toolBuildStackEntity != null ? toolBuildStackEntity.isFullScan() : true;
 
-        // 获取工具侧上报的已删除文件
-        List<String> deleteFiles;
-        if (toolBuildStackEntity != null && CollectionUtils.isNotEmpty(toolBuildStackEntity.getDeleteFiles()))
-        {
-            deleteFiles = toolBuildStackEntity.getDeleteFiles();
-        }
-        else
-        {
-            deleteFiles = Lists.newArrayList();
-        }
+            // 获取工具侧上报的已删除文件
+            List<String> deleteFiles;
+            if (toolBuildStackEntity != null && CollectionUtils.isNotEmpty(toolBuildStackEntity.getDeleteFiles()))
+            {
+                deleteFiles = toolBuildStackEntity.getDeleteFiles();
+            }
+            else
+            {
+                deleteFiles = Lists.newArrayList();
+            }
+
+            // 2.处理告警收敛
+            try (CommitStageProfiler.Stage stage = profiler.stage("gather"))
+            {
+                processFileDefectGather(commitDefectVO, gatherFileList, fileChangeRecordsMap, currentFileSet, isFullScan, deleteFiles);
+                stage.addRows(gatherFileList.size());
+            }
+
+            // 3.按批遍历告警文件并更新文件状态，全量重算时遍历所有告警文件并在更新状态后计数，增量统计时只遍历可能需要更新状态的告警文件
+            CommitStageProfiler.Stage statusStage = profiler.stage("status");
+            LintStatisticCounter fullCounter = statisticDelta == null ? new LintStatisticCounter(newDefectJudgeTime) : null;
+            AtomicLong statusFileCount = new AtomicLong();
+            Consumer<List<LintFileEntity>> statusBatchConsumer = fileEntityList ->
+            {
+                updateFileEntityStatus(taskId, toolName, fileEntityList, currentFileSet, deleteFiles, isFullScan, buildEntity, statisticDelta);
+                if (fullCounter != null)
+                {
+                    fileEntityList.forEach(fileEntity -> fullCounter.addFile(fileEntity, 1));
+                }
+                statusFileCount.addAndGet(fileEntityList.size());
+            };
+            if (fullCounter != null)
+            {
+                lintDefectDao.forEachFile(taskId, toolName, statusBatchSize, statusBatchConsumer);
+            }
+            else
+            {
+                lintDefectDao.forEachFileForStatusUpdate(taskId, toolName, isFullScan, deleteFiles, statusBatchSize, statusBatchConsumer);
+            }
+            statusStage.addRows(statusFileCount.get()).close();
 
-        // 2.处理告警收敛
-        processFileDefectGather(commitDefectVO, gatherFileList, fileChangeRecordsMap, currentFileSet, isFullScan, deleteFiles);
+            String baseBuildId;
+            if (toolBuildStackEntity == null)
+            {
+                ToolBuildInfoEntity toolBuildINfoEntity = toolBuildInfoRepository.findByTaskIdAndToolName(taskId, toolName);
+                baseBuildId = toolBuildINfoEntity != null && StringUtils.isNotEmpty(toolBuildINfoEntity.getDefectBaseBuildId()) ? toolBuildINfoEntity.getDefectBaseBuildId() : "";
+            }
+            else
+            {
+                baseBuildId = StringUtils.isNotEmpty(toolBuildStackEntity.getBaseBuildId()) ? toolBuildStackEntity.getBaseBuildId() : "";
+            }
 
-        // 查询所有告警
-        beginTime = System.currentTimeMillis();
-        List<LintFileEntity> allFileEntityList = lintDefectRepository.findByTaskIdAndToolName(taskId, toolName);
-        log.info("find lint file list cost: {}, {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId, allFileEntityList.size());
+            // 4.统计本次扫描的告警
+            try (CommitStageProfiler.Stage ignored = profiler.stage("statistic"))
+            {
+                statistic(taskVO, toolName, buildId, baseBuildId, newDefectJudgeTime, statisticAggregate, statisticDelta, fullCounter);
+            }
 
-        // 3.更新文件状态
-        beginTime = System.currentTimeMillis();
-        updateFileEntityStatus(allFileEntityList, currentFileSet, deleteFiles, isFullScan, buildEntity);
-        log.info("update lint file list cost: {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId);
+            // 5.更新构建告警快照
+            try (CommitStageProfiler.Stage stage = profiler.stage("buildSnapshot"))
+            {
+                buildDefectService.updateBaseBuildDefects(taskId, toolName, baseBuildId, buildId, isFullScan, deleteFiles, currentFileSet);
+                stage.addRows(currentFileSet.size());
+            }
 
-        String baseBuildId;
-        if (toolBuildStackEntity == null)
-        {
-            ToolBuildInfoEntity toolBuildINfoEntity = toolBuildInfoRepository.findByTaskIdAndToolName(taskId, toolName);
-            baseBuildId = toolBuildINfoEntity != null && StringUtils.isNotEmpty(toolBuildINfoEntity.getDefectBaseBuildId()) ? toolBuildINfoEntity.getDefectBaseBuildId() : "";
+            // 6.保存质量红线数据
+            try (CommitStageProfiler.Stage ignored = profiler.stage("redLine"))
+            {
+                redLineReportService.saveRedLineData(taskVO, toolName, buildId);
+            }
         }
-        else
+        catch (RuntimeException | Error e)
         {
-            baseBuildId = StringUtils.isNotEmpty(toolBuildStackEntity.getBaseBuildId()) ? toolBuildStackEntity.getBaseBuildId() : "";
+            // 告警跟踪或更新状态中途失败时，部分文件已经写入，统计累计值与告警文件不再一致，标记为脏让下次提交全量重算
+            markStatisticDirtyQuietly(taskId, toolName, buildId);
+            throw e;
         }
+    }
 
-        // 4.统计本次扫描的告警
-        beginTime = System.currentTimeMillis();
-        statistic(taskVO, toolName, buildId, baseBuildId, allFileEntityList);
-        log.info("statistic cost: {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId);
-
-        // 5.更新构建告警快照
-        beginTime = System.currentTimeMillis();
-        buildDefectService.updateBaseBuildDefects(taskId, toolName, baseBuildId, buildId, isFullScan, deleteFiles, currentFileSet);
-        log.info("buildDefectService.updateBaseBuildDefectsAndClearTemp cost: {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId);
-
-        // 6.保存质量红线数据
-        beginTime = System.currentTimeMillis();
-        redLineReportService.saveRedLineData(taskVO, toolName, buildId);
-        log.info("redLineReportService.saveRedLineData cost: {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId);
+    private void markStatisticDirtyQuietly(long taskId, String toolName, String buildId)
+    {
+        try
+        {
+            lintStatisticAggregateDao.markDirty(taskId, toolName);
+        }
+        catch (Exception e)
+        {
+            log.warn("mark lint statistic aggregate dirty fail: {}, {}, {}", taskId, toolName, buildId, e);
+        }
     }
 
     /**
@@ -311,8 +453,7 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
             throw new CodeCCException(DefectMessageCode.DEFECT_FILE_NOT_FOUND, null, String.format("找不到告警文件: %s", fileIndex), null);
         }
         // 获取规则列表
-        List<CheckerDetailEntity> checkerDetailEntityList = checkerRepository.findByToolName(toolName);
-        Map<String, Integer> checkerSeverityMap = checkerDetailEntityList.stream().collect(Collectors.toMap(CheckerDetailEntity::getCheckerKey, CheckerDetailEntity::getSeverity));
+        Map<String, Integer> checkerSeverityMap = checkerSnapshotCache.get(toolName).getSeverityMap();
 
         TransferAuthorEntity transferAuthorEntity = transferAuthorRepository.findByTaskId(taskId);
         List<TransferAuthorEntity.TransferAuthorPair> transferAuthorList = null;
@@ -323,37 +464,74 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
 
         Set<String> filterPaths = getFilterPaths(taskVO);
 
-        Set<String> currentFileSet = new HashSet<>();
-        // 通过流式读json文件
+        CommitStageProfiler.current().addBytes(defectFile.length());
+
+        // 按提单路由确定的项目规模选择告警跟踪线程池
+        ProjectScale projectScale = ProjectScale.of(commitDefectVO.getProjectScale(), defectFile.length());
+
+        // 流水线分三个阶段：当前线程读取告警文件 -> 多线程填充文件信息并分批 -> 单线程分发告警跟踪，阶段之间用有界队列做背压
+        Set<String> currentFileSet = ConcurrentHashMap.newKeySet();
+        BlockingQueue<LintFileEntity> parsedFileQueue = new LinkedBlockingQueue<>(pipelineQueueCapacity);
+        BlockingQueue<LintFileChunk> chunkQueue = new LinkedBlockingQueue<>(pipelineMaxInFlightChunks);
+        LintFileChunkCollector chunkCollector = new LintFileChunkCollector(chunkQueue, getMaxPerBatch(commitDefectVO));
+        AtomicLong enrichCost = new AtomicLong();
+        AtomicReference<Throwable> pipelineError = new AtomicReference<>();
+        List<TransferAuthorEntity.TransferAuthorPair> finalTransferAuthorList = transferAuthorList;
+
+        // 告警跟踪分发阶段
+        Future<Long> dispatchFuture = lintDefectPipelineExecutor.submit(CommitStageProfiler.wrap(() ->
+                dispatchFileDefect(commitDefectVO, taskVO, filterPaths, buildEntity, finalTransferAuthorList, projectScale, chunkQueue, pipelineError)));
+
+        // 填充文件信息阶段
+        List<Future<?>> enrichFutureList = new ArrayList<>();
+        for (int i = 0; i < pipelineParallelism; i++)
+        {
+            enrichFutureList.add(lintDefectPipelineExecutor.submit(CommitStageProfiler.wrap(() ->
+            {
+                while (true)
+                {
+                    LintFileEntity lintFileEntity = parsedFileQueue.take();
+                    if (lintFileEntity == END_OF_FILES)
+                    {
+                        return null;
+                    }
+                    // 出错后只消费不处理，避免读取线程阻塞在队列上
+                    if (pipelineError.get() != null)
+                    {
+                        continue;
+                    }
+                    try
+                    {
+                        long enrichBeginTime = System.currentTimeMillis();
+                        boolean valid = fillFileInfo(lintFileEntity, fileChangeRecordsMap, codeRepoIdMap, checkerSeverityMap);
+                        enrichCost.addAndGet(System.currentTimeMillis() - enrichBeginTime);
+                        if (valid)
+                        {
+                            currentFileSet.add(StringUtils.isEmpty(lintFileEntity.getRelPath()) ? lintFileEntity.getFilePath() : lintFileEntity.getRelPath());
+                            chunkCollector.add(lintFileEntity);
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        pipelineError.compareAndSet(null, e);
+                    }
+                }
+            })));
+        }
+
+        // 读取告警文件阶段，通过流式读json文件
+        long parseBeginTime = System.currentTimeMillis();
         try (FileInputStream fileInputStram = new FileInputStream(defectFile);
              InputStreamReader inputStreamReader = new InputStreamReader(fileInputStram, "UTF-8");
              JSONReader reader = new JSONReader(inputStreamReader))
         {
             reader.startArray();
-            int cursor = 0;
-            int chunkNo = 0;
-            List<LintFileEntity> lintFileList = new ArrayList<>();
-            List<Future> asyncResultList = new ArrayList<>();
             while (reader.hasNext())
             {
                 LintFileEntity lintFileEntity = reader.readObject(LintFileEntity.class);
                 if (CollectionUtils.isNotEmpty(lintFileEntity.getDefectList()))
                 {
-                    boolean valid = fillFileInfo(lintFileEntity, fileChangeRecordsMap, codeRepoIdMap, checkerSeverityMap);
-                    if (valid)
-                    {
-                        currentFileSet.add(StringUtils.isEmpty(lintFileEntity.getRelPath()) ? lintFileEntity.getFilePath() : lintFileEntity.getRelPath());
-                        lintFileList.add(lintFileEntity);
-                        cursor += lintFileEntity.getDefectList().size();
-                        if (cursor > MAX_PER_BATCH)
-                        {
-                            // 分批处理告警文件
-                            processFileDefect(commitDefectVO, taskVO, lintFileList, filterPaths, buildEntity, chunkNo, transferAuthorList, asyncResultList);
-                            cursor = 0;
-                            lintFileList = new ArrayList<>();
-                            chunkNo++;
-                        }
-                    }
+                    parsedFileQueue.put(lintFileEntity);
                 }
                 else if (lintFileEntity.getGather() != null)
                 {
@@ -365,175 +543,203 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
                 }
             }
             reader.endArray();
+        }
+        catch (IOException e)
+        {
+            log.warn("Read defect file exception: {}", fileIndex, e);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            pipelineError.compareAndSet(null, e);
+        }
+        catch (RuntimeException e)
+        {
+            pipelineError.compareAndSet(null, e);
+        }
+        finally
+        {
+            for (int i = 0; i < pipelineParallelism; i++)
+            {
+                putQuietly(parsedFileQueue, END_OF_FILES);
+            }
+        }
+        long parseCost = System.currentTimeMillis() - parseBeginTime;
 
-            if (lintFileList.size() > 0)
+        // 等待填充阶段结束后把剩余的文件作为最后一批，再通知分发阶段结束
+        long traceCost = 0;
+        try
+        {
+            for (Future<?> enrichFuture : enrichFutureList)
             {
-                processFileDefect(commitDefectVO, taskVO, lintFileList, filterPaths, buildEntity, chunkNo, transferAuthorList, asyncResultList);
+                enrichFuture.get();
             }
+            chunkCollector.flush();
+            putQuietly(chunkQueue, LintFileChunk.END_OF_CHUNKS);
 
             // 直到所有的异步处理否都完成了，才继续往下走
-            asyncResultList.forEach(asyncResult ->
-            {
-                try
-                {
-                    asyncResult.get();
-                }
-                catch (InterruptedException | ExecutionException e)
-                {
-                    log.warn("handle file defect fail!{}", commitDefectVO, e);
-                }
-            });
+            traceCost = dispatchFuture.get();
         }
-        catch (IOException e)
+        catch (InterruptedException | ExecutionException e)
         {
-            log.warn("Read defect file exception: {}", fileIndex, e);
+            log.warn("handle file defect fail!{}", commitDefectVO, e);
+            pipelineError.compareAndSet(null, e);
+        }
+
+        log.info("lint defect pipeline finish: {}, {}, {}, parse cost: {}, enrich cost: {}, trace cost: {}, chunk count: {}",
+                taskId, toolName, buildId, parseCost, enrichCost.get(), traceCost, chunkCollector.getChunkCount());
+        gaugeService.submit("codecc.commit.lint.parse.cost", parseCost);
+        gaugeService.submit("codecc.commit.lint.enrich.cost", enrichCost.get());
+        gaugeService.submit("codecc.commit.lint.trace.cost", traceCost);
+        CommitStageProfiler profiler = CommitStageProfiler.current();
+        profiler.record("read", parseCost, currentFileSet.size());
+        profiler.record("enrich", enrichCost.get(), currentFileSet.size());
+        profiler.record("trace", traceCost, chunkCollector.getChunkCount());
+
+        if (pipelineError.get() != null)
+        {
+            log.error("parse defect file fail: {}, {}, {}", taskId, toolName, buildId, pipelineError.get());
+            throw new CodeCCException(CommonMessageCode.SYSTEM_ERROR, null, String.format("解析告警文件失败: %s", fileIndex), pipelineError.get());
         }
 
         return currentFileSet;
     }
 
+    /**
+     * 判断本次提交是否需要加载全部告警文件重算统计
+     *
+     * @param taskId
+     * @param statisticAggregate
+     * @param newDefectJudgeTime
+     * @return
+     */
+    private boolean isFullStatistic(long taskId, LintStatisticAggregateEntity statisticAggregate, long newDefectJudgeTime)
+    {
+        if (!statisticIncremental || statisticAggregate == null || statisticAggregate.isDirty()
+                || statisticAggregate.getNewDefectJudgeTime() != newDefectJudgeTime)
+        {
+            return true;
+        }
+        if (StringUtils.isNotBlank(statisticRepairTaskIds)
+                && Arrays.asList(StringUtils.deleteWhitespace(statisticRepairTaskIds).split(",")).contains(String.valueOf(taskId)))
+        {
+            return true;
+        }
+        return statisticRepairInterval > 0 && statisticAggregate.getIncrementalTimes() >= statisticRepairInterval;
+    }
+
+    /**
+     * 按批遍历任务下的所有告警文件重新计数
+     *
+     * @param taskId
+     * @param toolName
+     * @param newDefectJudgeTime
+     * @return
+     */
+    private LintStatisticCounter countAllFileEntity(long taskId, String toolName, long newDefectJudgeTime)
+    {
+        LintStatisticCounter counter = new LintStatisticCounter(newDefectJudgeTime);
+        lintDefectDao.forEachFile(taskId, toolName, statusBatchSize,
+                fileEntityList -> fileEntityList.forEach(fileEntity -> counter.addFile(fileEntity, 1)));
+        return counter;
+    }
+
+    /**
+     * 把计数保存到统计累计值，累计值的版本号在读取之后发生变化时返回false
+     *
+     * @param taskId
+     * @param toolName
+     * @param buildId
+     * @param statisticAggregate 读取到的统计累计值，首次统计时为null
+     * @param counter
+     * @param incremental
+     * @return
+     */
+    private boolean saveStatisticAggregate(long taskId, String toolName, String buildId, LintStatisticAggregateEntity statisticAggregate,
+                                           LintStatisticCounter counter, boolean incremental)
+    {
+        if (statisticAggregate == null)
+        {
+            statisticAggregate = new LintStatisticAggregateEntity();
+            statisticAggregate.setTaskId(taskId);
+            statisticAggregate.setToolName(toolName);
+        }
+        counter.fillAggregate(statisticAggregate);
+        statisticAggregate.setIncrementalTimes(incremental ? statisticAggregate.getIncrementalTimes() + 1 : 0);
+        statisticAggregate.setLastBuildId(buildId);
+        statisticAggregate.setDirty(false);
+        try
+        {
+            lintStatisticAggregateRepository.save(statisticAggregate);
+            return true;
+        }
+        catch (OptimisticLockingFailureException | DuplicateKeyException e)
+        {
+            return false;
+        }
+    }
+
     /**
      * 统计本次扫描的告警，需要统计的信息：
      * 1.本次分析遗留告警总数，文件总数，用于跟上一次分析的结果比较，得到最近一次分析结果，用于项目详情页展示，例如： 告警88247(↑38) 文件1796(↑0)
      * 2.当前遗留新告警数，历史告警数，用于数据报表统计每日告警遗留趋势图
      *
+     * 增量统计时把本次的计数差值合并到统计累计值，全量重算时使用遍历所有告警文件得到的计数
+     *
      * @param taskVO
      * @param toolName
      * @param buildId
      * @param baseBuildId
-     * @param allFileEntityList
+     * @param newDefectJudgeTime
+     * @param statisticAggregate 统计累计值，首次统计时为null
+     * @param statisticDelta 本次提交的计数差值，全量重算时为null
+     * @param fullCounter 更新状态时对所有告警文件的计数，增量统计时为null
      */
-    private void statistic(TaskDetailVO taskVO, String toolName, String buildId, String baseBuildId, List<LintFileEntity> allFileEntityList)
+    private void statistic(TaskDetailVO taskVO, String toolName, String buildId, String baseBuildId, long newDefectJudgeTime,
+                           LintStatisticAggregateEntity statisticAggregate, LintStatisticCounter statisticDelta,
+                           LintStatisticCounter fullCounter)
     {
-        long taskId=taskVO.getTaskId();
-        //计算总的告警数
-        Long totalDefectCount = 0L;
-        int defectCount = 0;
-        int fileCount = 0;
-        int newDefectCount = 0;
-        int historyDefectCount = 0;
-        int totalNewSerious = 0;
-        int totalNewNormal = 0;
-        int totalNewPrompt = 0;
-        //modified by xxx 增加历史各严重等级告警的数量统计
-        int totalSerious = 0;
-        int totalNormal = 0;
-        int totalPrompt = 0;
-        Map<String, NotRepairedAuthorEntity> authorDefectMap = Maps.newHashMap();
-        if (CollectionUtils.isNotEmpty(allFileEntityList))
-        {
-            // 查询新老告警判定时间
-            long newDefectJudgeTime = newDefectJudgeService.getNewDefectJudgeTime(taskId, toolName, taskVO);
-            for (LintFileEntity fileEntity : allFileEntityList)
-            {
-                if(CollectionUtils.isNotEmpty(fileEntity.getDefectList()))
-                {
-                    totalDefectCount = totalDefectCount + fileEntity.getDefectList().size();
-                }
-                // 统计本次构建遗留的告警数量和文件数量，以及各作者告警数量
-                if (fileEntity.getStatus() == ComConstants.DefectStatus.NEW.value())
+        long taskId = taskVO.getTaskId();
+        LintStatisticCounter counter = null;
+        for (int attempt = 1; ; attempt++)
+        {
+            boolean incremental = statisticDelta != null && statisticAggregate != null && !statisticAggregate.isDirty()
+                    && statisticAggregate.getNewDefectJudgeTime() == newDefectJudgeTime;
+            if (incremental)
+            {
+                counter = LintStatisticCounter.of(statisticAggregate);
+                counter.merge(statisticDelta);
+                if (!counter.isConsistent())
                 {
-                    if (CollectionUtils.isNotEmpty(fileEntity.getDefectList()))
-                    {
-                        int defectCountInFile = 0;
-                        for (LintDefectEntity lintDefectEntity : fileEntity.getDefectList())
-                        {
-                            if (lintDefectEntity.getStatus() != ComConstants.DefectStatus.NEW.value())
-                            {
-                                continue;
-                            }
-                            Long lineUpdateTime = lintDefectEntity.getLineUpdateTime();
-                            if (lineUpdateTime == null)
-                            {
-                                lineUpdateTime = lintDefectEntity.getCreateTime();
-                            }
-                            if (lineUpdateTime >= newDefectJudgeTime)
-                            {
-                                // 获取作者告警数统计
-                                NotRepairedAuthorEntity notRepairedAuthorEntity = null;
-                                if (StringUtils.isNotEmpty(lintDefectEntity.getAuthor()))
-                                {
-                                    notRepairedAuthorEntity = authorDefectMap.get(lintDefectEntity.getAuthor());
-                                    if (notRepairedAuthorEntity == null)
-                                    {
-                                        notRepairedAuthorEntity = new NotRepairedAuthorEntity();
-                                        notRepairedAuthorEntity.setName(lintDefectEntity.getAuthor());
-                                        authorDefectMap.put(lintDefectEntity.getAuthor(), notRepairedAuthorEntity);
-                                    }
-                                }
-
-                                // 统计新增告警数
-                                newDefectCount++;
-
-                                // 统计新增严重告警数
-                                if (ComConstants.SERIOUS == lintDefectEntity.getSeverity())
-                                {
-                                    totalNewSerious++;
-                                    totalSerious++;
-                                    if (notRepairedAuthorEntity != null)
-                                    {
-                                        notRepairedAuthorEntity.setSeriousCount(notRepairedAuthorEntity.getSeriousCount() + 1);
-                                    }
-                                }
-
-                                // 统计新增一般告警数
-                                else if (ComConstants.NORMAL == lintDefectEntity.getSeverity())
-                                {
-                                    totalNewNormal++;
-                                    totalNormal++;
-                                    if (notRepairedAuthorEntity != null)
-                                    {
-                                        notRepairedAuthorEntity.setNormalCount(notRepairedAuthorEntity.getNormalCount() + 1);
-                                    }
-                                }
-
-                                // 统计新增提示告警数
-                                else if (ComConstants.PROMPT_IN_DB == lintDefectEntity.getSeverity() || ComConstants.PROMPT == lintDefectEntity.getSeverity())
-                                {
-                                    totalNewPrompt++;
-                                    totalPrompt++;
-                                    if (notRepairedAuthorEntity != null)
-                                    {
-                                        notRepairedAuthorEntity.setPromptCount(notRepairedAuthorEntity.getPromptCount() + 1);
-                                    }
-                                }
-                                // 统计用户新增告警数总和
-                                if (notRepairedAuthorEntity != null)
-                                    notRepairedAuthorEntity.setTotalCount(newDefectCount);
-                            }
-                            else
-                            {
-                                historyDefectCount++;
-                                if(ComConstants.SERIOUS == lintDefectEntity.getSeverity())
-                                {
-                                    totalSerious++;
-                                }
-                                else if(ComConstants.NORMAL == lintDefectEntity.getSeverity())
-                                {
-                                    totalNormal++;
-                                }
-                                else if(ComConstants.PROMPT_IN_DB == lintDefectEntity.getSeverity() || ComConstants.PROMPT == lintDefectEntity.getSeverity())
-                                {
-                                    totalPrompt++;
-                                }
-                            }
-                            defectCountInFile++;
-                        }
-                        if (defectCountInFile > 0)
-                        {
-                            fileCount++;
-                            defectCount += defectCountInFile;
-                        }
-                    }
+                    log.warn("lint statistic aggregate is inconsistent, recompute with all files: {}, {}, {}", taskId, toolName, buildId);
+                    incremental = false;
                 }
             }
-        }
+            if (!incremental)
+            {
+                // 状态更新阶段的计数只能用一次，保存冲突后需要重新遍历，才能包含并发修改的结果
+                counter = fullCounter != null ? fullCounter : countAllFileEntity(taskId, toolName, newDefectJudgeTime);
+                fullCounter = null;
+            }
 
-        // 作者关联告警统计信息按告警数量排序
-        List<NotRepairedAuthorEntity> authorDefects = Lists.newArrayList(authorDefectMap.values());
-        Collections.sort(authorDefects, (o1, o2) -> Integer.compare(o2.getTotalCount(), o1.getTotalCount()));
+            // 按版本号保存统计累计值，期间有并发提交或告警状态变化时重新读取累计值再合并
+            if (saveStatisticAggregate(taskId, toolName, buildId, statisticAggregate, counter, incremental))
+            {
+                break;
+            }
+            if (attempt >= STATISTIC_SAVE_MAX_ATTEMPTS)
+            {
+                log.warn("save lint statistic aggregate conflict too many times, mark dirty: {}, {}, {}", taskId, toolName, buildId);
+                lintStatisticAggregateDao.markDirty(taskId, toolName);
+                break;
+            }
+            log.info("lint statistic aggregate changed concurrently, retry: {}, {}, {}, {}", taskId, toolName, buildId, attempt);
+            statisticAggregate = lintStatisticAggregateRepository.findFirstByTaskIdAndToolName(taskId, toolName);
+        }
 
         // 保存本次分析的统计情况
+        int defectCount = counter.getDefectCount();
+        int fileCount = counter.getFileCount();
         int defectChange;
         int fileChange;
         LintStatisticEntity lastLintStatisticEntity = lintStatisticRepository.findByTaskIdAndToolNameAndBuildId(taskId, toolName, baseBuildId);
@@ -551,21 +757,10 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
         LintStatisticEntity lintStatisticEntity = new LintStatisticEntity();
         lintStatisticEntity.setTaskId(taskId);
         lintStatisticEntity.setToolName(toolName);
-        lintStatisticEntity.setFileCount(fileCount);
-        lintStatisticEntity.setDefectCount(defectCount);
-        lintStatisticEntity.setNewDefectCount(newDefectCount);
-        lintStatisticEntity.setHistoryDefectCount(historyDefectCount);
+        counter.fillStatistic(lintStatisticEntity);
         lintStatisticEntity.setDefectChange(defectChange);
         lintStatisticEntity.setFileChange(fileChange);
         lintStatisticEntity.setBuildId(buildId);
-        lintStatisticEntity.setTotalNewNormal(totalNewNormal);
-        lintStatisticEntity.setTotalNewPrompt(totalNewPrompt);
-        lintStatisticEntity.setTotalNewSerious(totalNewSerious);
-        lintStatisticEntity.setTotalNormal(totalNormal);
-        lintStatisticEntity.setTotalPrompt(totalPrompt);
-        lintStatisticEntity.setTotalSerious(totalSerious);
-        lintStatisticEntity.setTotalDefectCount(totalDefectCount);
-        lintStatisticEntity.setAuthorStatistic(authorDefects);
 
         long currentTime = System.currentTimeMillis();
         lintStatisticEntity.setTime(currentTime);
@@ -574,21 +769,27 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
     }
 
     /**
-     * 更新文件状态
+     * 更新一批文件的状态
      *
-     * @param allFileEntityList
+     * @param taskId
+     * @param toolName
+     * @param fileEntityList
      * @param currentFileSet
      * @param deleteFiles
      * @param isFullScan
      * @param buildEntity
+     * @param statisticDelta 告警统计差值，全量重算时为null
      */
-    private void updateFileEntityStatus(List<LintFileEntity> allFileEntityList, Set<String> currentFileSet, List<String> deleteFiles, boolean isFullScan, BuildEntity buildEntity)
+    private void updateFileEntityStatus(long taskId, String toolName, List<LintFileEntity> fileEntityList, Set<String> currentFileSet,
+                                        List<String> deleteFiles, boolean isFullScan, BuildEntity buildEntity, LintStatisticCounter statisticDelta)
     {
-        if (CollectionUtils.isNotEmpty(allFileEntityList))
+        if (CollectionUtils.isNotEmpty(fileEntityList))
         {
             List<LintFileEntity> needUpdateFileEntityList = new ArrayList<>();
+            Map<String, LintFileSnapshot> snapshotMap = new HashMap<>();
+            LintStatisticCounter fileDelta = statisticDelta == null ? null : new LintStatisticCounter(statisticDelta.getNewDefectJudgeTime());
             long currentTime = System.currentTimeMillis();
-            for (LintFileEntity fileEntity : allFileEntityList)
+            for (LintFileEntity fileEntity : fileEntityList)
             {
                 String filePath = fileEntity.getFilePath();
                 String relPath = fileEntity.getRelPath();
@@ -606,6 +807,11 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
                 if (fileEntity.getStatus() == ComConstants.DefectStatus.NEW.value()
                         && (deleteFiles.contains(filePath) || (isFullScan && notCurrentBuildUpload)))
                 {
+                    snapshotMap.put(StringUtils.isEmpty(relPath) ? filePath : relPath, LintFileSnapshot.of(fileEntity));
+                    if (fileDelta != null)
+                    {
+                        fileDelta.addFile(fileEntity, -1);
+                    }
 
                     //只有告警全部是已修复状态时，才会将文件状态设置为已修复，否则不会将文件状态设置为修复
                     Boolean updateFileFlag = true;
@@ -637,17 +843,25 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
                         fileEntity.setStatus(fileEntity.getStatus() | ComConstants.DefectStatus.FIXED.value());
                         fileEntity.setFixedTime(currentTime);
                     }
+                    if (fileDelta != null)
+                    {
+                        fileDelta.addFile(fileEntity, 1);
+                    }
                     needUpdateFileEntityList.add(fileEntity);
                 }
             }
             if (CollectionUtils.isNotEmpty(needUpdateFileEntityList))
             {
-                lintDefectRepository.save(needUpdateFileEntityList);
+                lintDefectDao.upsertDefectListByPath(taskId, toolName, needUpdateFileEntityList, snapshotMap);
+            }
+            if (fileDelta != null)
+            {
+                statisticDelta.merge(fileDelta);
             }
         }
     }
 
-    private void processFileDefect(
+    private Future<Boolean> processFileDefect(
             CommitDefectVO commitDefectVO,
             TaskDetailVO taskVO,
             List<LintFileEntity> currentLintFileList,
@@ -655,7 +869,7 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
             BuildEntity buildEntity,
             int chunkNo,
             List<TransferAuthorEntity.TransferAuthorPair> transferAuthorList,
-            List<Future> asyncResultList)
+            ProjectScale projectScale)
     {
         long taskId = commitDefectVO.getTaskId();
         String toolName = commitDefectVO.getToolName();
@@ -672,22 +886,191 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
         {
             preLintFileEntityList = lintDefectRepository.findByTaskIdAndToolNameAndFilePathIn(taskId, toolName, filePathSet);
         }
+        // 告警清单溢出的文件需要合并完整的告警后再做跟踪
+        lintDefectDao.fillSpillDefectList(taskId, toolName, preLintFileEntityList);
 
         // 告警跟踪聚类
         log.info("previous file:{}, current file:{}", preLintFileEntityList.size(), currentLintFileList.size());
         long beginTime = System.currentTimeMillis();
-        Future<Boolean> asyncFuture = newLintDefectTracingComponent.defectTracing(
-                commitDefectVO,
-                taskVO,
-                filterPath,
-                buildEntity,
-                chunkNo,
-                preLintFileEntityList,
-                currentLintFileList,
-                transferAuthorList);
-
-        asyncResultList.add(asyncFuture);
+        Future<Boolean> asyncFuture = defectTracingExecutorComponent.submit(projectScale, () ->
+                newLintDefectTracingComponent.defectTracing(
+                        commitDefectVO,
+                        taskVO,
+                        filterPath,
+                        buildEntity,
+                        chunkNo,
+                        preLintFileEntityList,
+                        currentLintFileList,
+                        transferAuthorList).get());
+
         log.info("async defec tracing(unfinish) cost: {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, commitDefectVO.getBuildId());
+        return asyncFuture;
+    }
+
+    /**
+     * 告警跟踪分发阶段：逐批提交告警跟踪，同时在途的批次数不超过pipelineMaxInFlightChunks
+     *
+     * @param commitDefectVO
+     * @param taskVO
+     * @param filterPaths
+     * @param buildEntity
+     * @param transferAuthorList
+     * @param projectScale
+     * @param chunkQueue
+     * @param pipelineError
+     * @return 分发阶段耗时
+     */
+    private long dispatchFileDefect(CommitDefectVO commitDefectVO,
+                                    TaskDetailVO taskVO,
+                                    Set<String> filterPaths,
+                                    BuildEntity buildEntity,
+                                    List<TransferAuthorEntity.TransferAuthorPair> transferAuthorList,
+                                    ProjectScale projectScale,
+                                    BlockingQueue<LintFileChunk> chunkQueue,
+                                    AtomicReference<Throwable> pipelineError) throws InterruptedException
+    {
+        long beginTime = System.currentTimeMillis();
+        Deque<Future<Boolean>> inFlightFutures = new ArrayDeque<>();
+        while (true)
+        {
+            LintFileChunk chunk = chunkQueue.take();
+            if (chunk == LintFileChunk.END_OF_CHUNKS)
+            {
+                break;
+            }
+            // 出错后只消费不处理，避免填充线程阻塞在队列上
+            if (pipelineError.get() != null)
+            {
+                continue;
+            }
+            if (inFlightFutures.size() >= pipelineMaxInFlightChunks)
+            {
+                waitFileDefect(commitDefectVO, inFlightFutures.poll());
+            }
+            try
+            {
+                inFlightFutures.add(processFileDefect(commitDefectVO, taskVO, chunk.fileList, filterPaths, buildEntity, chunk.chunkNo, transferAuthorList, projectScale));
+            }
+            catch (Throwable e)
+            {
+                pipelineError.compareAndSet(null, e);
+            }
+        }
+        while (!inFlightFutures.isEmpty())
+        {
+            waitFileDefect(commitDefectVO, inFlightFutures.poll());
+        }
+        return System.currentTimeMillis() - beginTime;
+    }
+
+    private void waitFileDefect(CommitDefectVO commitDefectVO, Future<Boolean> asyncResult) throws InterruptedException
+    {
+        try
+        {
+            asyncResult.get();
+        }
+        catch (ExecutionException e)
+        {
+            // 单批告警跟踪失败不影响整个提交，但这批文件可能只写入了一部分，统计差值也没有合并，需要全量重算
+            log.warn("handle file defect fail!{}", commitDefectVO, e);
+            markStatisticDirtyQuietly(commitDefectVO.getTaskId(), commitDefectVO.getToolName(), commitDefectVO.getBuildId());
+        }
+    }
+
+    private static <E> void putQuietly(BlockingQueue<E> queue, E element)
+    {
+        try
+        {
+            queue.put(element);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 一批待跟踪的告警文件
+     */
+    private static class LintFileChunk
+    {
+        private static final LintFileChunk END_OF_CHUNKS = new LintFileChunk(-1, Collections.emptyList());
+
+        private final int chunkNo;
+
+        private final List<LintFileEntity> fileList;
+
+        private LintFileChunk(int chunkNo, List<LintFileEntity> fileList)
+        {
+            this.chunkNo = chunkNo;
+            this.fileList = fileList;
+        }
+    }
+
+    /**
+     * 按告警数把填充完的文件分批，满maxPerBatch个告警时放入分发队列
+     */
+    private static class LintFileChunkCollector
+    {
+        private final BlockingQueue<LintFileChunk> chunkQueue;
+
+        private final int maxPerBatch;
+
+        private List<LintFileEntity> lintFileList = new ArrayList<>();
+
+        private int cursor = 0;
+
+        private int chunkNo = 0;
+
+        private LintFileChunkCollector(BlockingQueue<LintFileChunk> chunkQueue, int maxPerBatch)
+        {
+            this.chunkQueue = chunkQueue;
+            this.maxPerBatch = maxPerBatch;
+        }
+
+        private void add(LintFileEntity lintFileEntity) throws InterruptedException
+        {
+            LintFileChunk fullChunk = null;
+            synchronized (this)
+            {
+                lintFileList.add(lintFileEntity);
+                cursor += lintFileEntity.getDefectList().size();
+                if (cursor > maxPerBatch)
+                {
+                    fullChunk = new LintFileChunk(chunkNo++, lintFileList);
+                    cursor = 0;
+                    lintFileList = new ArrayList<>();
+                }
+            }
+            // 在锁外入队，分发阶段繁忙时只阻塞当前填充线程
+            if (fullChunk != null)
+            {
+                chunkQueue.put(fullChunk);
+            }
+        }
+
+        private void flush() throws InterruptedException
+        {
+            LintFileChunk lastChunk = null;
+            synchronized (this)
+            {
+                if (!lintFileList.isEmpty())
+                {
+                    lastChunk = new LintFileChunk(chunkNo++, lintFileList);
+                    lintFileList = new ArrayList<>();
+                    cursor = 0;
+                }
+            }
+            if (lastChunk != null)
+            {
+                chunkQueue.put(lastChunk);
+            }
+        }
+
+        private synchronized int getChunkCount()
+        {
+            return chunkNo;
+        }
     }
 
     /**
@@ -750,8 +1133,11 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
 
         List<LintDefectEntity> defectList = lintFileEntity.getDefectList();
 
+        // 文件内所有告警共用一份代码行作者索引
+        LineAuthorIndex lineAuthorIndex = getLineAuthorIndex(fileLineAuthorInfo != null ? fileLineAuthorInfo.getChangeRecords() : null);
+
         // 填充文件内的告警的信息，其中如果告警的规则不属于已录入平台的规则，则移除告警
-        defectList = defectList.stream().filter(defectEntity -> fillDefectInfo(defectEntity, fileLineAuthorInfo, checkerSeverityMap)).collect(Collectors.toList());
+        defectList = defectList.stream().filter(defectEntity -> fillDefectInfo(defectEntity, lineAuthorIndex, checkerSeverityMap)).collect(Collectors.toList());
         if (CollectionUtils.isEmpty(defectList))
         {
             log.warn("file defectList is empty after filter. {}, {}, {}", lintFileEntity.getTaskId(), lintFileEntity.getToolName(), lintFileEntity.getFilePath());
@@ -765,11 +1151,11 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
     /**
      * 填充文件内的告警的信息，其中如果告警的规则不属于已录入平台的规则，则移除告警
      * @param defectEntity
-     * @param fileLineAuthorInfo
+     * @param lineAuthorIndex
      * @param checkerSeverityMap
      * @return
      */
-    private boolean fillDefectInfo(LintDefectEntity defectEntity, ScmBlameVO fileLineAuthorInfo, Map<String, Integer> checkerSeverityMap)
+    private boolean fillDefectInfo(LintDefectEntity defectEntity, LineAuthorIndex lineAuthorIndex, Map<String, Integer> checkerSeverityMap)
     {
         Integer severity = checkerSeverityMap.get(defectEntity.getChecker());
         if (severity == null)
@@ -779,55 +1165,21 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
         }
         defectEntity.setSeverity(severity);
 
-        if (fileLineAuthorInfo != null)
+        if (!lineAuthorIndex.isEmpty())
         {
-            List<ScmBlameChangeRecordVO> changeRecords = fileLineAuthorInfo.getChangeRecords();
-            if (CollectionUtils.isNotEmpty(changeRecords))
+            int defectLine = defectEntity.getLineNum();
+            // 告警中的行号为0的改成1
+            if (defectLine == 0)
             {
-                int defectLine = defectEntity.getLineNum();
-                // 告警中的行号为0的改成1
-                if (defectLine == 0)
-                {
-                    defectLine = 1;
-                    defectEntity.setLineNum(defectLine);
-                }
-                for (ScmBlameChangeRecordVO changeRecord : changeRecords)
-                {
-                    boolean isFound = false;
-                    List<Object> lines = changeRecord.getLines();
-                    if (lines != null && lines.size() > 0)
-                    {
-                        for (Object line : lines)
-                        {
-                            if (line instanceof Integer && defectLine == (int) line)
-                            {
-                                isFound = true;
-                            }
-                            else if (line instanceof List)
-                            {
-                                List<Integer> lineScope = (List<Integer>) line;
-                                if (CollectionUtils.isNotEmpty(lineScope) && lineScope.size() > 1)
-                                {
-                                    if (lineScope.get(0) <= defectLine && lineScope.get(lineScope.size() - 1) >= defectLine)
-                                    {
-                                        isFound = true;
-                                    }
-                                }
-                            }
-                            if (isFound)
-                            {
-                                defectEntity.setAuthor(changeRecord.getAuthor());
-                                long lineUpdateTime = DateTimeUtils.getThirteenTimestamp(changeRecord.getLineUpdateTime());
-                                defectEntity.setLineUpdateTime(lineUpdateTime);
-                                break;
-                            }
-                        }
-                    }
-                    if (isFound)
-                    {
-                        break;
-                    }
-                }
+                defectLine = 1;
+                defectEntity.setLineNum(defectLine);
+            }
+            ScmBlameChangeRecordVO changeRecord = lineAuthorIndex.get(defectLine);
+            if (changeRecord != null)
+            {
+                defectEntity.setAuthor(changeRecord.getAuthor());
+                long lineUpdateTime = DateTimeUtils.getThirteenTimestamp(changeRecord.getLineUpdateTime());
+                defectEntity.setLineUpdateTime(lineUpdateTime);
             }
         }
         return true;
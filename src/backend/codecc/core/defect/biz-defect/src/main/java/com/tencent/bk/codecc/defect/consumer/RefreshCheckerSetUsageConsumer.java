@@ -12,6 +12,7 @@
 
 package com.tencent.bk.codecc.defect.consumer;
 
+import com.tencent.bk.codecc.defect.component.CheckerSnapshotCache;
 import com.tencent.bk.codecc.defect.dao.mongorepository.CheckerSetTaskRelationshipRepository;
 import com.tencent.bk.codecc.defect.dao.mongotemplate.CheckerSetDao;
 import com.tencent.bk.codecc.defect.model.checkerset.CheckerSetTaskRelationshipEntity;
@@ -46,6 +47,9 @@ public class RefreshCheckerSetUsageConsumer
     @Autowired
     private CheckerSetDao checkerSetDao;
 
+    @Autowired
+    private CheckerSnapshotCache checkerSnapshotCache;
+
     @RabbitListener(bindings = @QueueBinding(key = ROUTE_REFRESH_CHECKERSET_USAGE,
             value = @Queue(value = QUEUE_REFRESH_CHECKERSET_USAGE, durable = "true"),
             exchange = @Exchange(value = EXCHANGE_REFRESH_CHECKERSET_USAGE, durable = "true", delayed = "true")))
@@ -62,6 +66,9 @@ public class RefreshCheckerSetUsageConsumer
                     collect(Collectors.groupingBy(CheckerSetTaskRelationshipEntity::getCheckerSetId, Collectors.counting()));
 
             checkerSetDao.updateCheckerSetUsage(checkerSetCountMap);
+
+            // 定时任务只由一个实例消费，其他实例的规则快照依靠定时重新加载
+            checkerSnapshotCache.invalidateAll();
         }
         catch (Exception e)
         {
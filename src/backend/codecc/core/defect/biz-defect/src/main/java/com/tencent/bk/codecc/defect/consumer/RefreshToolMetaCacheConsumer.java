@@ -12,6 +12,7 @@
 
 package com.tencent.bk.codecc.defect.consumer;
 
+import com.tencent.bk.codecc.defect.component.CheckerSnapshotCache;
 import com.tencent.devops.common.constant.RedisKeyConstants;
 import com.tencent.devops.common.service.ToolMetaCacheService;
 import lombok.extern.slf4j.Slf4j;
@@ -39,6 +40,9 @@ public class RefreshToolMetaCacheConsumer
     @Autowired
     private ToolMetaCacheService toolMetaCacheService;
 
+    @Autowired
+    private CheckerSnapshotCache checkerSnapshotCache;
+
     public void refreshToolMetaCache(String toolName)
     {
         log.info("begin refreshToolMetaCache: {}", toolName);
@@ -46,6 +50,7 @@ public class RefreshToolMetaCacheConsumer
         try
         {
             toolMetaCacheService.loadToolBaseCache();
+            checkerSnapshotCache.invalidate(toolName);
         }
         catch (Exception e)
         {
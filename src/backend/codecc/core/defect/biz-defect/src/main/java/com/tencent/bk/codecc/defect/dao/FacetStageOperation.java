@@ -0,0 +1,53 @@
+/*
+ * Tencent is pleased to support the open source community by making BlueKing available.
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the MIT License (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://opensource.org/licenses/MIT
+ * Unless required by applicable law or agreed to in writing, software distributed under
+ * the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.bk.codecc.defect.dao;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperationContext;
+import org.springframework.util.Assert;
+
+import java.util.Arrays;
+
+/**
+ * mongodb多分支聚合工具类
+ * 每个分支是一个独立的子管道，共用上游阶段的输入，一次聚合同时得到分页数据和各项计数
+ *
+ * @version V1.0
+ * @date 2020/6/24
+ */
+public class FacetStageOperation implements AggregationOperation
+{
+    private final BasicDBObject facets = new BasicDBObject();
+
+    /**
+     * 增加一个分支
+     *
+     * @param name   分支名称，即结果中的字段名
+     * @param stages 分支子管道
+     * @return
+     */
+    public FacetStageOperation and(String name, DBObject... stages)
+    {
+        Assert.hasText(name, "Facet name must not be empty!");
+        facets.put(name, Arrays.asList(stages));
+        return this;
+    }
+
+    @Override
+    public DBObject toDBObject(AggregationOperationContext aggregationOperationContext)
+    {
+        return new BasicDBObject("$facet", facets);
+    }
+}
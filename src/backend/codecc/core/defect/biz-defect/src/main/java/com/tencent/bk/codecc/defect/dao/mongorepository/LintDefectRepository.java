@@ -47,13 +47,14 @@ import java.util.Set;
 public interface LintDefectRepository extends MongoRepository<LintFileEntity, String>
 {
     /**
-     * 通过任务id，工具名和相对路径查询lint类告警文件信息
+     * 通过任务id，工具名和相对路径查询lint类告警文件信息，不包含溢出文档
      *
      * @param taskId
      * @param toolName
      * @param filePath
      * @return
      */
+    @Query(value = "{'task_id': ?0, 'tool_name': ?1, 'rel_path': ?2, 'spill_no': {'$not': {'$gt': 0}}}")
     LintFileEntity findFirstByTaskIdAndToolNameAndRelPath(long taskId, String toolName, String filePath);
 
     /**
@@ -100,15 +101,15 @@ public interface LintDefectRepository extends MongoRepository<LintFileEntity, St
     List<LintFileEntity> findByTaskIdInAndToolNameIs(Collection<Long> taskIds, String toolName);
 
     /**
-     * 批量获取指定任务的工具告警
+     * 批量获取指定任务的工具告警，按文件分页，只返回主文档，溢出文档中的告警由调用方合并
      *
      * @param taskIds  任务ID集合
      * @param toolName 工具名称
      * @param pageable 分页
      * @return file defect list
      */
-    @Query(fields = "{'task_id': 1, 'file_path': 1, 'defect_count': 1, 'status': 1, 'defect_list': 1, 'checker_list': 1, 'file_update_time': 1, 'createTime': 1}",
-            value = "{'task_id': {'$in': ?0}, 'tool_name': ?1}")
+    @Query(fields = "{'task_id': 1, 'tool_name': 1, 'file_path': 1, 'rel_path': 1, 'defect_count': 1, 'status': 1, 'defect_list': 1, 'checker_list': 1, 'file_update_time': 1, 'createTime': 1, 'spill_count': 1}",
+            value = "{'task_id': {'$in': ?0}, 'tool_name': ?1, 'spill_no': {'$not': {'$gt': 0}}}")
     Page<LintFileEntity> findByTaskIdInAndToolNameIs(Collection<Long> taskIds, String toolName, Pageable pageable);
 
     /**
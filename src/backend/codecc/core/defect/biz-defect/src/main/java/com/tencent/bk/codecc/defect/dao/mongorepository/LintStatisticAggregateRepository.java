@@ -0,0 +1,50 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.bk.codecc.defect.dao.mongorepository;
+
+import com.tencent.bk.codecc.defect.model.LintStatisticAggregateEntity;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+/**
+ * lint告警统计累计值持久化
+ *
+ * @version V1.0
+ * @date 2020/6/18
+ */
+@Repository
+public interface LintStatisticAggregateRepository extends MongoRepository<LintStatisticAggregateEntity, String>
+{
+    /**
+     * 通过任务id和工具名查询统计累计值
+     *
+     * @param taskId
+     * @param toolName
+     * @return
+     */
+    LintStatisticAggregateEntity findFirstByTaskIdAndToolName(long taskId, String toolName);
+}
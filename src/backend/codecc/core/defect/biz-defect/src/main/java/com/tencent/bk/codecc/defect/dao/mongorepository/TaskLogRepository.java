@@ -53,6 +53,15 @@ public interface TaskLogRepository extends MongoRepository<TaskLogEntity, String
      */
     TaskLogEntity findFirstByTaskIdAndToolNameOrderByStartTimeDesc(long taskId, String toolName);
 
+    /**
+     * 查询最近几次分析记录信息
+     *
+     * @param taskId
+     * @param toolName
+     * @return
+     */
+    List<TaskLogEntity> findFirst5ByTaskIdAndToolNameOrderByStartTimeDesc(long taskId, String toolName);
+
     /**
      * 通过任务id和工具名查询分析记录信息清单
      *
@@ -47,12 +47,14 @@ import org.springframework.data.mongodb.core.aggregation.SortOperation;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.stereotype.Repository;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * 圈复杂度持久代码
@@ -136,6 +138,61 @@ public class CCNDefectDao
         return queryResult.getMappedResults();
     }
 
+    /**
+     * 通过游标按批遍历任务下指定状态的告警，同一时间只持有一批告警
+     *
+     * @param taskId
+     * @param status
+     * @param batchSize
+     * @param batchConsumer
+     */
+    public void forEachByTaskIdAndStatus(long taskId, int status, int batchSize, Consumer<List<CCNDefectEntity>> batchConsumer)
+    {
+        Query query = Query.query(Criteria.where("task_id").is(taskId).and("status").is(status));
+        try (CloseableIterator<CCNDefectEntity> iterator = mongoTemplate.stream(query, CCNDefectEntity.class))
+        {
+            List<CCNDefectEntity> batch = new ArrayList<>(batchSize);
+            while (iterator.hasNext())
+            {
+                batch.add(iterator.next());
+                if (batch.size() >= batchSize)
+                {
+                    batchConsumer.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty())
+            {
+                batchConsumer.accept(batch);
+            }
+        }
+    }
+
+    /**
+     * 批量把告警更新为已修复，只写状态相关的字段
+     *
+     * @param defectList
+     */
+    public void batchFixDefect(List<CCNDefectEntity> defectList)
+    {
+        if (CollectionUtils.isNotEmpty(defectList))
+        {
+            BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CCNDefectEntity.class);
+            defectList.forEach(defectEntity ->
+            {
+                Query query = new Query();
+                query.addCriteria(Criteria.where("_id").is(new ObjectId(defectEntity.getEntityId())));
+                Update update = new Update();
+                update.set("status", defectEntity.getStatus());
+                update.set("fixed_time", defectEntity.getFixedTime());
+                update.set("latest_datetime", defectEntity.getLatestDateTime());
+                update.set("fixed_build_number", defectEntity.getFixedBuildNumber());
+                ops.updateOne(query, update);
+            });
+            ops.execute();
+        }
+    }
+
     public void batchMarkDefect(List<CCNDefectEntity> defectList, Integer markFlag)
     {
         if (CollectionUtils.isNotEmpty(defectList))
@@ -28,14 +28,21 @@ package com.tencent.bk.codecc.defect.dao.mongotemplate;
 
 import com.google.common.collect.Lists;
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.DBObject;
+import com.mongodb.MongoBulkWriteException;
 import com.tencent.bk.codecc.defect.constant.DefectConstants;
+import com.tencent.bk.codecc.defect.dao.AddFieldOperation;
+import com.tencent.bk.codecc.defect.dao.FacetStageOperation;
 import com.tencent.bk.codecc.defect.model.*;
 import com.tencent.bk.codecc.defect.vo.LintDefectQueryRspVO;
 import com.tencent.bk.codecc.defect.service.newdefectjudge.NewDefectJudgeService;
+import com.tencent.bk.codecc.defect.utils.LintFileSnapshot;
 import com.tencent.bk.codecc.defect.vo.CCNDefectVO;
 import com.tencent.bk.codecc.defect.vo.LintDefectQueryRspVO;
 import com.tencent.bk.codecc.defect.vo.LintDefectVO;
 import com.tencent.bk.codecc.defect.vo.LintFileVO;
+import com.tencent.bk.codecc.defect.vo.common.DefectQueryReqVO;
 import com.tencent.devops.common.constant.ComConstants;
 import com.tencent.devops.common.util.DateTimeUtils;
 import com.tencent.devops.common.util.JsonUtil;
@@ -44,6 +51,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
 import org.apache.commons.lang.StringUtils;
+import org.bson.BsonSerializationException;
 import org.bson.types.ObjectId;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -51,6 +59,7 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
 import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.*;
@@ -58,9 +67,12 @@ import org.springframework.data.mongodb.core.query.BasicQuery;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.stereotype.Repository;
 
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -73,6 +85,22 @@ import java.util.stream.Collectors;
 @Repository
 public class LintDefectDao
 {
+    /**
+     * 文档超出mongodb的16M限制时，告警清单按该大小分片，第一个分片留在主文档，
+     * 其余分片作为同一文件的溢出文档(spill_no大于0)保存在t_lint_defect中
+     */
+    private static final int SPILL_PARTITION_SIZE = 5000;
+
+    /**
+     * 变化的告警占比超过该值时整体写入告警清单
+     */
+    private static final double DELTA_CHANGE_RATIO = 0.5;
+
+    /**
+     * 服务端拒绝超出16M的文档时的错误码：10334 BSONObjectTooLarge，17419 更新后文档过大
+     */
+    private static final Set<Integer> DOCUMENT_TOO_LARGE_CODES = new HashSet<>(Arrays.asList(10334, 17419));
+
     @Autowired
     private MongoTemplate mongoTemplate;
 
@@ -97,6 +125,260 @@ public class LintDefectDao
         return mongoTemplate.find(query, LintFileEntity.class);
     }
 
+    /**
+     * 按问题聚类分页查询告警
+     * 告警展开后的过滤、排序、分页以及各项计数都在一次聚合中完成，只有当前页的告警会返回，计数口径与按文件查询后在内存中过滤一致
+     *
+     * @param taskId
+     * @param queryWarningReq
+     * @param startTime          告警时间范围起点，为null时不按时间过滤
+     * @param endTime            告警时间范围终点
+     * @param newDefectJudgeTime 新老告警判定时间
+     * @param sort               告警排序，告警字段需带defect_list.前缀，文件名为file_name
+     * @param skip
+     * @param limit
+     * @return
+     */
+    public LintDefectPageEntity findDefectPageByParams(long taskId, DefectQueryReqVO queryWarningReq, Long startTime, Long endTime,
+                                                       long newDefectJudgeTime, Sort sort, long skip, int limit)
+    {
+        String checker = queryWarningReq.getChecker();
+        String author = queryWarningReq.getAuthor();
+        Set<String> pkgChecker = queryWarningReq.getPkgChecker();
+
+        // 1.文件级过滤与按文件查询一致，先筛出包含匹配告警的文件
+        Criteria andCriteria = new Criteria();
+        Query query = getFilePremiumQuery(taskId, queryWarningReq.getToolName(), queryWarningReq.getFileList(), checker, author,
+                andCriteria);
+        query.addCriteria(Criteria.where("defect_list").elemMatch(andCriteria));
+        DBObject fileMatch = query.getQueryObject();
+        AggregationOperation matchFile = context -> new BasicDBObject("$match", fileMatch);
+
+        // 2.只保留列表需要的列后展开告警
+        ProjectionOperation project = Aggregation.project("file_path", "rel_path", "defect_list");
+        UnwindOperation unwind = Aggregation.unwind("defect_list");
+        BasicDBObject addFields = new BasicDBObject();
+        addFields.put("file_name", new BasicDBObject("$arrayElemAt",
+                Arrays.asList(new BasicDBObject("$split", Arrays.asList("$file_path", "/")), -1)));
+        addFields.put("defect_time", new BasicDBObject("$ifNull", Arrays.asList("$defect_list.linenum_datetime", 0L)));
+        AddFieldOperation addField = new AddFieldOperation(addFields);
+
+        // 3.规则、处理人、时间范围过滤，不参与任何计数
+        BasicDBObject defectMatch = new BasicDBObject();
+        if (CollectionUtils.isNotEmpty(pkgChecker))
+        {
+            defectMatch.put("defect_list.checker", new BasicDBObject("$in", pkgChecker));
+        }
+        else if (StringUtils.isNotEmpty(checker))
+        {
+            defectMatch.put("defect_list.checker", checker);
+        }
+        if (StringUtils.isNotEmpty(author))
+        {
+            defectMatch.put("defect_list.author", author);
+        }
+        if (startTime != null)
+        {
+            defectMatch.put("defect_time", new BasicDBObject("$gte", startTime).append("$lte", endTime));
+        }
+        AggregationOperation matchDefect = context -> new BasicDBObject("$match", defectMatch);
+
+        // 4.各项计数与分页并行计算，每一级计数都在上一级过滤的基础上进行
+        Set<String> condStatusList = queryWarningReq.getStatus();
+        if (CollectionUtils.isEmpty(condStatusList))
+        {
+            condStatusList = Collections.singleton(String.valueOf(ComConstants.DefectStatus.NEW.value()));
+        }
+        BasicDBObject statusMatch = getStatusMatch(condStatusList);
+        BasicDBObject severityMatch = new BasicDBObject(statusMatch);
+        severityMatch.putAll(getSeverityMatch(queryWarningReq.getSeverity()));
+        BasicDBObject defectTypeMatch = new BasicDBObject(severityMatch);
+        defectTypeMatch.putAll(getDefectTypeMatch(queryWarningReq.getDefectType(), newDefectJudgeTime));
+
+        BasicDBObject sortObj = new BasicDBObject();
+        sort.forEach(order -> sortObj.put(order.getProperty(), order.isAscending() ? 1 : -1));
+        // 同值的告警保持稳定的先后顺序，保证翻页不重复不遗漏
+        sortObj.putIfAbsent("_id", 1);
+        sortObj.putIfAbsent("defect_list.defect_id", 1);
+
+        BasicDBObject pageProject = new BasicDBObject();
+        pageProject.put("file_path", 1);
+        pageProject.put("rel_path", 1);
+        pageProject.put("defect_list", Collections.singletonList("$defect_list"));
+
+        DBObject countStage = new BasicDBObject("$count", "count");
+        FacetStageOperation facet = new FacetStageOperation()
+                .and("existCount", new BasicDBObject("$match",
+                        new BasicDBObject("defect_list.status", ComConstants.DefectStatus.NEW.value())), countStage)
+                .and("fixCount", new BasicDBObject("$match", new BasicDBObject("defect_list.status",
+                        new BasicDBObject("$bitsAnySet", ComConstants.DefectStatus.FIXED.value()))), countStage)
+                .and("ignoreCount", new BasicDBObject("$match", new BasicDBObject("defect_list.status",
+                        new BasicDBObject("$bitsAnySet", ComConstants.DefectStatus.IGNORE.value())
+                                .append("$bitsAllClear", ComConstants.DefectStatus.FIXED.value()))), countStage)
+                .and("severityCount", new BasicDBObject("$match", statusMatch),
+                        new BasicDBObject("$group", new BasicDBObject("_id", "$defect_list.severity")
+                                .append("count", new BasicDBObject("$sum", 1))))
+                .and("historyCount", new BasicDBObject("$match", severityMatch),
+                        new BasicDBObject("$group", new BasicDBObject("_id",
+                                new BasicDBObject("$lt", Arrays.asList("$defect_time", newDefectJudgeTime)))
+                                .append("count", new BasicDBObject("$sum", 1))))
+                .and("totalCount", new BasicDBObject("$match", defectTypeMatch), countStage)
+                .and("page", new BasicDBObject("$match", defectTypeMatch),
+                        new BasicDBObject("$sort", sortObj),
+                        new BasicDBObject("$skip", skip),
+                        new BasicDBObject("$limit", limit),
+                        new BasicDBObject("$project", pageProject));
+
+        AggregationOptions options = new AggregationOptions.Builder().allowDiskUse(true).build();
+        Aggregation agg = Aggregation.newAggregation(matchFile, project, unwind, addField, matchDefect, facet)
+                .withOptions(options);
+        BasicDBObject facetResult = mongoTemplate.aggregate(agg, "t_lint_defect", BasicDBObject.class)
+                .getUniqueMappedResult();
+
+        LintDefectPageEntity defectPage = new LintDefectPageEntity();
+        defectPage.setPageFileList(new ArrayList<>());
+        if (facetResult == null)
+        {
+            return defectPage;
+        }
+        defectPage.setExistCount(getFacetCount(facetResult, "existCount"));
+        defectPage.setFixCount(getFacetCount(facetResult, "fixCount"));
+        defectPage.setIgnoreCount(getFacetCount(facetResult, "ignoreCount"));
+        defectPage.setTotalCount(getFacetCount(facetResult, "totalCount"));
+        for (DBObject group : getFacetList(facetResult, "severityCount"))
+        {
+            Object severity = group.get("_id");
+            int count = ((Number) group.get("count")).intValue();
+            if (!(severity instanceof Number))
+            {
+                continue;
+            }
+            int severityValue = ((Number) severity).intValue();
+            if (ComConstants.SERIOUS == severityValue)
+            {
+                defectPage.setSeriousCount(defectPage.getSeriousCount() + count);
+            }
+            else if (ComConstants.NORMAL == severityValue)
+            {
+                defectPage.setNormalCount(defectPage.getNormalCount() + count);
+            }
+            // 数据库中提示级别为3，前端为4
+            else if (ComConstants.PROMPT_IN_DB == severityValue || ComConstants.PROMPT == severityValue)
+            {
+                defectPage.setPromptCount(defectPage.getPromptCount() + count);
+            }
+        }
+        for (DBObject group : getFacetList(facetResult, "historyCount"))
+        {
+            int count = ((Number) group.get("count")).intValue();
+            if (Boolean.TRUE.equals(group.get("_id")))
+            {
+                defectPage.setHistoryCount(count);
+            }
+            else
+            {
+                defectPage.setNewCount(count);
+            }
+        }
+        for (DBObject fileObj : getFacetList(facetResult, "page"))
+        {
+            defectPage.getPageFileList().add(mongoTemplate.getConverter().read(LintFileEntity.class, fileObj));
+        }
+        return defectPage;
+    }
+
+    /**
+     * 告警状态过滤条件，待修复要求状态完全相等，已修复、已忽略等按位匹配
+     *
+     * @param condStatusList
+     * @return
+     */
+    private BasicDBObject getStatusMatch(Set<String> condStatusList)
+    {
+        List<DBObject> orList = new ArrayList<>();
+        for (String condStatus : condStatusList)
+        {
+            int status = Integer.valueOf(condStatus);
+            if (ComConstants.DefectStatus.NEW.value() == status)
+            {
+                orList.add(new BasicDBObject("defect_list.status", status));
+            }
+            else if (ComConstants.DefectStatus.NEW.value() < status)
+            {
+                orList.add(new BasicDBObject("defect_list.status", new BasicDBObject("$bitsAnySet", status)));
+            }
+        }
+        if (orList.isEmpty())
+        {
+            return new BasicDBObject("defect_list.status", new BasicDBObject("$in", Collections.emptyList()));
+        }
+        return new BasicDBObject("$or", orList);
+    }
+
+    /**
+     * 严重级别过滤条件，前端的提示级别4对应数据库中的3
+     *
+     * @param conditionSeverity
+     * @return
+     */
+    private BasicDBObject getSeverityMatch(Set<String> conditionSeverity)
+    {
+        Set<Integer> severitySet = new HashSet<>();
+        for (String severity : conditionSeverity)
+        {
+            int severityValue = Integer.valueOf(severity);
+            severitySet.add(severityValue);
+            if (ComConstants.PROMPT == severityValue)
+            {
+                severitySet.add(ComConstants.PROMPT_IN_DB);
+            }
+        }
+        return new BasicDBObject("defect_list.severity", new BasicDBObject("$in", severitySet));
+    }
+
+    /**
+     * 新老告警过滤条件，晚于判定时间的为新告警
+     *
+     * @param conditionDefectType
+     * @param newDefectJudgeTime
+     * @return
+     */
+    private BasicDBObject getDefectTypeMatch(Set<String> conditionDefectType, long newDefectJudgeTime)
+    {
+        if (CollectionUtils.isEmpty(conditionDefectType))
+        {
+            return new BasicDBObject();
+        }
+        boolean matchNew = conditionDefectType.contains(ComConstants.DefectType.NEW.stringValue());
+        boolean matchHistory = conditionDefectType.contains(ComConstants.DefectType.HISTORY.stringValue());
+        if (matchNew && matchHistory)
+        {
+            return new BasicDBObject();
+        }
+        else if (matchNew)
+        {
+            return new BasicDBObject("defect_time", new BasicDBObject("$gt", newDefectJudgeTime));
+        }
+        else if (matchHistory)
+        {
+            return new BasicDBObject("defect_time", new BasicDBObject("$lte", newDefectJudgeTime));
+        }
+        return new BasicDBObject("defect_time", new BasicDBObject("$in", Collections.emptyList()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<DBObject> getFacetList(DBObject facetResult, String name)
+    {
+        Object facetList = facetResult.get(name);
+        return facetList instanceof List ? (List<DBObject>) facetList : Collections.emptyList();
+    }
+
+    private int getFacetCount(DBObject facetResult, String name)
+    {
+        List<DBObject> facetList = getFacetList(facetResult, name);
+        return facetList.isEmpty() ? 0 : ((Number) facetList.get(0).get("count")).intValue();
+    }
+
 
     /**
      * 获取原始查询条件
@@ -172,17 +454,40 @@ public class LintDefectDao
      */
     public LintFileEntity findDefectByParam(String entityId, String checker, String author)
     {
-        Query query = new Query();
-        query.addCriteria(Criteria.where("_id").is(new ObjectId(entityId)));
-        if (StringUtils.isNotEmpty(checker))
+        LintFileEntity defectFile = mongoTemplate.findById(new ObjectId(entityId), LintFileEntity.class);
+        if (defectFile == null)
         {
-            query.addCriteria(Criteria.where("checker_list").is(checker));
+            return null;
         }
-        if (StringUtils.isNotEmpty(author))
+
+        // 告警清单超限的文件按整个文件返回，溢出文档的处理人和规则在合并后再匹配
+        if (defectFile.getSpillNo() > 0 || defectFile.getSpillCount() > 0)
         {
-            query.addCriteria(Criteria.where("author_list").is(author));
+            List<LintFileEntity> fileParts = new ArrayList<>();
+            fileParts.add(defectFile);
+            if (defectFile.getSpillNo() > 0)
+            {
+                LintFileEntity mainFile = mongoTemplate.findOne(
+                        getFileQuery(defectFile.getTaskId(), defectFile.getToolName(), defectFile), LintFileEntity.class);
+                if (mainFile != null)
+                {
+                    fileParts.set(0, mainFile);
+                }
+            }
+            fileParts.addAll(findSpillParts(defectFile.getTaskId(), defectFile.getToolName(), fileParts));
+            defectFile = mergeSpillParts(fileParts).get(0);
         }
-        return mongoTemplate.findOne(query, LintFileEntity.class);
+        if (StringUtils.isNotEmpty(checker)
+                && (defectFile.getCheckerList() == null || !defectFile.getCheckerList().contains(checker)))
+        {
+            return null;
+        }
+        if (StringUtils.isNotEmpty(author)
+                && (defectFile.getAuthorList() == null || !defectFile.getAuthorList().contains(author)))
+        {
+            return null;
+        }
+        return defectFile;
     }
 
     /**
@@ -202,6 +507,8 @@ public class LintDefectDao
         fieldsObj.put("author_list", true);
         fieldsObj.put("checker_list", true);
         fieldsObj.put("status", true);
+        fieldsObj.put("tool_name", true);
+        fieldsObj.put("spill_no", true);
         Query query = new BasicQuery(new BasicDBObject(), fieldsObj);
         query.addCriteria(Criteria.where("task_id").is(taskId));
         if (StringUtils.isNotBlank(toolName))
@@ -216,7 +523,7 @@ public class LintDefectDao
         List<Integer> statusList = Arrays.asList((news | pathMask), (fixed | pathMask), ((news | fixed) | pathMask));
 
         query.addCriteria(Criteria.where("status").nin(statusList));
-        return mongoTemplate.find(query, LintFileEntity.class);
+        return mergeSpillParts(mongoTemplate.find(query, LintFileEntity.class));
     }
 
     /**
@@ -228,46 +535,540 @@ public class LintDefectDao
      */
     public void upsertDefectListByPath(long taskId, String toolName, List<LintFileEntity> defectFiles)
     {
+        upsertDefectListByPath(taskId, toolName, defectFiles, Collections.emptyMap());
+    }
+
+    /**
+     * 插入或更新告警文件信息和告警列表
+     * 有入库前快照的文件只写回变化的字段和告警，没有变化的文件不写库；
+     * 告警清单超出单文档上限的文件，超出部分溢出到t_lint_defect_spill
+     *
+     * @param taskId
+     * @param toolName
+     * @param defectFiles
+     * @param snapshotMap 文件路径(relPath为空时取filePath) -> 告警跟踪前的快照
+     */
+    public void upsertDefectListByPath(long taskId, String toolName, List<LintFileEntity> defectFiles,
+                                       Map<String, LintFileSnapshot> snapshotMap)
+    {
+        if (CollectionUtils.isEmpty(defectFiles))
+        {
+            return;
+        }
+
+        List<LintFileEntity> writeFiles = new ArrayList<>(defectFiles.size());
+        // 批量中每个操作对应的文件，按操作序号定位失败的文件
+        List<LintFileEntity> opFiles = new ArrayList<>(defectFiles.size());
+        Set<LintFileEntity> spillFiles = Collections.newSetFromMap(new IdentityHashMap<>());
+        // 没有快照、整体写入的已有文件，可能残留之前溢出的文档
+        Set<String> unknownSpillKeys = new HashSet<>();
         BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, LintFileEntity.class);
-        if (CollectionUtils.isNotEmpty(defectFiles))
+        int skipCount = 0;
+        for (LintFileEntity defectFile : defectFiles)
         {
-            for (LintFileEntity defectFile : defectFiles)
+            LintFileSnapshot snapshot = snapshotMap.get(getFileKey(defectFile));
+            // 之前已经溢出过的文件，整体重写主文档和溢出分片
+            if (snapshot != null && snapshot.getSpillCount() > 0)
             {
-                Query query = new Query();
-                Criteria criteria = Criteria.where("task_id").is(taskId).and("tool_name").is(toolName);
+                spillFiles.add(defectFile);
+                continue;
+            }
 
-                if (StringUtils.isNotEmpty(defectFile.getRelPath()))
+            int opCount = addDefectFileOps(ops, taskId, toolName, defectFile, snapshot);
+            if (opCount > 0)
+            {
+                writeFiles.add(defectFile);
+                opFiles.addAll(Collections.nCopies(opCount, defectFile));
+                if (snapshot == null && StringUtils.isNotEmpty(defectFile.getEntityId()))
                 {
-                    criteria.and("rel_path").is(defectFile.getRelPath());
+                    unknownSpillKeys.add(getFileKey(defectFile));
                 }
-                else
+            }
+            else
+            {
+                skipCount++;
+            }
+        }
+
+        if (CollectionUtils.isNotEmpty(writeFiles))
+        {
+            try
+            {
+                ops.execute();
+            }
+            catch (BsonSerializationException e)
+            {
+                // 客户端序列化时发现超出16M的文件，不能确定是哪个文件，逐个文件重试，超限的文件转为溢出保存，避免整批告警丢失
+                log.warn("lint defect bulk write exceed document limit, retry by file! taskId: {}, toolName: {}", taskId, toolName);
+                for (LintFileEntity defectFile : writeFiles)
                 {
-                    criteria.and("file_path").is(defectFile.getFilePath());
+                    BulkOperations fileOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, LintFileEntity.class);
+                    int opCount = addDefectFileOps(fileOps, taskId, toolName, defectFile, snapshotMap.get(getFileKey(defectFile)));
+                    try
+                    {
+                        fileOps.execute();
+                    }
+                    catch (BsonSerializationException fileException)
+                    {
+                        spillFiles.add(defectFile);
+                    }
+                    catch (BulkOperationException | MongoBulkWriteException fileException)
+                    {
+                        spillFiles.addAll(getTooLargeFiles(fileException, Collections.nCopies(opCount, defectFile)));
+                    }
                 }
-                query.addCriteria(criteria);
-                Update update = new Update();
-                update.set("file_update_time", defectFile.getFileUpdateTime())
-                        .set("file_path", defectFile.getFilePath())
-                        .set("url", defectFile.getUrl())
-                        .set("status", defectFile.getStatus())
-                        .set("fixed_time", defectFile.getFixedTime())
-                        .set("exclude_time", defectFile.getExcludeTime())
-                        .set("defect_count", defectFile.getDefectCount())
-                        .set("new_count", defectFile.getNewCount())
-                        .set("history_count", defectFile.getHistoryCount())
-                        .set("repo_id", defectFile.getRepoId())
-                        .set("revision", defectFile.getRevision())
-                        .set("branch", defectFile.getBranch())
-                        .set("author_list", defectFile.getAuthorList())
-                        .set("checker_list", defectFile.getCheckerList())
-                        .set("defect_list", defectFile.getDefectList())
-                        .set("md5", defectFile.getMd5())
-                        .set("create_time", defectFile.getCreateTime())
-                        .set("sub_module", defectFile.getSubModule());
-                ops.upsert(query, update);
             }
-            ops.execute();
+            catch (BulkOperationException | MongoBulkWriteException e)
+            {
+                // 已有文档追加告警后超出16M时由服务端拒绝，UNORDERED批量中其余操作已经成功，只把失败的文件转为溢出保存
+                Collection<LintFileEntity> tooLargeFiles = getTooLargeFiles(e, opFiles);
+                log.warn("lint defect bulk write exceed document limit, spill files! taskId: {}, toolName: {}, count: {}",
+                        taskId, toolName, tooLargeFiles.size());
+                spillFiles.addAll(tooLargeFiles);
+            }
+        }
+
+        // 整体写入主文档的文件，删除之前溢出的文档；转为溢出保存的文件会重建溢出文档
+        spillFiles.forEach(spillFile -> unknownSpillKeys.remove(getFileKey(spillFile)));
+        if (!unknownSpillKeys.isEmpty())
+        {
+            mongoTemplate.remove(getSpillPartQuery(taskId, toolName, unknownSpillKeys), LintFileEntity.class);
+        }
+        for (LintFileEntity spillFile : spillFiles)
+        {
+            upsertSpillDefectFile(taskId, toolName, spillFile);
+        }
+        log.info("upsert lint defect file finish, taskId: {}, toolName: {}, write: {}, skip: {}, spill: {}",
+                taskId, toolName, writeFiles.size(), skipCount, spillFiles.size());
+    }
+
+    /**
+     * 为单个文件生成写库操作
+     * 同一文件的多条操作在UNORDERED批量中没有依赖关系：字段更新、删除旧告警、追加新告警、更新已有告警分别作用于不同的字段或元素，
+     * 追加使用$addToSet，失败重试时不会产生重复告警
+     *
+     * @return 生成的操作数，文件没有变化时返回0
+     */
+    private int addDefectFileOps(BulkOperations ops, long taskId, String toolName, LintFileEntity defectFile,
+                                     LintFileSnapshot snapshot)
+    {
+        List<LintDefectEntity> defectList = defectFile.getDefectList() == null ? Collections.emptyList() : defectFile.getDefectList();
+        // 没有快照的新文件或者快照不完整的文件，按路径整体写入
+        if (snapshot == null || snapshot.isIncomplete() || StringUtils.isEmpty(defectFile.getEntityId())
+                || !defectFile.getEntityId().equals(snapshot.getEntityId()))
+        {
+            ops.upsert(getFileQuery(taskId, toolName, defectFile), getFileUpdate(defectFile)
+                    .set("defect_list", defectList).set("spill_count", 0));
+            return 1;
+        }
+
+        Map<String, Long> originalHashMap = snapshot.getDefectHashMap();
+        Set<String> currentIdSet = new HashSet<>(defectList.size() * 4 / 3 + 1);
+        List<LintDefectEntity> addedDefects = new ArrayList<>();
+        List<LintDefectEntity> changedDefects = new ArrayList<>();
+        boolean fullWrite = false;
+        for (LintDefectEntity defect : defectList)
+        {
+            String defectId = defect.getDefectId();
+            if (StringUtils.isEmpty(defectId) || !currentIdSet.add(defectId))
+            {
+                fullWrite = true;
+                break;
+            }
+            Long originalHash = originalHashMap.get(defectId);
+            if (originalHash == null)
+            {
+                addedDefects.add(defect);
+            }
+            else if (originalHash != LintFileSnapshot.defectHash(defect))
+            {
+                changedDefects.add(defect);
+            }
+        }
+        List<String> removedIds = fullWrite ? Collections.emptyList() : originalHashMap.keySet().stream()
+                .filter(defectId -> !currentIdSet.contains(defectId)).collect(Collectors.toList());
+
+        int changeCount = addedDefects.size() + changedDefects.size() + removedIds.size();
+        boolean fileChanged = snapshot.getFileHash() != LintFileSnapshot.fileHash(defectFile);
+        if (!fullWrite && changeCount == 0 && !fileChanged)
+        {
+            return 0;
+        }
+
+        Query idQuery = Query.query(Criteria.where("_id").is(new ObjectId(defectFile.getEntityId())));
+        // 大部分告警都有变化时，逐个元素更新的操作数比整体写入更多，直接整体写入告警清单
+        if (fullWrite || changeCount > defectList.size() * DELTA_CHANGE_RATIO)
+        {
+            ops.updateOne(idQuery, getFileUpdate(defectFile).set("defect_list", defectList));
+            return 1;
+        }
+
+        int opCount = 0;
+        if (fileChanged)
+        {
+            ops.updateOne(idQuery, getFileUpdate(defectFile));
+            opCount++;
         }
+        if (!removedIds.isEmpty())
+        {
+            ops.updateOne(idQuery, new Update().pull("defect_list",
+                    new BasicDBObject("defect_id", new BasicDBObject("$in", removedIds))));
+            opCount++;
+        }
+        if (!addedDefects.isEmpty())
+        {
+            ops.updateOne(idQuery, new Update().addToSet("defect_list").each(addedDefects.toArray()));
+            opCount++;
+        }
+        for (LintDefectEntity defect : changedDefects)
+        {
+            Query defectQuery = Query.query(Criteria.where("_id").is(new ObjectId(defectFile.getEntityId()))
+                    .and("defect_list.defect_id").is(defect.getDefectId()));
+            ops.updateOne(defectQuery, new Update().set("defect_list.$", defect));
+            opCount++;
+        }
+        return opCount;
+    }
+
+    /**
+     * 从批量写入的错误中找出文档超限的文件，存在其他错误时抛出原异常
+     *
+     * @param e       BulkOperationException或MongoBulkWriteException
+     * @param opFiles 批量中每个操作对应的文件
+     * @return
+     */
+    private Collection<LintFileEntity> getTooLargeFiles(RuntimeException e, List<LintFileEntity> opFiles)
+    {
+        Map<Integer, Integer> errorCodeMap = new HashMap<>();
+        if (e instanceof BulkOperationException)
+        {
+            for (BulkWriteError error : ((BulkOperationException) e).getErrors())
+            {
+                errorCodeMap.put(error.getIndex(), error.getCode());
+            }
+        }
+        else
+        {
+            for (com.mongodb.bulk.BulkWriteError error : ((MongoBulkWriteException) e).getWriteErrors())
+            {
+                errorCodeMap.put(error.getIndex(), error.getCode());
+            }
+        }
+
+        Set<LintFileEntity> tooLargeFiles = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Map.Entry<Integer, Integer> entry : errorCodeMap.entrySet())
+        {
+            if (!DOCUMENT_TOO_LARGE_CODES.contains(entry.getValue()) || entry.getKey() >= opFiles.size())
+            {
+                throw e;
+            }
+            tooLargeFiles.add(opFiles.get(entry.getKey()));
+        }
+        return tooLargeFiles;
+    }
+
+    /**
+     * 整体重写告警清单超限的文件：主文档保留第一个分片，其余分片作为溢出文档写入t_lint_defect。
+     * 溢出文档与主文档的文件路径相同，只包含本分片的告警、处理人和规则，按告警查询、屏蔽和状态修改按普通文件文档处理即可看到其中的告警；
+     * 按文件展示时通过mergeSpillParts合并成一个文件，告警跟踪时主文档通过fillSpillDefectList合并溢出文档中的告警
+     *
+     * @param taskId
+     * @param toolName
+     * @param defectFile
+     */
+    private void upsertSpillDefectFile(long taskId, String toolName, LintFileEntity defectFile)
+    {
+        String fileKey = getFileKey(defectFile);
+        List<LintDefectEntity> defectList = defectFile.getDefectList() == null ? Collections.emptyList() : defectFile.getDefectList();
+        List<List<LintDefectEntity>> partitions = Lists.partition(defectList, SPILL_PARTITION_SIZE);
+        int spillCount = Math.max(partitions.size() - 1, 0);
+
+        mongoTemplate.remove(getSpillPartQuery(taskId, toolName, Collections.singleton(fileKey)), LintFileEntity.class);
+        if (spillCount > 0)
+        {
+            List<LintFileEntity> spillPartList = new ArrayList<>(spillCount);
+            for (int i = 1; i < partitions.size(); i++)
+            {
+                spillPartList.add(newSpillPart(taskId, toolName, defectFile, partitions.get(i), i));
+            }
+            mongoTemplate.insert(spillPartList, LintFileEntity.class);
+        }
+
+        // 每个文档的告警数只统计自身的告警清单，按文档汇总时不会重复计数
+        List<LintDefectEntity> mainPartition = partitions.isEmpty() ? Collections.emptyList() : partitions.get(0);
+        Update update = getFileUpdate(defectFile)
+                .set("defect_list", mainPartition)
+                .set("defect_count", mainPartition.size())
+                .set("spill_count", spillCount);
+        mongoTemplate.upsert(getFileQuery(taskId, toolName, defectFile), update, LintFileEntity.class);
+        defectFile.setSpillCount(spillCount);
+        log.info("spill lint defect file, taskId: {}, toolName: {}, file: {}, defectCount: {}, spillCount: {}",
+                taskId, toolName, fileKey, defectList.size(), spillCount);
+    }
+
+    /**
+     * 生成溢出文档，文件级字段取自主文档，告警数、处理人和规则只统计本分片
+     */
+    private LintFileEntity newSpillPart(long taskId, String toolName, LintFileEntity defectFile,
+                                        List<LintDefectEntity> partition, int spillNo)
+    {
+        LintFileEntity spillPart = new LintFileEntity();
+        BeanUtils.copyProperties(defectFile, spillPart, "entityId", "defectList", "gather");
+        spillPart.setTaskId(taskId);
+        spillPart.setToolName(toolName);
+        spillPart.setDefectList(new ArrayList<>(partition));
+        spillPart.setDefectCount(partition.size());
+        spillPart.setNewCount(0);
+        spillPart.setHistoryCount(0);
+        spillPart.setSpillCount(0);
+        spillPart.setSpillNo(spillNo);
+        Set<String> authorSet = new HashSet<>();
+        Set<String> checkerSet = new HashSet<>();
+        for (LintDefectEntity defect : partition)
+        {
+            if (StringUtils.isNotEmpty(defect.getAuthor()))
+            {
+                authorSet.add(defect.getAuthor());
+            }
+            checkerSet.add(defect.getChecker());
+        }
+        spillPart.setAuthorList(authorSet);
+        spillPart.setCheckerList(checkerSet);
+        return spillPart;
+    }
+
+    /**
+     * 按批遍历本次提交可能需要更新为已修复的告警文件：
+     * 全量扫描时为所有待修复的文件，增量扫描时为工具上报的已删除文件中待修复的文件
+     *
+     * @param taskId
+     * @param toolName
+     * @param isFullScan
+     * @param deleteFiles
+     * @param batchSize
+     * @param batchConsumer
+     */
+    public void forEachFileForStatusUpdate(long taskId, String toolName, boolean isFullScan, List<String> deleteFiles,
+                                           int batchSize, Consumer<List<LintFileEntity>> batchConsumer)
+    {
+        if (!isFullScan && CollectionUtils.isEmpty(deleteFiles))
+        {
+            return;
+        }
+        Criteria criteria = Criteria.where("task_id").is(taskId).and("tool_name").is(toolName)
+                .and("status").is(ComConstants.DefectStatus.NEW.value())
+                .and("spill_no").not().gt(0);
+        if (!isFullScan)
+        {
+            criteria.and("file_path").in(deleteFiles);
+        }
+        forEachFileBatch(taskId, toolName, Query.query(criteria), batchSize, batchConsumer);
+    }
+
+    /**
+     * 按批遍历任务下的所有告警文件
+     *
+     * @param taskId
+     * @param toolName
+     * @param batchSize
+     * @param batchConsumer
+     */
+    public void forEachFile(long taskId, String toolName, int batchSize, Consumer<List<LintFileEntity>> batchConsumer)
+    {
+        Criteria criteria = Criteria.where("task_id").is(taskId).and("tool_name").is(toolName)
+                .and("spill_no").not().gt(0);
+        forEachFileBatch(taskId, toolName, Query.query(criteria), batchSize, batchConsumer);
+    }
+
+    /**
+     * 通过游标按批读取告警文件的主文档，每批合并溢出文档中的告警后交给调用方处理，同一时间只持有一批文件，
+     * 堆内存占用与任务的告警文件总数无关
+     */
+    private void forEachFileBatch(long taskId, String toolName, Query query, int batchSize,
+                                  Consumer<List<LintFileEntity>> batchConsumer)
+    {
+        try (CloseableIterator<LintFileEntity> iterator = mongoTemplate.stream(query, LintFileEntity.class))
+        {
+            List<LintFileEntity> batch = new ArrayList<>(batchSize);
+            while (iterator.hasNext())
+            {
+                batch.add(iterator.next());
+                if (batch.size() >= batchSize)
+                {
+                    fillSpillDefectList(taskId, toolName, batch);
+                    batchConsumer.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty())
+            {
+                fillSpillDefectList(taskId, toolName, batch);
+                batchConsumer.accept(batch);
+            }
+        }
+    }
+
+    /**
+     * 把溢出文档中的告警合并回主文档的告警清单，列表中的溢出文档会被移除
+     *
+     * @param taskId
+     * @param toolName
+     * @param defectFiles 可修改的列表
+     */
+    public void fillSpillDefectList(long taskId, String toolName, List<LintFileEntity> defectFiles)
+    {
+        if (CollectionUtils.isEmpty(defectFiles))
+        {
+            return;
+        }
+        defectFiles.removeIf(defectFile -> defectFile.getSpillNo() > 0);
+        Map<String, LintFileEntity> spillFileMap = defectFiles.stream()
+                .filter(defectFile -> defectFile.getSpillCount() > 0)
+                .collect(Collectors.toMap(this::getFileKey, Function.identity(), (k, v) -> v));
+        if (spillFileMap.isEmpty())
+        {
+            return;
+        }
+
+        List<LintFileEntity> spillPartList = findSpillParts(taskId, toolName, spillFileMap.values());
+        for (LintFileEntity spillPart : spillPartList)
+        {
+            LintFileEntity defectFile = spillFileMap.get(getFileKey(spillPart));
+            if (defectFile == null || CollectionUtils.isEmpty(spillPart.getDefectList()))
+            {
+                continue;
+            }
+            if (defectFile.getDefectList() == null)
+            {
+                defectFile.setDefectList(new ArrayList<>());
+            }
+            defectFile.getDefectList().addAll(spillPart.getDefectList());
+        }
+    }
+
+    /**
+     * 查询主文档对应的溢出文档，按分片序号排序，没有溢出的文件不会查询
+     *
+     * @param taskId
+     * @param toolName
+     * @param defectFiles 主文档
+     * @return
+     */
+    public List<LintFileEntity> findSpillParts(long taskId, String toolName, Collection<LintFileEntity> defectFiles)
+    {
+        Set<String> fileKeys = defectFiles.stream()
+                .filter(defectFile -> defectFile.getSpillNo() <= 0 && defectFile.getSpillCount() > 0)
+                .map(this::getFileKey)
+                .collect(Collectors.toSet());
+        if (fileKeys.isEmpty())
+        {
+            return new ArrayList<>();
+        }
+        Query query = getSpillPartQuery(taskId, toolName, fileKeys);
+        query.with(new Sort(Sort.Direction.ASC, "spill_no"));
+        return mongoTemplate.find(query, LintFileEntity.class);
+    }
+
+    /**
+     * 按文件展示时把同一文件的主文档和溢出文档合并成一条，每个文件只出现一次：
+     * 告警清单按分片序号拼接，告警数累加，处理人和规则取并集，其余字段取主文档，
+     * 查询结果中没有主文档时(如按规则、处理人过滤)取分片序号最小的文档
+     *
+     * 合并后的文件只用于展示，告警的修改需要按告警所在文档的entityId进行
+     *
+     * @param defectFiles
+     * @return
+     */
+    public List<LintFileEntity> mergeSpillParts(List<LintFileEntity> defectFiles)
+    {
+        if (CollectionUtils.isEmpty(defectFiles)
+                || defectFiles.stream().noneMatch(defectFile -> defectFile.getSpillNo() > 0 || defectFile.getSpillCount() > 0))
+        {
+            return defectFiles;
+        }
+
+        Map<String, List<LintFileEntity>> filePartMap = defectFiles.stream().collect(Collectors.groupingBy(
+                defectFile -> defectFile.getTaskId() + "|" + defectFile.getToolName() + "|" + getFileKey(defectFile),
+                LinkedHashMap::new, Collectors.toList()));
+        List<LintFileEntity> mergedFiles = new ArrayList<>(filePartMap.size());
+        for (List<LintFileEntity> fileParts : filePartMap.values())
+        {
+            fileParts.sort(Comparator.comparingInt(LintFileEntity::getSpillNo));
+            LintFileEntity mergedFile = fileParts.get(0);
+            for (int i = 1; i < fileParts.size(); i++)
+            {
+                LintFileEntity spillPart = fileParts.get(i);
+                if (CollectionUtils.isNotEmpty(spillPart.getDefectList()))
+                {
+                    List<LintDefectEntity> defectList = mergedFile.getDefectList() == null
+                            ? new ArrayList<>() : new ArrayList<>(mergedFile.getDefectList());
+                    defectList.addAll(spillPart.getDefectList());
+                    mergedFile.setDefectList(defectList);
+                }
+                mergedFile.setDefectCount(mergedFile.getDefectCount() + spillPart.getDefectCount());
+                mergedFile.setNewCount(mergedFile.getNewCount() + spillPart.getNewCount());
+                mergedFile.setHistoryCount(mergedFile.getHistoryCount() + spillPart.getHistoryCount());
+                mergedFile.setAuthorList(unionSet(mergedFile.getAuthorList(), spillPart.getAuthorList()));
+                mergedFile.setCheckerList(unionSet(mergedFile.getCheckerList(), spillPart.getCheckerList()));
+            }
+            mergedFiles.add(mergedFile);
+        }
+        return mergedFiles;
+    }
+
+    private Set<String> unionSet(Set<String> set1, Set<String> set2)
+    {
+        Set<String> unionSet = new HashSet<>();
+        if (set1 != null)
+        {
+            unionSet.addAll(set1);
+        }
+        if (set2 != null)
+        {
+            unionSet.addAll(set2);
+        }
+        return unionSet;
+    }
+
+    private String getFileKey(LintFileEntity defectFile)
+    {
+        return StringUtils.isEmpty(defectFile.getRelPath()) ? defectFile.getFilePath() : defectFile.getRelPath();
+    }
+
+    private Query getFileQuery(long taskId, String toolName, LintFileEntity defectFile)
+    {
+        Criteria criteria = Criteria.where("task_id").is(taskId).and("tool_name").is(toolName);
+        if (StringUtils.isNotEmpty(defectFile.getRelPath()))
+        {
+            criteria.and("rel_path").is(defectFile.getRelPath());
+        }
+        else
+        {
+            criteria.and("file_path").is(defectFile.getFilePath());
+        }
+        // 只匹配主文档
+        criteria.and("spill_no").not().gt(0);
+        return Query.query(criteria);
+    }
+
+    /**
+     * 查询文件的溢出文档，文件标识优先取相对路径，没有相对路径时取文件路径
+     */
+    private Query getSpillPartQuery(long taskId, String toolName, Collection<String> fileKeys)
+    {
+        Criteria criteria = Criteria.where("task_id").is(taskId).and("tool_name").is(toolName).and("spill_no").gt(0);
+        criteria.orOperator(Criteria.where("rel_path").in(fileKeys), Criteria.where("file_path").in(fileKeys));
+        return Query.query(criteria);
+    }
+
+    /**
+     * 文件级字段的更新，不包含告警清单，字段与文件快照的指纹共用LintFileSnapshot.FILE_FIELDS
+     */
+    private Update getFileUpdate(LintFileEntity defectFile)
+    {
+        Update update = new Update();
+        LintFileSnapshot.FILE_FIELDS.forEach((field, getter) -> update.set(field, getter.apply(defectFile)));
+        return update;
     }
 
     /**
@@ -0,0 +1,41 @@
+package com.tencent.bk.codecc.defect.dao.mongotemplate;
+
+import com.tencent.bk.codecc.defect.model.LintStatisticAggregateEntity;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+/**
+ * lint类工具告警统计累计值DAO
+ *
+ * @version V1.0
+ * @date 2020/6/18
+ */
+@Repository
+@Slf4j
+public class LintStatisticAggregateDao
+{
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * 告警状态在提交之外发生变化时，把统计累计值标记为脏，下次提交时全量重算
+     * 同时递增版本号，使正在进行的提交保存累计值时检测到冲突并重新计算
+     *
+     * @param taskId
+     * @param toolName
+     */
+    public void markDirty(long taskId, String toolName)
+    {
+        Query query = Query.query(Criteria.where("task_id").is(taskId).and("tool_name").is(toolName));
+        Update update = new Update();
+        update.set("dirty", true);
+        update.inc("version", 1);
+        mongoTemplate.updateFirst(query, update, LintStatisticAggregateEntity.class);
+        log.info("mark lint statistic aggregate dirty: {}, {}", taskId, toolName);
+    }
+}
@@ -29,6 +29,8 @@ package com.tencent.bk.codecc.defect.service;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
+import com.tencent.bk.codecc.defect.component.DefectCommitRouteComponent;
+import com.tencent.bk.codecc.defect.component.DefectCommitRouteComponent.CommitRoute;
 import com.tencent.bk.codecc.defect.component.ScmJsonComponent;
 import com.tencent.bk.codecc.defect.dao.mongorepository.*;
 import com.tencent.bk.codecc.defect.dao.mongotemplate.BuildDao;
@@ -89,6 +91,8 @@ public abstract class AbstractAnalyzeTaskBizService implements IBizService<Uploa
     @Autowired
     private BuildDao buildDao;
     @Autowired
+    private DefectCommitRouteComponent defectCommitRouteComponent;
+    @Autowired
     private ThirdPartySystemCaller thirdPartySystemCaller;
     @Autowired
     private Client client;
@@ -251,8 +255,11 @@ public abstract class AbstractAnalyzeTaskBizService implements IBizService<Uploa
         // 区分创建来源为工蜂项目，创建对应处理器
         IMessageQueueBizService messageQueueBizService = MessageBizServiceFactory.createBizService(taskVO.getTaskId(),ComConstants.BusinessType.MESSAGE_QUEUE.value(),IMessageQueueBizService.class);
 
+        // 根据告警文件大小和历史提单耗时选择提单队列和每批处理的告警数
+        CommitRoute commitRoute = defectCommitRouteComponent.route(uploadTaskLogStepVO.getTaskId(), toolName, fileSize);
+
         // 获取exchange和routingKey对应常量值
-        Map<String,String> messageQueueInfo=messageQueueBizService.getExchangAndEroutingKey(fileSize,toolPattern);
+        Map<String,String> messageQueueInfo=messageQueueBizService.getExchangAndEroutingKey(commitRoute.getProjectScale(),toolPattern);
         String exchange = messageQueueInfo.get(ConstantsKt.EXCHANGE);
         String routingKey = messageQueueInfo.get(ConstantsKt.ROUTINGKEY);
 
@@ -263,6 +270,8 @@ public abstract class AbstractAnalyzeTaskBizService implements IBizService<Uploa
         commitDefectVO.setToolName(toolName);
         commitDefectVO.setBuildId(uploadTaskLogStepVO.getPipelineBuildId());
         commitDefectVO.setTriggerFrom(uploadTaskLogStepVO.getTriggerFrom());
+        commitDefectVO.setProjectScale(commitRoute.getProjectScale().name());
+        commitDefectVO.setMaxPerBatch(commitRoute.getMaxPerBatch());
         rabbitTemplate.convertAndSend( exchange, routingKey, commitDefectVO);
     }
 
@@ -684,8 +693,7 @@ public abstract class AbstractAnalyzeTaskBizService implements IBizService<Uploa
      */
     private void appendStepInfo(TaskLogEntity taskLogEntity, UploadTaskLogStepVO uploadTaskLogStepVO, TaskBaseVO taskVO)
     {
-        TaskLogEntity.TaskUnit taskStep = new TaskLogEntity.TaskUnit();
-        BeanUtils.copyProperties(uploadTaskLogStepVO, taskStep);
+        TaskLogEntity.TaskUnit taskStep = getTaskStep(uploadTaskLogStepVO);
 
         // 加入扫描类型是增量还是全量
         setScanType(taskStep, uploadTaskLogStepVO.getTaskId(), uploadTaskLogStepVO.getToolName(), uploadTaskLogStepVO.getPipelineBuildId(), taskVO);
@@ -715,6 +723,10 @@ public abstract class AbstractAnalyzeTaskBizService implements IBizService<Uploa
                 lastTaskStep.setEndTime(taskStep.getEndTime());
                 lastTaskStep.setMsg(taskStep.getMsg());
                 lastTaskStep.setElapseTime(taskStep.getEndTime() - lastTaskStep.getStartTime());
+                if (taskStep.getStageTimeline() != null)
+                {
+                    lastTaskStep.setStageTimeline(taskStep.getStageTimeline());
+                }
             }
             else
             {
@@ -728,6 +740,28 @@ public abstract class AbstractAnalyzeTaskBizService implements IBizService<Uploa
         uploadTaskLogStepVO.setElapseTime(taskLogEntity.getElapseTime());
     }
 
+    /**
+     * 上报的步骤转换为分析记录步骤，提单各阶段耗时单独转换，避免把VO对象直接存入数据库
+     *
+     * @param uploadTaskLogStepVO
+     * @return
+     */
+    private TaskLogEntity.TaskUnit getTaskStep(UploadTaskLogStepVO uploadTaskLogStepVO)
+    {
+        TaskLogEntity.TaskUnit taskStep = new TaskLogEntity.TaskUnit();
+        BeanUtils.copyProperties(uploadTaskLogStepVO, taskStep, "stageTimeline");
+        if (CollectionUtils.isNotEmpty(uploadTaskLogStepVO.getStageTimeline()))
+        {
+            taskStep.setStageTimeline(uploadTaskLogStepVO.getStageTimeline().stream().map(stageVO ->
+            {
+                TaskLogEntity.StageUnit stageUnit = new TaskLogEntity.StageUnit();
+                BeanUtils.copyProperties(stageVO, stageUnit);
+                return stageUnit;
+            }).collect(Collectors.toList()));
+        }
+        return taskStep;
+    }
+
     private void setScanType(TaskLogEntity.TaskUnit taskStep, long taskId, String toolName, String buildId, TaskBaseVO taskVO)
     {
         String pattern = toolMetaCacheService.getToolPattern(toolName);
@@ -858,8 +892,7 @@ public abstract class AbstractAnalyzeTaskBizService implements IBizService<Uploa
         taskLogEntity.setBuildId(uploadTaskLogStepVO.getPipelineBuildId());
         taskLogEntity.setTriggerFrom(uploadTaskLogStepVO.getTriggerFrom());
 
-        TaskLogEntity.TaskUnit taskStep = new TaskLogEntity.TaskUnit();
-        BeanUtils.copyProperties(uploadTaskLogStepVO, taskStep);
+        TaskLogEntity.TaskUnit taskStep = getTaskStep(uploadTaskLogStepVO);
 
         List<TaskLogEntity.TaskUnit> stepArray = new ArrayList<>();
         stepArray.add(taskStep);
@@ -397,17 +397,11 @@ public abstract class AbstractQueryWarningBizService implements IQueryWarningBiz
                 sortType = Sort.Direction.ASC;
             }
         }
-        ListSortUtil.sort(defectVOs, sortField, sortType.name());
         int total = defectVOs.size();
         pageNum = pageNum - 1 < 0 ? 0 : pageNum - 1;
         pageSize = pageSize <= 0 ? 10 : pageSize;
-        int subListBeginIdx = pageNum * pageSize;
-        int subListEndIdx = subListBeginIdx + pageSize;
-        if (subListBeginIdx > total)
-        {
-            subListBeginIdx = 0;
-        }
-        defectVOs = defectVOs.subList(subListBeginIdx, subListEndIdx > total ? total : subListEndIdx);
+        // 只保留到当前页为止的数据参与排序
+        defectVOs = ListSortUtil.sortAndPage(defectVOs, sortField, sortType.name(), pageNum, pageSize);
 
         //封装分页类
         Pageable pageable = new PageRequest(pageNum, pageSize, new Sort(sortType, sortField));
@@ -27,6 +27,7 @@
 package com.tencent.bk.codecc.defect.service;
 
 import com.tencent.bk.codecc.defect.common.Tree;
+import com.tencent.bk.codecc.defect.component.DefectTreeCache;
 import com.tencent.bk.codecc.defect.dao.mongorepository.CodeFileUrlRepository;
 import com.tencent.bk.codecc.defect.dao.mongorepository.CodeRepoFromAnalyzeLogRepository;
 import com.tencent.bk.codecc.defect.model.CodeFileUrlEntity;
@@ -60,6 +61,9 @@ public abstract class AbstractTreeService implements TreeService
     @Autowired
     private Tree tree;
 
+    @Autowired
+    private DefectTreeCache defectTreeCache;
+
     @Autowired
     private Client client;
 
@@ -82,19 +86,22 @@ public abstract class AbstractTreeService implements TreeService
     @Override
     public TreeNodeVO getTreeNode(Long taskId, List<String> toolNames)
     {
-        // 获取文件集合
-        Set<String> filePaths = new HashSet<>();
-        toolNames.forEach(toolName ->
-                {
-                    TreeService treeService = treeServiceFactory
-                            .createBizService(toolName, ComConstants.BusinessType.TREE_SERVICE.value(), TreeService.class);
-                    Set<String> eachToolFilePathSet = treeService.getDefectPaths(taskId, toolName);
+        return defectTreeCache.get(taskId, toolNames, () ->
+        {
+            // 获取文件集合
+            Set<String> filePaths = new HashSet<>();
+            toolNames.forEach(toolName ->
+                    {
+                        TreeService treeService = treeServiceFactory
+                                .createBizService(toolName, ComConstants.BusinessType.TREE_SERVICE.value(), TreeService.class);
+                        Set<String> eachToolFilePathSet = treeService.getDefectPaths(taskId, toolName);
 
-                    filePaths.addAll(eachToolFilePathSet);
-                }
-        );
+                        filePaths.addAll(eachToolFilePathSet);
+                    }
+            );
 
-        return getTreeNode(taskId, filePaths);
+            return getTreeNode(taskId, filePaths);
+        });
     }
 
 
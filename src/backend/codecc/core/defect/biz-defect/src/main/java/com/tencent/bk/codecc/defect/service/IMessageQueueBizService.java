@@ -2,13 +2,14 @@ package com.tencent.bk.codecc.defect.service;
 
 import com.tencent.bk.codecc.defect.pojo.AggregateDispatchFileName;
 import com.tencent.bk.codecc.defect.vo.CommitDefectVO;
+import com.tencent.devops.common.constant.ComConstants.ProjectScale;
 import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
 
 import java.util.Map;
 
 public interface IMessageQueueBizService {
 
-    Map<String, String> getExchangAndEroutingKey(Long fileSize, String toolPattern);
+    Map<String, String> getExchangAndEroutingKey(ProjectScale projectScale, String toolPattern);
 
     void messageQueueConvertAndSend(String toolName, CommitDefectVO commitDefectVO);
 
@@ -93,6 +93,27 @@ public abstract class AbstractLintBatchDefectProcessBizService extends AbstractB
         List<LintFileEntity> fileEntities = lintDefectRepository.findByEntityIdIn(fileDefectMap.keySet());
         if (CollectionUtils.isNotEmpty(fileEntities))
         {
+            // 按文件展示时告警清单超限的文件只返回主文档的entityId，溢出文档中的告警按主文档传入的告警ID匹配
+            List<LintFileEntity> spillParts = lintDefectDao.findSpillParts(batchDefectProcessReqVO.getTaskId(),
+                    batchDefectProcessReqVO.getToolName(), fileEntities);
+            List<LintFileEntity> mainFiles = new ArrayList<>(fileEntities);
+            for (LintFileEntity spillPart : spillParts)
+            {
+                if (fileDefectMap.containsKey(spillPart.getEntityId()))
+                {
+                    continue;
+                }
+                Optional<LintFileEntity> mainFile = mainFiles.stream()
+                        .filter(fileEntity -> fileEntity.getSpillCount() > 0
+                                && Objects.equals(fileEntity.getFilePath(), spillPart.getFilePath())
+                                && Objects.equals(fileEntity.getRelPath(), spillPart.getRelPath()))
+                        .findFirst();
+                if (mainFile.isPresent())
+                {
+                    fileDefectMap.put(spillPart.getEntityId(), fileDefectMap.get(mainFile.get().getEntityId()));
+                    fileEntities.add(spillPart);
+                }
+            }
             Iterator<LintFileEntity> it = fileEntities.iterator();
             while (it.hasNext())
             {
@@ -3,6 +3,7 @@ package com.tencent.bk.codecc.defect.service.impl;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.tencent.bk.codecc.defect.dao.mongorepository.LintDefectRepository;
+import com.tencent.bk.codecc.defect.dao.mongotemplate.LintStatisticAggregateDao;
 import com.tencent.bk.codecc.defect.model.LintDefectEntity;
 import com.tencent.bk.codecc.defect.model.LintFileEntity;
 import com.tencent.bk.codecc.defect.vo.BatchDefectProcessReqVO;
@@ -24,6 +25,9 @@ public abstract class AbstractLintUpdateDefectStatusService extends AbstractLint
     @Autowired
     private LintDefectRepository lintDefectRepository;
 
+    @Autowired
+    private LintStatisticAggregateDao lintStatisticAggregateDao;
+
     protected abstract void updateDefectStatus(LintDefectEntity defectEntity, BatchDefectProcessReqVO batchDefectProcessReqVO);
 
     protected void updateFileDefectStatus(List defectList, BatchDefectProcessReqVO batchDefectProcessReqVO)
@@ -57,6 +61,9 @@ public abstract class AbstractLintUpdateDefectStatusService extends AbstractLint
         if (CollectionUtils.isNotEmpty(updateFileEntities))
         {
             lintDefectRepository.save(updateFileEntities);
+
+            // 告警状态变化后统计累计值不再准确，标记为脏让下次提交全量重算
+            lintStatisticAggregateDao.markDirty(batchDefectProcessReqVO.getTaskId(), batchDefectProcessReqVO.getToolName());
         }
     }
 }
@@ -57,7 +57,7 @@ import com.tencent.devops.common.kafka.KafkaTopic;
 import com.tencent.devops.common.redis.lock.RedisLock;
 import com.tencent.devops.common.service.BizServiceFactory;
 import com.tencent.devops.common.util.JsonUtil;
-import com.tencent.devops.common.util.PathUtils;
+import com.tencent.devops.common.util.PathFilterSet;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
@@ -257,10 +257,11 @@ public class CCNUploadStatisticServiceImpl implements CCNUploadStatisticService
                 }
                 if(CollectionUtils.isNotEmpty(filterPath))
                 {
+                    PathFilterSet filterPathSet = PathFilterSet.compile(filterPath);
                     finalCcnDefects.forEach(ccnDefectEntity -> {
                         try{
                             if(StringUtils.isNotBlank(ccnDefectEntity.getRelPath()) &&
-                                    PathUtils.checkIfMaskByPath(ccnDefectEntity.getRelPath(), new HashSet<>(filterPath)))
+                                    filterPathSet.match(ccnDefectEntity.getRelPath()))
                             {
                                 ccnDefectEntity.setStatus(ccnDefectEntity.getStatus() | ComConstants.TaskFileStatus.PATH_MASK.value());
                             }
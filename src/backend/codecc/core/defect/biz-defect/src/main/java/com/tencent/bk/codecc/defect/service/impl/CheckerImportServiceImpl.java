@@ -40,6 +40,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.BeanUtils;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.annotation.Validated;
@@ -49,6 +50,7 @@ import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.tencent.devops.common.constant.ComConstants.KEY_CODE_LANG;
+import static com.tencent.devops.common.web.mq.ConstantsKt.EXCHANGE_REFRESH_TOOLMETA_CACHE;
 
 /**
  * 规则导入逻辑实现
@@ -76,6 +78,9 @@ public class CheckerImportServiceImpl implements CheckerImportService
     @Autowired
     private Client client;
 
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
     @Override
     public Map<String, List<CheckerPropVO>> checkerImport(String userName, String projectId, CheckerImportVO checkerImportVO)
     {
@@ -134,6 +139,9 @@ public class CheckerImportServiceImpl implements CheckerImportService
         });
         checkerRepository.save(newCheckerDetailEntityList);
 
+        // 广播工具元数据刷新消息，各实例失效该工具的规则快照
+        rabbitTemplate.convertAndSend(EXCHANGE_REFRESH_TOOLMETA_CACHE, "", toolName);
+
         // 4.创建或更新规则集
         Set<String> checkerSetIds = createCheckerSetMap.keySet();
         List<CheckerSetEntity> checkerSetList = checkerSetRepository.findByCheckerSetIdIn(checkerSetIds);
@@ -3,6 +3,7 @@ package com.tencent.bk.codecc.defect.service.impl;
 import com.tencent.bk.codecc.defect.pojo.AggregateDispatchFileName;
 import com.tencent.bk.codecc.defect.service.IMessageQueueBizService;
 import com.tencent.bk.codecc.defect.vo.CommitDefectVO;
+import com.tencent.devops.common.constant.ComConstants.ProjectScale;
 import com.tencent.devops.common.service.utils.SpringContextUtil;
 import com.tencent.devops.common.web.mq.ConstantsKt;
 import lombok.extern.slf4j.Slf4j;
@@ -30,24 +31,21 @@ public class CommonMessageQueueBizServiceImpl implements IMessageQueueBizService
     private AsyncRabbitTemplate asyncRabbitTemplate;
 
     @Override
-    public Map<String, String> getExchangAndEroutingKey(Long fileSize, String toolPattern) {
+    public Map<String, String> getExchangAndEroutingKey(ProjectScale projectScale, String toolPattern) {
 
         String exchange;
         String routingKey;
 
         // 告警文件大于1G，告警文件不处理，在分析步骤中提示告警文件过大
-        if (fileSize > 1024 * 1024 * 1024) {
-            log.warn("告警文件大小超过1G: {}", fileSize);
+        if (projectScale == ProjectScale.SUPER_LARGE) {
             exchange = EXCHANGE_DEFECT_COMMIT_SUPER_LARGE;
             routingKey = ROUTE_DEFECT_COMMIT_SUPER_LARGE;
         }
-        // 告警文件大于200M，小于1G，走大项目专用提单消息队列
-         else if (fileSize > 1024 * 1024 * 200 && fileSize < 1024 * 1024 * 1024) {
-            log.warn("告警文件大于200M小于1G: {}", fileSize);
+        // 告警文件大于200M，小于1G，或者历史提单耗时长的项目，走大项目专用提单消息队列
+        else if (projectScale == ProjectScale.LARGE) {
             exchange = String.format("%s%s.large", PREFIX_EXCHANGE_DEFECT_COMMIT, toolPattern.toLowerCase());
             routingKey = String.format("%s%s.large", PREFIX_ROUTE_DEFECT_COMMIT, toolPattern.toLowerCase());
         } else {
-            log.info("告警文件小于200M: {}", fileSize);
             exchange = String.format("%s%s.new", PREFIX_EXCHANGE_DEFECT_COMMIT, toolPattern.toLowerCase());
             routingKey = String.format("%s%s.new", PREFIX_ROUTE_DEFECT_COMMIT, toolPattern.toLowerCase());
         }
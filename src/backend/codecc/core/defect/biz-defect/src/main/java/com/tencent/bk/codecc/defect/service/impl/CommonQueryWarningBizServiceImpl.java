@@ -1143,7 +1143,6 @@ public class CommonQueryWarningBizServiceImpl extends AbstractQueryWarningBizSer
             sortType = Sort.Direction.ASC;
         }
 
-        ListSortUtil.sort(defectBaseVoList, sortField, sortType.name());
         int total = defectBaseVoList.size();
         pageNum = pageNum == null || pageNum - 1 < 0 ? 0 : pageNum - 1;
 
@@ -1158,13 +1157,7 @@ public class CommonQueryWarningBizServiceImpl extends AbstractQueryWarningBizSer
         {
             totalPageNum = (total + pageSizeNum - 1) / pageSizeNum;
         }
-        int subListBeginIdx = pageNum * pageSizeNum;
-        int subListEndIdx = subListBeginIdx + pageSizeNum;
-        if (subListBeginIdx > total)
-        {
-            subListBeginIdx = 0;
-        }
-        defectBaseVoList = defectBaseVoList.subList(subListBeginIdx, subListEndIdx > total ? total : subListEndIdx);
+        defectBaseVoList = ListSortUtil.sortAndPage(defectBaseVoList, sortField, sortType.name(), pageNum, pageSizeNum);
 
         return new Page<>(total, pageNum + 1, pageSizeNum, totalPageNum, defectBaseVoList);
     }
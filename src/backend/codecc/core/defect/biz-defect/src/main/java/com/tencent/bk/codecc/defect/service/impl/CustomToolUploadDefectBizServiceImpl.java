@@ -3,6 +3,7 @@ package com.tencent.bk.codecc.defect.service.impl;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.tencent.bk.codecc.defect.component.CheckerSnapshotCache;
 import com.tencent.bk.codecc.defect.dao.mongorepository.*;
 import com.tencent.bk.codecc.defect.dao.mongotemplate.FileCCNDao;
 import com.tencent.bk.codecc.defect.dao.redis.StatisticDao;
@@ -12,6 +13,7 @@ import com.tencent.bk.codecc.defect.service.AbstractUploadDefectBizService;
 import com.tencent.bk.codecc.defect.service.CCNUploadStatisticService;
 import com.tencent.bk.codecc.defect.service.DUPCUploadStatisticService;
 import com.tencent.bk.codecc.defect.service.file.ScmFileInfoService;
+import com.tencent.bk.codecc.defect.utils.CheckerSnapshot;
 import com.tencent.bk.codecc.defect.vo.*;
 import com.tencent.bk.codecc.defect.vo.customtool.*;
 import com.tencent.bk.codecc.task.vo.TaskDetailVO;
@@ -51,7 +53,7 @@ import java.util.stream.Collectors;
 public class CustomToolUploadDefectBizServiceImpl extends AbstractUploadDefectBizService
 {
     @Autowired
-    private CheckerRepository checkerRepository;
+    private CheckerSnapshotCache checkerSnapshotCache;
 
     @Autowired
     protected StatisticDao statisticDao;
@@ -169,15 +171,7 @@ public class CustomToolUploadDefectBizServiceImpl extends AbstractUploadDefectBi
             if (CollectionUtils.isNotEmpty(defectList))
             {
                 // 获取规则列表
-                List<CheckerDetailEntity> checkerDetailEntityList = checkerRepository.findByToolName(uploadDefectVO.getToolName());
-                Map<String, CheckerDetailEntity> checkerDetailMap = Maps.newHashMap();
-                if (CollectionUtils.isNotEmpty(checkerDetailEntityList))
-                {
-                    for (CheckerDetailEntity checkerDetail : checkerDetailEntityList)
-                    {
-                        checkerDetailMap.put(checkerDetail.getCheckerKey(), checkerDetail);
-                    }
-                }
+                CheckerSnapshot checkerSnapshot = checkerSnapshotCache.get(uploadDefectVO.getToolName());
 
                 for (CustomToolDefectVO customToolDefectEntity : defectList)
                 {
@@ -186,7 +180,7 @@ public class CustomToolUploadDefectBizServiceImpl extends AbstractUploadDefectBi
                         fileDefectsMap.put(customToolDefectEntity.getFilePath(), Lists.newArrayList());
                     }
                     LintDefectEntity lintDefectEntity = new LintDefectEntity();
-                    fillDefectAndAuthorInfo(lintDefectEntity, customToolDefectEntity, fileChangeRecordsMap, checkerDetailMap);
+                    fillDefectAndAuthorInfo(lintDefectEntity, customToolDefectEntity, fileChangeRecordsMap, checkerSnapshot);
 
                     fileDefectsMap.get(customToolDefectEntity.getFilePath()).add(lintDefectEntity);
                 }
@@ -687,13 +681,13 @@ public class CustomToolUploadDefectBizServiceImpl extends AbstractUploadDefectBi
      * @param fileChangeRecordsMap
      */
     private void fillDefectAndAuthorInfo(LintDefectEntity lintDefectEntity, CustomToolDefectVO customToolDefectEntity,
-                                         Map<String, ScmBlameVO> fileChangeRecordsMap, Map<String, CheckerDetailEntity> checkerDetailMap)
+                                         Map<String, ScmBlameVO> fileChangeRecordsMap, CheckerSnapshot checkerSnapshot)
     {
         BeanUtils.copyProperties(customToolDefectEntity, lintDefectEntity);
-        CheckerDetailEntity checkerDetail = checkerDetailMap.get(customToolDefectEntity.getChecker());
-        if (checkerDetail != null)
+        Integer severity = checkerSnapshot.getSeverity(customToolDefectEntity.getChecker());
+        if (severity != null)
         {
-            lintDefectEntity.setSeverity(checkerDetail.getSeverity());
+            lintDefectEntity.setSeverity(severity);
         }
         if (MapUtils.isNotEmpty(fileChangeRecordsMap) && fileChangeRecordsMap.get(customToolDefectEntity.getFilePath()) != null)
         {
@@ -58,7 +58,7 @@ import com.tencent.devops.common.kafka.KafkaTopic;
 import com.tencent.devops.common.redis.lock.RedisLock;
 import com.tencent.devops.common.service.BizServiceFactory;
 import com.tencent.devops.common.util.JsonUtil;
-import com.tencent.devops.common.util.PathUtils;
+import com.tencent.devops.common.util.PathFilterSet;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
@@ -303,10 +303,11 @@ public class DUPCUploadStatisticServiceImpl implements DUPCUploadStatisticServic
                 }
                 if(CollectionUtils.isNotEmpty(filterPath))
                 {
+                    PathFilterSet filterPathSet = PathFilterSet.compile(filterPath);
                     currentBuildDupcFiles.forEach(dupcDefectEntity -> {
                         try{
                             if(StringUtils.isNotBlank(dupcDefectEntity.getRelPath()) &&
-                                    PathUtils.checkIfMaskByPath(dupcDefectEntity.getRelPath(), new HashSet<>(filterPath)))
+                                    filterPathSet.match(dupcDefectEntity.getRelPath()))
                             {
                                 dupcDefectEntity.setStatus(dupcDefectEntity.getStatus() | ComConstants.TaskFileStatus.PATH_MASK.value());
                             }
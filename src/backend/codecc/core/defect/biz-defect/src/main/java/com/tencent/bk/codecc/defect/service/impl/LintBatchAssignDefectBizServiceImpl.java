@@ -2,6 +2,7 @@ package com.tencent.bk.codecc.defect.service.impl;
 
 import com.google.common.collect.Lists;
 import com.tencent.bk.codecc.defect.dao.mongorepository.LintDefectRepository;
+import com.tencent.bk.codecc.defect.dao.mongotemplate.LintStatisticAggregateDao;
 import com.tencent.bk.codecc.defect.model.LintDefectEntity;
 import com.tencent.bk.codecc.defect.model.LintFileEntity;
 import com.tencent.bk.codecc.defect.vo.BatchDefectProcessReqVO;
@@ -32,6 +33,9 @@ public class LintBatchAssignDefectBizServiceImpl extends AbstractLintBatchDefect
     @Autowired
     private LintDefectRepository lintDefectRepository;
 
+    @Autowired
+    private LintStatisticAggregateDao lintStatisticAggregateDao;
+
     @Override
     protected void doBiz(List defectList, BatchDefectProcessReqVO batchDefectProcessReqVO)
     {
@@ -77,6 +81,9 @@ public class LintBatchAssignDefectBizServiceImpl extends AbstractLintBatchDefect
         if (CollectionUtils.isNotEmpty(updateFileEntities))
         {
             lintDefectRepository.save(updateFileEntities);
+
+            // 告警作者变化后统计累计值中的作者统计不再准确，标记为脏让下次提交全量重算
+            lintStatisticAggregateDao.markDirty(batchDefectProcessReqVO.getTaskId(), batchDefectProcessReqVO.getToolName());
         }
     }
 
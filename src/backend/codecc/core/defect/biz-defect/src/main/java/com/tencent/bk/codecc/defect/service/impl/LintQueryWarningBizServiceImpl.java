@@ -26,12 +26,13 @@
 
 package com.tencent.bk.codecc.defect.service.impl;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.tencent.bk.codecc.defect.component.CheckerSnapshotCache;
 import com.tencent.bk.codecc.defect.dao.ToolMetaCacheServiceImpl;
 import com.tencent.bk.codecc.defect.dao.mongorepository.BuildDefectRepository;
-import com.tencent.bk.codecc.defect.dao.mongorepository.CheckerRepository;
 import com.tencent.bk.codecc.defect.dao.mongorepository.IgnoreCheckerRepository;
 import com.tencent.bk.codecc.defect.dao.mongorepository.LintDefectRepository;
 import com.tencent.bk.codecc.defect.dao.mongorepository.LintStatisticRepository;
@@ -73,6 +74,7 @@ import com.tencent.devops.common.constant.CommonMessageCode;
 import com.tencent.devops.common.constant.RedisKeyConstants;
 import com.tencent.devops.common.service.BizServiceFactory;
 import com.tencent.devops.common.util.DateTimeUtils;
+import com.tencent.devops.common.util.ListSortUtil;
 import com.tencent.devops.common.util.PathUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
@@ -127,7 +129,7 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
     private IgnoreCheckerRepository ignoreCheckerRepository;
 
     @Autowired
-    private CheckerRepository checkerRepository;
+    private CheckerSnapshotCache checkerSnapshotCache;
 
     @Autowired
     private LintDefectRepository lintDefectRepository;
@@ -150,6 +152,26 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
     @Autowired
     private LintStatisticRepository lintStatisticRepository;
 
+    /**
+     * 按问题聚类查询时是否在数据库中完成过滤、排序和分页
+     */
+    @Value("${codecc.query.lint.dbPaging.enabled:false}")
+    private boolean dbPagingEnabled;
+
+    /**
+     * 数据库分页支持的排序字段，key为前端排序字段，value为展开告警后的数据库字段
+     */
+    private static final Map<String, String> DB_SORT_FIELD_MAP = ImmutableMap.<String, String>builder()
+            .put("lineNum", "defect_list.line_num")
+            .put("author", "defect_list.author")
+            .put("checker", "defect_list.checker")
+            .put("severity", "defect_list.severity")
+            .put("status", "defect_list.status")
+            .put("lineUpdateTime", "defect_list.linenum_datetime")
+            .put("createTime", "defect_list.create_time")
+            .put("fileName", "file_name")
+            .build();
+
 
     /**
      * 获取规则类型
@@ -303,8 +325,9 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
             }
 
             //根据字段进行排序
+            Comparator<LintDefectEntity> defectComparator = getDefectComparator(sortField, null == sortType ? "ASC" : sortType.name());
             lintDefectVOList = fileInfoEntityList.get(0).getDefectList().stream()
-                    .sorted((o1, o2) -> sortDefectByField(o1, o2, sortField, null == sortType ? "ASC" : sortType.name()))
+                    .sorted(defectComparator)
                     .map(lintDefectEntity ->
                     {
                         LintDefectVO lintDefectVO = new LintDefectVO();
@@ -357,22 +380,49 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
         return lintDefectQueryRspVO;
     }
 
-    private int sortDefectByField(LintDefectEntity lintDefectEntity1, LintDefectEntity lintDefectEntity2, String sortField, String sortType) {
-        try {
-            PropertyDescriptor propertyDescriptor = BeanUtils.getPropertyDescriptor(LintDefectEntity.class, StringUtils.isEmpty(sortField) ? "lineNum" : sortField);
-            Method readMethod = propertyDescriptor.getReadMethod();
-            switch (sortType) {
-                case "ASC":
-                    return (int) readMethod.invoke(lintDefectEntity1) - (int) readMethod.invoke(lintDefectEntity2);
-                case "DESC":
-                    return (int) readMethod.invoke(lintDefectEntity2) - (int) readMethod.invoke(lintDefectEntity1);
-                default:
-                    return (int) readMethod.invoke(lintDefectEntity1) - (int) readMethod.invoke(lintDefectEntity2);
-            }
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            log.error("invoke read method error! sort field: {}", sortField);
-            return 1;
+    /**
+     * 生成按字段排序告警的比较器，常用字段直接取值，其他字段只解析一次读方法
+     *
+     * @param sortField
+     * @param sortType
+     * @return
+     */
+    private Comparator<LintDefectEntity> getDefectComparator(String sortField, String sortType) {
+        String field = StringUtils.isEmpty(sortField) ? "lineNum" : sortField;
+        Comparator<LintDefectEntity> comparator;
+        switch (field) {
+            case "lineNum":
+                comparator = Comparator.comparingInt(LintDefectEntity::getLineNum);
+                break;
+            case "severity":
+                comparator = Comparator.comparingInt(LintDefectEntity::getSeverity);
+                break;
+            case "status":
+                comparator = Comparator.comparingInt(LintDefectEntity::getStatus);
+                break;
+            case "defectType":
+                comparator = Comparator.comparingInt(LintDefectEntity::getDefectType);
+                break;
+            default:
+                PropertyDescriptor propertyDescriptor = BeanUtils.getPropertyDescriptor(LintDefectEntity.class, field);
+                Method readMethod = propertyDescriptor == null ? null : propertyDescriptor.getReadMethod();
+                // 排序字段来自请求参数，不存在或不是int类型时按行号排序
+                if (readMethod == null || readMethod.getReturnType() != int.class) {
+                    log.warn("invalid sort field: {}, sort by lineNum", sortField);
+                    comparator = Comparator.comparingInt(LintDefectEntity::getLineNum);
+                    break;
+                }
+                comparator = (o1, o2) -> {
+                    try {
+                        return Integer.compare((int) readMethod.invoke(o1), (int) readMethod.invoke(o2));
+                    } catch (IllegalAccessException | InvocationTargetException e) {
+                        log.error("invoke read method error! sort field: {}", sortField);
+                        return 1;
+                    }
+                };
+                break;
         }
+        return "DESC".equals(sortType) ? comparator.reversed() : comparator;
     }
 
     @Override
@@ -442,9 +492,7 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
 
         CheckerPkgDefectVO checkerPkgDefectVO = new CheckerPkgDefectVO();
 
-        List<CheckerDetailEntity> checkerList = checkerRepository.findByToolName(toolName);
-        Set<String> checkerNameSet =
-                checkerList.stream().map(CheckerDetailEntity::getCheckerKey).collect(Collectors.toSet());
+        Set<String> checkerNameSet = checkerSnapshotCache.get(toolName).getCheckerKeys();
 
         List<IgnoreCheckerEntity> ignoreDefaultCheckerEntityList =
                 ignoreCheckerDao.queryCloseDefaultCheckers(toolName, checkerNameSet);
@@ -501,7 +549,15 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
             Page<LintFileEntity> lintFilesList =
                     lintDefectRepository.findByTaskIdInAndToolNameIs(taskIdSet, toolName, pageable);
 
-            List<LintFileEntity> lintFiles = lintFilesList.getContent();
+            // 合并告警清单超限文件的溢出文档，文件的告警数按合并后的告警清单计算
+            List<LintFileEntity> lintFiles = Lists.newArrayList(lintFilesList.getContent());
+            lintFiles.stream().filter(lintFileEntity -> lintFileEntity.getSpillCount() > 0)
+                    .collect(Collectors.groupingBy(LintFileEntity::getTaskId))
+                    .forEach((spillTaskId, spillFiles) -> {
+                        lintDefectDao.fillSpillDefectList(spillTaskId, toolName, spillFiles);
+                        spillFiles.forEach(spillFile -> spillFile.setDefectCount(
+                                spillFile.getDefectList() == null ? 0 : spillFile.getDefectList().size()));
+                    });
             if (CollectionUtils.isNotEmpty(lintFiles)) {
                 lintFiles.forEach(lintFileEntity ->
                 {
@@ -579,11 +635,7 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
         int taskStatus = ComConstants.Status.ENABLE.value();
 
         // 1.获取工具的规则列表
-        List<CheckerDetailEntity> checkerList = checkerRepository.findByToolName(toolName);
-        Set<String> checkerNameSet = Sets.newHashSet();
-        if (CollectionUtils.isNotEmpty(checkerList)) {
-            checkerNameSet = checkerList.stream().map(CheckerDetailEntity::getCheckerKey).collect(Collectors.toSet());
-        }
+        Set<String> checkerNameSet = checkerSnapshotCache.get(toolName).getCheckerKeys();
 
         // 分页查询任务列表
         QueryTaskListReqVO queryTaskListReqVO =
@@ -842,19 +894,34 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
         Set<String> fileList = queryWarningReq.getFileList();
         String checker = queryWarningReq.getChecker();
         String author = queryWarningReq.getAuthor();
+        String clusterType = queryWarningReq.getClusterType();
+        boolean defectCluster = StringUtils.isNotEmpty(clusterType) && ComConstants.ClusterType.defect.name().equalsIgnoreCase(clusterType);
+
+        // 按问题聚类时优先在数据库中分页，不支持的查询条件仍走内存过滤
+        if (defectCluster && dbPagingEnabled) {
+            queryWarningReq.setPkgChecker(pkgChecker);
+            LintDefectQueryRspVO defectPageRsp = findLintDefectPageInDb(taskId, queryWarningReq, pageNum, pageSize, sortField, sortType);
+            if (defectPageRsp != null) {
+                return defectPageRsp;
+            }
+        }
 
         //查询总的数量，并且过滤计数
         List<LintFileEntity> originalFileInfoEntityList =
                 lintDefectDao.findFileListByParams(taskId, toolName, fileList, checker, author);
 
+        // 按文件聚类时告警清单超限的文件合并成一个文件，按问题聚类时告警需要保留所在文档的entityId
+        if (!defectCluster) {
+            originalFileInfoEntityList = lintDefectDao.mergeSpillParts(originalFileInfoEntityList);
+        }
+
         queryWarningReq.setPkgChecker(pkgChecker);
 
         // 按过滤条件过滤告警
         filterDefectByCondition(taskId, originalFileInfoEntityList, queryWarningReq, lintFileQueryRsp);
 
         // 按问题聚类
-        String clusterType = queryWarningReq.getClusterType();
-        if (StringUtils.isNotEmpty(clusterType) && ComConstants.ClusterType.defect.name().equalsIgnoreCase(clusterType)) {
+        if (defectCluster) {
             StatisticEntity statisticEntity = lintStatisticRepository.findFirstByTaskIdAndToolNameOrderByTimeDesc(taskId, toolName);
             List<LintDefectVO> lintDefectVoList = Lists.newArrayList();
             originalFileInfoEntityList.forEach(lintFileEntity ->
@@ -914,6 +981,105 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
         return lintFileQueryRsp;
     }
 
+    /**
+     * 按问题聚类在数据库中过滤、排序和分页，只加载当前页的告警
+     * 按构建号筛选、工蜂项目路径过滤以及不支持的排序字段返回null，由调用方走内存过滤
+     *
+     * @param taskId
+     * @param queryWarningReq
+     * @param pageNum
+     * @param pageSize
+     * @param sortField
+     * @param sortType
+     * @return
+     */
+    private LintDefectQueryRspVO findLintDefectPageInDb(long taskId, DefectQueryReqVO queryWarningReq, int pageNum, int pageSize,
+                                                        String sortField, Sort.Direction sortType) {
+        if (StringUtils.isNotEmpty(queryWarningReq.getBuildId()) || queryWarningReq.getSeverity() == null) {
+            return null;
+        }
+        if (StringUtils.isEmpty(sortField)) {
+            sortField = "severity";
+        }
+        if (!DB_SORT_FIELD_MAP.containsKey(sortField)) {
+            return null;
+        }
+
+        CodeCCResult<TaskDetailVO> taskInfoCodeCCResult = client.get(ServiceTaskRestResource.class).getTaskInfoById(taskId);
+        TaskDetailVO taskDetailVO = taskInfoCodeCCResult.getData();
+        if (taskDetailVO != null && ComConstants.BsTaskCreateFrom.GONGFENG_SCAN.value().equalsIgnoreCase(taskDetailVO.getCreateFrom())) {
+            return null;
+        }
+
+        String toolName = queryWarningReq.getToolName();
+        long newDefectJudgeTime = newDefectJudgeService.getNewDefectJudgeTime(taskId, toolName, taskDetailVO);
+
+        Long startTime = null;
+        Long endTime = null;
+        if (StringUtils.isNotEmpty(queryWarningReq.getStartCreateTime())) {
+            startTime = DateTimeUtils.getTimeStamp(queryWarningReq.getStartCreateTime() + " 00:00:00");
+            endTime = StringUtils.isEmpty(queryWarningReq.getEndCreateTime()) ? System.currentTimeMillis()
+                    : DateTimeUtils.getTimeStamp(queryWarningReq.getEndCreateTime() + " 23:59:59");
+        }
+
+        // 排序规则与sortAndPage、sortByDefectLocationAndPage保持一致
+        Sort.Direction direction = sortType == null ? Sort.Direction.ASC : sortType;
+        Sort sort;
+        if ("severity".equals(sortField)) {
+            sort = new Sort(direction.isAscending() ? Sort.Direction.DESC : Sort.Direction.ASC, DB_SORT_FIELD_MAP.get(sortField));
+        } else if ("fileName".equals(sortField)) {
+            sort = new Sort(direction, DB_SORT_FIELD_MAP.get(sortField), "defect_list.line_num");
+        } else {
+            sort = new Sort(direction, DB_SORT_FIELD_MAP.get(sortField));
+        }
+        pageNum = pageNum - 1 < 0 ? 0 : pageNum - 1;
+        pageSize = pageSize <= 0 ? 10 : pageSize;
+
+        LintDefectPageEntity defectPage = lintDefectDao.findDefectPageByParams(taskId, queryWarningReq, startTime, endTime,
+                newDefectJudgeTime, sort, (long) pageNum * pageSize, pageSize);
+        // 页码超出总数时返回第一页
+        if (defectPage.getPageFileList().isEmpty() && (long) pageNum * pageSize > defectPage.getTotalCount()
+                && defectPage.getTotalCount() > 0) {
+            defectPage = lintDefectDao.findDefectPageByParams(taskId, queryWarningReq, startTime, endTime,
+                    newDefectJudgeTime, sort, 0, pageSize);
+        }
+
+        StatisticEntity statisticEntity = lintStatisticRepository.findFirstByTaskIdAndToolNameOrderByTimeDesc(taskId, toolName);
+        List<LintDefectVO> lintDefectVoList = new ArrayList<>(defectPage.getPageFileList().size());
+        for (LintFileEntity lintFileEntity : defectPage.getPageFileList()) {
+            String filePath = lintFileEntity.getFilePath();
+            String fileName = filePath.substring(filePath.lastIndexOf("/") + 1);
+            for (LintDefectEntity lintDefectEntity : lintFileEntity.getDefectList()) {
+                if (lintDefectEntity.getSeverity() == ComConstants.PROMPT_IN_DB) {
+                    lintDefectEntity.setSeverity(ComConstants.PROMPT);
+                }
+                LintDefectVO lintDefectVO = new LintDefectVO();
+                BeanUtils.copyProperties(lintDefectEntity, lintDefectVO);
+                lintDefectVO.setEntityId(lintFileEntity.getEntityId());
+                lintDefectVO.setFileName(fileName);
+                lintDefectVO.setFilePath(filePath);
+                lintDefectVO.setMark(convertMarkStatus(lintDefectVO.getMark(), lintDefectVO.getMarkTime(), statisticEntity));
+                lintDefectVoList.add(lintDefectVO);
+            }
+        }
+
+        LintDefectQueryRspVO lintFileQueryRsp = new LintDefectQueryRspVO();
+        lintFileQueryRsp.setExistCount(defectPage.getExistCount());
+        lintFileQueryRsp.setFixCount(defectPage.getFixCount());
+        lintFileQueryRsp.setIgnoreCount(defectPage.getIgnoreCount());
+        lintFileQueryRsp.setSeriousCount(defectPage.getSeriousCount());
+        lintFileQueryRsp.setNormalCount(defectPage.getNormalCount());
+        lintFileQueryRsp.setPromptCount(defectPage.getPromptCount());
+        lintFileQueryRsp.setNewCount(defectPage.getNewCount());
+        lintFileQueryRsp.setHistoryCount(defectPage.getHistoryCount());
+        lintFileQueryRsp.setNewDefectJudgeTime(newDefectJudgeTime);
+        lintFileQueryRsp.setTotalCount(defectPage.getTotalCount());
+
+        Pageable pageable = new PageRequest(pageNum, pageSize, new Sort(direction, sortField));
+        lintFileQueryRsp.setDefectList(new PageImpl<>(lintDefectVoList, pageable, defectPage.getTotalCount()));
+        return lintFileQueryRsp;
+    }
+
     /**
      * 根据根据前端传入的条件过滤告警，并分类统计
      *
@@ -1159,7 +1325,7 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
      */
     protected <T> org.springframework.data.domain.Page<LintDefectVO> sortByDefectLocationAndPage(int pageNum, int pageSize, String sortField,
                                                                                                  Sort.Direction sortType, List<LintDefectVO> defectVOs) {
-        defectVOs.sort((o1, o2) ->
+        Comparator<LintDefectVO> comparator = (o1, o2) ->
         {
             String fileName1 = o1.getFileName();
             String fileName2 = o2.getFileName();
@@ -1175,16 +1341,11 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
             } else {
                 return compareRes;
             }
-        });
+        };
         int total = defectVOs.size();
         pageNum = pageNum - 1 < 0 ? 0 : pageNum - 1;
         pageSize = pageSize <= 0 ? 10 : pageSize;
-        int subListBeginIdx = pageNum * pageSize;
-        int subListEndIdx = subListBeginIdx + pageSize;
-        if (subListBeginIdx > total) {
-            subListBeginIdx = 0;
-        }
-        defectVOs = defectVOs.subList(subListBeginIdx, subListEndIdx > total ? total : subListEndIdx);
+        defectVOs = ListSortUtil.sortAndPage(defectVOs, comparator, pageNum, pageSize);
 
         //封装分页类
         Pageable pageable = new PageRequest(pageNum, pageSize, new Sort(sortType, sortField));
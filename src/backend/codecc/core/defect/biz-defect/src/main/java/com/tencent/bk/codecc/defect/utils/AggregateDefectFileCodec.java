@@ -0,0 +1,89 @@
+/*
+ * Tencent is pleased to support the open source community by making BlueKing available.
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the MIT License (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://opensource.org/licenses/MIT
+ * Unless required by applicable law or agreed to in writing, software distributed under
+ * the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.bk.codecc.defect.utils;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.tencent.bk.codecc.defect.pojo.AggregateDefectInputModel;
+import com.tencent.bk.codecc.defect.pojo.AggregateDefectOutputModel;
+import com.tencent.devops.common.api.util.JsonUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 聚类输入输出文件的读写
+ * 聚类工具pp-cluster只支持json格式，这里直接流式写入文件、从文件流式解析，
+ * 不再先生成整个json字符串或逐行拼接文件内容，大项目聚类时服务端的内存占用更小。
+ * 输入文件的格式与原来保持一致(JsonUtil默认的缩进格式)，pp-cluster的输入格式不变
+ *
+ * @version V1.0
+ * @date 2020/6/24
+ */
+public class AggregateDefectFileCodec
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final TypeReference<List<AggregateDefectOutputModel>> OUTPUT_TYPE =
+            new TypeReference<List<AggregateDefectOutputModel>>()
+            {
+            };
+
+    private AggregateDefectFileCodec()
+    {
+    }
+
+    /**
+     * 写聚类输入文件，文件已存在时覆盖
+     *
+     * @param inputList
+     * @param inputFile
+     * @throws IOException
+     */
+    public static void writeInput(List<AggregateDefectInputModel> inputList, File inputFile) throws IOException
+    {
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(inputFile), BUFFER_SIZE))
+        {
+            JsonUtil.INSTANCE.getObjectMapper().writeValue(outputStream, inputList);
+        }
+    }
+
+    /**
+     * 读聚类输出文件，兼容缩进和紧凑两种格式
+     *
+     * @param outputFile
+     * @return 文件不存在或为空时返回空列表
+     * @throws IOException
+     */
+    public static List<AggregateDefectOutputModel> readOutput(File outputFile) throws IOException
+    {
+        if (!outputFile.exists() || outputFile.length() == 0)
+        {
+            return new ArrayList<>();
+        }
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(outputFile), BUFFER_SIZE))
+        {
+            ObjectReader reader = JsonUtil.INSTANCE.getObjectMapper().readerFor(OUTPUT_TYPE);
+            List<AggregateDefectOutputModel> outputList = reader.readValue(inputStream);
+            return outputList == null ? new ArrayList<>() : outputList;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Tencent is pleased to support the open source community by making BlueKing available.
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the MIT License (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://opensource.org/licenses/MIT
+ * Unless required by applicable law or agreed to in writing, software distributed under
+ * the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.bk.codecc.defect.utils;
+
+import com.tencent.bk.codecc.defect.model.CheckerDetailEntity;
+import org.apache.commons.collections.CollectionUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 工具规则元数据快照
+ * 加载时从规则详情中取出提交和查询常用的严重级别、类别、类型，创建后不可变，可以在多个线程间共享
+ *
+ * @version V1.0
+ * @date 2020/6/25
+ */
+public class CheckerSnapshot
+{
+    /**
+     * 快照版本号，每次重新加载递增
+     */
+    private final long version;
+
+    private final Map<String, Integer> severityMap;
+
+    private final Map<String, String> categoryMap;
+
+    private final Map<String, String> typeMap;
+
+    private CheckerSnapshot(long version, Map<String, Integer> severityMap, Map<String, String> categoryMap,
+                            Map<String, String> typeMap)
+    {
+        this.version = version;
+        this.severityMap = Collections.unmodifiableMap(severityMap);
+        this.categoryMap = Collections.unmodifiableMap(categoryMap);
+        this.typeMap = Collections.unmodifiableMap(typeMap);
+    }
+
+    /**
+     * 对工具的规则列表做快照，规则名重复时取后出现的
+     *
+     * @param version
+     * @param checkerDetailList
+     * @return
+     */
+    public static CheckerSnapshot of(long version, List<CheckerDetailEntity> checkerDetailList)
+    {
+        int size = CollectionUtils.isEmpty(checkerDetailList) ? 0 : checkerDetailList.size();
+        Map<String, Integer> severityMap = new HashMap<>(size);
+        Map<String, String> categoryMap = new HashMap<>(size);
+        Map<String, String> typeMap = new HashMap<>(size);
+        if (size > 0)
+        {
+            for (CheckerDetailEntity checkerDetail : checkerDetailList)
+            {
+                String checkerKey = checkerDetail.getCheckerKey();
+                if (checkerKey == null)
+                {
+                    continue;
+                }
+                severityMap.put(checkerKey, checkerDetail.getSeverity());
+                categoryMap.put(checkerKey, checkerDetail.getCheckerCategory());
+                typeMap.put(checkerKey, checkerDetail.getCheckerType());
+            }
+        }
+        return new CheckerSnapshot(version, severityMap, categoryMap, typeMap);
+    }
+
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * 规则名 -> 严重级别，不可修改
+     *
+     * @return
+     */
+    public Map<String, Integer> getSeverityMap()
+    {
+        return severityMap;
+    }
+
+    /**
+     * 获取规则的严重级别，规则不存在时返回null
+     *
+     * @param checkerKey
+     * @return
+     */
+    public Integer getSeverity(String checkerKey)
+    {
+        return severityMap.get(checkerKey);
+    }
+
+    public String getCategory(String checkerKey)
+    {
+        return categoryMap.get(checkerKey);
+    }
+
+    public String getType(String checkerKey)
+    {
+        return typeMap.get(checkerKey);
+    }
+
+    /**
+     * 工具的全部规则名，不可修改
+     *
+     * @return
+     */
+    public Set<String> getCheckerKeys()
+    {
+        return severityMap.keySet();
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Tencent is pleased to support the open source community by making BlueKing available.
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the MIT License (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://opensource.org/licenses/MIT
+ * Unless required by applicable law or agreed to in writing, software distributed under
+ * the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.bk.codecc.defect.utils;
+
+import com.tencent.bk.codecc.defect.vo.CommitStageVO;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 提单阶段耗时记录
+ * 一次提单对应一个实例，绑定在提单线程上，记录各阶段的耗时、处理的记录数、读取的字节数和数据库操作次数。
+ * 阶段的开始和结束只能在提单线程上调用，嵌套阶段的名称用/拼接；提单过程中提交到线程池的任务通过wrap传递绑定，
+ * 其中的数据库操作也计入当前阶段
+ *
+ * @version V1.0
+ * @date 2020/6/24
+ */
+public class CommitStageProfiler
+{
+    private static final ThreadLocal<CommitStageProfiler> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 没有绑定时使用的实例，不记录任何阶段
+     */
+    private static final CommitStageProfiler DISABLED = new CommitStageProfiler(0, null, null, false);
+
+    private final long taskId;
+
+    private final String toolName;
+
+    private final String buildId;
+
+    private final boolean enabled;
+
+    private final long beginTime = System.currentTimeMillis();
+
+    private final AtomicLong dbOpCount = new AtomicLong();
+
+    private final List<Stage> stageList = new CopyOnWriteArrayList<>();
+
+    /**
+     * 未结束的阶段，只在提单线程上访问
+     */
+    private final Deque<Stage> openStages = new ArrayDeque<>();
+
+    private CommitStageProfiler(long taskId, String toolName, String buildId, boolean enabled)
+    {
+        this.taskId = taskId;
+        this.toolName = toolName;
+        this.buildId = buildId;
+        this.enabled = enabled;
+    }
+
+    /**
+     * 开始记录一次提单，并绑定到当前线程
+     *
+     * @param taskId
+     * @param toolName
+     * @param buildId
+     * @return
+     */
+    public static CommitStageProfiler begin(long taskId, String toolName, String buildId)
+    {
+        CommitStageProfiler profiler = new CommitStageProfiler(taskId, toolName, buildId, true);
+        CURRENT.set(profiler);
+        return profiler;
+    }
+
+    /**
+     * 获取当前线程绑定的实例，没有绑定时返回不做记录的实例
+     *
+     * @return
+     */
+    public static CommitStageProfiler current()
+    {
+        CommitStageProfiler profiler = CURRENT.get();
+        return profiler == null ? DISABLED : profiler;
+    }
+
+    /**
+     * 把当前线程的绑定传递给线程池中执行的任务
+     *
+     * @param task
+     * @param <T>
+     * @return
+     */
+    public static <T> Callable<T> wrap(Callable<T> task)
+    {
+        CommitStageProfiler profiler = CURRENT.get();
+        if (profiler == null)
+        {
+            return task;
+        }
+        return () ->
+        {
+            CommitStageProfiler previous = CURRENT.get();
+            CURRENT.set(profiler);
+            try
+            {
+                return task.call();
+            }
+            finally
+            {
+                if (previous == null)
+                {
+                    CURRENT.remove();
+                }
+                else
+                {
+                    CURRENT.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * 当前线程发起一次数据库操作，由mongo命令监听器调用
+     */
+    public static void onDbOperation()
+    {
+        CommitStageProfiler profiler = CURRENT.get();
+        if (profiler != null)
+        {
+            profiler.dbOpCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 开始一个阶段，配合try-with-resources使用
+     *
+     * @param name
+     * @return
+     */
+    public Stage stage(String name)
+    {
+        Stage parent = openStages.peek();
+        Stage stage = new Stage(parent == null ? name : parent.name + "/" + name, System.currentTimeMillis(), dbOpCount.get());
+        if (enabled)
+        {
+            stageList.add(stage);
+            openStages.push(stage);
+        }
+        return stage;
+    }
+
+    /**
+     * 记录一个已经结束的阶段，用于多线程并发执行、耗时为各线程累加值的阶段
+     *
+     * @param name
+     * @param elapseTime
+     * @param rowCount
+     */
+    public void record(String name, long elapseTime, long rowCount)
+    {
+        Stage parent = openStages.peek();
+        Stage stage = new Stage(parent == null ? name : parent.name + "/" + name, System.currentTimeMillis() - elapseTime, dbOpCount.get());
+        stage.elapseTime = elapseTime;
+        stage.dbOpEnd = stage.dbOpBegin;
+        stage.addRows(rowCount);
+        if (enabled)
+        {
+            stageList.add(stage);
+        }
+    }
+
+    /**
+     * 累加当前阶段读取的字节数
+     *
+     * @param byteCount
+     */
+    public void addBytes(long byteCount)
+    {
+        Stage stage = openStages.peek();
+        if (stage != null)
+        {
+            stage.addBytes(byteCount);
+        }
+    }
+
+    /**
+     * 结束记录并解除线程绑定，未结束的阶段按当前时间结束
+     *
+     * @return 各阶段耗时，按开始顺序排列
+     */
+    public List<CommitStageVO> finish()
+    {
+        while (!openStages.isEmpty())
+        {
+            openStages.peek().close();
+        }
+        if (CURRENT.get() == this)
+        {
+            CURRENT.remove();
+        }
+
+        List<CommitStageVO> timeline = new ArrayList<>(stageList.size());
+        for (Stage stage : stageList)
+        {
+            CommitStageVO stageVO = new CommitStageVO();
+            stageVO.setStage(stage.name);
+            stageVO.setStartTime(stage.startTime);
+            stageVO.setElapseTime(stage.elapseTime);
+            stageVO.setRowCount(stage.rowCount.get());
+            stageVO.setByteCount(stage.byteCount.get());
+            stageVO.setDbOpCount(stage.dbOpEnd - stage.dbOpBegin);
+            timeline.add(stageVO);
+        }
+        return timeline;
+    }
+
+    public long getTaskId()
+    {
+        return taskId;
+    }
+
+    public String getToolName()
+    {
+        return toolName;
+    }
+
+    public String getBuildId()
+    {
+        return buildId;
+    }
+
+    public long getElapseTime()
+    {
+        return System.currentTimeMillis() - beginTime;
+    }
+
+    public long getDbOpCount()
+    {
+        return dbOpCount.get();
+    }
+
+    /**
+     * 提单阶段
+     */
+    public class Stage implements AutoCloseable
+    {
+        private final String name;
+
+        private final long startTime;
+
+        private final long dbOpBegin;
+
+        private final AtomicLong rowCount = new AtomicLong();
+
+        private final AtomicLong byteCount = new AtomicLong();
+
+        private volatile long elapseTime = -1;
+
+        private volatile long dbOpEnd;
+
+        private Stage(String name, long startTime, long dbOpBegin)
+        {
+            this.name = name;
+            this.startTime = startTime;
+            this.dbOpBegin = dbOpBegin;
+        }
+
+        public Stage addRows(long count)
+        {
+            rowCount.addAndGet(count);
+            return this;
+        }
+
+        public Stage addBytes(long count)
+        {
+            byteCount.addAndGet(count);
+            return this;
+        }
+
+        @Override
+        public void close()
+        {
+            if (elapseTime >= 0)
+            {
+                return;
+            }
+            elapseTime = System.currentTimeMillis() - startTime;
+            dbOpEnd = dbOpCount.get();
+            // 只出栈自己以及在自己之后开始、未正常结束的阶段
+            if (openStages.contains(this))
+            {
+                while (!openStages.isEmpty())
+                {
+                    Stage stage = openStages.pop();
+                    if (stage == this)
+                    {
+                        break;
+                    }
+                    stage.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Tencent is pleased to support the open source community by making BlueKing available.
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the MIT License (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://opensource.org/licenses/MIT
+ * Unless required by applicable law or agreed to in writing, software distributed under
+ * the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.bk.codecc.defect.utils;
+
+import com.tencent.bk.codecc.defect.vo.customtool.ScmBlameChangeRecordVO;
+import org.apache.commons.collections.CollectionUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 代码行作者索引
+ * 按区间保存scm blame的变更记录，每个[start,end]区间只占一个元素，通过二分查找定位代码行对应的变更记录
+ *
+ * @version V1.0
+ * @date 2020/6/15
+ */
+public class LineAuthorIndex
+{
+    private static final LineAuthorIndex EMPTY = new LineAuthorIndex(new int[0], new int[0], new int[0], new ScmBlameChangeRecordVO[0]);
+
+    /**
+     * 区间起始行，升序
+     */
+    private final int[] starts;
+
+    /**
+     * 区间结束行，与starts一一对应
+     */
+    private final int[] ends;
+
+    /**
+     * 截至每个下标的最大结束行，用于区间重叠时向前回溯的剪枝
+     */
+    private final int[] maxEnds;
+
+    private final ScmBlameChangeRecordVO[] records;
+
+    private LineAuthorIndex(int[] starts, int[] ends, int[] maxEnds, ScmBlameChangeRecordVO[] records)
+    {
+        this.starts = starts;
+        this.ends = ends;
+        this.maxEnds = maxEnds;
+        this.records = records;
+    }
+
+    /**
+     * 根据文件的变更记录构建索引
+     *
+     * @param changeRecords
+     * @return
+     */
+    public static LineAuthorIndex build(List<ScmBlameChangeRecordVO> changeRecords)
+    {
+        if (CollectionUtils.isEmpty(changeRecords))
+        {
+            return EMPTY;
+        }
+
+        int size = 0;
+        for (ScmBlameChangeRecordVO changeRecord : changeRecords)
+        {
+            if (changeRecord.getLines() != null)
+            {
+                size += changeRecord.getLines().size();
+            }
+        }
+
+        // 以long编码 起始行(高32位) + 序号(低32位)，排序后同一起始行的区间保持原始顺序
+        long[] sortKeys = new long[size];
+        int[] rawStarts = new int[size];
+        int[] rawEnds = new int[size];
+        ScmBlameChangeRecordVO[] rawRecords = new ScmBlameChangeRecordVO[size];
+        int count = 0;
+        for (ScmBlameChangeRecordVO changeRecord : changeRecords)
+        {
+            List<Object> lines = changeRecord.getLines();
+            if (CollectionUtils.isEmpty(lines))
+            {
+                continue;
+            }
+            for (Object line : lines)
+            {
+                int start;
+                int end;
+                if (line instanceof Number)
+                {
+                    start = ((Number) line).intValue();
+                    end = start;
+                }
+                else if (line instanceof List && ((List) line).size() > 1)
+                {
+                    List lineScope = (List) line;
+                    start = ((Number) lineScope.get(0)).intValue();
+                    end = ((Number) lineScope.get(lineScope.size() - 1)).intValue();
+                }
+                else
+                {
+                    continue;
+                }
+                rawStarts[count] = start;
+                rawEnds[count] = end;
+                rawRecords[count] = changeRecord;
+                sortKeys[count] = ((long) start << 32) | count;
+                count++;
+            }
+        }
+
+        Arrays.sort(sortKeys, 0, count);
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        int[] maxEnds = new int[count];
+        ScmBlameChangeRecordVO[] records = new ScmBlameChangeRecordVO[count];
+        for (int i = 0; i < count; i++)
+        {
+            int idx = (int) sortKeys[i];
+            starts[i] = rawStarts[idx];
+            ends[i] = rawEnds[idx];
+            records[i] = rawRecords[idx];
+            maxEnds[i] = i == 0 ? ends[i] : Math.max(maxEnds[i - 1], ends[i]);
+        }
+        return new LineAuthorIndex(starts, ends, maxEnds, records);
+    }
+
+    /**
+     * 查询代码行对应的变更记录，多个区间包含该行时取起始行最大的区间，起始行相同时取后出现的记录
+     *
+     * @param line
+     * @return 没有对应的变更记录时返回null
+     */
+    public ScmBlameChangeRecordVO get(int line)
+    {
+        // 找到最后一个起始行 <= line 的区间
+        int low = 0;
+        int high = starts.length - 1;
+        int pos = -1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= line)
+            {
+                pos = mid;
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid - 1;
+            }
+        }
+
+        for (int i = pos; i >= 0 && maxEnds[i] >= line; i--)
+        {
+            if (ends[i] >= line)
+            {
+                return records[i];
+            }
+        }
+        return null;
+    }
+
+    public boolean isEmpty()
+    {
+        return starts.length == 0;
+    }
+
+    public int size()
+    {
+        return starts.length;
+    }
+}
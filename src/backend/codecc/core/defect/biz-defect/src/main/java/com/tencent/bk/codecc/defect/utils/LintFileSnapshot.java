@@ -0,0 +1,272 @@
+/*
+ * Tencent is pleased to support the open source community by making BlueKing available.
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the MIT License (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://opensource.org/licenses/MIT
+ * Unless required by applicable law or agreed to in writing, software distributed under
+ * the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.bk.codecc.defect.utils;
+
+import com.google.common.collect.ImmutableMap;
+import com.tencent.bk.codecc.defect.model.LintDefectEntity;
+import com.tencent.bk.codecc.defect.model.LintFileEntity;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * lint文件入库前的快照
+ * 告警跟踪前记录文件及每个告警落库字段的指纹，保存时与新值比较，只把有变化的部分写回数据库
+ *
+ * @version V1.0
+ * @date 2020/6/17
+ */
+public class LintFileSnapshot
+{
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * 文件级落库字段(不含告警清单)：数据库字段名 -> 取值方法
+     * LintDefectDao按此生成文件级更新，文件指纹也按此计算，新增字段只需要加在这里，两者始终一致
+     */
+    public static final Map<String, Function<LintFileEntity, Object>> FILE_FIELDS =
+            ImmutableMap.<String, Function<LintFileEntity, Object>>builder()
+                    .put("file_update_time", LintFileEntity::getFileUpdateTime)
+                    .put("file_path", LintFileEntity::getFilePath)
+                    .put("url", LintFileEntity::getUrl)
+                    .put("status", LintFileEntity::getStatus)
+                    .put("fixed_time", LintFileEntity::getFixedTime)
+                    .put("exclude_time", LintFileEntity::getExcludeTime)
+                    .put("defect_count", LintFileEntity::getDefectCount)
+                    .put("new_count", LintFileEntity::getNewCount)
+                    .put("history_count", LintFileEntity::getHistoryCount)
+                    .put("repo_id", LintFileEntity::getRepoId)
+                    .put("revision", LintFileEntity::getRevision)
+                    .put("branch", LintFileEntity::getBranch)
+                    .put("author_list", LintFileEntity::getAuthorList)
+                    .put("checker_list", LintFileEntity::getCheckerList)
+                    .put("md5", LintFileEntity::getMd5)
+                    .put("create_time", LintFileEntity::getCreateTime)
+                    .put("sub_module", LintFileEntity::getSubModule)
+                    .build();
+
+    private final String entityId;
+
+    /**
+     * 文件级字段(不含告警清单)的指纹
+     */
+    private final long fileHash;
+
+    /**
+     * defectId -> 告警落库字段的指纹
+     */
+    private final Map<String, Long> defectHashMap;
+
+    /**
+     * 快照时告警清单中存在没有defectId的告警，无法按告警做增量更新
+     */
+    private final boolean incomplete;
+
+    private final int spillCount;
+
+    private LintFileSnapshot(String entityId, long fileHash, Map<String, Long> defectHashMap, boolean incomplete,
+                             int spillCount)
+    {
+        this.entityId = entityId;
+        this.fileHash = fileHash;
+        this.defectHashMap = defectHashMap;
+        this.incomplete = incomplete;
+        this.spillCount = spillCount;
+    }
+
+    /**
+     * 对已入库的文件做快照，必须在告警跟踪修改实体之前调用
+     *
+     * @param lintFile
+     * @return
+     */
+    public static LintFileSnapshot of(LintFileEntity lintFile)
+    {
+        List<LintDefectEntity> defectList = lintFile.getDefectList();
+        Map<String, Long> defectHashMap = Collections.emptyMap();
+        boolean incomplete = false;
+        if (CollectionUtils.isNotEmpty(defectList))
+        {
+            defectHashMap = new HashMap<>(defectList.size() * 4 / 3 + 1);
+            for (LintDefectEntity defect : defectList)
+            {
+                if (StringUtils.isEmpty(defect.getDefectId()) || defectHashMap.put(defect.getDefectId(), defectHash(defect)) != null)
+                {
+                    incomplete = true;
+                }
+            }
+        }
+        return new LintFileSnapshot(lintFile.getEntityId(), fileHash(lintFile), defectHashMap, incomplete,
+                lintFile.getSpillCount());
+    }
+
+    /**
+     * 计算文件级落库字段的指纹，字段取自FILE_FIELDS
+     *
+     * @param lintFile
+     * @return
+     */
+    public static long fileHash(LintFileEntity lintFile)
+    {
+        long hash = FNV_OFFSET;
+        for (Function<LintFileEntity, Object> getter : FILE_FIELDS.values())
+        {
+            hash = mixValue(hash, getter.apply(lintFile));
+        }
+        return hash;
+    }
+
+    /**
+     * 计算告警落库字段的指纹，@Transient的临时字段不参与计算
+     *
+     * @param defect
+     * @return
+     */
+    public static long defectHash(LintDefectEntity defect)
+    {
+        long hash = FNV_OFFSET;
+        hash = mix(hash, defect.getDefectId());
+        hash = mix(hash, defect.getLineNum());
+        hash = mix(hash, defect.getAuthor());
+        hash = mix(hash, defect.getChecker());
+        hash = mix(hash, defect.getSeverity());
+        hash = mix(hash, defect.getMessage());
+        hash = mix(hash, defect.getDefectType());
+        hash = mix(hash, defect.getStatus());
+        hash = mix(hash, defect.getLineUpdateTime());
+        hash = mix(hash, defect.getLineUpdateDate() == null ? null : defect.getLineUpdateDate().toString());
+        hash = mix(hash, defect.getPinpointHash());
+        hash = mix(hash, defect.getCreateTime());
+        hash = mix(hash, defect.getFixedTime());
+        hash = mix(hash, defect.getIgnoreTime());
+        hash = mix(hash, defect.getIgnoreReasonType());
+        hash = mix(hash, defect.getIgnoreReason());
+        hash = mix(hash, defect.getIgnoreAuthor());
+        hash = mix(hash, defect.getExcludeTime());
+        hash = mix(hash, defect.getMark());
+        hash = mix(hash, defect.getMarkTime());
+        hash = mix(hash, defect.getCreateBuildNumber());
+        hash = mix(hash, defect.getFixedBuildNumber());
+        hash = mix(hash, defect.getFixedRevision());
+        hash = mix(hash, defect.getFixedRepoId());
+        hash = mix(hash, defect.getFixedBranch());
+        hash = mix(hash, Objects.hashCode(defect.getCodeComment()));
+        return hash;
+    }
+
+    private static long mix(long hash, long value)
+    {
+        for (int i = 0; i < 8; i++)
+        {
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, Long value)
+    {
+        return value == null ? mix(hash, Long.MIN_VALUE + 1) : mix(hash, value.longValue());
+    }
+
+    private static long mix(long hash, Integer value)
+    {
+        return value == null ? mix(hash, Long.MIN_VALUE + 1) : mix(hash, value.longValue());
+    }
+
+    private static long mix(long hash, String value)
+    {
+        if (value == null)
+        {
+            return mix(hash, Long.MIN_VALUE + 1);
+        }
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            hash ^= c & 0xff;
+            hash *= FNV_PRIME;
+            hash ^= c >>> 8;
+            hash *= FNV_PRIME;
+        }
+        // 长度作为分隔，避免相邻字段拼接后产生相同的指纹
+        return mix(hash, value.length());
+    }
+
+    private static long mixValue(long hash, Object value)
+    {
+        if (value == null)
+        {
+            return mix(hash, Long.MIN_VALUE + 1);
+        }
+        if (value instanceof Number)
+        {
+            return mix(hash, ((Number) value).longValue());
+        }
+        if (value instanceof Collection)
+        {
+            return mix(hash, (Collection<?>) value);
+        }
+        return mix(hash, value.toString());
+    }
+
+    /**
+     * 集合指纹与元素顺序无关
+     */
+    private static long mix(long hash, Collection<?> values)
+    {
+        if (values == null)
+        {
+            return mix(hash, Long.MIN_VALUE + 1);
+        }
+        long sum = 0;
+        for (Object value : values)
+        {
+            sum += value == null ? 0 : mix(FNV_OFFSET, value.toString());
+        }
+        return mix(mix(hash, sum), values.size());
+    }
+
+    public String getEntityId()
+    {
+        return entityId;
+    }
+
+    public long getFileHash()
+    {
+        return fileHash;
+    }
+
+    public Map<String, Long> getDefectHashMap()
+    {
+        return defectHashMap;
+    }
+
+    public boolean isIncomplete()
+    {
+        return incomplete;
+    }
+
+    public int getSpillCount()
+    {
+        return spillCount;
+    }
+}
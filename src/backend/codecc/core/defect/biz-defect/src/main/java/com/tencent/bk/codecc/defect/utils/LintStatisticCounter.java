@@ -0,0 +1,350 @@
+/*
+ * Tencent is pleased to support the open source community by making BlueKing available.
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the MIT License (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://opensource.org/licenses/MIT
+ * Unless required by applicable law or agreed to in writing, software distributed under
+ * the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.bk.codecc.defect.utils;
+
+import com.tencent.bk.codecc.defect.model.LintDefectEntity;
+import com.tencent.bk.codecc.defect.model.LintFileEntity;
+import com.tencent.bk.codecc.defect.model.LintStatisticAggregateEntity;
+import com.tencent.bk.codecc.defect.model.LintStatisticEntity;
+import com.tencent.bk.codecc.defect.model.NotRepairedAuthorEntity;
+import com.tencent.devops.common.constant.ComConstants;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * lint告警统计计数器
+ * 各项计数都可以按文件累加或扣减：文件变化前扣减一次、变化后累加一次，即得到该文件对统计结果的差值
+ *
+ * @version V1.0
+ * @date 2020/6/18
+ */
+public class LintStatisticCounter
+{
+    private static final int SERIOUS = 0;
+    private static final int NORMAL = 1;
+    private static final int PROMPT = 2;
+    private static final int TOTAL = 3;
+
+    /**
+     * 新老告警判定时间
+     */
+    private final long newDefectJudgeTime;
+
+    private long totalDefectCount;
+    private int fileCount;
+    private int defectCount;
+    private int newDefectCount;
+    private int historyDefectCount;
+    private int totalNewSerious;
+    private int totalNewNormal;
+    private int totalNewPrompt;
+    private int totalSerious;
+    private int totalNormal;
+    private int totalPrompt;
+
+    /**
+     * 作者 -> [严重, 一般, 提示, 总数] 新告警数
+     */
+    private final Map<String, int[]> authorCountMap = new HashMap<>();
+
+    public LintStatisticCounter(long newDefectJudgeTime)
+    {
+        this.newDefectJudgeTime = newDefectJudgeTime;
+    }
+
+    /**
+     * 从累计值恢复计数器
+     *
+     * @param aggregate
+     * @return
+     */
+    public static LintStatisticCounter of(LintStatisticAggregateEntity aggregate)
+    {
+        LintStatisticCounter counter = new LintStatisticCounter(aggregate.getNewDefectJudgeTime());
+        counter.totalDefectCount = aggregate.getTotalDefectCount();
+        counter.fileCount = aggregate.getFileCount();
+        counter.defectCount = aggregate.getDefectCount();
+        counter.newDefectCount = aggregate.getNewDefectCount();
+        counter.historyDefectCount = aggregate.getHistoryDefectCount();
+        counter.totalNewSerious = aggregate.getTotalNewSerious();
+        counter.totalNewNormal = aggregate.getTotalNewNormal();
+        counter.totalNewPrompt = aggregate.getTotalNewPrompt();
+        counter.totalSerious = aggregate.getTotalSerious();
+        counter.totalNormal = aggregate.getTotalNormal();
+        counter.totalPrompt = aggregate.getTotalPrompt();
+        if (CollectionUtils.isNotEmpty(aggregate.getAuthorStatistic()))
+        {
+            for (NotRepairedAuthorEntity author : aggregate.getAuthorStatistic())
+            {
+                counter.authorCountMap.put(author.getName(), new int[]{author.getSeriousCount(), author.getNormalCount(),
+                        author.getPromptCount(), author.getTotalCount()});
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * 累加(sign=1)或扣减(sign=-1)一个文件的告警计数
+     *
+     * @param fileEntity
+     * @param sign
+     */
+    public synchronized void addFile(LintFileEntity fileEntity, int sign)
+    {
+        List<LintDefectEntity> defectList = fileEntity.getDefectList();
+        if (CollectionUtils.isEmpty(defectList))
+        {
+            return;
+        }
+        totalDefectCount += sign * defectList.size();
+
+        // 只统计本次构建遗留的告警数量和文件数量，以及各作者告警数量
+        if (fileEntity.getStatus() != ComConstants.DefectStatus.NEW.value())
+        {
+            return;
+        }
+        int defectCountInFile = 0;
+        for (LintDefectEntity lintDefectEntity : defectList)
+        {
+            if (lintDefectEntity.getStatus() != ComConstants.DefectStatus.NEW.value())
+            {
+                continue;
+            }
+            Long lineUpdateTime = lintDefectEntity.getLineUpdateTime();
+            if (lineUpdateTime == null)
+            {
+                lineUpdateTime = lintDefectEntity.getCreateTime();
+            }
+            int severity = getSeverityIndex(lintDefectEntity.getSeverity());
+            if (lineUpdateTime >= newDefectJudgeTime)
+            {
+                newDefectCount += sign;
+                if (severity == SERIOUS)
+                {
+                    totalNewSerious += sign;
+                    totalSerious += sign;
+                }
+                else if (severity == NORMAL)
+                {
+                    totalNewNormal += sign;
+                    totalNormal += sign;
+                }
+                else if (severity == PROMPT)
+                {
+                    totalNewPrompt += sign;
+                    totalPrompt += sign;
+                }
+                if (StringUtils.isNotEmpty(lintDefectEntity.getAuthor()))
+                {
+                    addAuthor(lintDefectEntity.getAuthor(), severity, sign, sign);
+                }
+            }
+            else
+            {
+                historyDefectCount += sign;
+                if (severity == SERIOUS)
+                {
+                    totalSerious += sign;
+                }
+                else if (severity == NORMAL)
+                {
+                    totalNormal += sign;
+                }
+                else if (severity == PROMPT)
+                {
+                    totalPrompt += sign;
+                }
+            }
+            defectCountInFile++;
+        }
+        if (defectCountInFile > 0)
+        {
+            fileCount += sign;
+            defectCount += sign * defectCountInFile;
+        }
+    }
+
+    /**
+     * 合并另一个计数器的差值
+     *
+     * @param delta
+     */
+    public synchronized void merge(LintStatisticCounter delta)
+    {
+        synchronized (delta)
+        {
+            totalDefectCount += delta.totalDefectCount;
+            fileCount += delta.fileCount;
+            defectCount += delta.defectCount;
+            newDefectCount += delta.newDefectCount;
+            historyDefectCount += delta.historyDefectCount;
+            totalNewSerious += delta.totalNewSerious;
+            totalNewNormal += delta.totalNewNormal;
+            totalNewPrompt += delta.totalNewPrompt;
+            totalSerious += delta.totalSerious;
+            totalNormal += delta.totalNormal;
+            totalPrompt += delta.totalPrompt;
+            delta.authorCountMap.forEach((author, counts) ->
+            {
+                for (int i = SERIOUS; i <= PROMPT; i++)
+                {
+                    if (counts[i] != 0)
+                    {
+                        addAuthor(author, i, counts[i], 0);
+                    }
+                }
+                addAuthor(author, -1, 0, counts[TOTAL]);
+            });
+        }
+    }
+
+    /**
+     * 计数出现负数说明累计值与数据库中的告警已不一致，需要全量重算
+     *
+     * @return
+     */
+    public synchronized boolean isConsistent()
+    {
+        if (totalDefectCount < 0 || fileCount < 0 || defectCount < 0 || newDefectCount < 0 || historyDefectCount < 0
+                || totalNewSerious < 0 || totalNewNormal < 0 || totalNewPrompt < 0
+                || totalSerious < 0 || totalNormal < 0 || totalPrompt < 0)
+        {
+            return false;
+        }
+        for (int[] counts : authorCountMap.values())
+        {
+            for (int count : counts)
+            {
+                if (count < 0)
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把计数写回累计值
+     *
+     * @param aggregate
+     */
+    public synchronized void fillAggregate(LintStatisticAggregateEntity aggregate)
+    {
+        aggregate.setNewDefectJudgeTime(newDefectJudgeTime);
+        aggregate.setTotalDefectCount(totalDefectCount);
+        aggregate.setFileCount(fileCount);
+        aggregate.setDefectCount(defectCount);
+        aggregate.setNewDefectCount(newDefectCount);
+        aggregate.setHistoryDefectCount(historyDefectCount);
+        aggregate.setTotalNewSerious(totalNewSerious);
+        aggregate.setTotalNewNormal(totalNewNormal);
+        aggregate.setTotalNewPrompt(totalNewPrompt);
+        aggregate.setTotalSerious(totalSerious);
+        aggregate.setTotalNormal(totalNormal);
+        aggregate.setTotalPrompt(totalPrompt);
+        aggregate.setAuthorStatistic(getAuthorStatistic());
+    }
+
+    /**
+     * 把计数写入本次分析的统计记录
+     *
+     * @param lintStatisticEntity
+     */
+    public synchronized void fillStatistic(LintStatisticEntity lintStatisticEntity)
+    {
+        lintStatisticEntity.setFileCount(fileCount);
+        lintStatisticEntity.setDefectCount(defectCount);
+        lintStatisticEntity.setNewDefectCount(newDefectCount);
+        lintStatisticEntity.setHistoryDefectCount(historyDefectCount);
+        lintStatisticEntity.setTotalNewNormal(totalNewNormal);
+        lintStatisticEntity.setTotalNewPrompt(totalNewPrompt);
+        lintStatisticEntity.setTotalNewSerious(totalNewSerious);
+        lintStatisticEntity.setTotalNormal(totalNormal);
+        lintStatisticEntity.setTotalPrompt(totalPrompt);
+        lintStatisticEntity.setTotalSerious(totalSerious);
+        lintStatisticEntity.setTotalDefectCount(totalDefectCount);
+        lintStatisticEntity.setAuthorStatistic(getAuthorStatistic());
+    }
+
+    public long getNewDefectJudgeTime()
+    {
+        return newDefectJudgeTime;
+    }
+
+    public synchronized int getFileCount()
+    {
+        return fileCount;
+    }
+
+    public synchronized int getDefectCount()
+    {
+        return defectCount;
+    }
+
+    /**
+     * 作者关联告警统计信息，按告警数量排序
+     */
+    private List<NotRepairedAuthorEntity> getAuthorStatistic()
+    {
+        List<NotRepairedAuthorEntity> authorStatistic = new ArrayList<>(authorCountMap.size());
+        authorCountMap.forEach((author, counts) ->
+        {
+            NotRepairedAuthorEntity authorEntity = new NotRepairedAuthorEntity();
+            authorEntity.setName(author);
+            authorEntity.setSeriousCount(counts[SERIOUS]);
+            authorEntity.setNormalCount(counts[NORMAL]);
+            authorEntity.setPromptCount(counts[PROMPT]);
+            authorEntity.setTotalCount(counts[TOTAL]);
+            authorStatistic.add(authorEntity);
+        });
+        authorStatistic.sort((o1, o2) -> Integer.compare(o2.getTotalCount(), o1.getTotalCount()));
+        return authorStatistic;
+    }
+
+    private void addAuthor(String author, int severity, int severityDelta, int totalDelta)
+    {
+        int[] counts = authorCountMap.computeIfAbsent(author, k -> new int[4]);
+        if (severity >= SERIOUS && severity <= PROMPT)
+        {
+            counts[severity] += severityDelta;
+        }
+        counts[TOTAL] += totalDelta;
+        if (counts[SERIOUS] == 0 && counts[NORMAL] == 0 && counts[PROMPT] == 0 && counts[TOTAL] == 0)
+        {
+            authorCountMap.remove(author);
+        }
+    }
+
+    private static int getSeverityIndex(int severity)
+    {
+        if (ComConstants.SERIOUS == severity)
+        {
+            return SERIOUS;
+        }
+        else if (ComConstants.NORMAL == severity)
+        {
+            return NORMAL;
+        }
+        else if (ComConstants.PROMPT_IN_DB == severity || ComConstants.PROMPT == severity)
+        {
+            return PROMPT;
+        }
+        return -1;
+    }
+}
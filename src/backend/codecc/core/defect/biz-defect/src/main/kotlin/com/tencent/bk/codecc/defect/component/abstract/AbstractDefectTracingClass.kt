@@ -8,6 +8,7 @@ import com.tencent.bk.codecc.defect.pojo.AggregateDefectInputModel
 import com.tencent.bk.codecc.defect.pojo.AggregateDefectOutputModel
 import com.tencent.bk.codecc.defect.pojo.AggregateDispatchFileName
 import com.tencent.bk.codecc.defect.pojo.FileMD5TotalModel
+import com.tencent.bk.codecc.defect.utils.AggregateDefectFileCodec
 import com.tencent.bk.codecc.task.vo.TaskDetailVO
 import com.tencent.codecc.common.db.CommonEntity
 import com.tencent.devops.common.api.exception.CodeCCException
@@ -69,7 +70,7 @@ abstract class AbstractDefectTracingClass<T : CommonEntity>(
                 try{
                     logger.info("for each return value")
                     if(u.get()){
-                        outputDefectList.addAll(getFileContent(t) ?: mutableListOf())
+                        outputDefectList.addAll(AggregateDefectFileCodec.readOutput(File(t)))
                         logger.info("return value is true")
                     }
                     else
@@ -91,7 +92,7 @@ abstract class AbstractDefectTracingClass<T : CommonEntity>(
                 //等待直到有结果
                 u.waitFor()
                 if (null == u.exception) {
-                    outputDefectList.addAll(getFileContent(t) ?: mutableListOf())
+                    outputDefectList.addAll(AggregateDefectFileCodec.readOutput(File(t)))
                 }
             }
         }
@@ -142,7 +143,7 @@ abstract class AbstractDefectTracingClass<T : CommonEntity>(
                 if (outputFile.exists()) {
                     outputFile.delete()
                 }
-                inputFile.writeText(JsonUtil.getObjectMapper().writeValueAsString(u))
+                AggregateDefectFileCodec.writeInput(u, inputFile)
                 try {
                     val aggregateFileName = AggregateDispatchFileName(
                         inputFileName = inputFileName,
@@ -216,7 +217,7 @@ abstract class AbstractDefectTracingClass<T : CommonEntity>(
                 if (outputFile.exists()) {
                     outputFile.delete()
                 }
-                inputFile.writeText(JsonUtil.getObjectMapper().writeValueAsString(u))
+                AggregateDefectFileCodec.writeInput(u, inputFile)
                 try {
 
                     asyncExecuteUnixCommand(
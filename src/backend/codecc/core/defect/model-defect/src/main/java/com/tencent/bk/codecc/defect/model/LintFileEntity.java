@@ -202,6 +202,18 @@ public class LintFileEntity extends CommonEntity
     @JSONField(name = "defects")
     private List<LintDefectEntity> defectList;
 
+    /**
+     * 告警清单超过单文档上限时拆出的溢出文档数，0表示未溢出，只在主文档上记录
+     */
+    @Field("spill_count")
+    private int spillCount;
+
+    /**
+     * 溢出文档的分片序号，从1开始，主文档为0或不存在
+     */
+    @Field("spill_no")
+    private int spillNo;
+
     /**
      * 告警数超过10000的文件收敛为只记录告警总数
      */
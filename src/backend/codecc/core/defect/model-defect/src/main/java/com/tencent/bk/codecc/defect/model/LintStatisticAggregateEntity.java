@@ -0,0 +1,124 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.bk.codecc.defect.model;
+
+import com.tencent.codecc.common.db.CommonEntity;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.util.List;
+
+/**
+ * lint类工具告警统计的累计值
+ * 每次提交只把本次变化文件的告警数差值累加进来，避免为了统计而加载任务下的全部告警文件
+ *
+ * @version V1.0
+ * @date 2020/6/18
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@Document(collection = "t_lint_statistic_aggregate")
+@CompoundIndexes({
+        @CompoundIndex(name = "task_id_1_tool_name_1", def = "{'task_id': 1, 'tool_name': 1}", unique = true)
+})
+public class LintStatisticAggregateEntity extends CommonEntity
+{
+    @Field("task_id")
+    private long taskId;
+
+    @Field("tool_name")
+    private String toolName;
+
+    /**
+     * 计算累计值时使用的新老告警判定时间，判定时间变化后需要全量重算
+     */
+    @Field("new_defect_judge_time")
+    private long newDefectJudgeTime;
+
+    /**
+     * 上次全量重算之后增量累加的次数
+     */
+    @Field("incremental_times")
+    private int incrementalTimes;
+
+    /**
+     * 累计值之外的告警状态变化（忽略、作者转换、路径屏蔽等）会把累计值标记为脏，下次提交时全量重算
+     */
+    @Field("dirty")
+    private boolean dirty;
+
+    /**
+     * 乐观锁版本号，并发提交或标记为脏时用于检测覆盖
+     */
+    @Version
+    @Field("version")
+    private Long version;
+
+    @Field("last_build_id")
+    private String lastBuildId;
+
+    @Field("file_count")
+    private int fileCount;
+
+    @Field("defect_count")
+    private int defectCount;
+
+    @Field("new_defect_count")
+    private int newDefectCount;
+
+    @Field("history_defect_count")
+    private int historyDefectCount;
+
+    @Field("total_new_serious")
+    private int totalNewSerious;
+
+    @Field("total_new_normal")
+    private int totalNewNormal;
+
+    @Field("total_new_prompt")
+    private int totalNewPrompt;
+
+    @Field("total_serious")
+    private int totalSerious;
+
+    @Field("total_normal")
+    private int totalNormal;
+
+    @Field("total_prompt")
+    private int totalPrompt;
+
+    @Field("total_defect_count")
+    private long totalDefectCount;
+
+    @Field("author_statistic")
+    private List<NotRepairedAuthorEntity> authorStatistic;
+}
@@ -121,5 +121,24 @@ public class TaskLogEntity extends CommonEntity
          */
         private String compileResult;
 
+        /**
+         * 提单各阶段耗时，只有提单步骤有值
+         */
+        private List<StageUnit> stageTimeline;
+
+    }
+
+    @Data
+    public static class StageUnit
+    {
+        /**
+         * 阶段名称，嵌套阶段用/分隔
+         */
+        private String stage;
+        private long startTime;
+        private long elapseTime;
+        private long rowCount;
+        private long byteCount;
+        private long dbOpCount;
     }
 }
@@ -80,4 +80,21 @@ public interface BuildScheduleRestResource
             @ApiParam(value = "开始行", required = true)
             @PathParam("beginLine")
                     long beginLine);
+
+    @ApiOperation(value = "按字节位置实时获取日志")
+    @Path("/log/streamName/{streamName}/toolName/{toolName}/buildId/{buildId}/beginOffset/{beginOffset}")
+    @GET
+    CodeCCResult<TailLogRspVO> tailLogByOffset(
+            @ApiParam(value = "任务英文名", required = true)
+            @PathParam("streamName")
+                    String streamName,
+            @ApiParam(value = "工具名", required = true)
+            @PathParam("toolName")
+                    String toolName,
+            @ApiParam(value = "构建ID", required = true)
+            @PathParam("buildId")
+                    String buildId,
+            @ApiParam(value = "开始字节位置", required = true)
+            @PathParam("beginOffset")
+                    long beginOffset);
 }
@@ -55,5 +55,8 @@ public interface UserFSRestResource
                     String downloadType,
             @ApiParam(value = "文件名", required = true)
             @PathParam(value = "fileName")
-                    String fileName);
+                    String fileName,
+            @ApiParam(value = "下载区间，格式为bytes=start-end，为空时下载整个文件")
+            @HeaderParam(value = "Range")
+                    String range);
 }
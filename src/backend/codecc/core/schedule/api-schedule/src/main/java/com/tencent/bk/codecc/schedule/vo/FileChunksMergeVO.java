@@ -25,6 +25,9 @@ public class FileChunksMergeVO
     @ApiModelProperty(value = "分片总数")
     private Integer chunks;
 
+    @ApiModelProperty(value = "合并后文件的MD5，传入时合并后校验")
+    private String contentMd5;
+
     @NotNull(message = "上传类型不能为空")
     @ApiModelProperty(value = "上传类型")
     private String uploadType;
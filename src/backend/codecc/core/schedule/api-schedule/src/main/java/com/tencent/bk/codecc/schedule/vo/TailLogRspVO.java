@@ -48,4 +48,7 @@ public class TailLogRspVO
 
     @ApiModelProperty(value = "当前日志的最大行号，作为下次读日志的起始行号", required = true)
     private Long maxLineNum;
+
+    @ApiModelProperty(value = "已返回内容之后的字节位置，作为下次读日志的起始位置")
+    private Long nextOffset;
 }
@@ -54,6 +54,9 @@ public class UploadVO
     @ApiModelProperty(value = "当前分片")
     private Integer chunk;
 
+    @ApiModelProperty(value = "当前分片在文件中的起始字节位置，传入时分片直接写入合并文件，合并时无需再拷贝")
+    private Long chunkOffset;
+
     @NotNull(message = "上传类型不能为空")
     @ApiModelProperty(value = "上传类型", required = true)
     private String uploadType;
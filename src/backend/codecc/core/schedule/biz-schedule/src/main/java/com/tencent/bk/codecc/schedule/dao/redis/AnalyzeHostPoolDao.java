@@ -30,14 +30,14 @@ import com.tencent.bk.codecc.schedule.model.AnalyzeHostPoolModel;
 import com.tencent.bk.codecc.schedule.vo.PushVO;
 import com.tencent.devops.common.constant.ComConstants;
 import com.tencent.devops.common.constant.RedisKeyConstants;
-import com.tencent.devops.common.redis.lock.JRedisLock;
 import com.tencent.devops.common.util.JsonUtil;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
-import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
 import org.springframework.stereotype.Repository;
 
 import java.util.*;
@@ -55,7 +55,23 @@ public class AnalyzeHostPoolDao
     @Autowired
     private StringRedisTemplate redisTemplate;
 
-    private static final int EXPIRY_TIME_MILLIS = Integer.getInteger("lock.expiry.millis", 100);
+    /**
+     * 挑选空闲线程最多的机器并占用一个线程
+     */
+    private static final DefaultRedisScript<String> SELECT_IDLE_HOST_SCRIPT = createScript("lua/select_idle_host.lua", String.class);
+
+    /**
+     * 释放机器上的线程
+     */
+    private static final DefaultRedisScript<Long> FREE_HOST_THREAD_SCRIPT = createScript("lua/free_host_thread.lua", Long.class);
+
+    private static <T> DefaultRedisScript<T> createScript(String path, Class<T> resultType)
+    {
+        DefaultRedisScript<T> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource(path)));
+        script.setResultType(resultType);
+        return script;
+    }
 
     /**
      * 停止分析标志
@@ -70,117 +86,31 @@ public class AnalyzeHostPoolDao
 
     /**
      * 挑选出当前空闲线程数最多的机器
+     * 挑选和占用线程在redis中通过lua脚本一次完成，多个调度节点并发分发时无需加锁
      *
      * @param pushVO
      */
     public AnalyzeHostPoolModel getMostIdleHost(PushVO pushVO)
     {
-        String toolName = pushVO.getToolName();
-        String streamName = pushVO.getStreamName();
-        String buildId = pushVO.getBuildId();
-        String createFrom = pushVO.getCreateFrom();
-
-        String lockKey = RedisKeyConstants.LOCK_HOST_POOL;
-        if (StringUtils.isNotEmpty(createFrom))
-        {
-            lockKey = RedisKeyConstants.LOCK_HOST_POOL_OPENSOURCE;
-        }
-        JRedisLock lock = new JRedisLock(redisTemplate, lockKey, JRedisLock.DEFAULT_ACQUIRE_TIMEOUT_MILLIS, EXPIRY_TIME_MILLIS);
-
-        if (!lock.acquire())
-        {
-            return null;
-        }
-
         AnalyzeHostPoolModel mostIdleHost = null;
         try
         {
-            mostIdleHost = getAndUpdateAnalyzeHost(toolName, streamName, buildId, createFrom);
-        }
-        catch (Exception e)
-        {
-            log.error("get most idle host failed, try again later!", e);
-        }
-        finally
-        {
-            lock.release();
-        }
-        return mostIdleHost;
-    }
-
-    @Nullable
-    private AnalyzeHostPoolModel getAndUpdateAnalyzeHost(String toolName, String streamName, String buildId, String createFrom)
-    {
-        AnalyzeHostPoolModel mostIdleHost = null;
-        int maxIdle = 0;
-        Map<Object, Object> analyzeHostMap = redisTemplate.opsForHash().entries(RedisKeyConstants.KEY_ANALYZE_HOST);
-        for (Map.Entry<Object, Object> entry : analyzeHostMap.entrySet())
-        {
-            String analyzeHostStr = (String) entry.getValue();
-            AnalyzeHostPoolModel analyzeHostPoolModel = JsonUtil.INSTANCE.to(analyzeHostStr, AnalyzeHostPoolModel.class);
-            Set<String> supportTools = analyzeHostPoolModel.getSupportTools();
-            Set<String> supportTaskTypes = analyzeHostPoolModel.getSupportTaskTypes();
-
-            /*
-             *判断机器是否支持该来源的任务分析，以下情况支持:
-             * createFrom为空（默认就是来源于bs_codecc或者bs_pipeline），且机器的supportTaskTypes包含bs_codecc或者bs_pipeline
-             * createFrom不为空，且机器的supportTaskTypes包含该来源
-             */
-            boolean supportTaskType = false;
-            if (StringUtils.isEmpty(createFrom))
-            {
-                if (supportTaskTypes.contains(ComConstants.BsTaskCreateFrom.BS_PIPELINE.value())
-                        || supportTaskTypes.contains(ComConstants.BsTaskCreateFrom.BS_CODECC.value()))
-                {
-                    supportTaskType = true;
-                }
-            }
-            else if (supportTaskTypes.contains(createFrom))
+            String hostJson = redisTemplate.execute(SELECT_IDLE_HOST_SCRIPT,
+                    Collections.singletonList(RedisKeyConstants.KEY_ANALYZE_HOST),
+                    StringUtils.defaultString(pushVO.getToolName()),
+                    StringUtils.defaultString(pushVO.getCreateFrom()),
+                    StringUtils.defaultString(pushVO.getStreamName()),
+                    StringUtils.defaultString(pushVO.getBuildId()),
+                    ComConstants.BsTaskCreateFrom.BS_PIPELINE.value(),
+                    ComConstants.BsTaskCreateFrom.BS_CODECC.value());
+            if (StringUtils.isNotEmpty(hostJson))
             {
-                supportTaskType = true;
-            }
-
-            int idle = analyzeHostPoolModel.getIdle();
-            if (supportTaskType && supportTools.contains(toolName) && idle > 0)
-            {
-                if (idle > maxIdle)
-                {
-                    maxIdle = idle;
-                    mostIdleHost = analyzeHostPoolModel;
-                }
-                // 如果相等，则取当前空闲率（idle/pool）最高的机器
-                else if (idle == maxIdle)
-                {
-                    if (mostIdleHost == null)
-                    {
-                        mostIdleHost = analyzeHostPoolModel;
-                    }
-                    else
-                    {
-                        int currHostPool = analyzeHostPoolModel.getPool();
-                        int mostIdleHostPool = mostIdleHost.getPool();
-                        double currHostIdleRate = (double) idle / (double) currHostPool;
-                        double mostIdleHostIdleRate = (double) maxIdle / (double) mostIdleHostPool;
-                        if (currHostIdleRate > mostIdleHostIdleRate)
-                        {
-                            mostIdleHost = analyzeHostPoolModel;
-                        }
-                    }
-                }
+                mostIdleHost = JsonUtil.INSTANCE.to(hostJson, AnalyzeHostPoolModel.class);
             }
         }
-
-        if (mostIdleHost != null)
+        catch (Exception e)
         {
-            mostIdleHost.setIdle(maxIdle - 1);
-            List<AnalyzeHostPoolModel.AnalyzeJob> jobList = mostIdleHost.getJobList();
-            if (jobList == null)
-            {
-                jobList = new ArrayList<>();
-                mostIdleHost.setJobList(jobList);
-            }
-            jobList.add(new AnalyzeHostPoolModel.AnalyzeJob(streamName, toolName, buildId));
-            redisTemplate.opsForHash().put(RedisKeyConstants.KEY_ANALYZE_HOST, mostIdleHost.getIp(), JsonUtil.INSTANCE.toJson(mostIdleHost));
+            log.error("get most idle host failed, try again later!", e);
         }
         return mostIdleHost;
     }
@@ -195,52 +125,9 @@ public class AnalyzeHostPoolDao
     public boolean freeHostThread(String toolName, String streamName, String hostIp, String buildId)
     {
         log.info("begin freeHostThread: {}, {}, {}, {}", toolName, streamName, hostIp, buildId);
-        JRedisLock lock = new JRedisLock(redisTemplate, RedisKeyConstants.LOCK_HOST_POOL, JRedisLock.DEFAULT_ACQUIRE_TIMEOUT_MILLIS, EXPIRY_TIME_MILLIS);
-
-        if (!lock.acquire())
-        {
-            return false;
-        }
-
-        try
-        {
-            Object analyzeHostObj = redisTemplate.opsForHash().get(RedisKeyConstants.KEY_ANALYZE_HOST, hostIp);
-            if (analyzeHostObj != null)
-            {
-                AnalyzeHostPoolModel analyzeHostPoolModel = JsonUtil.INSTANCE.to((String) analyzeHostObj, AnalyzeHostPoolModel.class);
-
-                List<AnalyzeHostPoolModel.AnalyzeJob> jobList = analyzeHostPoolModel.getJobList();
-                if (CollectionUtils.isNotEmpty(jobList))
-                {
-                    Iterator<AnalyzeHostPoolModel.AnalyzeJob> it = jobList.iterator();
-                    boolean removeSuccess = false;
-                    while (it.hasNext())
-                    {
-                        AnalyzeHostPoolModel.AnalyzeJob analyzeJob = it.next();
-                        if (analyzeJob.getStreamName().equals(streamName) && analyzeJob.getToolName().equals(toolName) &&
-                                analyzeJob.getBuildId().equals(buildId))
-                        {
-                            it.remove();
-                            removeSuccess = true;
-                            break;
-                        }
-                    }
-                    if (removeSuccess)
-                    {
-                        analyzeHostPoolModel.setIdle(analyzeHostPoolModel.getIdle() + 1);
-                        redisTemplate.opsForHash().put(RedisKeyConstants.KEY_ANALYZE_HOST, hostIp, JsonUtil.INSTANCE.toJson(analyzeHostPoolModel));
-                    }
-                }
-            }
-        }
-        catch (Exception e)
-        {
-            log.error("free host thread failed!", e);
-        }
-        finally
-        {
-            lock.release();
-        }
+        Map<String, List<AnalyzeHostPoolModel.AnalyzeJob>> needFreeHostMap = new HashMap<>();
+        needFreeHostMap.put(hostIp, Collections.singletonList(new AnalyzeHostPoolModel.AnalyzeJob(streamName, toolName, buildId)));
+        executeFreeHostScript(needFreeHostMap);
         log.info("end freeHostThread: {}, {}, {}", toolName, streamName, hostIp);
         return true;
     }
@@ -272,65 +159,27 @@ public class AnalyzeHostPoolDao
     public boolean batchFreeHostThread(Map<String, List<AnalyzeHostPoolModel.AnalyzeJob>> needFreeHostMap)
     {
         log.info("begin batchFreeHostThread");
-        JRedisLock lock = new JRedisLock(redisTemplate, RedisKeyConstants.LOCK_HOST_POOL, JRedisLock.DEFAULT_ACQUIRE_TIMEOUT_MILLIS, EXPIRY_TIME_MILLIS);
-        if (!lock.acquire())
+        executeFreeHostScript(needFreeHostMap);
+        log.info("end batchFreeHostThread");
+        return true;
+    }
+
+    private void executeFreeHostScript(Map<String, List<AnalyzeHostPoolModel.AnalyzeJob>> needFreeHostMap)
+    {
+        if (needFreeHostMap == null || needFreeHostMap.isEmpty())
         {
-            return false;
+            return;
         }
-
         try
         {
-            Set<Object> keys = new HashSet<>(needFreeHostMap.keySet());
-            List<Object> res = redisTemplate.opsForHash().multiGet(RedisKeyConstants.KEY_ANALYZE_HOST, keys);
-
-            Map<String, String> updateHostMap = new HashMap<>();
-            res.forEach(analyzeHostObj ->
-            {
-                if (analyzeHostObj != null)
-                {
-                    AnalyzeHostPoolModel analyzeHostPoolModel = JsonUtil.INSTANCE.to((String) analyzeHostObj, AnalyzeHostPoolModel.class);
-                    List<AnalyzeHostPoolModel.AnalyzeJob> jobList = analyzeHostPoolModel.getJobList();
-                    if (CollectionUtils.isNotEmpty(jobList))
-                    {
-                        // 释放的线程数
-                        int freeThreadCount = 0;
-                        Iterator<AnalyzeHostPoolModel.AnalyzeJob> it = jobList.iterator();
-                        String hostIp = analyzeHostPoolModel.getIp();
-                        while (it.hasNext())
-                        {
-                            AnalyzeHostPoolModel.AnalyzeJob analyzeJob = it.next();
-                            List<AnalyzeHostPoolModel.AnalyzeJob> needFreeThreadList = needFreeHostMap.get(hostIp);
-                            for (AnalyzeHostPoolModel.AnalyzeJob needFreeJob : needFreeThreadList)
-                            {
-                                if (analyzeJob.getStreamName().equals(needFreeJob.getStreamName())
-                                        && analyzeJob.getToolName().equals(needFreeJob.getToolName())
-                                        && analyzeJob.getBuildId().equals(needFreeJob.getBuildId()))
-                                {
-                                    it.remove();
-                                    freeThreadCount++;
-                                    break;
-                                }
-                            }
-                        }
-                        if (freeThreadCount > 0)
-                        {
-                            analyzeHostPoolModel.setIdle(analyzeHostPoolModel.getIdle() + freeThreadCount);
-                            updateHostMap.put(hostIp, JsonUtil.INSTANCE.toJson(analyzeHostPoolModel));
-                        }
-                    }
-                }
-            });
-            redisTemplate.opsForHash().putAll(RedisKeyConstants.KEY_ANALYZE_HOST, updateHostMap);
+            Long freeCount = redisTemplate.execute(FREE_HOST_THREAD_SCRIPT,
+                    Collections.singletonList(RedisKeyConstants.KEY_ANALYZE_HOST),
+                    JsonUtil.INSTANCE.toJson(needFreeHostMap));
+            log.info("free host thread count: {}", freeCount);
         }
         catch (Exception e)
         {
             log.error("free host thread failed!", e);
         }
-        finally
-        {
-            lock.release();
-        }
-        log.info("end batchFreeHostThread");
-        return true;
     }
 }
@@ -42,4 +42,10 @@ public class BuildScheduleRestResourceImpl implements BuildScheduleRestResource
     {
         return new CodeCCResult<>(scheduleService.tailLog(streamName, toolName, buildId, beginLine));
     }
+
+    @Override
+    public CodeCCResult<TailLogRspVO> tailLogByOffset(String streamName, String toolName, String buildId, long beginOffset)
+    {
+        return new CodeCCResult<>(scheduleService.tailLogByOffset(streamName, toolName, buildId, beginOffset));
+    }
 }
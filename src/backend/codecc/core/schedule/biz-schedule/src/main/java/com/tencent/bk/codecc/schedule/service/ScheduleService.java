@@ -36,4 +36,15 @@ public interface ScheduleService
     void checkAnalyzeHostThreadAlive();
 
     TailLogRspVO tailLog(String streamName, String toolName, String buildId, long beginLine);
+
+    /**
+     * 从指定字节位置实时获取日志，返回内容只包含完整的行
+     *
+     * @param streamName
+     * @param toolName
+     * @param buildId
+     * @param beginOffset 起始字节位置，取上一次返回的nextOffset
+     * @return
+     */
+    TailLogRspVO tailLogByOffset(String streamName, String toolName, String buildId, long beginOffset);
 }
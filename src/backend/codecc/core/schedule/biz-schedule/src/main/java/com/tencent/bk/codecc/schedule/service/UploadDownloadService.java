@@ -39,5 +39,5 @@ public interface UploadDownloadService
 
     FileIndexVO getFileIndex(String fileName, String type);
 
-    Response download(String downloadType, String fileName);
+    Response download(String downloadType, String fileName, String range);
 }
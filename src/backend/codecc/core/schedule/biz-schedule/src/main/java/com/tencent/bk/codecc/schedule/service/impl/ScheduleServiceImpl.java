@@ -13,10 +13,13 @@
 package com.tencent.bk.codecc.schedule.service.impl;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.tencent.bk.codecc.schedule.constant.ScheduleConstants;
 import com.tencent.bk.codecc.schedule.dao.redis.AnalyzeHostPoolDao;
 import com.tencent.bk.codecc.schedule.model.AnalyzeHostPoolModel;
 import com.tencent.bk.codecc.schedule.service.ScheduleService;
+import com.tencent.bk.codecc.schedule.utils.LogLineIndex;
 import com.tencent.bk.codecc.schedule.vo.FreeVO;
 import com.tencent.bk.codecc.schedule.vo.PushVO;
 import com.tencent.bk.codecc.schedule.vo.TailLogRspVO;
@@ -33,13 +36,17 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 调度服务实现
@@ -51,6 +58,8 @@ import java.util.stream.Collectors;
 @Slf4j
 public class ScheduleServiceImpl implements ScheduleService
 {
+    private static final int LOG_READ_BUFFER_SIZE = 64 * 1024;
+
     @Autowired
     private RabbitTemplate rabbitTemplate;
 
@@ -60,6 +69,14 @@ public class ScheduleServiceImpl implements ScheduleService
     @Value("${result.log.path}")
     private String resultLogPath;
 
+    /**
+     * 日志文件路径 -> 稀疏行索引
+     */
+    private final Cache<String, LogLineIndex> logLineIndexCache = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterAccess(2, TimeUnit.HOURS)
+            .build();
+
     @Override
     public Boolean push(String streamName, String toolName, String buildId, String createFrom)
     {
@@ -181,71 +198,191 @@ public class ScheduleServiceImpl implements ScheduleService
         long beginTime = System.currentTimeMillis();
         log.info("begin tail log: {}, {}, {}, {}", streamName, toolName, buildId, beginLine);
         TailLogRspVO tailLogRspVO = new TailLogRspVO();
-        if (StringUtils.isEmpty(resultLogPath))
+        tailLogRspVO.setMaxLineNum(beginLine);
+        File logFile = getResultLogFile(streamName, toolName, buildId, tailLogRspVO);
+        if (logFile == null)
         {
-            log.error("result log path is empty");
-            tailLogRspVO.setContent("result log path is empty");
-            tailLogRspVO.setMaxLineNum(beginLine);
             return tailLogRspVO;
         }
-        String logFilePath = String.format("%s/%s_%s/%s.log", resultLogPath, streamName, toolName, buildId);
-        if (!new File(logFilePath).exists())
+        try
         {
-            log.error("{}不存在", logFilePath);
-            tailLogRspVO.setContent("result log has not upload");
+            // 从不超过起始行的最近检查点开始读，避免每次轮询都从文件头逐行跳过
+            Object fileKey = Files.readAttributes(logFile.toPath(), BasicFileAttributes.class).fileKey();
+            LogLineIndex lineIndex = logLineIndexCache.asMap()
+                    .computeIfAbsent(logFile.getAbsolutePath(), key -> new LogLineIndex(fileKey));
+            lineIndex.validate(fileKey, logFile.length());
+            long[] checkpoint = lineIndex.floor(beginLine);
+
+            long lineCount = readLogLines(logFile, checkpoint[1], checkpoint[0], beginLine - checkpoint[0],
+                    true, lineIndex, tailLogRspVO);
+            tailLogRspVO.setMaxLineNum(beginLine + lineCount);
+        }
+        catch (IOException e)
+        {
+            log.error("file [{}] doesn't exist or is not a file", logFile.getAbsolutePath(), e);
+            tailLogRspVO.setContent("log file is not exist.");
             tailLogRspVO.setMaxLineNum(beginLine);
             return tailLogRspVO;
         }
-        try (BufferedReader reader = Files.newBufferedReader(Paths.get(logFilePath)))
-        {
-            List<String> lines = reader.lines()
-                    .skip(beginLine).limit(ComConstants.COMMON_NUM_10000L)
-                    .collect(Collectors.toList());
+        log.info("end tail log cost: {}, {}", System.currentTimeMillis() - beginTime, buildId);
+        return tailLogRspVO;
+    }
 
-            StringBuffer buffer = new StringBuffer();
-            lines.forEach(line -> buffer.append(line).append("\n"));
-            tailLogRspVO.setContent(buffer.toString());
-            tailLogRspVO.setMaxLineNum(beginLine + lines.size());
+    @Override
+    public TailLogRspVO tailLogByOffset(String streamName, String toolName, String buildId, long beginOffset)
+    {
+        long beginTime = System.currentTimeMillis();
+        log.info("begin tail log by offset: {}, {}, {}, {}", streamName, toolName, buildId, beginOffset);
+        TailLogRspVO tailLogRspVO = new TailLogRspVO();
+        tailLogRspVO.setNextOffset(beginOffset);
+        File logFile = getResultLogFile(streamName, toolName, buildId, tailLogRspVO);
+        if (logFile == null)
+        {
+            return tailLogRspVO;
+        }
+        long offset = beginOffset;
+        if (offset < 0 || offset > logFile.length())
+        {
+            // 日志文件被重新上传后变小了，从头开始读
+            log.warn("tail log offset {} out of file length {}, restart from 0: {}", offset, logFile.length(), buildId);
+            offset = 0;
+        }
+        try
+        {
+            // 文件末尾未写完的行留到下次轮询再返回，保证nextOffset始终落在行首
+            readLogLines(logFile, offset, -1, 0, false, null, tailLogRspVO);
         }
         catch (IOException e)
         {
-            log.error("file [{}] doesn't exist or is not a file", logFilePath, e);
+            log.error("file [{}] doesn't exist or is not a file", logFile.getAbsolutePath(), e);
             tailLogRspVO.setContent("log file is not exist.");
-            tailLogRspVO.setMaxLineNum(beginLine);
+            tailLogRspVO.setNextOffset(beginOffset);
             return tailLogRspVO;
         }
-
-//        try (RandomAccessFile randomFile = new RandomAccessFile(logFilePath, "r"))
-//        {
-//            randomFile.seek(beginLine);
-//            StringBuffer buffer = new StringBuffer();
-//            int count = 0;
-//            String line;
-//            while ((line = randomFile.readLine()) != null && count < ComConstants.COMMON_NUM_10000L)
-//            {
-//                buffer.append(line).append("\n");
-//                count++;
-//            }
-//
-//            tailLogRspVO.setContent(buffer.toString());
-//            tailLogRspVO.setMaxLineNum(randomFile.getFilePointer());
-//        }
-//        catch (FileNotFoundException e)
-//        {
-//            log.error("file [{}] doesn't exist or is not a file", logFilePath, e);
-//            tailLogRspVO.setContent("log file is not exist.");
-//            tailLogRspVO.setMaxLineNum(beginLine);
-//            return tailLogRspVO;
-//        }
-//        catch (IOException e)
-//        {
-//            log.error("read log file fail: {}", logFilePath, e);
-//            tailLogRspVO.setContent("read log file fail: " + logFilePath);
-//            tailLogRspVO.setMaxLineNum(beginLine);
-//            return tailLogRspVO;
-//        }
-        log.info("end tail log cost: {}, {}", System.currentTimeMillis() - beginTime, buildId);
+        log.info("end tail log by offset cost: {}, {}", System.currentTimeMillis() - beginTime, buildId);
         return tailLogRspVO;
     }
 
+    /**
+     * 获取分析结果日志文件，不存在时把原因写入返回内容并返回null
+     *
+     * @param streamName
+     * @param toolName
+     * @param buildId
+     * @param tailLogRspVO
+     * @return
+     */
+    private File getResultLogFile(String streamName, String toolName, String buildId, TailLogRspVO tailLogRspVO)
+    {
+        if (StringUtils.isEmpty(resultLogPath))
+        {
+            log.error("result log path is empty");
+            tailLogRspVO.setContent("result log path is empty");
+            return null;
+        }
+        String logFilePath = String.format("%s/%s_%s/%s.log", resultLogPath, streamName, toolName, buildId);
+        File logFile = new File(logFilePath);
+        if (!logFile.exists())
+        {
+            log.error("{}不存在", logFilePath);
+            tailLogRspVO.setContent("result log has not upload");
+            return null;
+        }
+        return logFile;
+    }
+
+    /**
+     * 从行首字节位置开始读取日志，最多返回10000行
+     *
+     * @param logFile            日志文件
+     * @param beginOffset        起始字节位置，必须是行首
+     * @param beginLine          起始位置对应的行号，未知时传-1
+     * @param skipLines          先跳过的行数
+     * @param includePartialLine 是否返回文件末尾未写完的行
+     * @param lineIndex          读取过程中经过的检查点会记录到行索引中，可为null
+     * @param tailLogRspVO       写入日志内容和下一次读取的字节位置
+     * @return 返回的行数，不含跳过的行
+     * @throws IOException
+     */
+    private long readLogLines(File logFile, long beginOffset, long beginLine, long skipLines, boolean includePartialLine,
+                              LogLineIndex lineIndex, TailLogRspVO tailLogRspVO) throws IOException
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        int completeLength = 0;
+        long lineCount = 0;
+        long skipped = 0;
+        long line = beginLine;
+        // 当前行的行首位置
+        long lineOffset = beginOffset;
+        try (FileChannel fileChannel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(LOG_READ_BUFFER_SIZE);
+            byte[] bytes = buffer.array();
+            long position = beginOffset;
+            readLoop:
+            while (lineCount < ComConstants.COMMON_NUM_10000L)
+            {
+                buffer.clear();
+                int readSize = fileChannel.read(buffer, position);
+                if (readSize <= 0)
+                {
+                    break;
+                }
+                int segmentStart = 0;
+                for (int i = 0; i < readSize; i++)
+                {
+                    if (bytes[i] != '\n')
+                    {
+                        continue;
+                    }
+                    if (skipped < skipLines)
+                    {
+                        skipped++;
+                    }
+                    else
+                    {
+                        content.write(bytes, segmentStart, i + 1 - segmentStart);
+                        completeLength = content.size();
+                        lineCount++;
+                    }
+                    segmentStart = i + 1;
+                    lineOffset = position + i + 1;
+                    if (line >= 0)
+                    {
+                        line++;
+                        if (lineIndex != null)
+                        {
+                            lineIndex.record(line, lineOffset);
+                        }
+                    }
+                    if (lineCount >= ComConstants.COMMON_NUM_10000L)
+                    {
+                        break readLoop;
+                    }
+                }
+                // 跨越缓冲区的行先写入已读到的部分
+                if (skipped >= skipLines && segmentStart < readSize)
+                {
+                    content.write(bytes, segmentStart, readSize - segmentStart);
+                }
+                position += readSize;
+            }
+        }
+
+        byte[] contentBytes = content.toByteArray();
+        String text;
+        if (includePartialLine && contentBytes.length > completeLength)
+        {
+            text = new String(contentBytes, StandardCharsets.UTF_8) + "\n";
+            lineCount++;
+        }
+        else
+        {
+            text = new String(contentBytes, 0, completeLength, StandardCharsets.UTF_8);
+        }
+        tailLogRspVO.setContent(text);
+        tailLogRspVO.setNextOffset(lineOffset);
+        return lineCount;
+    }
+
 }
@@ -20,26 +20,41 @@ import com.tencent.bk.codecc.schedule.model.FileIndexEntity;
 import com.tencent.bk.codecc.schedule.service.UploadDownloadService;
 import com.tencent.bk.codecc.schedule.utils.ChunkUploadUtil;
 import com.tencent.bk.codecc.schedule.utils.FileLock;
+import com.tencent.bk.codecc.schedule.utils.FileRangeStreamingOutput;
 import com.tencent.bk.codecc.schedule.vo.*;
 import com.tencent.devops.common.api.exception.CodeCCException;
 import com.tencent.devops.common.constant.CommonMessageCode;
 import com.tencent.devops.common.util.MD5Utils;
+import com.tencent.devops.common.util.ThreadPoolUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import javax.ws.rs.core.StreamingOutput;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 
 /**
@@ -60,6 +75,24 @@ public class UploadDownloadServiceImpl implements UploadDownloadService
 
     private static final Map<String, String> FOLDER_MAP = createMap();
 
+    private static final String BYTES_UNIT = "bytes=";
+
+    private static final String ACCEPT_RANGES = "Accept-Ranges";
+
+    private static final String CONTENT_RANGE = "Content-Range";
+
+    private static final int REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
+    private static final String PART_FILE_SUFFIX = ".part";
+
+    private static final int MERGE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 合并分片的并发数
+     */
+    @Value("${codecc.schedule.merge.parallelism:4}")
+    private int mergeParallelism;
+
     private static Map<String, String> createMap()
     {
         Map<String, String> folderMap = new HashMap<>();
@@ -107,12 +140,25 @@ public class UploadDownloadServiceImpl implements UploadDownloadService
 
         int index;
         byte[] bytes = new byte[1024];
-        try (FileOutputStream fileOutputStream = new FileOutputStream(outFile))
+        try
         {
-            while ((index = fileInputStream.read(bytes)) != -1)
+            // 分片带有起始位置时直接写入合并中的文件，分片目录中只保留记录位置和长度的标记文件
+            if (uploadVO.getChunks() != null && uploadVO.getChunks() > 0 && uploadVO.getChunkOffset() != null)
+            {
+                File partFile = getPartFile(uploadFolder, fileBaseName);
+                long length = writeChunkAtOffset(fileInputStream, partFile, uploadVO.getChunkOffset());
+                FileUtils.writeStringToFile(outFile, String.format("%d:%d", uploadVO.getChunkOffset(), length), StandardCharsets.UTF_8);
+            }
+            else
             {
-                fileOutputStream.write(bytes, 0, index);
-                fileOutputStream.flush();
+                try (FileOutputStream fileOutputStream = new FileOutputStream(outFile))
+                {
+                    while ((index = fileInputStream.read(bytes)) != -1)
+                    {
+                        fileOutputStream.write(bytes, 0, index);
+                        fileOutputStream.flush();
+                    }
+                }
             }
         }
         catch (IOException e)
@@ -153,54 +199,152 @@ public class UploadDownloadServiceImpl implements UploadDownloadService
         log.info("chunkFileFolder={}", chunkFileFolder);
 
         int chunks = fileChunksMergeVO.getChunks();
+        File partFile = getPartFile(uploadFolder, fileBaseName);
 
-        int chunksNum = this.getChunksNum(chunkFileFolder);
-        log.info("chunks={}, chunksNum={}", chunks, chunksNum);
-        //检查是否满足合并条件：分片数量是否足够
-        if (chunks == chunksNum)
+        //同步指定合并的对象
+        Lock lock = FileLock.getLock(fileFolder);
+        lock.lock();
+        try
         {
-            //同步指定合并的对象
-            Lock lock = FileLock.getLock(fileFolder);
-            try
+            File[] chunkFileArr = this.getChunks(chunkFileFolder);
+            int chunksNum = chunkFileArr == null ? 0 : chunkFileArr.length;
+            log.info("chunks={}, chunksNum={}", chunks, chunksNum);
+            //检查是否满足合并条件：分片数量是否足够
+            if (chunks != chunksNum)
             {
-                lock.lock();
-                //检查是否满足合并条件：分片数量是否足够
-                List<File> files = new ArrayList<>(Arrays.asList(this.getChunks(chunkFileFolder)));
-                if (chunks == files.size())
-                {
-                    //按照文件分片的最后的块号排序文件
-                    files.sort(Comparator.comparing((file) -> getCompareChunkNo(file, fileBaseName)));
-
-                    merge(files, uploadFolder, fileBaseName);
-                }
+                log.error("数据分片合并失败, 入参分片数chunks={}不等于已上传的分片文件数chunksNum={}", chunks, chunksNum);
+                throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
             }
-            catch (Exception ex)
+
+            //按照文件分片的最后的块号排序文件
+            List<File> files = new ArrayList<>(Arrays.asList(chunkFileArr));
+            files.sort(Comparator.comparing((file) -> getCompareChunkNo(file, fileBaseName)));
+
+            File outputFile = new File(Paths.get(uploadFolder, fileBaseName).toString());
+            String md5;
+            if (partFile.exists())
             {
-                log.error("数据分片合并失败", ex);
+                // 分片上传时已经写入合并文件，只需校验后改名
+                md5 = finishPartFile(files, partFile, outputFile, StringUtils.isNotEmpty(fileChunksMergeVO.getContentMd5()));
             }
-            finally
+            else
             {
-                lock.unlock();
-
-                //清理分片临时文件夹
-                this.cleanChunkFileFolder(chunkFileFolder);
+                md5 = merge(files, uploadFolder, fileBaseName, StringUtils.isNotEmpty(fileChunksMergeVO.getContentMd5()));
+            }
 
-                //清理锁对象
-                FileLock.removeLock(fileFolder);
+            if (StringUtils.isNotEmpty(fileChunksMergeVO.getContentMd5()) && !fileChunksMergeVO.getContentMd5().equalsIgnoreCase(md5))
+            {
+                log.error("数据分片合并失败, 文件{}的MD5不一致, expect: {}, actual: {}", fileBaseName, fileChunksMergeVO.getContentMd5(), md5);
+                FileUtils.deleteQuietly(outputFile);
+                throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
             }
         }
-        else
+        catch (IOException | InterruptedException | ExecutionException ex)
         {
-            //清理分片临时文件夹
-            this.cleanChunkFileFolder(chunkFileFolder);
-            log.error("数据分片合并失败, 入参分片数chunks={}不等于已上传的分片文件数chunksNum={}", chunks, chunksNum);
+            log.error("数据分片合并失败", ex);
             throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
         }
+        finally
+        {
+            lock.unlock();
+
+            //清理分片临时文件夹和未完成的合并文件
+            this.cleanChunkFileFolder(chunkFileFolder);
+            FileUtils.deleteQuietly(partFile);
+
+            //清理锁对象
+            FileLock.removeLock(fileFolder);
+        }
 
         log.info("end chunksMerge cost: {}, {}", System.currentTimeMillis() - beginTime, fileChunksMergeVO);
         return true;
     }
 
+    /**
+     * 合并中的文件，分片带起始位置上传时直接写入该文件
+     */
+    private File getPartFile(String uploadFolder, String fileBaseName)
+    {
+        return new File(uploadFolder, fileBaseName + PART_FILE_SUFFIX);
+    }
+
+    /**
+     * 把分片内容写入合并文件的指定位置，多个分片可以并发写入
+     *
+     * @return 写入的字节数
+     */
+    private long writeChunkAtOffset(InputStream fileInputStream, File partFile, long offset) throws IOException
+    {
+        long position = offset;
+        ByteBuffer buffer = ByteBuffer.allocate(MERGE_BUFFER_SIZE);
+        try (FileChannel outChannel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             ReadableByteChannel inChannel = Channels.newChannel(fileInputStream))
+        {
+            while (inChannel.read(buffer) != -1)
+            {
+                buffer.flip();
+                while (buffer.hasRemaining())
+                {
+                    position += outChannel.write(buffer, position);
+                }
+                buffer.clear();
+            }
+        }
+        return position - offset;
+    }
+
+    /**
+     * 校验直接写入的分片是否首尾相接地覆盖整个文件，截掉残留的内容后改名为目标文件
+     *
+     * @return 需要校验时返回文件的MD5
+     */
+    private String finishPartFile(List<File> markerFiles, File partFile, File outputFile, boolean needMd5) throws IOException
+    {
+        List<long[]> ranges = new ArrayList<>(markerFiles.size());
+        for (File markerFile : markerFiles)
+        {
+            String[] range = FileUtils.readFileToString(markerFile, StandardCharsets.UTF_8).trim().split(":");
+            if (range.length != 2 || !StringUtils.isNumeric(range[0]) || !StringUtils.isNumeric(range[1]))
+            {
+                log.error("分片[{}]不是直接写入的分片", markerFile.getName());
+                throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
+            }
+            ranges.add(new long[]{Long.parseLong(range[0]), Long.parseLong(range[1])});
+        }
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        long expectOffset = 0;
+        for (long[] range : ranges)
+        {
+            if (range[0] != expectOffset)
+            {
+                log.error("分片不连续, 期望起始位置: {}, 实际起始位置: {}", expectOffset, range[0]);
+                throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
+            }
+            expectOffset += range[1];
+        }
+
+        try (FileChannel partChannel = FileChannel.open(partFile.toPath(), StandardOpenOption.WRITE))
+        {
+            partChannel.truncate(expectOffset);
+            partChannel.force(true);
+        }
+        if (outputFile.exists())
+        {
+            log.warn("文件[{}]已经存在，删除重新创建", outputFile.getAbsolutePath());
+            outputFile.delete();
+        }
+        Files.move(partFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        if (!needMd5)
+        {
+            return null;
+        }
+        try (InputStream inputStream = new FileInputStream(outputFile))
+        {
+            return DigestUtils.md5Hex(inputStream);
+        }
+    }
+
     @NotNull
     private int getCompareChunkNo(File file, String fileBaseName)
     {
@@ -252,67 +396,18 @@ public class UploadDownloadServiceImpl implements UploadDownloadService
         log.info("begin download: {}", downloadVO);
 
         String fileName = downloadVO.getFileName();
-        String downloadFolder;
-        if (ScheduleConstants.DownloadType.LAST_RESULT.name().equals(downloadVO.getDownloadType())
-                || ScheduleConstants.DownloadType.GATHER.name().equals(downloadVO.getDownloadType()))
-        {
-            // 获取文件索引
-            FileIndexVO fileIndexVO = getFileIndex(fileName, downloadVO.getDownloadType());
-            downloadFolder = fileIndexVO.getFileFolder();
-        }
-        else
-        {
-            downloadFolder = FOLDER_MAP.get(downloadVO.getDownloadType());
-        }
+        File target = getDownloadFile(downloadVO.getDownloadType(), fileName);
 
-        File target = new File(downloadFolder, fileName);
-        if (!target.exists())
-        {
-            log.error("{}不存在", target.getAbsolutePath());
-            throw new CodeCCException(DispatchMessageCode.FILE_NOT_EXISTS, new String[]{fileName}, null);
-        }
-
-        if (!target.isFile())
-        {
-            log.error("{}不是一个文件", target.getAbsolutePath());
-            throw new CodeCCException(DispatchMessageCode.NOT_A_FILE, new String[]{fileName}, null);
-        }
+        // 请求的区间超出文件大小时只输出到文件末尾
+        long fileSize = target.length();
+        long begin = Math.min(Math.max(downloadVO.getBeginIndex() == null ? 0L : downloadVO.getBeginIndex(), 0L), fileSize);
+        long length = Math.min(Math.max(downloadVO.getBtyeSize() == null ? 0L : downloadVO.getBtyeSize(), 0L), fileSize - begin);
 
-        // 一次读40960个字节，如果文件内容不足40960个字节，则读剩下的字节。
-        int bufSize = 40960;
-        Response response;
-
-        // 打开一个随机访问文件流，按只读方式
-        try
-        {
-            RandomAccessFile randomFile = new RandomAccessFile(target, "r");
-            // 将读文件的开始位置移到beginIndex位置。
-            randomFile.seek(downloadVO.getBeginIndex());
-            byte[] bytes = new byte[bufSize];
-
-            StreamingOutput fileStream = output ->
-            {
-                // 请求端传入的需要读取的字节数
-                long btyeSize = downloadVO.getBtyeSize();
-                int len;
-                while ((len = randomFile.read(bytes)) != -1 && btyeSize > 0)
-                {
-                    output.write(bytes, 0, len);
-                    output.flush();
-                    btyeSize -= bufSize;
-                }
-                output.close();
-            };
-            response = Response
-                    .ok(fileStream, MediaType.APPLICATION_OCTET_STREAM_TYPE)
-                    .header("content-disposition", "attachment; filename = " + target.getName())
-                    .build();
-        }
-        catch (IOException e)
-        {
-            log.error("下载文件[{}]异常：", target.getAbsolutePath(), e);
-            throw new CodeCCException(DispatchMessageCode.DOWNLOAD_FILE_ERR, new String[]{fileName}, null);
-        }
+        Response response = Response
+                .ok(new FileRangeStreamingOutput(target, begin, length), MediaType.APPLICATION_OCTET_STREAM_TYPE)
+                .header("content-disposition", "attachment; filename = " + target.getName())
+                .header(HttpHeaders.CONTENT_LENGTH, length)
+                .build();
 
         log.info("end download cost: {}, {}", System.currentTimeMillis() - beginTime, downloadVO);
         return response;
@@ -445,11 +540,60 @@ public class UploadDownloadServiceImpl implements UploadDownloadService
     }
 
     @Override
-    public Response download(String downloadType, String fileName)
+    public Response download(String downloadType, String fileName, String range)
     {
         long beginTime = System.currentTimeMillis();
-        log.info("begin download, downloadType: {}, fileName: {}", downloadType, fileName);
+        log.info("begin download, downloadType: {}, fileName: {}, range: {}", downloadType, fileName, range);
+
+        File target = getDownloadFile(downloadType, fileName);
+        long fileSize = target.length();
 
+        Response response;
+        long[] byteRange = parseRange(range, fileSize);
+        if (byteRange == null)
+        {
+            response = Response
+                    .ok(new FileRangeStreamingOutput(target, 0, fileSize), MediaType.APPLICATION_OCTET_STREAM_TYPE)
+                    .header("content-disposition", "attachment; filename = " + target.getName())
+                    .header(HttpHeaders.CONTENT_LENGTH, fileSize)
+                    .header(ACCEPT_RANGES, "bytes")
+                    .build();
+        }
+        else if (byteRange.length == 0)
+        {
+            log.warn("range not satisfiable, fileName: {}, range: {}, fileSize: {}", fileName, range, fileSize);
+            response = Response
+                    .status(REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(CONTENT_RANGE, "bytes */" + fileSize)
+                    .build();
+        }
+        else
+        {
+            long length = byteRange[1] - byteRange[0] + 1;
+            response = Response
+                    .status(Response.Status.PARTIAL_CONTENT)
+                    .entity(new FileRangeStreamingOutput(target, byteRange[0], length))
+                    .type(MediaType.APPLICATION_OCTET_STREAM_TYPE)
+                    .header("content-disposition", "attachment; filename = " + target.getName())
+                    .header(HttpHeaders.CONTENT_LENGTH, length)
+                    .header(ACCEPT_RANGES, "bytes")
+                    .header(CONTENT_RANGE, String.format("bytes %d-%d/%d", byteRange[0], byteRange[1], fileSize))
+                    .build();
+        }
+
+        log.info("end download cost: {}, downloadType: {}, fileName: {}", System.currentTimeMillis() - beginTime, downloadType, fileName);
+        return response;
+    }
+
+    /**
+     * 获取待下载的文件
+     *
+     * @param downloadType
+     * @param fileName
+     * @return
+     */
+    private File getDownloadFile(String downloadType, String fileName)
+    {
         String downloadFolder;
         if (ScheduleConstants.DownloadType.LAST_RESULT.name().equals(downloadType)
                 || ScheduleConstants.DownloadType.GATHER.name().equals(downloadType))
@@ -475,30 +619,63 @@ public class UploadDownloadServiceImpl implements UploadDownloadService
             log.error("{}不是一个文件", target.getAbsolutePath());
             throw new CodeCCException(DispatchMessageCode.NOT_A_FILE, new String[]{fileName}, null);
         }
+        return target;
+    }
 
-        // 一次读40960个字节，如果文件内容不足40960个字节，则读剩下的字节。
-        int bufSize = 40960;
-        Response response;
+    /**
+     * 解析HTTP Range请求头，只支持单个区间：bytes=start-end、bytes=start-、bytes=-suffixLength
+     *
+     * @param range
+     * @param fileSize
+     * @return 没有Range或者格式不支持时返回null，区间无法满足时返回空数组，否则返回[start, end]
+     */
+    private long[] parseRange(String range, long fileSize)
+    {
+        if (StringUtils.isBlank(range) || !range.trim().startsWith(BYTES_UNIT))
+        {
+            return null;
+        }
+        String spec = range.trim().substring(BYTES_UNIT.length()).trim();
+        int dashIndex = spec.indexOf('-');
+        if (spec.contains(",") || dashIndex < 0)
+        {
+            return null;
+        }
 
-        byte[] bytes = new byte[bufSize];
-        StreamingOutput fileStream = output ->
+        String startStr = spec.substring(0, dashIndex).trim();
+        String endStr = spec.substring(dashIndex + 1).trim();
+        long start;
+        long end;
+        try
         {
-            FileInputStream fileInputStream = new FileInputStream(target);
-            int len;
-            while ((len = fileInputStream.read(bytes)) != -1)
+            if (startStr.isEmpty())
             {
-                output.write(bytes, 0, len);
-                output.flush();
+                // 后缀区间，取文件最后suffixLength个字节
+                long suffixLength = Long.parseLong(endStr);
+                if (suffixLength <= 0)
+                {
+                    return new long[0];
+                }
+                start = Math.max(fileSize - suffixLength, 0);
+                end = fileSize - 1;
             }
-            output.close();
-        };
-        response = Response
-                .ok(fileStream, MediaType.APPLICATION_OCTET_STREAM_TYPE)
-                .header("content-disposition", "attachment; filename = " + target.getName())
-                .build();
+            else
+            {
+                start = Long.parseLong(startStr);
+                end = endStr.isEmpty() ? fileSize - 1 : Math.min(Long.parseLong(endStr), fileSize - 1);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            log.warn("invalid range: {}", range);
+            return null;
+        }
 
-        log.info("end download cost: {}, downloadType: {}, fileName: {}", System.currentTimeMillis() - beginTime, downloadType, fileName);
-        return response;
+        if (start < 0 || start >= fileSize || end < start)
+        {
+            return new long[0];
+        }
+        return new long[]{start, end};
     }
 
     private String getFileMd5(String fileName, File file)
@@ -517,7 +694,14 @@ public class UploadDownloadServiceImpl implements UploadDownloadService
         return md5;
     }
 
-    protected boolean merge(List<File> files, String path, String fileName) throws IOException
+    /**
+     * 并行合并分片：按分片大小计算各分片在目标文件中的位置，预分配目标文件后多个线程按位置写入，
+     * 需要校验时另起一个线程按顺序读取分片计算MD5，与写入同时进行
+     *
+     * @return 需要校验时返回文件的MD5
+     */
+    protected String merge(List<File> files, String path, String fileName, boolean needMd5)
+            throws IOException, InterruptedException, ExecutionException
     {
         //创建合并后的文件
         log.info("path={},fileName={}", path, fileName);
@@ -535,47 +719,94 @@ public class UploadDownloadServiceImpl implements UploadDownloadService
             throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
         }
 
-        try (FileChannel outChannel = new FileOutputStream(outputFile).getChannel())
+        long[] offsets = new long[files.size()];
+        long totalSize = 0;
+        for (int i = 0; i < files.size(); i++)
         {
-            //同步nio方式对分片进行合并, 有效的避免文件过大导致内存溢出
-            for (File file : files)
+            offsets[i] = totalSize;
+            totalSize += files.get(i).length();
+        }
+
+        Future<String> md5Future = needMd5 ? ThreadPoolUtil.addCallableTask(() -> md5OfFiles(files)) : null;
+        //多个线程从共享的下标中领取分片，按位置写入，写入时不改变通道的位置，互不影响
+        AtomicInteger nextIndex = new AtomicInteger();
+        List<Future<Boolean>> futures = new ArrayList<>();
+        try
+        {
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(outputFile, "rw");
+                 FileChannel outChannel = randomAccessFile.getChannel())
             {
-                try (FileChannel inChannel = new FileInputStream(file).getChannel())
-                {
-                    inChannel.transferTo(0, inChannel.size(), outChannel);
-                }
-                catch (FileNotFoundException ex)
+                randomAccessFile.setLength(totalSize);
+
+                int parallelism = Math.max(1, Math.min(mergeParallelism, files.size()));
+                for (int i = 0; i < parallelism; i++)
                 {
-                    log.error("文件转换失败", ex);
-                    throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
+                    futures.add(ThreadPoolUtil.addCallableTask(() ->
+                    {
+                        int index;
+                        while ((index = nextIndex.getAndIncrement()) < files.size())
+                        {
+                            transferChunk(files.get(index), outChannel, offsets[index]);
+                        }
+                        return true;
+                    }));
                 }
-                //删除分片
-                if (!file.delete())
+                for (Future<Boolean> future : futures)
                 {
-                    log.error("分片[{}]删除失败", file.getName());
+                    future.get();
                 }
+                outChannel.force(true);
             }
-            outChannel.force(true);
+            return md5Future == null ? null : md5Future.get();
         }
-        catch (FileNotFoundException e)
+        catch (IOException | InterruptedException | ExecutionException | RuntimeException e)
         {
-            log.error("文件输出失败", e);
-            throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
+            //任一分片失败时停止领取新分片，取消其他写入线程和MD5计算，删除不完整的文件
+            log.error("merge file [{}] fail, cancel the other chunks", outputFile.getAbsolutePath(), e);
+            nextIndex.set(files.size());
+            futures.forEach(future -> future.cancel(true));
+            if (md5Future != null)
+            {
+                md5Future.cancel(true);
+            }
+            if (outputFile.exists() && !outputFile.delete())
+            {
+                log.warn("delete incomplete file [{}] fail", outputFile.getAbsolutePath());
+            }
+            throw e;
         }
+    }
 
-        return true;
+    private void transferChunk(File chunkFile, FileChannel outChannel, long offset) throws IOException
+    {
+        try (FileChannel inChannel = FileChannel.open(chunkFile.toPath(), StandardOpenOption.READ))
+        {
+            long size = inChannel.size();
+            long transferred = 0;
+            while (transferred < size)
+            {
+                long count = outChannel.transferFrom(inChannel, offset + transferred, size - transferred);
+                if (count <= 0)
+                {
+                    log.error("分片[{}]写入不完整, 期望: {}, 实际: {}", chunkFile.getName(), size, transferred);
+                    throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
+                }
+                transferred += count;
+            }
+        }
     }
 
-    /**
-     * 获取指定文件的分片数量
-     *
-     * @param folder 文件夹路径
-     * @return
-     */
-    private int getChunksNum(String folder)
+    private String md5OfFiles(List<File> files) throws IOException
     {
-        File[] filesList = this.getChunks(folder);
-        return filesList == null ? 0 : filesList.length;
+        MessageDigest messageDigest = DigestUtils.getMd5Digest();
+        for (File file : files)
+        {
+            try (InputStream inputStream = new FileInputStream(file))
+            {
+                DigestUtils.updateDigest(messageDigest, inputStream);
+            }
+        }
+        return Hex.encodeHexString(messageDigest.digest());
     }
 
     /**
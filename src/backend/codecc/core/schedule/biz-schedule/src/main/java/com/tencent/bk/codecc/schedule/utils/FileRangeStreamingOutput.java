@@ -0,0 +1,71 @@
+package com.tencent.bk.codecc.schedule.utils;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 按区间输出文件内容
+ * 每次输出独立打开文件通道并按绝对位置transferTo，同一文件的多个区间可以并发下载，输出结束后关闭文件
+ *
+ * @version V1.0
+ * @date 2020/6/19
+ */
+public class FileRangeStreamingOutput implements StreamingOutput
+{
+    private final File file;
+
+    private final long beginIndex;
+
+    private final long length;
+
+    /**
+     * @param file       下载的文件
+     * @param beginIndex 起始位置
+     * @param length     输出的字节数，调用方需保证区间不超出文件大小
+     */
+    public FileRangeStreamingOutput(File file, long beginIndex, long length)
+    {
+        this.file = file;
+        this.beginIndex = beginIndex;
+        this.length = length;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException
+    {
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            WritableByteChannel outChannel = Channels.newChannel(output);
+            long position = beginIndex;
+            long remaining = length;
+            while (remaining > 0)
+            {
+                long transferred = fileChannel.transferTo(position, remaining, outChannel);
+                // 文件在下载过程中被截断
+                if (transferred <= 0)
+                {
+                    break;
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+            output.flush();
+        }
+    }
+
+    public long getBeginIndex()
+    {
+        return beginIndex;
+    }
+
+    public long getLength()
+    {
+        return length;
+    }
+}
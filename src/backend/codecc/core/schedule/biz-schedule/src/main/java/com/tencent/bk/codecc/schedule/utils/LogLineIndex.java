@@ -0,0 +1,84 @@
+package com.tencent.bk.codecc.schedule.utils;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * 日志文件的稀疏行索引
+ * 每隔固定行数记录一次行首的字节位置，按行号读日志时先定位到不超过该行的最近检查点，再向后跳过不足一个间隔的行，
+ * 检查点在顺序读日志的过程中逐步补充
+ *
+ * @version V1.0
+ * @date 2020/6/22
+ */
+public class LogLineIndex
+{
+    /**
+     * 检查点间隔行数
+     */
+    public static final int INTERVAL = 1000;
+
+    /**
+     * 第k个检查点为第 k * INTERVAL 行的行首字节位置
+     */
+    private long[] offsets = new long[16];
+
+    private int size = 1;
+
+    /**
+     * 建立索引时的文件标识，文件被替换后索引失效
+     */
+    private Object fileKey;
+
+    public LogLineIndex(Object fileKey)
+    {
+        this.fileKey = fileKey;
+    }
+
+    /**
+     * 校验索引是否仍然对应当前文件，文件被替换或截断时清空索引
+     *
+     * @param currentFileKey 当前文件标识
+     * @param fileLength     当前文件大小
+     */
+    public synchronized void validate(Object currentFileKey, long fileLength)
+    {
+        if (!Objects.equals(fileKey, currentFileKey) || offsets[size - 1] > fileLength)
+        {
+            fileKey = currentFileKey;
+            offsets = new long[16];
+            size = 1;
+        }
+    }
+
+    /**
+     * 获取不超过指定行的最近检查点
+     *
+     * @param line 行号，从0开始
+     * @return [检查点行号, 检查点字节位置]
+     */
+    public synchronized long[] floor(long line)
+    {
+        int k = (int) Math.min(line / INTERVAL, size - 1);
+        return new long[]{(long) k * INTERVAL, offsets[k]};
+    }
+
+    /**
+     * 记录行首位置，只有恰好是下一个检查点的行才会被记录
+     *
+     * @param line   行号，从0开始
+     * @param offset 该行行首的字节位置
+     */
+    public synchronized void record(long line, long offset)
+    {
+        if (line % INTERVAL != 0 || line / INTERVAL != size)
+        {
+            return;
+        }
+        if (size == offsets.length)
+        {
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        offsets[size++] = offset;
+    }
+}
@@ -0,0 +1,43 @@
+-- 原子地释放分析机器上的线程
+-- KEYS[1]: 分析机器hash
+-- ARGV[1]: 待释放的任务json，格式为 {"机器ip": [{"streamName": "", "toolName": "", "buildId": ""}]}
+-- 返回释放的线程总数
+
+local function encode(host)
+    for _, field in ipairs({ 'supportTools', 'supportTaskTypes', 'jobList' }) do
+        if type(host[field]) == 'table' and next(host[field]) == nil then
+            host[field] = '__EMPTY_ARRAY__'
+        end
+    end
+    return (string.gsub(cjson.encode(host), '"__EMPTY_ARRAY__"', '[]'))
+end
+
+local needFreeHostMap = cjson.decode(ARGV[1])
+local totalFreeCount = 0
+for hostIp, needFreeJobs in pairs(needFreeHostMap) do
+    local hostStr = redis.call('HGET', KEYS[1], hostIp)
+    if hostStr then
+        local host = cjson.decode(hostStr)
+        local jobList = host['jobList']
+        if type(jobList) == 'table' then
+            local freeCount = 0
+            for _, needFreeJob in ipairs(needFreeJobs) do
+                for i = 1, #jobList do
+                    local job = jobList[i]
+                    if job['streamName'] == needFreeJob['streamName'] and job['toolName'] == needFreeJob['toolName']
+                            and job['buildId'] == needFreeJob['buildId'] then
+                        table.remove(jobList, i)
+                        freeCount = freeCount + 1
+                        break
+                    end
+                end
+            end
+            if freeCount > 0 then
+                host['idle'] = (tonumber(host['idle']) or 0) + freeCount
+                redis.call('HSET', KEYS[1], hostIp, encode(host))
+                totalFreeCount = totalFreeCount + freeCount
+            end
+        end
+    end
+end
+return totalFreeCount
@@ -0,0 +1,67 @@
+-- 原子地挑选空闲线程数最多的分析机器，并占用一个线程
+-- KEYS[1]: 分析机器hash
+-- ARGV[1]: 工具名  ARGV[2]: 任务来源(为空表示默认来源)  ARGV[3]: 流名称  ARGV[4]: 构建ID
+-- ARGV[5], ARGV[6]: 默认来源对应的任务类型
+-- 返回占用线程后的机器信息json，没有可用机器时返回nil
+
+local function contains(list, value)
+    if type(list) ~= 'table' then
+        return false
+    end
+    for _, v in ipairs(list) do
+        if v == value then
+            return true
+        end
+    end
+    return false
+end
+
+-- cjson会把空数组编码成{}，先替换为占位符，编码后再还原为[]
+local function encode(host)
+    for _, field in ipairs({ 'supportTools', 'supportTaskTypes', 'jobList' }) do
+        if type(host[field]) == 'table' and next(host[field]) == nil then
+            host[field] = '__EMPTY_ARRAY__'
+        end
+    end
+    return (string.gsub(cjson.encode(host), '"__EMPTY_ARRAY__"', '[]'))
+end
+
+local toolName = ARGV[1]
+local createFrom = ARGV[2]
+local entries = redis.call('HGETALL', KEYS[1])
+local mostIdleHost = nil
+local maxIdle = 0
+for i = 2, #entries, 2 do
+    local host = cjson.decode(entries[i])
+    local supportTaskTypes = host['supportTaskTypes']
+    local supportTaskType
+    if createFrom == '' then
+        supportTaskType = contains(supportTaskTypes, ARGV[5]) or contains(supportTaskTypes, ARGV[6])
+    else
+        supportTaskType = contains(supportTaskTypes, createFrom)
+    end
+
+    local idle = tonumber(host['idle']) or 0
+    if supportTaskType and idle > 0 and contains(host['supportTools'], toolName) then
+        if idle > maxIdle then
+            maxIdle = idle
+            mostIdleHost = host
+        -- 如果相等，则取当前空闲率（idle/pool）最高的机器
+        elseif idle == maxIdle and idle / host['pool'] > maxIdle / mostIdleHost['pool'] then
+            mostIdleHost = host
+        end
+    end
+end
+
+if mostIdleHost == nil then
+    return nil
+end
+
+mostIdleHost['idle'] = maxIdle - 1
+if type(mostIdleHost['jobList']) ~= 'table' then
+    mostIdleHost['jobList'] = {}
+end
+table.insert(mostIdleHost['jobList'], { streamName = ARGV[3], toolName = toolName, buildId = ARGV[4] })
+local hostJson = encode(mostIdleHost)
+redis.call('HSET', KEYS[1], mostIdleHost['ip'], hostJson)
+return hostJson
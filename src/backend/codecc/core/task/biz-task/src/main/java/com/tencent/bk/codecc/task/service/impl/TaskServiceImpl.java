@@ -2294,8 +2294,6 @@ public class TaskServiceImpl implements TaskService
         {
             sortType = Sort.Direction.DESC.name();
         }
-        ListSortUtil.sort(tasks, sortField, sortType);
-
         int totalPageNum = 0;
         int total = tasks.size();
         pageNum = pageNum - 1 < 0 ? 0 : pageNum - 1;
@@ -2305,13 +2303,7 @@ public class TaskServiceImpl implements TaskService
             totalPageNum = (total + pageSize - 1) / pageSize;
         }
 
-        int subListBeginIdx = pageNum * pageSize;
-        int subListEndIdx = subListBeginIdx + pageSize;
-        if (subListBeginIdx > total)
-        {
-            subListBeginIdx = 0;
-        }
-        List<TaskInfoVO> taskInfoVoList = tasks.subList(subListBeginIdx, subListEndIdx > total ? total : subListEndIdx);
+        List<TaskInfoVO> taskInfoVoList = ListSortUtil.sortAndPage(tasks, sortField, sortType, pageNum, pageSize);
 
         return new Page<>(total, pageNum == 0 ? 1 : pageNum, pageSize, totalPageNum, taskInfoVoList);
     }